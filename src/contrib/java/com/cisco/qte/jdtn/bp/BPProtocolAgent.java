@@ -32,8 +32,7 @@ package com.cisco.qte.jdtn.bp;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +56,7 @@ import com.cisco.qte.jdtn.events.RestoreBundlesEvent;
 import com.cisco.qte.jdtn.general.GeneralManagement;
 import com.cisco.qte.jdtn.general.JDtnException;
 import com.cisco.qte.jdtn.general.Management;
+import com.cisco.qte.jdtn.general.WheelTimer;
 import com.cisco.qte.jdtn.ltp.CancelSegment;
 import com.cisco.qte.jdtn.ltp.LtpApi;
 import com.cisco.qte.jdtn.ltp.LtpException;
@@ -102,7 +102,7 @@ implements BundleHoldCallback {
 	private BundleOptions adminRecBundleOptions =
 		new BundleOptions(BundleColor.RED);
 
-	private Timer _timer = null;
+	private WheelTimer _timer = null;
 	
 	/**
 	 * Get singleton instance
@@ -132,7 +132,7 @@ implements BundleHoldCallback {
 	protected void startImpl() {
 		BPManagement.getInstance()._bpStats.nRetainedBytes = 0L;
 		BPFragmentation.getInstance().startup();
-		_timer = new Timer();
+		_timer = new WheelTimer();
 		super.startImpl();
 	}
 	
@@ -145,7 +145,6 @@ implements BundleHoldCallback {
 			_logger.fine("shutdown");
 		}
 		
-		_timer.purge();
 		_timer.cancel();
 		_timer = null;
 		
@@ -281,12 +280,12 @@ implements BundleHoldCallback {
 	 * Called from BundleHolder when a Bundle has spent required delay on
 	 * hold and must now be processed
 	 * @param bundle Affected Bundle
-	 * @throws InterruptedException If interrupt occurs when enqueueing.
+	 * @return False if the event queue is full
 	 */
-	protected void onPostBundleHold(Bundle bundle) throws InterruptedException {
+	protected boolean onPostBundleHold(Bundle bundle) {
 		PostBundleHoldEvent event =
 			new PostBundleHoldEvent(bundle);
-		processEvent(event);
+		return offerEvent(event);
 	}
 	
 	/**
@@ -1212,22 +1211,14 @@ implements BundleHoldCallback {
 			_logger.fine("startBundleTimer");
 		}
 		bundle.setBundleTimerTask(
-			new TimerTask() {
-				@Override
-				public void run() {
-					BundleTimerExpiredEvent event =
-						new BundleTimerExpiredEvent(bundle);
-					try {
-						processEvent(event);
-					} catch (InterruptedException e) {
-						if (GeneralManagement.isDebugLogging()) {
-							_logger.fine("Interrupted processing BundleTimer expiration");
-						}
+			_timer.scheduleHandOff(
+				new BooleanSupplier() {
+					@Override
+					public boolean getAsBoolean() {
+						return offerEvent(new BundleTimerExpiredEvent(bundle));
 					}
-				}
-			}
-		);
-		_timer.schedule(bundle.getBundleTimerTask(), bundle.getExpirationDate());
+				},
+				bundle.getExpirationDate()));
 	}
 	
 	/**
@@ -1240,7 +1231,6 @@ implements BundleHoldCallback {
 		}
 		if (bundle.getBundleTimerTask() != null) {
 			bundle.getBundleTimerTask().cancel();
-			_timer.purge();
 			bundle.setBundleTimerTask(null);
 		}
 	}
@@ -1301,20 +1291,14 @@ implements BundleHoldCallback {
 		}
 		
 		bundle.setCustodyTransferTimerTask(
-			new TimerTask() {
-				@Override
-				public void run() {
-					BundleCustodyTransferTimerExpiredEvent event =
-						new BundleCustodyTransferTimerExpiredEvent(bundle);
-					try {
-						processEvent(event);
-					} catch (InterruptedException e) {
-						_logger.severe("Interrupted");
+			_timer.scheduleHandOff(
+				new BooleanSupplier() {
+					@Override
+					public boolean getAsBoolean() {
+						return offerEvent(new BundleCustodyTransferTimerExpiredEvent(bundle));
 					}
-				}
-			}
-		);
-		_timer.schedule(bundle.getCustodyTransferTimerTask(), route.getRoundTripTime());
+				},
+				route.getRoundTripTime()));
 		
 	}
 	
@@ -1328,7 +1312,6 @@ implements BundleHoldCallback {
 		}
 		if (bundle.getCustodyTransferTimerTask() != null) {
 			bundle.getCustodyTransferTimerTask().cancel();
-			_timer.purge();
 			bundle.setCustodyTransferTimerTask(null);
 		}
 	}
@@ -2844,12 +2827,8 @@ implements BundleHoldCallback {
 	 * @see com.cisco.qte.jdtn.bp.BundleHolder.BundleHoldCallback#notifyBundleHoldDone(com.cisco.qte.jdtn.bp.Bundle)
 	 */
 	@Override
-	public void notifyBundleHoldDone(Bundle bundle) {
-		try {
-			onPostBundleHold(bundle);
-		} catch (InterruptedException e) {
-			// Ignore
-		}
+	public boolean notifyBundleHoldDone(Bundle bundle) {
+		return onPostBundleHold(bundle);
 	}
 	
 	/**
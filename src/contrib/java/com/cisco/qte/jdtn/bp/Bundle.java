@@ -33,7 +33,6 @@ import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 import com.cisco.qte.jdtn.bp.EidScheme;
@@ -42,6 +41,7 @@ import com.cisco.qte.jdtn.general.DecodeState;
 import com.cisco.qte.jdtn.general.EncodeState;
 import com.cisco.qte.jdtn.general.JDtnException;
 import com.cisco.qte.jdtn.general.Link;
+import com.cisco.qte.jdtn.general.WheelTimer;
 
 /**
  * Superclass for Inbound and Outbound Bundles.
@@ -79,9 +79,9 @@ implements Iterable<BundleBlock> {
 		new ArrayList<BundleBlock>();
 
 	/** Bundle lifetime timer */
-	protected TimerTask _bundleTimerTask;
+	protected WheelTimer.Task _bundleTimerTask;
 	/** Custody transfer timer */
-	protected TimerTask _custodyTransferTimerTask;
+	protected WheelTimer.Task _custodyTransferTimerTask;
 	
 	// Whether this is an Inbound Bundle
 	private boolean _inboundBundle;
@@ -538,19 +538,19 @@ implements Iterable<BundleBlock> {
 		this._link = link;
 	}
 
-	public TimerTask getBundleTimerTask() {
+	public WheelTimer.Task getBundleTimerTask() {
 		return _bundleTimerTask;
 	}
 
-	public void setBundleTimerTask(TimerTask bundleTimerTask) {
+	public void setBundleTimerTask(WheelTimer.Task bundleTimerTask) {
 		this._bundleTimerTask = bundleTimerTask;
 	}
 
-	public TimerTask getCustodyTransferTimerTask() {
+	public WheelTimer.Task getCustodyTransferTimerTask() {
 		return _custodyTransferTimerTask;
 	}
 
-	public void setCustodyTransferTimerTask(TimerTask custodyTransferTimerTask) {
+	public void setCustodyTransferTimerTask(WheelTimer.Task custodyTransferTimerTask) {
 		this._custodyTransferTimerTask = custodyTransferTimerTask;
 	}
 	
@@ -31,11 +31,11 @@ package com.cisco.qte.jdtn.bp;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
 
 import com.cisco.qte.jdtn.general.GeneralManagement;
+import com.cisco.qte.jdtn.general.WheelTimer;
 
 /**
  * A mechanism which holds Bundles for a specified delay period, or until
@@ -52,7 +52,7 @@ public class BundleHolder {
 	public HashMap<Bundle, BundleHoldTuple> _bundleHashMap =
 		new HashMap<Bundle, BundleHoldTuple>();
 	
-	private Timer _timer = null;
+	private WheelTimer _timer = null;
 	
 	/**
 	 * Get singleton instance
@@ -83,7 +83,7 @@ public class BundleHolder {
 		}
 		_holdList.clear();
 		_bundleHashMap.clear();
-		_timer = new Timer();
+		_timer = new WheelTimer();
 	}
 	
 	/**
@@ -98,7 +98,6 @@ public class BundleHolder {
 				"stop() called but already stopped");
 		}
 		_timer.cancel();
-		_timer.purge();
 		_timer = null;
 		while (!_holdList.isEmpty()) {
 			BundleHoldTuple tuple = _holdList.remove(0);
@@ -141,25 +140,30 @@ public class BundleHolder {
 		_holdList.add(tuple);
 		_bundleHashMap.put(bundle, tuple);
 		
-		tuple.timerTask =
-			new TimerTask() {
+		tuple.timerTask = _timer.scheduleHandOff(
+			new BooleanSupplier() {
+				// Released from hold once, however often the callback refuses
+				private boolean _released = false;
 
-			@Override
-			public void run() {
-				synchronized (BundleHolder.getInstance()) {
-					if (GeneralManagement.isDebugLogging()) {
-						_logger.fine("BundleHolder.TimerTask: Bundle " + 
-								tuple.bundle.getBundleId());
+				@Override
+				public boolean getAsBoolean() {
+					synchronized (BundleHolder.getInstance()) {
+						if (!_released) {
+							if (GeneralManagement.isDebugLogging()) {
+								_logger.fine("BundleHolder.TimerTask: Bundle " + 
+										tuple.bundle.getBundleId());
+							}
+							tuple.bundle.removeRetentionConstraint(
+								Bundle.RETENTION_CONSTRAINT_DELAY_HOLD);
+							_holdList.remove(tuple);
+							_bundleHashMap.remove(tuple.bundle);
+							_released = true;
+						}
+						return tuple.callback.notifyBundleHoldDone(tuple.bundle);
 					}
-					tuple.bundle.removeRetentionConstraint(
-						Bundle.RETENTION_CONSTRAINT_DELAY_HOLD);
-					_holdList.remove(tuple);
-					_bundleHashMap.remove(tuple.bundle);
-					tuple.callback.notifyBundleHoldDone(tuple.bundle);
 				}
-			}
-		};
-		_timer.schedule(tuple.timerTask, delay);
+			},
+			delay);
 		return true;
 	}
 	
@@ -213,7 +217,7 @@ public class BundleHolder {
 	
 	/**
 	 * A tuple class to hold the Bundle being held, it's delay, the callback
-	 * when hold is done, and the TimerTask timing the delay.
+	 * when hold is done, and the Task timing the delay.
 	 */
 	public class BundleHoldTuple {
 		/** Bundle being held */
@@ -222,8 +226,8 @@ public class BundleHolder {
 		public long delay;
 		/** Whom to callback when hold expires or is cancelled */
 		public BundleHoldCallback callback;
-		/** TimerTask timing the delay */
-		public TimerTask timerTask;
+		/** Task timing the delay */
+		public WheelTimer.Task timerTask;
 		
 		/**
 		 * Overridden to make 'bundle' the only field compared
@@ -253,9 +257,12 @@ public class BundleHolder {
 	public interface BundleHoldCallback {
 		/**
 		 * Specified delay has expired, Bundle has been removed from delay hold.
+		 * Called on the timer thread, so must not block.
 		 * @param bundle Affected Bundle.
+		 * @return False if the notification can't be taken now; it's made
+		 * again a timer tick later
 		 */
-		public void notifyBundleHoldDone(Bundle bundle);
+		public boolean notifyBundleHoldDone(Bundle bundle);
 		
 		/**
 		 * Delay hold has been cancelled for a Bundle
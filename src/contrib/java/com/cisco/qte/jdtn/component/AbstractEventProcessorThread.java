@@ -146,6 +146,31 @@ implements Runnable {
 		_eventQueue.put(event);
 	}
 	
+	/**
+	 * Enqueue an Event to the event processing Thread if there is room,
+	 * without waiting for it; for callers that must not block, such as
+	 * WheelTimer hand offs.
+	 * @param event The Event to enqueue.  Must be non-null.
+	 * @return False if the ArrayBlockingQueue is full
+	 * @throws IllegalArgumentException if event is null.
+	 * @throws IllegalStateException if event process has not been started.
+	 */
+	public boolean offerEvent(IEvent event)
+	throws IllegalArgumentException, IllegalStateException {
+		if (event == null) {
+			throw new IllegalArgumentException("Null 'event' argument");
+		}
+		if (!(event instanceof StopEvent) && !isStarted()) {
+			throw new IllegalStateException(
+					"Event Processor " + getName() + " has not been started");
+		}
+		if (!_eventQueue.offer(event)) {
+			return false;
+		}
+		nEnqueues++;
+		return true;
+	}
+	
 	/**
 	 * Event processing thread.  Receives each enqueued event, and calls
 	 * sub-class defined method to process the event.
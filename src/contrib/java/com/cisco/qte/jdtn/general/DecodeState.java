@@ -31,6 +31,7 @@ package com.cisco.qte.jdtn.general;
 
 import com.cisco.qte.jdtn.apps.MediaRepository;
 import org.kritikal.fabric.contrib.jdtn.BlobAndBundleDatabase;
+import org.kritikal.fabric.contrib.jdtn.LargeObjectReader;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,8 +59,10 @@ public class DecodeState {
 	public long _fileOffset;
 	/** isInFile==true; Length of the File */
 	public long _fileLength;
-	/** isInFile==true; the open File */
+	/** isInFile==true; the open File, when decoding from a stream */
 	public InputStream _fis;
+	/** isInFile==true; the open File, when decoding from the store */
+	private LargeObjectReader _reader;
 	
 	/**
 	 * Constructor which fills in all members from arguments for an
@@ -78,24 +81,26 @@ public class DecodeState {
 	 * in-file buffer.
 	 * @param aFilePath Path of the file containining the data to decode
 	 * @param aOffset Initial offset into File
-	 * @param aLength Length of File to decode.  Must be known, we use a
-	 * RandomAccessFile and there's no way to detect EOF.
-	 * @throws IOException if cannot open the file or seek to initial Offset.
+	 * @param aLength Length of File to decode.  Must be known, reads are
+	 * positioned and there's no way to detect EOF.
+	 * @throws JDtnException never; the File is opened on the first read.
 	 */
 	public DecodeState(MediaRepository.File aFilePath, long aOffset, long aLength)
 	throws JDtnException {
+		this(aFilePath, new LargeObjectReader(aFilePath), aOffset, aLength);
+	}
+	
+	/**
+	 * Constructor for an in-file buffer read through the given reader
+	 * @param aFilePath Path of the file containining the data to decode
+	 * @param aReader Reader of the File, closed by close()
+	 * @param aOffset Initial offset into File
+	 * @param aLength Length of File to decode
+	 */
+	DecodeState(MediaRepository.File aFilePath, LargeObjectReader aReader, long aOffset, long aLength) {
 		storeInFileParameters(aFilePath, aOffset, aLength);
 		this._isInFile = true;
-
-		throw new Error("Not implemented.");/*
-		try {
-			_fis = new FileInputStream(aFilePath);
-			if (_fileOffset != 0) {
-				_fis.skip(_fileOffset);
-			}
-		} catch (IOException e) {
-			throw new JDtnException(e);
-		}*/
+		_reader = aReader;
 	}
 
 	/**
@@ -134,15 +139,9 @@ public class DecodeState {
 		storeInMemoryParameters(aBuffer, aOffset, aLength);
 		storeInFileParameters(aFilePath, aFileOffset, aFileLength);
 		this._isInFile = aIsInFile;
-		throw new Error("Not implemented.");
-		/*
 		if (aIsInFile) {
-			_fis = new FileInputStream(aFilePath);
-			if (aFileOffset != 0) {
-				_fis.skip(aFileOffset);
-			}
+			_reader = new LargeObjectReader(aFilePath);
 		}
-		*/
 	}
 	
 	/**
@@ -155,6 +154,10 @@ public class DecodeState {
 		
 		// If data in file, close the RandomAccessFile we have open.
 		if (_isInFile) {
+			if (_reader != null) {
+				_reader.close();
+				_reader = null;
+			}
 			try {
 				if (_fis != null) {
 					_fis.close();
@@ -196,10 +199,14 @@ public class DecodeState {
 				throw new JDtnException("Trying to decode past end of file");
 			}
 			try {
+				int result = (_reader != null) ? _reader.read(_fileOffset) : _fis.read();
+				if (result < 0) {
+					throw new JDtnException("EOF detected while decoding");
+				}
 				_fileOffset++;
-				return _fis.read();
+				return result;
 				
-			} catch (IOException e) {
+			} catch (IOException | SQLException e) {
 				throw new JDtnException(e);
 			}
 		} else {
@@ -303,26 +310,7 @@ public class DecodeState {
 			if (!isValidOffset(_fileOffset + length - 1) ){
 				throw new JDtnException("Operation would read past end of file");
 			}
-			try {
-				int offset = 0;
-				int remainingLength = length;
-				while (remainingLength > 0) {
-					int nRead = _fis.read(result, offset, remainingLength);
-					if (nRead < 0) {
-						throw new JDtnException("EOF detected while decoding");
-						
-					} else if (nRead == 0) {
-						throw new JDtnException("0 bytes read");
-						
-					} else {
-						remainingLength -= nRead;
-						offset += nRead;
-					}
-				}
-			} catch (IOException e) {
-				throw new JDtnException(e);
-			}
-			_fileOffset += length;
+			readFromFile(result, 0, length);
 			
 		} else {
 			if (!isValidOffset(_memOffset + length - 1)) {
@@ -342,43 +330,65 @@ public class DecodeState {
 	 * @throws JDtnException on various errors
 	 */
 	public void spillToFile(MediaRepository.File file, long length) throws JDtnException {
-		throw new Error("Not implemented.");
-		/*
-		FileOutputStream fos = null;
-		byte[] buffer = new byte[4096];
+		if (length < 0 || length > remainingLength()) {
+			throw new JDtnException("Operation would spill past end of data");
+		}
+		java.sql.Connection con = BlobAndBundleDatabase.getInstance().getInterface().createConnection();
 		try {
+			EncodeState encodeState = new EncodeState(con, file);
 			if (_isInFile) {
-				// Spill from this File to given File
-				fos = new FileOutputStream(file);
+				// Spill from this File to given File a block at a time
+				byte[] buffer = new byte[(int)Math.min(GeneralManagement.getFileBufferSize(), length)];
 				while (length > 0) {
-					int nRead = _fis.read(buffer);
-					if (nRead > 0) {
-						fos.write(buffer, 0, nRead);
-						length -= nRead;
-					} else {
-						throw new JDtnException("Asked for 4096 bytes but read returned " + nRead);
-					}
+					int n = (int)Math.min(buffer.length, length);
+					readFromFile(buffer, 0, n);
+					encodeState.append(buffer, 0, n);
+					length -= n;
 				}
-				
 			} else {
 				// Spill from in-memory buffer to File
-				fos = new FileOutputStream(file);
-				fos.write(_memBuffer, _memOffset, (int)length);
+				encodeState.append(_memBuffer, _memOffset, (int)length);
+				_memOffset += (int)length;
 			}
-			
-		} catch (IOException e) {
-			throw new JDtnException("spillToFile " + file.getAbsolutePath());
-			
-		} finally {
-			if (fos != null) {
-				try {
-					fos.close();
-				} catch (IOException e) {
-					// Ignore
+			encodeState.close();
+			try { con.commit(); } catch (SQLException e) {
+				throw new JDtnException("spillToFile " + file.getAbsolutePath(), e);
+			}
+		}
+		finally {
+			try { con.close(); } catch (SQLException ignore) { }
+		}
+	}
+	
+	/**
+	 * Read length bytes of in-file data at the current offset, advancing it.
+	 */
+	private void readFromFile(byte[] result, int offset, int length) throws JDtnException {
+		try {
+			if (_reader != null) {
+				if (_reader.read(_fileOffset, result, offset, length) != length) {
+					throw new JDtnException("EOF detected while decoding");
+				}
+			} else {
+				int remainingLength = length;
+				while (remainingLength > 0) {
+					int nRead = _fis.read(result, offset, remainingLength);
+					if (nRead < 0) {
+						throw new JDtnException("EOF detected while decoding");
+						
+					} else if (nRead == 0) {
+						throw new JDtnException("0 bytes read");
+						
+					} else {
+						remainingLength -= nRead;
+						offset += nRead;
+					}
 				}
 			}
+		} catch (IOException | SQLException e) {
+			throw new JDtnException(e);
 		}
-		*/
+		_fileOffset += length;
 	}
 	
 	@Override
@@ -49,11 +49,6 @@ import java.util.logging.Logger;
  * to a File.
  */
 public class EncodeState {
-	/**
-	 * 
-	 */
-	private static final int APPEND_BUFFER_LENGTH = 4096;
-
 	@SuppressWarnings("unused")
 	private static final Logger _logger =
 		Logger.getLogger(EncodeState.class.getCanonicalName());
@@ -62,9 +57,14 @@ public class EncodeState {
 	public boolean isEncodingToFile = false;
 	/** If encoding to file, the File we're encoding to */
 	public MediaRepository.File file = null;
-	/** If encoding to file, the number of bytes encoded */
+	/** If encoding to file, the number of bytes encoded, including those
+	 * still held in the write-behind buffer */
 	public long fileLength = 0;
 	
+	/** If encoding to file, bytes not yet appended to the File */
+	private byte[] writeBuffer = null;
+	private int writeBufferLength = 0;
+	
 	/** If not encoding to file, the buffer we're encoding to */
 	public GrowableArrayOfBytes memList = null;
 
@@ -86,10 +86,7 @@ public class EncodeState {
 	 * @throws JDtnException If cannot open File
 	 */
 	public EncodeState(java.sql.Connection con, MediaRepository.File aFile) throws JDtnException {
-		isEncodingToFile = true;
-		this.file = aFile;
-		this.con = con;
-		blobAndBundleDatabase = BlobAndBundleDatabase.getInstance();
+		this(con, aFile, GeneralManagement.getFileBufferSize());
 		// We must delete the file if it exists, otherwise subsequent
 		// channel operations hang.  Go figure!
 		if (aFile.exists(con)) {
@@ -98,6 +95,19 @@ public class EncodeState {
 		}
 	}
 	
+	/**
+	 * Constructor for encoding to a File known not to exist yet
+	 * @param aFile File to encode to
+	 * @param bufferSize Size of the write-behind buffer
+	 */
+	EncodeState(java.sql.Connection con, MediaRepository.File aFile, int bufferSize) {
+		isEncodingToFile = true;
+		this.file = aFile;
+		this.con = con;
+		blobAndBundleDatabase = BlobAndBundleDatabase.getInstance();
+		writeBuffer = new byte[bufferSize];
+	}
+	
 	/**
 	 * Constructor for encoding to either a file or to memory
 	 * @param aIsEncodingToFile True => encode to File
@@ -110,6 +120,7 @@ public class EncodeState {
 			this.file = aFile;
 			this.con = con;
 			blobAndBundleDatabase = BlobAndBundleDatabase.getInstance();
+			writeBuffer = new byte[GeneralManagement.getFileBufferSize()];
 			// We must delete the file if it exists, otherwise subsequent
 			// channel operations hang.  Go figure!
 			if (aFile.exists(con)) {
@@ -129,9 +140,10 @@ public class EncodeState {
 	 */
 	public void put(byte bite) throws JDtnException {
 		if (isEncodingToFile) {
-			byte[] bytes = new byte[1];
-			bytes[0] = bite;
-			blobAndBundleDatabase.appendByteArrayToFile(con, bytes, 0, bytes.length, file);
+			if (writeBufferLength == writeBuffer.length) {
+				flush();
+			}
+			writeBuffer[writeBufferLength++] = bite;
 			fileLength++;
 		} else {
 			memList.add(bite);
@@ -145,10 +157,7 @@ public class EncodeState {
 	 */
 	public void put(int intBite) throws JDtnException {
 		if (isEncodingToFile) {
-			byte[] bytes = new byte[1];
-			bytes[0] = (byte)intBite;
-			blobAndBundleDatabase.appendByteArrayToFile(con, bytes, 0, bytes.length, file);
-			fileLength++;
+			put((byte)intBite);
 		} else {
 			memList.add(Utils.intToByteUnsigned(intBite));
 		}
@@ -160,7 +169,7 @@ public class EncodeState {
 	 */
 	public long getLength() {
 		if (isEncodingToFile) {
-			return file.length(con);
+			return fileLength;
 		} else {
 			return memList.length();
 		}
@@ -173,6 +182,7 @@ public class EncodeState {
 	 */
 	public byte[] getByteBuffer() throws JDtnException {
 		if (isEncodingToFile) {
+			flush();
 			return blobAndBundleDatabase.mediaGetBodyData(con, file);
 		}
 		return memList.gather();
@@ -186,12 +196,7 @@ public class EncodeState {
 	public void addAll(ArrayList<Byte> bites) throws JDtnException {
 		if (isEncodingToFile) {
 			byte[] biteArray = Utils.arrayListToByteArray(bites);
-			try {
-				blobAndBundleDatabase.appendByteArrayToFile(con, biteArray, 0, biteArray.length, file);
-			} catch (Exception e) {
-				throw new JDtnException(e);
-			}
-			fileLength += biteArray.length;
+			append(biteArray, 0, biteArray.length);
 		} else {
 			memList.addAll(bites);
 		}
@@ -207,6 +212,7 @@ public class EncodeState {
 	public void append(EncodeState encodeState) throws JDtnException, InterruptedException {
 		if (encodeState.isEncodingToFile) {
 			// StorageType is a File
+			encodeState.flush();
 			append(con, encodeState.file, 0, encodeState.getLength());
 		} else {
 			// StorageType is a buffer
@@ -247,14 +253,14 @@ public class EncodeState {
 				
 				// Copy the data as a series of reads from the source file
 				// and writes to the destination file
-				byte[] buffer = new byte[APPEND_BUFFER_LENGTH];
+				byte[] buffer = new byte[GeneralManagement.getFileBufferSize()];
 				long remainingBytes = length;
 				while (remainingBytes > 0) {
 					int nRead = raf2.read(buffer);
 					if (nRead > 0) {
-						blobAndBundleDatabase.appendByteArrayToFile(con, buffer, 0, nRead, file);
-						remainingBytes -= nRead;
-						fileLength += nRead;
+						int nAppend = (int)Math.min(nRead, remainingBytes);
+						append(buffer, 0, nAppend);
+						remainingBytes -= nAppend;
 					} else {
 						throw new JDtnException("Number of bytes read <= 0; remainingBytes to read=" + remainingBytes);
 					}
@@ -323,7 +329,16 @@ public class EncodeState {
 	public void append(byte[] buffer, int offset, int length)
 	throws JDtnException {
 		if (isEncodingToFile) {
-			blobAndBundleDatabase.appendByteArrayToFile(con, buffer, 0, length, file);
+			if (writeBufferLength + length > writeBuffer.length) {
+				flush();
+			}
+			if (length <= writeBuffer.length) {
+				System.arraycopy(buffer, offset, writeBuffer, writeBufferLength, length);
+				writeBufferLength += length;
+			} else {
+				// Too big to batch; write it straight through, behind what was flushed
+				appendToFile(buffer, offset, length);
+			}
 			fileLength += length;
 		} else {
 			for (int ix = 0; ix < length; ix++) {
@@ -339,16 +354,36 @@ public class EncodeState {
 		if (isEncodingToFile) {
 			close();
 			fileLength = 0;
+			writeBufferLength = 0;
 		} else {
 			memList.discardData();
 		}
 	}
 	
+	/**
+	 * Append any bytes held in the write-behind buffer to the File.  The File
+	 * is only complete after flush() or close().
+	 */
+	public void flush() {
+		if (isEncodingToFile && writeBufferLength > 0) {
+			appendToFile(writeBuffer, 0, writeBufferLength);
+			writeBufferLength = 0;
+		}
+	}
+	
+	/**
+	 * Append bytes to the File itself, behind any already appended
+	 */
+	void appendToFile(byte[] bytes, int offset, int length) {
+		blobAndBundleDatabase.appendByteArrayToFile(con, bytes, offset, length, file);
+	}
+	
 	/**
 	 * Close the encoding process
 	 */
 	public void close() {
 		if (isEncodingToFile) {
+			flush();
 			//try { con.commit(); } catch (SQLException e) { throw new Error(e.getMessage(), e); }
 		} else {
 			memList.close();
@@ -359,6 +394,9 @@ public class EncodeState {
 	 * Delete the backing store behind the encoding state
 	 */
 	public void delete() {
+		if (isEncodingToFile) {
+			writeBufferLength = 0;
+		}
 		close();
 		if (isEncodingToFile) {
 			file.delete(con);
@@ -54,6 +54,7 @@ public class GeneralManagement extends AbstractStartableComponent {
 	private static final boolean DEBUG_LOGGING_DEFAULT = false;
 	private static final double MY_SEG_RATE_LIMIT_DEFAULT = LtpNeighbor.DEFAULT_SEGMENT_XMIT_RATE_LIMIT;
 	private static final long MY_BURST_SIZE_DEFAULT = LtpNeighbor.DEFAULT_BURST_SIZE;
+	private static final int FILE_BUFFER_SIZE_DEFAULT = 64 * 1024;
 	
 	/**
 	 * Path to storage for all Bundles and Segments
@@ -82,6 +83,12 @@ public class GeneralManagement extends AbstractStartableComponent {
 	 */
 	private long myBurstSize = MY_BURST_SIZE_DEFAULT;
 	
+	/**
+	 * Size of the buffer used to batch reads and writes of file (large
+	 * object) backed encodings; static for the same reason as debugLogging.
+	 */
+	private static int fileBufferSize = FILE_BUFFER_SIZE_DEFAULT;
+	
 	/**
 	 * Get singleton instance
 	 * @return Singleton instance
@@ -114,6 +121,7 @@ public class GeneralManagement extends AbstractStartableComponent {
 		//    debugLogging="true|false"
 		//    mySegmentRateLimit="double"
 		//    myBurstSize="long"
+		//    fileBufferSize="int"
 		// </General
 		String value = null;//parser.getAttributeValue("storagePath");
 		//if (value != null && value.length() > 0) {
@@ -140,6 +148,11 @@ public class GeneralManagement extends AbstractStartableComponent {
 			setMyBurstSize(burstSize);
 		}
 		
+		Integer bufferSize = Utils.getIntegerAttribute(parser, "fileBufferSize", 1, Integer.MAX_VALUE);
+		if (bufferSize != null) {
+			setFileBufferSize(bufferSize);
+		}
+		
 		XmlRDParser.EventType event = Utils.nextNonTextEvent(parser);
 		if (event != XmlRDParser.EventType.END_ELEMENT ||
 			!parser.getElementTag().equals("General")) {
@@ -169,6 +182,9 @@ public class GeneralManagement extends AbstractStartableComponent {
 		if (getMyBurstSize() != MY_BURST_SIZE_DEFAULT) {
 			pw.println("    myBurstSize='" + getMyBurstSize() + "'");
 		}
+		if (getFileBufferSize() != FILE_BUFFER_SIZE_DEFAULT) {
+			pw.println("    fileBufferSize='" + getFileBufferSize() + "'");
+		}
 		
 		pw.println("  >");
 		pw.println("  </General>");
@@ -208,6 +224,7 @@ public class GeneralManagement extends AbstractStartableComponent {
 		sb.append(indent + "  DebugLogging=" + isDebugLogging() + "\n");
 		sb.append(indent + "  MySegmentRateLimit=" + getMySegmentRateLimit() + "\n");
 		sb.append(indent + "  MyBurstSize=" + getMyBurstSize() + "\n");
+		sb.append(indent + "  FileBufferSize=" + getFileBufferSize() + "\n");
 		sb.append(AppManager.getInstance().dump(indent + "  ", detailed));
 		return sb.toString();
 	}
@@ -218,6 +235,7 @@ public class GeneralManagement extends AbstractStartableComponent {
 		setDebugLogging(DEBUG_LOGGING_DEFAULT);
 		setMySegmentRateLimit(MY_SEG_RATE_LIMIT_DEFAULT);
 		setMyBurstSize(MY_BURST_SIZE_DEFAULT);
+		setFileBufferSize(FILE_BUFFER_SIZE_DEFAULT);
 		AppManager.getInstance().setDefaults();
 	}
 	
@@ -329,6 +347,20 @@ public class GeneralManagement extends AbstractStartableComponent {
 	public void setMyBurstSize(long aMyBurstSize) {
 		myBurstSize = aMyBurstSize;
 	}
+
+	/**
+	 * Size of the buffer used to batch file (large object) I/O
+	 */
+	public static int getFileBufferSize() {
+		return fileBufferSize;
+	}
+
+	/**
+	 * Size of the buffer used to batch file (large object) I/O
+	 */
+	public static void setFileBufferSize(int aFileBufferSize) {
+		fileBufferSize = aFileBufferSize;
+	}
 	
 	
 }
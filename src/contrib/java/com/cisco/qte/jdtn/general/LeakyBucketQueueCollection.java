@@ -34,8 +34,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 //import java.util.logging.Logger;
 
 import com.cisco.qte.jdtn.general.LeakyBucketQueue.LeakyBucketQueueState;
@@ -88,7 +86,7 @@ public class LeakyBucketQueueCollection {
 	private HashMap<Object, LeakyBucketQueue> _queueMap =
 		new HashMap<Object, LeakyBucketQueue>();
 	private int _currentIndex = 0;
-	private Timer _timer = new Timer("LeakyBucketCollectionTimer", true);
+	private WheelTimer _timer = new WheelTimer();
 	
 	/**
 	 * Constructor
@@ -141,7 +139,7 @@ public class LeakyBucketQueueCollection {
 			_queues.clear();
 			_queueMap.clear();
 			_timer.cancel();
-			_timer.purge();
+			_timer = new WheelTimer();
 		}
 	}
 	
@@ -236,14 +234,13 @@ public class LeakyBucketQueueCollection {
 									element = null;
 									queue.setState(LeakyBucketQueueState.DELAYED);
 									_timer.schedule(
-										new TimerTask() {
+										new Runnable() {
 
 											@Override
 											public void run() {
 												synchronized (_sync) {
 													fQueue.setState(LeakyBucketQueueState.RUNNING);
 													_sync.notify();
-													_timer.purge();
 												}
 											}
 										},
@@ -0,0 +1,189 @@
+package com.cisco.qte.jdtn.general;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A component's handle onto one hashed timing wheel shared by all of jDTN,
+ * used in place of a java.util.Timer per component.  Scheduling and
+ * cancelling a Task are O(1) and cancelled Tasks are dropped from the wheel
+ * on its next tick instead of waiting out their delay.  cancel() cancels
+ * every Task still pending on this handle, as stopping a component did with
+ * its own Timer.
+ * <p/>
+ * Every Task runs on the wheel's one thread, so a Task that blocks delays
+ * every timer in the process.  Timers that deliver an event to a component
+ * whose queue may be full use scheduleHandOff(): the hand off must not wait
+ * for room, and one refused is tried again a tick later.
+ */
+public class WheelTimer {
+	/** Resolution of the wheel, mSecs */
+	public static final long TICK_MSECS = 10L;
+	/** Slots in the wheel; one revolution is TICKS_PER_WHEEL * TICK_MSECS */
+	public static final int TICKS_PER_WHEEL = 1024;
+
+	// The one wheel; the holder class defers starting its thread until a
+	// timer is first scheduled, and needs no lock to read it thereafter
+	private static final class Holder {
+		static final HashedWheelTimer WHEEL = new HashedWheelTimer(
+				runnable -> {
+					Thread thread = new Thread(runnable, "jDTN-WheelTimer");
+					thread.setDaemon(true);
+					return thread;
+				},
+				TICK_MSECS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * A scheduled hand off
+	 */
+	public final class Task implements io.netty.util.TimerTask {
+		private final BooleanSupplier _handOff;
+		private final long _scheduledExecutionTime;
+		private volatile Timeout _timeout = null;
+		private volatile boolean _cancelRequested = false;
+
+		private Task(BooleanSupplier handOff, long scheduledExecutionTime) {
+			_handOff = handOff;
+			_scheduledExecutionTime = scheduledExecutionTime;
+		}
+
+		@Override
+		public void run(Timeout timeout) {
+			if (!_pending.remove(this) || _handOff.getAsBoolean()) {
+				return;
+			}
+			// Refused; pending again until retried, unless cancelled meanwhile
+			_pending.add(this);
+			_timeout = Holder.WHEEL.newTimeout(this, TICK_MSECS, TimeUnit.MILLISECONDS);
+			if (_cancelRequested || _cancelled) {
+				cancel();
+			}
+		}
+
+		/**
+		 * Cancel this Task
+		 * @return False if it already ran or was already cancelled
+		 */
+		public boolean cancel() {
+			_cancelRequested = true;
+			boolean wasPending = _pending.remove(this);
+			// Not yet on the wheel if racing schedule(); run() is a no-op then
+			Timeout timeout = _timeout;
+			if (timeout != null) {
+				timeout.cancel();
+			}
+			return wasPending;
+		}
+
+		/**
+		 * @return Time this Task is due, as System.currentTimeMillis()
+		 */
+		public long scheduledExecutionTime() {
+			return _scheduledExecutionTime;
+		}
+	}
+
+	private final Set<Task> _pending = ConcurrentHashMap.newKeySet();
+	private volatile boolean _cancelled = false;
+
+	/**
+	 * Schedule given Runnable to run after given delay.  It runs on the
+	 * wheel's thread, so must not block.
+	 * @param runnable What to run
+	 * @param delayMSecs Delay, mSecs
+	 * @return The Task, to cancel it
+	 * @throws IllegalStateException if this WheelTimer was cancelled
+	 */
+	public Task schedule(final Runnable runnable, long delayMSecs) {
+		return scheduleHandOff(
+				new BooleanSupplier() {
+					@Override
+					public boolean getAsBoolean() {
+						runnable.run();
+						return true;
+					}
+				},
+				delayMSecs);
+	}
+
+	/**
+	 * Schedule given Runnable to run at given time
+	 * @param runnable What to run
+	 * @param time When to run it
+	 * @return The Task, to cancel it
+	 * @throws IllegalStateException if this WheelTimer was cancelled
+	 */
+	public Task schedule(Runnable runnable, Date time) {
+		return schedule(runnable, time.getTime() - System.currentTimeMillis());
+	}
+
+	/**
+	 * Schedule a hand off of work to another thread after given delay,
+	 * e.g. AbstractEventProcessorThread.offerEvent().  If it's refused it's
+	 * tried again every tick until taken or the Task is cancelled.
+	 * @param handOff Hands off the work without waiting; false if refused
+	 * @param delayMSecs Delay, mSecs
+	 * @return The Task, to cancel it
+	 * @throws IllegalStateException if this WheelTimer was cancelled
+	 */
+	public Task scheduleHandOff(BooleanSupplier handOff, long delayMSecs) {
+		if (_cancelled) {
+			throw new IllegalStateException("WheelTimer already cancelled");
+		}
+		if (delayMSecs < 0) {
+			delayMSecs = 0;
+		}
+		Task task = new Task(handOff, System.currentTimeMillis() + delayMSecs);
+		_pending.add(task);
+		task._timeout = Holder.WHEEL.newTimeout(task, delayMSecs, TimeUnit.MILLISECONDS);
+		return task;
+	}
+
+	/**
+	 * Schedule a hand off of work to another thread at given time
+	 * @param handOff Hands off the work without waiting; false if refused
+	 * @param time When to hand it off
+	 * @return The Task, to cancel it
+	 * @throws IllegalStateException if this WheelTimer was cancelled
+	 */
+	public Task scheduleHandOff(BooleanSupplier handOff, Date time) {
+		return scheduleHandOff(handOff, time.getTime() - System.currentTimeMillis());
+	}
+
+	/**
+	 * Schedule a task straight onto the shared wheel, for code outside jDTN
+	 * that keeps and cancels the Timeout itself rather than through a
+	 * component's WheelTimer.  It runs on the wheel's thread, so must not
+	 * block.
+	 * @param task What to run
+	 * @param delayMSecs Delay, mSecs
+	 * @return The Timeout, to cancel it
+	 */
+	public static Timeout newTimeout(io.netty.util.TimerTask task, long delayMSecs) {
+		return Holder.WHEEL.newTimeout(task, delayMSecs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancel all pending Tasks and refuse new ones
+	 */
+	public void cancel() {
+		_cancelled = true;
+		for (Task task : _pending) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * @return Number of Tasks scheduled and neither run nor cancelled
+	 */
+	public int pending() {
+		return _pending.size();
+	}
+}
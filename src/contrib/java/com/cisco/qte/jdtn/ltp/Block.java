@@ -32,13 +32,13 @@ package com.cisco.qte.jdtn.ltp;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 import com.cisco.qte.jdtn.apps.MediaRepository;
 import com.cisco.qte.jdtn.general.JDtnException;
 import com.cisco.qte.jdtn.general.LinksList;
 import com.cisco.qte.jdtn.general.Store;
+import com.cisco.qte.jdtn.general.WheelTimer;
 import com.cisco.qte.jdtn.ltp.BlockOptions.CheckpointOption;
 
 /**
@@ -59,6 +59,20 @@ public abstract class Block implements Iterable<DataSegment> {
 	 // order of client data offset.
 	private List<DataSegment> _segments = new ArrayList<DataSegment>(1200);
 	
+	// Inbound only: Client Data received, all colors and Red only, as merged
+	// offset ranges so reassembly checks needn't walk the Segment list.
+	protected IntervalSet _dataReceived = new IntervalSet();
+	protected IntervalSet _redDataReceived = new IntervalSet();
+	
+	// Inbound only: lowest offset of any Green and highest offset of any Red
+	// DataSegment received, for miscolor checks
+	protected long _minGreenOffset = Long.MAX_VALUE;
+	protected long _maxRedOffset = -1L;
+	
+	// Inbound only: whether EORP and EOB DataSegments have been received
+	protected boolean _endOfRedPartReceived = false;
+	protected boolean _endOfBlockReceived = false;
+	
 	// The Neighbor to which this Block is to be sent, or from which this
 	// Block was received
 	protected LtpNeighbor _neighbor;
@@ -92,7 +106,7 @@ public abstract class Block implements Iterable<DataSegment> {
 	
 	// CancelTimer; A timer started when a CancelSegment is sent; timing the
 	// reply CancelAckSegment.
-	protected TimerTask _cancelTimerTask;
+	protected WheelTimer.Task _cancelTimerTask;
 	
 	// Anonymous User data attached to the Block
 	protected Object _userData = null;
@@ -287,36 +301,70 @@ public abstract class Block implements Iterable<DataSegment> {
 	 * assembled on the fly.
 	 * The list of DataSegments is maintained in order by DataSegment
 	 * ClientDataOffset.
-	 * We also update the member _dataLength.
+	 * We also update the member _dataLength and the received data
+	 * IntervalSets.
 	 * @param segment DataSegment to add.
 	 * @throws LtpException on errors spilling Segment Data to a file
 	 */
 	public void addInboundSegment(DataSegment segment) throws LtpException {
 		segment.setBlock(this);
-		for (int ix = 0; ix < _segments.size(); ix++) {
-			DataSegment otherSegment = _segments.get(ix);
-			if (segment.getClientDataOffset() == otherSegment.getClientDataOffset() &&
-				segment.getClientDataLength() == otherSegment.getClientDataLength()) {
+		long offset = segment.getClientDataOffset();
+		int ix = indexAfterOffset(offset);
+		for (int jx = ix - 1;
+			 jx >= 0 && _segments.get(jx).getClientDataOffset() == offset;
+			 jx--) {
+			if (segment.getClientDataLength() == _segments.get(jx).getClientDataLength()) {
 				// Exact match on an existing Segment in the Block.  Replace.
-				_segments.set(ix, segment);
-				return;
-			}
-			if (segment.getClientDataOffset() < otherSegment.getClientDataOffset()) {
-				// Found right place to insert to keep it in offset order.
-				_dataLength += segment.getClientDataLength();
-				if (segment.isRedData()) {
-					_redDataLength += segment.getClientDataLength();
-				}
-				_segments.add(ix, segment);
+				_segments.set(jx, segment);
 				return;
 			}
 		}
-		// Add it to the end
+		// Insert after any Segments at the same offset to keep it in offset order.
 		_dataLength += segment.getClientDataLength();
 		if (segment.isRedData()) {
 			_redDataLength += segment.getClientDataLength();
 		}
-		_segments.add(segment);
+		_segments.add(ix, segment);
+		
+		long end = offset + segment.getClientDataLength();
+		_dataReceived.add(offset, end);
+		if (segment.isRedData()) {
+			_redDataReceived.add(offset, end);
+			_maxRedOffset = Math.max(_maxRedOffset, offset);
+		} else {
+			_minGreenOffset = Math.min(_minGreenOffset, offset);
+		}
+		if (segment.isEndOfRedPart()) {
+			_endOfRedPartReceived = true;
+		}
+		if (segment.isEndOfBlock()) {
+			_endOfBlockReceived = true;
+		}
+	}
+	
+	/**
+	 * Binary search the DataSegments list, which is in ClientDataOffset
+	 * order.
+	 * @param offset Given ClientDataOffset
+	 * @return Index of first DataSegment whose ClientDataOffset is greater
+	 * than given offset; the list size if there is none.
+	 */
+	protected int indexAfterOffset(long offset) {
+		int low = 0;
+		int high = _segments.size();
+		// Segments mostly arrive in order; check for an append first
+		if (high == 0 || _segments.get(high - 1).getClientDataOffset() <= offset) {
+			return high;
+		}
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_segments.get(mid).getClientDataOffset() <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
 	}
 	
 	@Override
@@ -385,6 +433,20 @@ public abstract class Block implements Iterable<DataSegment> {
 		return _segments.get(index);
 	}
 	
+	/**
+	 * Inbound only: Red Client Data received, as merged offset ranges
+	 */
+	public IntervalSet getRedDataReceived() {
+		return _redDataReceived;
+	}
+	
+	/**
+	 * Inbound only: Client Data of any color received, as merged offset ranges
+	 */
+	public IntervalSet getDataReceived() {
+		return _dataReceived;
+	}
+	
 	/**
 	 * The Neighbor to which this Block is to be sent, or from which this
 	 * Block was received
@@ -513,7 +575,7 @@ public abstract class Block implements Iterable<DataSegment> {
 	 * CancelTimer; A timer started when a CancelSegment is sent; timing the
 	 * reply CancelAckSegment.
 	 * */
-	public TimerTask getCancelTimerTask() {
+	public WheelTimer.Task getCancelTimerTask() {
 		return _cancelTimerTask;
 	}
 
@@ -521,7 +583,7 @@ public abstract class Block implements Iterable<DataSegment> {
 	 * CancelTimer; A timer started when a CancelSegment is sent; timing the
 	 * reply CancelAckSegment.
 	 * */
-	public void setCancelTimerTask(TimerTask cancelTimerTask) {
+	public void setCancelTimerTask(WheelTimer.Task cancelTimerTask) {
 		this._cancelTimerTask = cancelTimerTask;
 	}
 	
@@ -32,7 +32,6 @@ package com.cisco.qte.jdtn.ltp;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 import com.cisco.qte.jdtn.apps.MediaRepository;
@@ -41,6 +40,7 @@ import com.cisco.qte.jdtn.general.EncodeState;
 import com.cisco.qte.jdtn.general.JDtnException;
 import com.cisco.qte.jdtn.general.Store;
 import com.cisco.qte.jdtn.general.Utils;
+import com.cisco.qte.jdtn.general.WheelTimer;
 import org.kritikal.fabric.contrib.jdtn.BlobAndBundleDatabase;
 
 /**
@@ -99,7 +99,7 @@ public class DataSegment extends Segment {
 	 * Used to timeout on RS (Report Segment) coming
 	 * back from that DataSegment.  Managed by LtpOutbound.
 	 */
-	protected TimerTask _checkpointTimerTask;
+	protected WheelTimer.Task _checkpointTimerTask;
 	
 	/** mSecs spent encoding payload */
 	protected long _mSecsEncodingPayload = 0;
@@ -430,7 +430,7 @@ public class DataSegment extends Segment {
 	 * Used to timeout on RS (Report Segment) coming
 	 * back from that DataSegment.  Managed by LtpOutbound.
 	 */
-	public TimerTask getCheckpointTimerTask() {
+	public WheelTimer.Task getCheckpointTimerTask() {
 		return _checkpointTimerTask;
 	}
 
@@ -439,7 +439,7 @@ public class DataSegment extends Segment {
 	 * Used to timeout on RS (Report Segment) coming
 	 * back from that DataSegment.  Managed by LtpOutbound.
 	 */
-	public void setCheckpointTimerTask(TimerTask checkpointTimerTask) {
+	public void setCheckpointTimerTask(WheelTimer.Task checkpointTimerTask) {
 		this._checkpointTimerTask = checkpointTimerTask;
 	}
 
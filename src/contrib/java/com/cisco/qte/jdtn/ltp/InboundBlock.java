@@ -88,6 +88,9 @@ public class InboundBlock extends Block {
 	// 
 	private int numberReceptionProblems = 0;
 	
+	// Red Client Data covered by ReportSegments which have been acked
+	private IntervalSet _redDataAcked = new IntervalSet();
+	
 	/**
 	 * Constructor for an inbound Block whose first Segment is the given
 	 * DataSegment.
@@ -113,9 +116,6 @@ public class InboundBlock extends Block {
 	 * @return True if Inbound Block completely received
 	 */
 	public boolean isInboundBlockComplete() {
-		long expectedOffset = 0;
-		boolean eobSeen = false;
-		
 		if (!_reportSegmentsList.isEmpty()) {
 			// Not all outstanding ReportSegments have been acked
 			if (GeneralManagement.isDebugLogging()) {
@@ -123,28 +123,19 @@ public class InboundBlock extends Block {
 			}
 			return false;
 		}
-		
-		for (DataSegment dataSegment : this) {
-			if (dataSegment.isEndOfBlock()) {
-				eobSeen = true;
+		if (!isRedDataContiguous()) {
+			if (GeneralManagement.isDebugLogging()) {
+				_logger.fine("Not Complete: missing data");
 			}
-			if (dataSegment.isRedData()) {
-				if (!dataSegment.isAcked()) {
-					if (GeneralManagement.isDebugLogging()) {
-						_logger.fine("Not Complete: Report for this segment not acked");
-					}
-					return false;
-				}
-				if (dataSegment.getClientDataOffset() != expectedOffset) {
-					if (GeneralManagement.isDebugLogging()) {
-						_logger.fine("Not Complete: missing data");
-					}
-					return false;
-				}
+			return false;
+		}
+		if (!_redDataAcked.covers(0, _redDataReceived.getCoveredLength())) {
+			if (GeneralManagement.isDebugLogging()) {
+				_logger.fine("Not Complete: Report for this segment not acked");
 			}
-			expectedOffset += dataSegment.getClientDataLength();
+			return false;
 		}
-		if (eobSeen) {
+		if (_endOfBlockReceived) {
 			if (GeneralManagement.isDebugLogging()) {
 				_logger.fine("Complete");
 			}
@@ -166,25 +157,7 @@ public class InboundBlock extends Block {
 	 * @return True if Inbound Block all red segments received
 	 */
 	public boolean isAllRedDataReceived() {
-		long expectedOffset = 0;
-		boolean eorpSeen = false;
-		
-		for (DataSegment dataSegment : this) {
-			if (dataSegment.isEndOfRedPart()) {
-				eorpSeen = true;
-			}
-			if (dataSegment.isRedData()) {
-				if (dataSegment.getClientDataOffset() != expectedOffset) {
-					return false;
-				}
-			}
-			expectedOffset += dataSegment.getClientDataLength();
-		}
-		if (eorpSeen) {
-			return true;
-		} else {
-			return false;
-		}		
+		return _endOfRedPartReceived && isRedDataContiguous();
 	}
 	
 	/**
@@ -196,25 +169,45 @@ public class InboundBlock extends Block {
 	 * @return True if all green segments received for this block
 	 */
 	public boolean isAllGreenDataReceived() {
-		long expectedOffset = 0;
-		boolean eobSeen = false;
-		
-		for (DataSegment dataSegment : this) {
-			if (dataSegment.isEndOfBlock()) {
-				eobSeen = true;
-			}
-			if (dataSegment.isGreenData()) {
-				if (dataSegment.getClientDataOffset() != expectedOffset) {
-					return false;
+		if (!_endOfBlockReceived) {
+			return false;
+		}
+		// Green data is the suffix of the Block; it is contiguous if there is
+		// none or if everything up to it has arrived as well.
+		return _minGreenOffset == Long.MAX_VALUE || _dataReceived.isPrefix();
+	}
+	
+	/**
+	 * Determine if the Red data received so far is a hole-free prefix of the
+	 * Block (trivially so if there is no Red data).
+	 */
+	private boolean isRedDataContiguous() {
+		return _redDataReceived.isEmpty() || _redDataReceived.isPrefix();
+	}
+	
+	/**
+	 * Record what the given ReportSegment claims, now that it has been acked,
+	 * and mark each DataSegment it covers as acked.
+	 * @param reportSegment Given ReportSegment
+	 */
+	public void reportAcked(ReportSegment reportSegment) {
+		long lowerBound = reportSegment.getLowerBound();
+		for (ReceptionClaim claim : reportSegment.getReceptionClaims()) {
+			long claimOffset = claim.getOffset() + lowerBound;
+			long claimUpper = claimOffset + claim.getLength();
+			_redDataAcked.add(claimOffset, claimUpper);
+			// Segments starting inside the claim lie just before this index
+			for (int ix = indexAfterOffset(claimUpper - 1) - 1; ix >= 0; ix--) {
+				DataSegment dataSegment = getDataSegment(ix);
+				if (dataSegment.getClientDataOffset() < claimOffset) {
+					break;
+				}
+				if (dataSegment.getClientDataOffset() +
+					dataSegment.getClientDataLength() <= claimUpper) {
+					dataSegment.setAcked(true);
 				}
 			}
-			expectedOffset += dataSegment.getClientDataLength();
 		}
-		if (eobSeen) {
-			return true;
-		} else {
-			return false;
-		}		
 	}
 	
 	/**
@@ -396,7 +389,10 @@ public class InboundBlock extends Block {
 		sb.append(indent + "  Ltp Receiver State=" + _ltpReceiverState + "\n");
 		sb.append(indent + "  Block ReportSerialNumber\n");
 		sb.append(getReportSerialNumber().dump(indent + "    ", detailed));
+		sb.append(indent + "  Red Data Received=" + _redDataReceived + "\n");
 		if (detailed) {
+			sb.append(indent + "  Missing Red Data=" +
+					_redDataReceived.gaps(0, _redDataReceived.getEnd()) + "\n");
 			sb.append(indent + "  Outstanding Report Segments\n");
 			for (ReportSegment reportSegment : _reportSegmentsList) {
 				sb.append(reportSegment.dump(indent + "    ", detailed));
@@ -474,29 +470,13 @@ public class InboundBlock extends Block {
 	 */
 	public boolean isMiscolored(InboundBlock block, DataSegment dataSegment) {
 		if (dataSegment.isRedData()) {
-			// Given Segment is Red
-			for (DataSegment otherSegment : block) {
-				if (otherSegment.isGreenData()) {
-					if (dataSegment.getClientDataOffset() > otherSegment.getClientDataOffset()) {
-						// Found a Green Segment whose offset <= given Red Segment
-						return true;
-					}
-				}						
-			}
+			// Given Segment is Red; is there a Green Segment below it?
+			return dataSegment.getClientDataOffset() > block._minGreenOffset;
 			
 		} else {
-			// Given Segment is Green
-			for (DataSegment otherSegment : block) {
-				if (otherSegment.isRedData()) {
-					if (dataSegment.getClientDataOffset() < otherSegment.getClientDataOffset()) {
-						// Found a Red Segment whose offset >= given Green Segment
-						return true;
-					}
-				}
-			}
+			// Given Segment is Green; is there a Red Segment above it?
+			return dataSegment.getClientDataOffset() < block._maxRedOffset;
 		}
-		
-		return false;
 	}
 	
 	/**
@@ -0,0 +1,235 @@
+package com.cisco.qte.jdtn.ltp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of byte ranges of a Block, kept as disjoint, non-adjacent half-open
+ * intervals [start, end) ordered by start.  Overlapping and adjacent ranges
+ * are merged as they are added, so the set holds one interval per hole-free
+ * run of data no matter how many Segments delivered it.  Adding a range and
+ * testing coverage are O(log n) in the number of intervals.
+ */
+public class IntervalSet implements Iterable<IntervalSet.Interval> {
+
+	/**
+	 * One interval of the set, [start, end)
+	 */
+	public static final class Interval {
+		/** First offset in the interval */
+		public final long start;
+		/** First offset past the interval */
+		public final long end;
+
+		Interval(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/** Number of bytes in the interval */
+		public long length() {
+			return end - start;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + start + ", " + end + ")";
+		}
+	}
+
+	// start -> end of each interval
+	private final TreeMap<Long, Long> _intervals = new TreeMap<Long, Long>();
+	// Total bytes covered
+	private long _coveredLength = 0;
+
+	/**
+	 * Add the range [start, end) to the set, merging it with any intervals it
+	 * overlaps or abuts.
+	 * @param start First offset of the range
+	 * @param end First offset past the range
+	 * @return Number of bytes newly covered by the set
+	 */
+	public long add(long start, long end) {
+		if (end <= start) {
+			return 0;
+		}
+		long before = _coveredLength;
+		Map.Entry<Long, Long> floor = _intervals.floorEntry(start);
+		if (floor != null && floor.getValue() >= start) {
+			if (floor.getValue() >= end) {
+				// Already covered
+				return 0;
+			}
+			start = floor.getKey();
+			_intervals.remove(start);
+			_coveredLength -= floor.getValue() - start;
+		}
+		Map.Entry<Long, Long> next = _intervals.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			_intervals.remove(next.getKey());
+			_coveredLength -= next.getValue() - next.getKey();
+			if (next.getValue() > end) {
+				end = next.getValue();
+			}
+			next = _intervals.higherEntry(next.getKey());
+		}
+		_intervals.put(start, end);
+		_coveredLength += end - start;
+		return _coveredLength - before;
+	}
+
+	/**
+	 * Determine if every byte of [start, end) is in the set
+	 * @param start First offset of the range
+	 * @param end First offset past the range
+	 * @return What I said; true for an empty range
+	 */
+	public boolean covers(long start, long end) {
+		if (end <= start) {
+			return true;
+		}
+		Map.Entry<Long, Long> floor = _intervals.floorEntry(start);
+		return floor != null && floor.getValue() >= end;
+	}
+
+	/**
+	 * Determine if the set is a single interval starting at offset 0
+	 * @return True if so; false if empty or there is a hole
+	 */
+	public boolean isPrefix() {
+		return _intervals.size() == 1 && _intervals.firstKey() == 0L;
+	}
+
+	/**
+	 * @return True if nothing has been added
+	 */
+	public boolean isEmpty() {
+		return _intervals.isEmpty();
+	}
+
+	/**
+	 * @return Number of disjoint intervals in the set
+	 */
+	public int getIntervalCount() {
+		return _intervals.size();
+	}
+
+	/**
+	 * @return First offset past the last interval; 0 if empty
+	 */
+	public long getEnd() {
+		return _intervals.isEmpty() ? 0L : _intervals.lastEntry().getValue();
+	}
+
+	/**
+	 * @return Total number of bytes covered by the set
+	 */
+	public long getCoveredLength() {
+		return _coveredLength;
+	}
+
+	/**
+	 * Remove all intervals
+	 */
+	public void clear() {
+		_intervals.clear();
+		_coveredLength = 0;
+	}
+
+	/**
+	 * Build ReceptionClaims for the part of the set within
+	 * [lowerBound, upperBound); claim offsets are relative to lowerBound.
+	 * @param lowerBound Lower bound of the report
+	 * @param upperBound Upper bound of the report
+	 * @return Claims in offset order, one per interval
+	 */
+	public List<ReceptionClaim> claims(long lowerBound, long upperBound) {
+		ArrayList<ReceptionClaim> result = new ArrayList<ReceptionClaim>();
+		for (Interval interval : within(lowerBound, upperBound)) {
+			result.add(new ReceptionClaim(
+					interval.start - lowerBound,
+					interval.length()));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the holes in the set within [lowerBound, upperBound)
+	 * @param lowerBound First offset of interest
+	 * @param upperBound First offset past those of interest
+	 * @return Missing ranges in offset order
+	 */
+	public List<Interval> gaps(long lowerBound, long upperBound) {
+		ArrayList<Interval> result = new ArrayList<Interval>();
+		long position = lowerBound;
+		for (Interval interval : within(lowerBound, upperBound)) {
+			if (interval.start > position) {
+				result.add(new Interval(position, interval.start));
+			}
+			position = interval.end;
+		}
+		if (position < upperBound) {
+			result.add(new Interval(position, upperBound));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the intervals of the set clipped to [lowerBound, upperBound)
+	 */
+	private List<Interval> within(long lowerBound, long upperBound) {
+		ArrayList<Interval> result = new ArrayList<Interval>();
+		if (upperBound <= lowerBound) {
+			return result;
+		}
+		Long from = _intervals.floorKey(lowerBound);
+		if (from == null) {
+			from = lowerBound;
+		}
+		for (Map.Entry<Long, Long> entry :
+				_intervals.subMap(from, true, upperBound, false).entrySet()) {
+			long start = Math.max(entry.getKey(), lowerBound);
+			long end = Math.min(entry.getValue(), upperBound);
+			if (end > start) {
+				result.add(new Interval(start, end));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Iterate the intervals in offset order
+	 */
+	@Override
+	public Iterator<Interval> iterator() {
+		final Iterator<Map.Entry<Long, Long>> entries =
+			_intervals.entrySet().iterator();
+		return new Iterator<Interval>() {
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Interval next() {
+				Map.Entry<Long, Long> entry = entries.next();
+				return new Interval(entry.getKey(), entry.getValue());
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<Long, Long> entry : _intervals.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append("[" + entry.getKey() + ", " + entry.getValue() + ")");
+		}
+		return sb.append("}").toString();
+	}
+}
@@ -33,8 +33,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +54,7 @@ import com.cisco.qte.jdtn.general.Link;
 import com.cisco.qte.jdtn.general.LinkListener;
 import com.cisco.qte.jdtn.general.LinksList;
 import com.cisco.qte.jdtn.general.Neighbor;
+import com.cisco.qte.jdtn.general.WheelTimer;
 import com.cisco.qte.jdtn.ltp.InboundBlock.LtpReceiverState;
 import com.cisco.qte.jdtn.ltp.Segment.SegmentType;
 import org.kritikal.fabric.contrib.jdtn.BlobAndBundleDatabase;
@@ -87,7 +87,7 @@ implements LinkListener, SegmentTransmitCallback {
 		new HashMap<SessionId, InboundBlock>();
 	
 	// Timer
-	private Timer _timer = null;
+	private WheelTimer _timer = null;
 	
 	/**
 	 * Get singleton instance
@@ -113,7 +113,7 @@ implements LinkListener, SegmentTransmitCallback {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.fine("startImpl()");
 		}
-		_timer = new Timer();
+		_timer = new WheelTimer();
 		for (Link link : LinksList.getInstance()) {
 			if (link instanceof LtpLink) {
 				link.addLinkListener(this);
@@ -132,7 +132,6 @@ implements LinkListener, SegmentTransmitCallback {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.fine("stopImpl()");
 		}
-		_timer.purge();
 		_timer.cancel();
 		_timer = null;
 		
@@ -1030,18 +1029,9 @@ implements LinkListener, SegmentTransmitCallback {
 		// Kill the ReportSegment RS Timer
 		stopReportSegmentTimer(reportSegment);
 		
-		// Iterate thru the DataSegments in the Block and see if the ReportSegment
-		// asserts that the DataSegment has been received.  If so, mark it acked.
-		// Performance is O(nSegmentsInBlock * nClaimsInReportSegment)
-		// If this turns out to be a performance problem, we can improve
-		// average performance but not worst case performance by reversing
-		// the order of the loops.  However, I prefer keeping these decisions
-		// inside ReportSegment.
-		for (DataSegment dataSegment : block) {
-			if (reportSegment.covers(dataSegment)) {
-				dataSegment.setAcked(true);
-			}
-		}
+		// Record what the ReportSegment asserts has been received, and mark
+		// the DataSegments it covers acked.
+		block.reportAcked(reportSegment);
 		
 		// Figure out next state
 		switch (block.getLtpReceiverState()) {
@@ -1318,24 +1308,16 @@ implements LinkListener, SegmentTransmitCallback {
 	private void startReportSegmentTimer(final ReportSegment reportSegment) {
 		if (reportSegment.getNeighbor().isNeighborScheduledUp()) {
 			reportSegment.setRsTimerTask(
-				new TimerTask() {
-					@Override
-					public void run() {
-						ReportSegmentTimerExpiredEvent event =
-							new ReportSegmentTimerExpiredEvent(reportSegment);
-						try {
-							processEvent(event);
-						} catch (InterruptedException e) {
-							// Ignore
+				_timer.scheduleHandOff(
+					new BooleanSupplier() {
+						@Override
+						public boolean getAsBoolean() {
+							return offerEvent(new ReportSegmentTimerExpiredEvent(reportSegment));
 						}
-					}
-				}
-			);
+					},
+					reportSegment.getLink().getReportTimeout()));
 		
 		}
-		_timer.schedule(
-				reportSegment.getRsTimerTask(), 
-				reportSegment.getLink().getReportTimeout());
 	}
 
 	/**
@@ -1346,7 +1328,6 @@ implements LinkListener, SegmentTransmitCallback {
 		if (reportSegment.getRsTimerTask() != null) {
 			reportSegment.getRsTimerTask().cancel();
 			reportSegment.setRsTimerTask(null);
-			_timer.purge();
 		}
 	}
 	
@@ -1486,22 +1467,14 @@ implements LinkListener, SegmentTransmitCallback {
 		
 		if (block.getNeighbor().isNeighborScheduledUp()) {
 			block.setCancelTimerTask(
-				new TimerTask() {				
-					@Override
-					public void run() {
-						CancelTimerExpiredEvent event =
-							new CancelTimerExpiredEvent(cancelSegment, block);
-						try {
-							processEvent(event);
-						} catch (InterruptedException e) {
-							// Ignore
+				_timer.scheduleHandOff(
+					new BooleanSupplier() {
+						@Override
+						public boolean getAsBoolean() {
+							return offerEvent(new CancelTimerExpiredEvent(cancelSegment, block));
 						}
-					}
-				}
-			);
-			_timer.schedule(
-					block.getCancelTimerTask(), 
-					cancelSegment.getLink().getCancelTimeout());
+					},
+					cancelSegment.getLink().getCancelTimeout()));
 		}
 	}
 
@@ -1515,7 +1488,6 @@ implements LinkListener, SegmentTransmitCallback {
 			InboundBlock block) {
 		if (cancelSegment != null && block.getCancelTimerTask() != null) {
 			block.getCancelTimerTask().cancel();
-			_timer.purge();
 			block.setCancelTimerTask(null);
 		}
 	}
@@ -124,8 +124,8 @@ public abstract class LtpLink extends Link {
 	 */
 	protected int _checkpointTimeout = DEFAULT_CHECKPOINT_TIMEOUT_MSECS;
 	
-	// Link Receive Thread
-	private Thread _linkReceiveThread = null;
+	// Link Receive Threads
+	private Thread[] _linkReceiveThreads = null;
 	// Link State Monitor Thread
 	private Thread _linkMonitorThread = null;
 	// Link Transmit Thread
@@ -309,11 +309,14 @@ public abstract class LtpLink extends Link {
 			_logger.finer("start(" + getName() + ")");
 		}
 		super.startImpl();
-		if (_linkReceiveThread == null) {
-			_linkReceiveThread = new Thread(new LinkReceiveThread());
-			_linkReceiveThread.setName(getName() + "Rcv");
-			_linkReceiveThread.setPriority(Thread.MAX_PRIORITY);
-			_linkReceiveThread.start();
+		if (_linkReceiveThreads == null) {
+			_linkReceiveThreads = new Thread[Math.max(1, getReceiveThreadCount())];
+			for (int ix = 0; ix < _linkReceiveThreads.length; ix++) {
+				_linkReceiveThreads[ix] = new Thread(new LinkReceiveThread());
+				_linkReceiveThreads[ix].setName(getName() + "Rcv" + (ix == 0 ? "" : ix));
+				_linkReceiveThreads[ix].setPriority(Thread.MAX_PRIORITY);
+				_linkReceiveThreads[ix].start();
+			}
 		}
 		if (_linkMonitorThread == null) {
 			_linkMonitorThread = new Thread(new LinkMonitorThread());
@@ -356,16 +359,20 @@ public abstract class LtpLink extends Link {
 			_linkMonitorThread = null;
 		}
 		
-		if (_linkReceiveThread != null) {
-			_linkReceiveThread.interrupt();
+		if (_linkReceiveThreads != null) {
+			for (Thread thread : _linkReceiveThreads) {
+				thread.interrupt();
+			}
 			try {
 				linkStopImpl();
-				_linkReceiveThread.join(JOIN_TIMEOUT_MSECS);
+				for (Thread thread : _linkReceiveThreads) {
+					thread.join(JOIN_TIMEOUT_MSECS);
+				}
 				
 			} catch (InterruptedException e) {
 				// Nothing
 			}
-			_linkReceiveThread = null;
+			_linkReceiveThreads = null;
 		}
 		
 		_segmentQueue.clear();
@@ -373,6 +380,15 @@ public abstract class LtpLink extends Link {
 		super.stopImpl();
 	}
 	
+	/**
+	 * Subclass overridable number of Link Receive Threads to run, each
+	 * posting receives to receiveImpl() concurrently.  Default 1.
+	 * @return Number of Link Receive Threads
+	 */
+	protected int getReceiveThreadCount() {
+		return 1;
+	}
+	
 	/**
 	 * Clear statistics for this Link
 	 */
@@ -387,8 +403,9 @@ public abstract class LtpLink extends Link {
 	 * LtpInbound process.
 	 * @param link The Link
 	 * @param neighbor The Neighbor from which the frame was received.
-	 * @param buffer Buffer containing data received.  This buffer is not
-	 * reused.  The buffer must be stripped of all DataLink headers and
+	 * @param buffer Buffer containing data received.  The subclass may reuse
+	 * this buffer once we return; the decoded Segment keeps its own copy of
+	 * anything it needs.  The buffer must be stripped of all DataLink headers and
 	 * trailers and contain only the raw Ltp Frame.
 	 * @param offset Offset into buffer to start of data
 	 * @param length Length of received data
@@ -401,16 +418,40 @@ public abstract class LtpLink extends Link {
 			byte[] buffer, 
 			int offset, 
 			int length) throws InterruptedException {
+		Segment segment = decodeReceived(con, link, neighbor, buffer, offset, length);
+		if (segment != null) {
+			LtpInbound.getInstance().onInboundSegment(segment);
+		}
+	}
+	
+	/**
+	 * Decode a received frame to a Segment, as notifyReceived() does, without
+	 * enqueueing it; for subclasses that decode on several threads and must
+	 * still enqueue in the order received.  May be called concurrently.
+	 * @param link The Link
+	 * @param neighbor The Neighbor from which the frame was received.
+	 * @param buffer Buffer containing data received, as for notifyReceived()
+	 * @param offset Offset into buffer to start of data
+	 * @param length Length of received data
+	 * @return The Segment, or null if the datagram was discarded
+	 */
+	protected Segment decodeReceived(
+			java.sql.Connection con,
+			LtpLink link, 
+			LtpNeighbor neighbor, 
+			byte[] buffer, 
+			int offset, 
+			int length) {
 
 		if (GeneralManagement.isDebugLogging()) {
-			_logger.finer("notifyReceived(" + getName() + ", Encoded length=" + length + ")");
+			_logger.finer("decodeReceived(" + getName() + ", Encoded length=" + length + ")");
 			if (_logger.isLoggable(Level.FINEST)) {
 				_logger.finest("  Encoded length=" + length +
 						"Encoded Data=\n" + Utils.dumpBytes("  ", buffer, 0, length));
 			}
 		}
 		
-		// Decode datagram to a Segment and enqueue the Segment to LtpInbound
+		// Decode datagram to a Segment
 		try {
 			long t1 = System.currentTimeMillis();
 			Segment segment = Segment.decode(con, buffer, offset, length);
@@ -423,10 +464,12 @@ public abstract class LtpLink extends Link {
 			}
 			long t2 = System.currentTimeMillis();
 			if (segment instanceof DataSegment) {
-				LtpManagement.getInstance()._ltpStats.nDecodeMSecs += (t2 - t1);
+				LtpStats ltpStats = LtpManagement.getInstance()._ltpStats;
+				synchronized (ltpStats) {
+					ltpStats.nDecodeMSecs += (t2 - t1);
+				}
 			}
-			
-			LtpInbound.getInstance().onInboundSegment(segment);
+			return segment;
 			
 		} catch (JDtnException e) {
 			if (e.getMessage().contains("No space left on device")) {
@@ -436,6 +479,7 @@ public abstract class LtpLink extends Link {
 				_logger.log(Level.SEVERE, "Processing incoming datagram", e);
 			}
 			_logger.severe("Discarding datagram");
+			return null;
 		}
 	}
 	
@@ -32,8 +32,7 @@ package com.cisco.qte.jdtn.ltp;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +58,7 @@ import com.cisco.qte.jdtn.general.Link;
 import com.cisco.qte.jdtn.general.LinkListener;
 import com.cisco.qte.jdtn.general.LinksList;
 import com.cisco.qte.jdtn.general.Neighbor;
+import com.cisco.qte.jdtn.general.WheelTimer;
 import com.cisco.qte.jdtn.ltp.OutboundBlock.LtpSenderState;
 import com.cisco.qte.jdtn.ltp.Segment.SegmentType;
 import org.kritikal.fabric.contrib.jdtn.BlobAndBundleDatabase;
@@ -92,8 +92,8 @@ implements LinkListener, SegmentTransmitCallback {
 		new HashMap<SessionId, OutboundBlock>();
 	// Amount of outbound data we're retaining, bytes
 	private long _outboundBytes = 0;
-	// java.util.Timer for all timers
-	private Timer _timer = null;
+	// WheelTimer for all timers
+	private WheelTimer _timer = null;
 	
 	/**
 	 * Get singleton instance
@@ -117,7 +117,7 @@ implements LinkListener, SegmentTransmitCallback {
 	 */
 	@Override
 	protected void startImpl() {
-		_timer = new Timer();
+		_timer = new WheelTimer();
 		for (Link link : LinksList.getInstance()) {
 			if (link instanceof LtpLink) {
 				link.addLinkListener(this);
@@ -143,7 +143,6 @@ implements LinkListener, SegmentTransmitCallback {
 		}
 			
 		// Clear timers
-		_timer.purge();
 		_timer.cancel();
 		_timer = null;
 		
@@ -1278,27 +1277,21 @@ implements LinkListener, SegmentTransmitCallback {
 			}
 			LtpManagement.getInstance().getLtpStats().nCkPtTimerStarts++;
 			dataSegment.setCheckpointTimerTask(
-				new TimerTask() {
-					@Override
-					public void run() {
-						OutboundBlock block = (OutboundBlock)dataSegment.getBlock();
-						if (block.getLtpSenderState() == LtpSenderState.CLOSED) {
-							_logger.warning("CheckPoint Timer expired on block in CLOSED state");
-							_logger.warning(block.dump("", false));
-						}
-						CheckpointTimerExpiredEvent event =
-							new CheckpointTimerExpiredEvent(dataSegment);
-						try {
-							processEvent(event);
-						} catch (InterruptedException e) {
-							// Ignore
+				_timer.scheduleHandOff(
+					new BooleanSupplier() {
+						private boolean _warned = false;
+						@Override
+						public boolean getAsBoolean() {
+							OutboundBlock block = (OutboundBlock)dataSegment.getBlock();
+							if (!_warned && block.getLtpSenderState() == LtpSenderState.CLOSED) {
+								_logger.warning("CheckPoint Timer expired on block in CLOSED state");
+								_logger.warning(block.dump("", false));
+								_warned = true;
+							}
+							return offerEvent(new CheckpointTimerExpiredEvent(dataSegment));
 						}
-					}
-				}
-			);
-			_timer.schedule(
-					dataSegment.getCheckpointTimerTask(), 
-					dataSegment.getLink().getCheckpointTimeout());
+					},
+					dataSegment.getLink().getCheckpointTimeout()));
 		}
 	}
 	
@@ -1310,7 +1303,6 @@ implements LinkListener, SegmentTransmitCallback {
 		if (dataSegment.getCheckpointTimerTask() != null) {
 			LtpManagement.getInstance().getLtpStats().nCkPtTimerStops++;
 			dataSegment.getCheckpointTimerTask().cancel();
-			_timer.purge();
 			dataSegment.setCheckpointTimerTask(null);
 		}
 	}
@@ -1431,22 +1423,14 @@ implements LinkListener, SegmentTransmitCallback {
 		
 		if (block.getNeighbor().isNeighborScheduledUp()) {
 			block.setCancelTimerTask(
-				new TimerTask() {
-					@Override
-					public void run() {
-						CancelTimerExpiredEvent event =
-							new CancelTimerExpiredEvent(cancelSegment, block);
-						try {
-							processEvent(event);
-						} catch (InterruptedException e) {
-							// Ignore
+				_timer.scheduleHandOff(
+					new BooleanSupplier() {
+						@Override
+						public boolean getAsBoolean() {
+							return offerEvent(new CancelTimerExpiredEvent(cancelSegment, block));
 						}
-					}
-				}
-			);
-			_timer.schedule(
-					block.getCancelTimerTask(), 
-					cancelSegment.getLink().getCancelTimeout());
+					},
+					cancelSegment.getLink().getCancelTimeout()));
 		}
 		
 	}
@@ -1459,7 +1443,6 @@ implements LinkListener, SegmentTransmitCallback {
 	private void stopCancelTimer(CancelSegment cancelSegment, OutboundBlock block) {
 		if (block.getCancelTimerTask() != null) {
 			block.getCancelTimerTask().cancel();
-			_timer.purge();
 			block.setCancelTimerTask(null);
 		}
 	}
@@ -31,7 +31,6 @@ package com.cisco.qte.jdtn.ltp;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +39,7 @@ import com.cisco.qte.jdtn.general.EncodeState;
 import com.cisco.qte.jdtn.general.GeneralManagement;
 import com.cisco.qte.jdtn.general.JDtnException;
 import com.cisco.qte.jdtn.general.Utils;
+import com.cisco.qte.jdtn.general.WheelTimer;
 
 /**
  * Report Segment - sent by receiver of a block to provide info to sender
@@ -80,7 +80,7 @@ public class ReportSegment extends Segment {
 	 * Used to timeout on RA (Report Ack) coming back from that Report Segment.
 	 * Managed by LtpInbound.
 	 */
-	protected TimerTask _rsTimerTask;
+	protected WheelTimer.Task _rsTimerTask;
 	
 	/**
 	 * Constructor: Used when decoding an inbound ReportSegment.
@@ -92,7 +92,7 @@ public class ReportSegment extends Segment {
 	
 	/**
 	 * Construct a "Primary" ReportSegment for the given Block.  The ReportSegment will
-	 * report on each and every Segment in the given Block up to and including
+	 * report on all Red data received in the given Block up to and including
 	 * the scope of the given DataSegment.  We will report a LowerBound of 0
 	 * regardless of what has been received.
 	 * NOTE: this constructor can build a ReportSegment which is too large for
@@ -125,35 +125,9 @@ public class ReportSegment extends Segment {
 			givenDataSegment.getClientDataOffset() + 
 			givenDataSegment.getClientDataLength();
 		
-		// Now build Claims
-		ReceptionClaim priorClaim = null;
-		long priorSegmentOffset = 0;
-		long priorSegmentLength = 0;
-		ArrayList<ReceptionClaim> claimsList = new ArrayList<ReceptionClaim>();
-		for (DataSegment dataSegment : block) {
-			long dataSegmentOffset = dataSegment.getClientDataOffset();
-			int dataSegmentLength = dataSegment.getClientDataLength();
-			
-			if (dataSegmentOffset + dataSegmentLength > _upperBound) {
-				break;
-			}
-			if (priorClaim != null &&
-				priorSegmentOffset + priorSegmentLength == dataSegmentOffset) {
-				// This DataSegment is contiguous with prior DataSegment
-				// so extend prior Claim
-				priorClaim._length += dataSegmentLength;
-			} else {
-				// No prior claim or there's a "hole"
-				// so create new Claim
-				ReceptionClaim claim = new ReceptionClaim(
-						dataSegmentOffset - _lowerBound,
-						dataSegmentLength);
-				claimsList.add(claim);
-				priorClaim = claim;
-			}
-			priorSegmentOffset = dataSegmentOffset;
-			priorSegmentLength = dataSegmentLength;
-		}
+		// Now build Claims, one per run of Red data received below UpperBound
+		List<ReceptionClaim> claimsList =
+			block.getRedDataReceived().claims(_lowerBound, _upperBound);
 		
 		_receptionClaimCount = claimsList.size();
 		if (_receptionClaimCount < 1) {
@@ -380,11 +354,22 @@ public class ReportSegment extends Segment {
 		if (dataSegmentOffset >= _lowerBound &&
 			dataSegmentOffset + dataSegmentLength <= _upperBound) {
 			
-			for (ReceptionClaim claim : _receptionClaims) {
-				long claimOffset = claim._offset + _lowerBound;
-				long claimUpper = claimOffset + claim._length;
-				if (dataSegmentOffset >= claimOffset &&
-					dataSegmentOffset + dataSegmentLength <= claimUpper) {
+			// Claims are in offset order and disjoint; find the last claim
+			// starting at or before the DataSegment
+			int low = 0;
+			int high = _receptionClaimCount - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (_receptionClaims[mid]._offset + _lowerBound <= dataSegmentOffset) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			if (high >= 0) {
+				ReceptionClaim claim = _receptionClaims[high];
+				long claimUpper = claim._offset + _lowerBound + claim._length;
+				if (dataSegmentOffset + dataSegmentLength <= claimUpper) {
 					return true;
 				}
 			}
@@ -537,7 +522,7 @@ public class ReportSegment extends Segment {
 	 * Used to timeout on RA (Report Ack) coming back from that Report Segment.
 	 * Managed by LtpInbound.
 	 */
-	public TimerTask getRsTimerTask() {
+	public WheelTimer.Task getRsTimerTask() {
 		return _rsTimerTask;
 	}
 
@@ -546,7 +531,7 @@ public class ReportSegment extends Segment {
 	 * Used to timeout on RA (Report Ack) coming back from that Report Segment.
 	 * Managed by LtpInbound.
 	 */
-	public void setRsTimerTask(TimerTask rsTimerTask) {
+	public void setRsTimerTask(WheelTimer.Task rsTimerTask) {
 		this._rsTimerTask = rsTimerTask;
 	}
 
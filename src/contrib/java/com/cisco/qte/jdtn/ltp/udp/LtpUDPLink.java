@@ -31,15 +31,19 @@ package com.cisco.qte.jdtn.ltp.udp;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.sql.SQLException;
 import java.util.Enumeration;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,14 +58,22 @@ import com.cisco.qte.jdtn.ltp.EngineId;
 import com.cisco.qte.jdtn.ltp.IPAddress;
 import com.cisco.qte.jdtn.ltp.LtpLink;
 import com.cisco.qte.jdtn.ltp.LtpException;
+import com.cisco.qte.jdtn.ltp.LtpInbound;
 import com.cisco.qte.jdtn.ltp.LtpManagement;
 import com.cisco.qte.jdtn.ltp.LtpNeighbor;
+import com.cisco.qte.jdtn.ltp.Segment;
 import com.cisco.qte.jdtn.general.XmlRDParser;
 import com.cisco.qte.jdtn.general.XmlRdParserException;
 import org.kritikal.fabric.contrib.jdtn.BlobAndBundleDatabase;
 
 /**
- * UDP implementation of LTP Link.  Uses DatagramSocket to send/ receive.
+ * UDP implementation of LTP Link.  Uses a DatagramChannel to send/ receive.
+ * Datagrams are received into pooled buffers and decoded in place; the
+ * buffer goes back to the pool once the Segment has been decoded.  Several
+ * Link Receive Threads may share the channel (see receiveThreads): they take
+ * turns to receive, each datagram numbered as it's received, and decode in
+ * parallel, but the Segments reach LtpInbound in the order they were
+ * received, so a session's segments are never reordered here.
  */
 public class LtpUDPLink extends LtpLink {
 	// This is only valid for Ethernet, IPV4, no IP options.  If using
@@ -73,6 +85,8 @@ public class LtpUDPLink extends LtpLink {
 	/** The default max frame size; valid only for Ethernet, IPV4, no IP options */
 	protected static final int DEFAULT_MAX_FRAME_SIZE =
 		MAX_ETHERNET_FRAME_SIZE - IP_HEADER_SIZE - UDP_HEADER_SIZE - SAFE_SLOP;
+	/** The default number of Link Receive Threads */
+	protected static final int DEFAULT_RECEIVE_THREADS = 1;
 	
 	private static final Logger _logger =
 		Logger.getLogger(LtpUDPLink.class.getCanonicalName());
@@ -88,9 +102,19 @@ public class LtpUDPLink extends LtpLink {
 	/** Whether to deliver traffic from unknown neighbors */
 	protected boolean _deliverTrafficFromUnknownNeighbors = true;
 	
-	private DatagramSocket _socket = null;
+	private DatagramChannel _channel = null;
 	private boolean _isSocketOpen = false;
 	private int _maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private int _receiveThreads = DEFAULT_RECEIVE_THREADS;
+	// Free receive buffers; one is in use per receive in progress
+	private final ConcurrentLinkedQueue<ByteBuffer> _receiveBuffers =
+		new ConcurrentLinkedQueue<ByteBuffer>();
+	// Held to receive and number a datagram
+	private final Object _receiveLock = new Object();
+	private long _nextReceived = 0;
+	// Held to deliver a decoded Segment; waited on for its turn
+	private final Object _deliverLock = new Object();
+	private long _nextDelivered = 0;
 	
 	/**
 	 * Parse a UDPLink from given XMLPullParser and create a UDPLink.  It is
@@ -112,7 +136,8 @@ public class LtpUDPLink extends LtpLink {
 		//    linkName="name" 	(already parsed by caller)
 		//    ifName="ifname"
 		//    ipv6="boolean" 
-		//    maxFrameSize="n">
+		//    maxFrameSize="n"
+		//    receiveThreads="n">
 		//    <UdpNeighbor .../>
 		// </zlink>
 		String ifName = parser.getAttributeValue("ifName");
@@ -147,6 +172,13 @@ public class LtpUDPLink extends LtpLink {
 			udpLink.setMaxFrameSize(intValue.intValue());
 		}
 		
+		// Install receiveThreads attribute if configured
+		intValue = Utils.getIntegerAttribute(
+				parser, "receiveThreads", 1, Integer.MAX_VALUE);
+		if (intValue != null) {
+			udpLink.setReceiveThreads(intValue.intValue());
+		}
+		
 		return udpLink;
 	}
 	
@@ -162,6 +194,9 @@ public class LtpUDPLink extends LtpLink {
 		if (getMaxFrameSize() != DEFAULT_MAX_FRAME_SIZE) {
 			pw.println("        maxFrameSize='" + getMaxFrameSize() + "'");
 		}
+		if (getReceiveThreads() != DEFAULT_RECEIVE_THREADS) {
+			pw.println("        receiveThreads='" + getReceiveThreads() + "'");
+		}
 	}
 	
 	/**
@@ -366,6 +401,31 @@ public class LtpUDPLink extends LtpLink {
 		this._maxFrameSize = maxFrameSize;
 	}
 	
+	/**
+	 * Get the number of Link Receive Threads sharing this Link's channel
+	 * @return Number of receive threads
+	 */
+	public int getReceiveThreads() {
+		return _receiveThreads;
+	}
+	
+	/**
+	 * Set the number of Link Receive Threads sharing this Link's channel.
+	 * Takes effect the next time the Link is started.
+	 * @param receiveThreads Number of receive threads
+	 */
+	public void setReceiveThreads(int receiveThreads) {
+		this._receiveThreads = receiveThreads;
+	}
+	
+	/**
+	 * Number of Link Receive Threads to run on this Link
+	 */
+	@Override
+	protected int getReceiveThreadCount() {
+		return _receiveThreads;
+	}
+	
 	/**
 	 * Receive a DatagramPacket on the Link. Blocks.  When Datagram Packet
 	 * received, calls back through notifyReceived().
@@ -374,7 +434,7 @@ public class LtpUDPLink extends LtpLink {
 	@Override
 	protected void receiveImpl() throws JDtnException, InterruptedException {
 		
-		// If _socket hasn't been successfully opened, try to open it now
+		// If _channel hasn't been successfully opened, try to open it now
 		synchronized (this) {
 			if (!_isSocketOpen) {
 				try {
@@ -388,13 +448,23 @@ public class LtpUDPLink extends LtpLink {
 			}
 		}
 		
-		// Post the Receive
-		byte[] buf = new byte[getMaxFrameSize()];
-		DatagramPacket packet = new DatagramPacket(buf, 0, getMaxFrameSize());
+		// Post the Receive into a pooled buffer
+		ByteBuffer buffer = _receiveBuffers.poll();
+		if (buffer == null || buffer.capacity() != getMaxFrameSize()) {
+			buffer = ByteBuffer.allocate(getMaxFrameSize());
+		}
+		buffer.clear();
+		long received = -1;
 		try {
-			_socket.receive(packet);
+			InetAddress fromAddress;
+			synchronized (_receiveLock) {
+				fromAddress = ((InetSocketAddress)_channel.receive(buffer)).getAddress();
+				received = _nextReceived++;
+			}
+			byte[] buf = buffer.array();
+			int length = buffer.position();
 			// Check if from a known Neighbor.
-			IPAddress ipAddr = new IPAddress(packet.getAddress());
+			IPAddress ipAddr = new IPAddress(fromAddress);
 			Neighbor neighbor = NeighborsList.getInstance().findNeighborByAddress(ipAddr);
 			if (neighbor == null) {
 				// Unknown Neighbor.  This is most likely an unknown Neighbor
@@ -405,12 +475,12 @@ public class LtpUDPLink extends LtpLink {
 					// We're going to reject this packet
 					_logger.warning(
 							"Packet received and discarded from unknown neighbor at address " +
-							packet.getAddress());
+							fromAddress);
 					return;
 				}
 				// we're going to create a temporary neighbor and deliver this
 				// packet.
-				IPAddress ipAddress = new IPAddress(packet.getAddress());
+				IPAddress ipAddress = new IPAddress(fromAddress);
 				EngineId engineId = new EngineId(ipAddress);
 				LinkAddress linkAddress = new LinkAddress(this, ipAddress);
 				neighbor = new LtpUDPNeighbor(linkAddress, engineId, "Temporary Neighbor");
@@ -420,45 +490,91 @@ public class LtpUDPLink extends LtpLink {
 			} else {
 				// Found Neighbor w/ the IPAddress.  But check to see if the Link has shifted.
 				// This can occur on routing recalcs. E.g., a shift-over from a
-				// Wifi link to a cellular link.
-				if (!neighbor.hasLink(this)) {
-					// Neighbor's IP Address is known, but on a different Link than this
-					// Change the Link association of the Neighbor
-					int index = neighbor.getAddressIndex(ipAddr);
-					neighbor.removeLinkAddress(index);
-					// Now add in the correct Link Address
-					LinkAddress linkAddress = new LinkAddress(this, ipAddr);
-					neighbor.addLinkAddress(linkAddress);
+				// Wifi link to a cellular link.  Other receive threads may be
+				// checking the same Neighbor.
+				synchronized (neighbor) {
+					if (!neighbor.hasLink(this)) {
+						// Neighbor's IP Address is known, but on a different Link than this
+						// Change the Link association of the Neighbor
+						int index = neighbor.getAddressIndex(ipAddr);
+						neighbor.removeLinkAddress(index);
+						// Now add in the correct Link Address
+						LinkAddress linkAddress = new LinkAddress(this, ipAddr);
+						neighbor.addLinkAddress(linkAddress);
+					}
 				}
 			}
 			
 			// Notify super about the received packet
 			if (GeneralManagement.isDebugLogging()) {
-				_logger.fine("Received Packet, Length=" + packet.getLength());
+				_logger.fine("Received Packet, Length=" + length);
 				if (_logger.isLoggable(Level.FINEST)) {
-					_logger.finest("Received Data=" + Utils.dumpBytes("  ", buf, 0, packet.getLength()));
+					_logger.finest("Received Data=" + Utils.dumpBytes("  ", buf, 0, length));
 				}
 			}
 			java.sql.Connection con = BlobAndBundleDatabase.getInstance().getInterface().createConnection();
 			try {
-				notifyReceived(con, this, (LtpNeighbor) neighbor, buf, 0, packet.getLength());
+				Segment segment = decodeReceived(con, this, (LtpNeighbor) neighbor, buf, 0, length);
+				long turn = received;
+				received = -1;
+				deliverInTurn(turn, segment);
 				try { con.commit(); } catch (SQLException e) { _logger.warning(e.getMessage()); }
 			}
 			finally {
 				try { con.close(); } catch (SQLException e) { _logger.warning(e.getMessage()); }
 			}
 			
+		} catch (ClosedChannelException e) {
+			// Closed by linkStopImpl(), or by interrupting a receive
+			notifyLinkDatalinkDown();
+			if (GeneralManagement.isDebugLogging()) {
+				_logger.fine("Link " + getName() + ": Receive() detected shutdown");
+			}
 		} catch (IOException e) {
 			notifyLinkDatalinkDown();
-			if (e.getMessage().equalsIgnoreCase("Socket closed") ||
-				e.getMessage().equalsIgnoreCase("The system call was cancelled")) {
-				if (GeneralManagement.isDebugLogging()) {
-					_logger.fine("Link " + getName() + ": Receive() detected shutdown");
+			throw new JDtnException("UDPLink " + getName() + ": packet receive", e);
+		} finally {
+			if (received >= 0) {
+				// Discarded, or failed; pass on its turn
+				deliverInTurn(received, null);
+			}
+			// Segment.decode() copied out whatever it keeps
+			_receiveBuffers.offer(buffer);
+		}
+	}
+	
+	/**
+	 * Wait until every datagram received before this one has been delivered,
+	 * then enqueue its Segment to LtpInbound.  The wait can't be cut short:
+	 * the threads ahead always take their turn, even when interrupted, and
+	 * skipping one would let later Segments overtake it.
+	 * @param received The datagram's number, from _nextReceived
+	 * @param segment Its Segment, or null to pass on its turn
+	 * @throws InterruptedException If interrupted while enqueueing
+	 */
+	private void deliverInTurn(long received, Segment segment)
+	throws InterruptedException {
+		boolean interrupted = false;
+		synchronized (_deliverLock) {
+			while (_nextDelivered != received) {
+				try {
+					_deliverLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
-			} else {
-				throw new JDtnException("UDPLink " + getName() + ": packet receive", e);
+			}
+			try {
+				if (segment != null) {
+					LtpInbound.getInstance().onInboundSegment(segment);
+				}
+			} finally {
+				_nextDelivered++;
+				_deliverLock.notifyAll();
 			}
 		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -485,7 +601,7 @@ public class LtpUDPLink extends LtpLink {
 					" exceeds max packet size: " + getMaxFrameSize());
 		}
 		
-		// If _socket hasn't been successfully opened, try to open it now
+		// If _channel hasn't been successfully opened, try to open it now
 		synchronized (this) {
 			if (!_isSocketOpen) {
 				try {
@@ -508,11 +624,12 @@ public class LtpUDPLink extends LtpLink {
 		
 		// Send the Packet
 		IPAddress address = (IPAddress)udpNeighbor.getAddressForLink(this);
-		DatagramPacket packet = new DatagramPacket(
-				buffer, offset, length, address.getInetAddress(), 
-				LtpManagement.getInstance().getLtpUdpPort());
 		try {
-			_socket.send(packet);
+			_channel.send(
+					ByteBuffer.wrap(buffer, offset, length),
+					new InetSocketAddress(
+							address.getInetAddress(),
+							LtpManagement.getInstance().getLtpUdpPort()));
 			if (GeneralManagement.isDebugLogging()) {
 				_logger.fine("Sent " + length + " bytes");
 			}
@@ -536,22 +653,22 @@ public class LtpUDPLink extends LtpLink {
 			}
 		}
 		
-		// Open the DatagramSocket
+		// Open the DatagramChannel; blocking, like the DatagramSocket it replaces
 		try {
-			_socket = new DatagramSocket(LtpManagement.getInstance().getLtpUdpPort(), _ipAddress.getInetAddress());	
-			_socket.setSendBufferSize(LtpManagement.getInstance().getLtpUdpRecvBufferSize());
-			_socket.setReceiveBufferSize(LtpManagement.getInstance().getLtpUdpRecvBufferSize());
-			_socket.setSoTimeout(0);
-			_socket.setReuseAddress(false);
+			_channel = DatagramChannel.open();
+			_channel.setOption(StandardSocketOptions.SO_SNDBUF, LtpManagement.getInstance().getLtpUdpRecvBufferSize());
+			_channel.setOption(StandardSocketOptions.SO_RCVBUF, LtpManagement.getInstance().getLtpUdpRecvBufferSize());
+			_channel.setOption(StandardSocketOptions.SO_REUSEADDR, false);
+			_channel.bind(new InetSocketAddress(_ipAddress.getInetAddress(), LtpManagement.getInstance().getLtpUdpPort()));
 			_isSocketOpen = true;
 			notifyLinkDatalinkUp();
 			
 			if (GeneralManagement.isDebugLogging()) {
-				_logger.fine("Socket Receive Buffer = " + _socket.getReceiveBufferSize());
-				_logger.fine("Socekt Transmit Buffer = " + _socket.getSendBufferSize());
+				_logger.fine("Socket Receive Buffer = " + _channel.getOption(StandardSocketOptions.SO_RCVBUF));
+				_logger.fine("Socekt Transmit Buffer = " + _channel.getOption(StandardSocketOptions.SO_SNDBUF));
 			}
 			
-		} catch (SocketException e) {
+		} catch (IOException e) {
 			if (GeneralManagement.isDebugLogging()) {
 				_logger.fine("While opening socket, got Exception: " + e.getMessage());
 			}
@@ -573,10 +690,14 @@ public class LtpUDPLink extends LtpLink {
 			}
 		}
 		synchronized (this) {
-			if (_isSocketOpen) {
-				_socket.close();
-				_isSocketOpen = false;
+			if (_channel != null) {
+				try {
+					_channel.close();
+				} catch (IOException e) {
+					// Nothing
+				}
 			}
+			_isSocketOpen = false;
 		}
 		notifyLinkDatalinkDown();
 	}
@@ -658,6 +779,7 @@ public class LtpUDPLink extends LtpLink {
 		sb.append(indent + "  isIPV6=" + isiPV6() + "\n");
 		sb.append(indent + "  IPAddress=" + _ipAddress + "\n");
 		sb.append(indent + "  maxFrameSize=" + _maxFrameSize + "\n");
+		sb.append(indent + "  receiveThreads=" + _receiveThreads + "\n");
 		
 		return sb.toString();
 	}
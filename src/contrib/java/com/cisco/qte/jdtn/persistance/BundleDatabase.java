@@ -32,7 +32,10 @@ package com.cisco.qte.jdtn.persistance;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,6 +79,70 @@ public class BundleDatabase extends AbstractStartableComponent {
 	private static final boolean START_CLEAN_DEFAULT = false;
 	
 	private static final String START_CLEAN_ATTR = "startClean";
+	private static final long GROUP_COMMIT_MSECS_DEFAULT = 0L;
+	private static final String GROUP_COMMIT_MSECS_ATTR = "groupCommitMSecs";
+	
+	// Statements on a Bundle's row, keyed by the unique key columns
+	private static final String BUNDLE_KEY =
+		" where " +
+		BundleDatabaseConstants.SOURCE_EID_COL + "=? and " +
+		BundleDatabaseConstants.TIME_SECS_COL + "=? and " +
+		BundleDatabaseConstants.SEQUENCE_NO_COL + "=? and " +
+		BundleDatabaseConstants.FRAG_OFFSET_COL + "=?";
+	private static final String[] BUNDLE_COLUMNS = {
+		BundleDatabaseConstants.PATH_COL,
+		BundleDatabaseConstants.STORAGETYPE_COL,
+		BundleDatabaseConstants.LENGTH_COL,
+		BundleDatabaseConstants.SOURCE_COL,
+		BundleDatabaseConstants.STATE_COL,
+		BundleDatabaseConstants.EID_SCHEME_COL,
+		BundleDatabaseConstants.LINK_NAME_COL,
+		BundleDatabaseConstants.IS_INBOUND_COL,
+		BundleDatabaseConstants.RETENTION_CONSTRAINT_COL,
+		BundleDatabaseConstants.DATA_BLOB_COL
+	};
+	private static final String INSERT_BUNDLE =
+		"insert into " + BundleDatabaseConstants.TABLE_NAME + " (" +
+		BundleDatabaseConstants.SOURCE_EID_COL + ", " +
+		BundleDatabaseConstants.TIME_SECS_COL + ", " +
+		BundleDatabaseConstants.SEQUENCE_NO_COL + ", " +
+		BundleDatabaseConstants.FRAG_OFFSET_COL + ", " +
+		String.join(", ", BUNDLE_COLUMNS) +
+		") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String UPDATE_BUNDLE =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		String.join("=?, ", BUNDLE_COLUMNS) + "=?" + BUNDLE_KEY;
+	private static final String UPDATE_STATE =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		BundleDatabaseConstants.STATE_COL + "=?, " +
+		BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=?" + BUNDLE_KEY;
+	private static final String UPDATE_RETENTION_CONSTRAINT =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=?" + BUNDLE_KEY;
+	private static final String UPDATE_LINK =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		BundleDatabaseConstants.LINK_NAME_COL + "=?" + BUNDLE_KEY;
+	private static final String UPDATE_EID_SCHEME =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		BundleDatabaseConstants.EID_SCHEME_COL + "=?" + BUNDLE_KEY;
+	private static final String UPDATE_DATA_BLOB =
+		"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
+		BundleDatabaseConstants.DATA_BLOB_COL + "=?" + BUNDLE_KEY;
+	private static final String SELECT_EID_SCHEME =
+		"select " + BundleDatabaseConstants.EID_SCHEME_COL +
+		" from " + BundleDatabaseConstants.TABLE_NAME + BUNDLE_KEY;
+	private static final String SELECT_BUNDLE_DATA =
+		"select " +
+		BundleDatabaseConstants.PATH_COL + ", " +
+		BundleDatabaseConstants.EID_SCHEME_COL + ", " +
+		BundleDatabaseConstants.STORAGETYPE_COL + ", " +
+		BundleDatabaseConstants.DATA_BLOB_COL +
+		" from " + BundleDatabaseConstants.TABLE_NAME + BUNDLE_KEY;
+	private static final String DELETE_BUNDLE =
+		"delete from " + BundleDatabaseConstants.TABLE_NAME + BUNDLE_KEY +
+		" returning " +
+		BundleDatabaseConstants.PATH_COL + ", " +
+		BundleDatabaseConstants.STORAGETYPE_COL;
 	
 	private static final Logger _logger =
 		Logger.getLogger(BundleDatabase.class.getCanonicalName());
@@ -85,6 +152,12 @@ public class BundleDatabase extends AbstractStartableComponent {
 	/** StartClean property */
 	private boolean _startClean = START_CLEAN_DEFAULT;
 	
+	/** GroupCommitMSecs property */
+	private long _groupCommitMSecs = GROUP_COMMIT_MSECS_DEFAULT;
+	
+	/** Group commits Bundle state transitions while started */
+	private BundleDatabaseWriter _writer = null;
+	
 	protected DBInterface _dbInterface = null;
 	
 	/**
@@ -119,6 +192,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 	 */
 	public void setDefaults() {
 		_startClean = START_CLEAN_DEFAULT;
+		_groupCommitMSecs = GROUP_COMMIT_MSECS_DEFAULT;
 	}
 	
 	/**
@@ -128,6 +202,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 	 * Properties:
 	 * <ul>
 	 *   <li>startClean - whether to start with a clean database
+	 *   <li>groupCommitMSecs - how long to gather updates into one commit
 	 * </ul>
 	 * @param parser Given XML parser
 	 * @throws IOException On I/O errors
@@ -143,6 +218,10 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (startClean != null) {
 			setStartClean(startClean);
 		}
+		Long groupCommitMSecs = Utils.getLongAttribute(parser, GROUP_COMMIT_MSECS_ATTR, 0L, Long.MAX_VALUE);
+		if (groupCommitMSecs != null) {
+			setGroupCommitMSecs(groupCommitMSecs);
+		}
 	}
 	
 	/**
@@ -157,6 +236,9 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (_startClean != START_CLEAN_DEFAULT) {
 			pw.println("    " + START_CLEAN_ATTR + "='" + _startClean + "'");
 		}
+		if (_groupCommitMSecs != GROUP_COMMIT_MSECS_DEFAULT) {
+			pw.println("    " + GROUP_COMMIT_MSECS_ATTR + "='" + _groupCommitMSecs + "'");
+		}
 	}
 	
 	/**
@@ -174,6 +256,8 @@ public class BundleDatabase extends AbstractStartableComponent {
 
 			_dbInterface = Platform.getDBInterface();
 			_dbInterface.openDB(isStartClean());
+			_writer = new BundleDatabaseWriter(_dbInterface, getGroupCommitMSecs());
+			_writer.start();
 
 		} catch (JDtnException e) {
 			_logger.log(Level.SEVERE, "startImpl()", e);
@@ -194,6 +278,10 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("stopImpl()");
 		}
+		if (_writer != null) {
+			_writer.stop();
+			_writer = null;
+		}
 		if (_dbInterface != null) {
 			try {
 				
@@ -221,13 +309,13 @@ public class BundleDatabase extends AbstractStartableComponent {
 	 * @throws InterruptedException On Interrupt from serializaiton
 	 */
 	public void introduceBundle(
-			Bundle bundle, 
-			BundleSource source, 
+			Bundle bundle,
+			BundleSource source,
 			BundleState state,
-			EidScheme eidScheme) 
+			EidScheme eidScheme)
 	throws JDtnException, InterruptedException {
 		if (GeneralManagement.isDebugLogging()) {
-			_logger.finer("introduceBundle(" + 
+			_logger.finer("introduceBundle(" +
 					" state=" + BundleState.toParseableString(state) +
 					" source=" + BundleSource.toParseableString(source) +
 					")");
@@ -248,81 +336,23 @@ public class BundleDatabase extends AbstractStartableComponent {
 			bundle.encode(con, encodeState, eidScheme);
 			encodeState.close();
 
-			// Query to see if Bundle is already in Database.  If so, replace it.
-			String statementText = null;
-			statementText =
-					"select " +
-							BundleDatabaseConstants.PATH_COL +
-							" from " + BundleDatabaseConstants.TABLE_NAME + " where " +
-							BundleDatabaseConstants.STORAGETYPE_COL + " = " + BlobAndBundleDatabase.intOf(path.getStorageType()) + " and " +
-							BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-							BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-							BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-							BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-							";"
-			;
-			_logger.fine(statementText);
-
+			// Update the Bundle if it is already in Database, else insert it.
+			// The File and the row are committed together.
 			try {
-				QueryResults qr = _dbInterface.executeQuery(con, statementText);
-				if (qr.next()) {
-					qr.close();
-
-					// Already in Database; replace it
-					statementText =
-							"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-									BundleDatabaseConstants.PATH_COL + "='" + path.getAbsolutePath() + "', " +
-									BundleDatabaseConstants.STORAGETYPE_COL + "=" + BlobAndBundleDatabase.intOf(path.getStorageType()) + ", " +
-									BundleDatabaseConstants.LENGTH_COL + "=" + path.length(con) + ", " +
-									BundleDatabaseConstants.SOURCE_COL + "='" + BundleSource.toParseableString(source) + "', " +
-									BundleDatabaseConstants.STATE_COL + "='" + BundleState.toParseableString(state) + "', " +
-									BundleDatabaseConstants.EID_SCHEME_COL + "='" + EidScheme.eidSchemeToString(eidScheme) + "', " +
-									(bundle.getLink() != null ?
-											BundleDatabaseConstants.LINK_NAME_COL + "='" + bundle.getLink().getName() + "', " :
-											BundleDatabaseConstants.LINK_NAME_COL + "=null, ") +
-									(bundle.isInboundBundle() ?
-											BundleDatabaseConstants.IS_INBOUND_COL + "=1, " :
-											BundleDatabaseConstants.IS_INBOUND_COL + "=0, ") +
-									BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=" + bundle.getRetentionConstraint() + " " +
-									BundleDatabaseConstants.DATA_BLOB_COL + "=" + path.getOid() + " " +
-									"where " +
-									BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-									BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-									BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-									BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-									";"
-					;
-					_logger.fine(statementText);
-					_dbInterface.executeUpdate(con, statementText);
-					try { con.commit(); } catch (SQLException e) {
-						_logger.warning(e.getMessage());
+				PreparedStatement statement = con.prepareStatement(UPDATE_BUNDLE);
+				try {
+					int ix = setBundleColumns(statement, 1, bundle, path, encodeState.getLength(), source, state, eidScheme);
+					setBundleKey(statement, ix, bundle);
+					if (statement.executeUpdate() == 0) {
+						statement.close();
+						statement = con.prepareStatement(INSERT_BUNDLE);
+						ix = setBundleKey(statement, 1, bundle);
+						setBundleColumns(statement, ix, bundle, path, encodeState.getLength(), source, state, eidScheme);
+						statement.executeUpdate();
 					}
-					return;
+				} finally {
+					statement.close();
 				}
-				qr.close();
-
-				// Not already in database; Create an entry in the Database
-				statementText =
-						"insert into " + BundleDatabaseConstants.TABLE_NAME + " values (" +
-								"'" + bundle.getExtendedBundleId().getBundleId().sourceEndPointId.getEndPointIdString() + "', " +
-								bundle.getPrimaryBundleBlock().getCreationTimestamp().getTimeSecsSinceY2K() + ", " +
-								bundle.getPrimaryBundleBlock().getCreationTimestamp().getSequenceNumber() + ", " +
-								bundle.getPrimaryBundleBlock().getFragmentOffset() + ", " +
-								"'" + path.getAbsolutePath() + "', " +
-								BlobAndBundleDatabase.intOf(path.getStorageType()) + ", " +
-								path.length(con) + ", " +
-								"'" + BundleSource.toParseableString(source) + "', " +
-								"'" + BundleState.toParseableString(state) + "', " +
-								"'" + EidScheme.eidSchemeToString(eidScheme) + "', " +
-								((bundle.getLink() == null) ?
-										"NULL, " :
-										"'" + bundle.getLink().getName() + "', ") +
-								"'" + bundle.isInboundBundle() + "', " +
-								bundle.getRetentionConstraint() + ", " +
-								path.getOid() +
-								");";
-				_logger.fine(statementText);
-				_dbInterface.executeInsert(con, statementText);
 
 				try { con.commit(); } catch (SQLException e) {
 					_logger.warning(e.getMessage());
@@ -332,7 +362,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 			} catch (IllegalArgumentException e) {
 				_logger.log(Level.SEVERE, "introduceBundle()", e);
 				try { con.rollback(); } catch (SQLException ignore) { }
-			} catch (DBInterfaceException e) {
+			} catch (SQLException e) {
 				_logger.log(Level.SEVERE, "introduceBundle()", e);
 				try { con.rollback(); } catch (SQLException ignore) { }
 			}
@@ -343,7 +373,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 			}
 		}
 	}
-	
+
 	/**
 	 * Update the retention constraint for an existing Bundle.  It is assumed
 	 * the Bundle is already in the database.
@@ -354,45 +384,11 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("updateRetentionConstraint()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=" + bundle.getRetentionConstraint() + " " +
-				"where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		executeUninterruptibly(
+				UPDATE_RETENTION_CONSTRAINT,
+				withBundleKey(bundle, Integer.toString(bundle.getRetentionConstraint())));
 	}
-	
+
 	/**
 	 * Update the Link name property for an existing Bundle.  It is assumed
 	 * the Bundle is already in the database.
@@ -403,43 +399,11 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("updateLink()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.LINK_NAME_COL + "='" + link.getName() + "' " +
-				"where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		executeUninterruptibly(
+				UPDATE_LINK,
+				withBundleKey(bundle, link.getName()));
 	}
-	
+
 	/**
 	 * Update the EidScheme property for an existing Bundle.  It is assumed
 	 * the Bundle is already in the database.
@@ -447,48 +411,16 @@ public class BundleDatabase extends AbstractStartableComponent {
 	 * @param eidScheme The EidScheme
 	 * @throws JDtnException on errors
 	 */
-	public void updateEidScheme(Bundle bundle, EidScheme eidScheme) 
+	public void updateEidScheme(Bundle bundle, EidScheme eidScheme)
 	throws JDtnException {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("updateEidScheme()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.EID_SCHEME_COL + "='" + EidScheme.eidSchemeToString(eidScheme) + "' " +
-				"where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		executeUninterruptibly(
+				UPDATE_EID_SCHEME,
+				withBundleKey(bundle, EidScheme.eidSchemeToString(eidScheme)));
 	}
-	
+
 	/**
 	 * Get the EidScheme for given Bundle from the Bundle Database.
 	 * @param bundle Given Bundle
@@ -508,33 +440,29 @@ public class BundleDatabase extends AbstractStartableComponent {
 		}
 		java.sql.Connection con = getInterface().createConnection();
 		try {
-			String statementText =
-				"select " + BundleDatabaseConstants.EID_SCHEME_COL + " from " + BundleDatabaseConstants.TABLE_NAME +
-				"where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
 			try {
-				QueryResults qr = _dbInterface.executeQuery(con, statementText);
-				if (qr.next()) {
-					qr.close();
-					EidScheme eidScheme =
-						EidScheme.parseEidScheme(qr.getString(1));
-					try { con.commit(); } catch (SQLException e) {
-						_logger.warning(e.getMessage());
+				PreparedStatement statement = con.prepareStatement(SELECT_EID_SCHEME);
+				try {
+					setBundleKey(statement, 1, bundle);
+					ResultSet rs = statement.executeQuery();
+					try {
+						if (rs.next()) {
+							EidScheme eidScheme =
+								EidScheme.parseEidScheme(rs.getString(1));
+							try { con.commit(); } catch (SQLException e) {
+								_logger.warning(e.getMessage());
+							}
+							return eidScheme;
+						}
+					} finally {
+						rs.close();
 					}
-					return eidScheme;
-
-				} else {
-					qr.close();
-					try { con.rollback(); } catch (SQLException ignore) { }
-					throw new JDtnException("No such Bundle: " + bundle.getExtendedBundleId().dump("", false));
+				} finally {
+					statement.close();
 				}
-			} catch (DBInterfaceException e) {
+				try { con.rollback(); } catch (SQLException ignore) { }
+				throw new JDtnException("No such Bundle: " + bundle.getExtendedBundleId().dump("", false));
+			} catch (SQLException e) {
 				try { con.rollback(); } catch (SQLException ignore) { }
 				throw new JDtnException(e);
 			}
@@ -545,14 +473,14 @@ public class BundleDatabase extends AbstractStartableComponent {
 			}
 		}
 	}
-	
+
 	/**
 	 * Update encoded Bundle file blob
 	 * @param bundle Bundle to update
 	 * @throws JDtnException on errors
 	 * @throws InterruptedException If interrupted
 	 */
-	public void updateBundleData(Bundle bundle) 
+	public void updateBundleData(Bundle bundle)
 	throws JDtnException, InterruptedException {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("updateBundleData()");
@@ -565,49 +493,49 @@ public class BundleDatabase extends AbstractStartableComponent {
 		}
 		java.sql.Connection con = getInterface().createConnection();
 		try {
-			// Select entry from DB corresponding to given bundle
-			String statementText =
-				"select " +
-				BundleDatabaseConstants.PATH_COL + ", " + BundleDatabaseConstants.EID_SCHEME_COL + ", " + BundleDatabaseConstants.STORAGETYPE_COL + ", " + BundleDatabaseConstants.DATA_BLOB_COL +
-				" from " + BundleDatabaseConstants.TABLE_NAME + " where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
 			try {
-				QueryResults qr = _dbInterface.executeQuery(con, statementText);
-
-				// Pull queried column values from ResultSet of query
-				if (!qr.next()) {
-					qr.close();
-					throw new IllegalStateException("Query for bundle returned no results");
+				// Select entry from DB corresponding to given bundle
+				MediaRepository.File file;
+				EidScheme eidScheme;
+				PreparedStatement statement = con.prepareStatement(SELECT_BUNDLE_DATA);
+				try {
+					setBundleKey(statement, 1, bundle);
+					ResultSet rs = statement.executeQuery();
+					try {
+						// Pull queried column values from ResultSet of query
+						if (!rs.next()) {
+							throw new IllegalStateException("Query for bundle returned no results");
+						}
+						String pathnameStr = rs.getString(1);
+						eidScheme = EidScheme.parseEidScheme(rs.getString(2));
+						BlobAndBundleDatabase.StorageType storageType = BlobAndBundleDatabase.storageTypeOf(rs.getInt(3));
+						file = new MediaRepository.File(storageType, pathnameStr);
+						file.setOid(rs.getLong(4));
+					} finally {
+						rs.close();
+					}
+				} finally {
+					statement.close();
 				}
-				String pathnameStr = qr.getString(1);
-				EidScheme eidScheme = EidScheme.parseEidScheme(qr.getString(2));
-				BlobAndBundleDatabase.StorageType storageType = BlobAndBundleDatabase.storageTypeOf(qr.getInt(3));
-				MediaRepository.File file = new MediaRepository.File(storageType, pathnameStr);
-				file.setOid(qr.getLong(4));
-				qr.close();
 
 				// Encode the bundle to its file
 				EncodeState encodeState = new EncodeState();
 				bundle.encode(con, encodeState, eidScheme);
 				encodeState.close();
 
-				_dbInterface.executeUpdate(con, "UPDATE " + BundleDatabaseConstants.TABLE_NAME + " SET " + BundleDatabaseConstants.DATA_BLOB_COL + "=" + file.getOid() + " where " +
-						BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-						BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-						BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-						BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-						";");
+				statement = con.prepareStatement(UPDATE_DATA_BLOB);
+				try {
+					statement.setLong(1, file.getOid());
+					setBundleKey(statement, 2, bundle);
+					statement.executeUpdate();
+				} finally {
+					statement.close();
+				}
 				try { con.commit(); } catch (SQLException e) {
 					_logger.warning(e.getMessage());
 				}
 				return;
-			} catch (DBInterfaceException e) {
+			} catch (SQLException e) {
 				try { con.rollback(); } catch (SQLException ignore) { }
 				throw new JDtnException(e);
 			}
@@ -618,7 +546,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 			}
 		}
 	}
-	
+
 	/**
 	 * Update database as Bundle is being enqueued for forwarding.
 	 * @param bundle The affected Bundle
@@ -630,95 +558,23 @@ public class BundleDatabase extends AbstractStartableComponent {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("bundleForwardEnqueued()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-			// Update the BundleState and Retention constraint in the DB
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.STATE_COL + "='" + BundleState.toParseableString(BundleState.FORWARD_ENQUEUED) + "', " +
-				BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=" + bundle.getRetentionConstraint() +
-				" where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		updateBundleState(bundle, BundleState.FORWARD_ENQUEUED);
 	}
-	
+
 	/**
 	 * Update database as Bundle is being held awaiting a Route to destination
 	 * @param bundle The affected Bundle
 	 * @throws JDtnException on errors
 	 * @throws InterruptedException process interrupted
 	 */
-	public void bundleHeld(Bundle bundle) 
+	public void bundleHeld(Bundle bundle)
 	throws JDtnException, InterruptedException {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("bundleHeld()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-			// Update the BundleState and Retention Constraint in the DB
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.STATE_COL + "='" + BundleState.toParseableString(BundleState.HELD) + "', " +
-				BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=" + bundle.getRetentionConstraint() +
-				" where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		updateBundleState(bundle, BundleState.HELD);
 	}
-	
+
 	/**
 	 * Update database as Bundle is being held in custody awaiting custody
 	 * transfer.
@@ -726,50 +582,14 @@ public class BundleDatabase extends AbstractStartableComponent {
 	 * @throws JDtnException on errors
 	 * @throws InterruptedException process interrupted
 	 */
-	public void bundleInCustody(Bundle bundle) 
+	public void bundleInCustody(Bundle bundle)
 	throws JDtnException, InterruptedException {
 		if (GeneralManagement.isDebugLogging()) {
 			_logger.finer("bundleInCustody()");
 		}
-		if (!isStarted()) {
-			throw new JDtnException("Not started or has been stopped");
-		}
-		if (_dbInterface == null) {
-			throw new JDtnException("Database has not been connected");
-		}
-		java.sql.Connection con = getInterface().createConnection();
-		try {
-			// Update the BundleState in the DB
-			String statementText =
-				"update " + BundleDatabaseConstants.TABLE_NAME + " set " +
-				BundleDatabaseConstants.STATE_COL + "='" + BundleState.toParseableString(BundleState.IN_CUSTODY) + "', " +
-				BundleDatabaseConstants.RETENTION_CONSTRAINT_COL + "=" + bundle.getRetentionConstraint() +
-				" where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			try {
-				_dbInterface.executeUpdate(con, statementText);
-				try { con.commit(); } catch (SQLException e) {
-					_logger.warning(e.getMessage());
-				}
-				return;
-			} catch (DBInterfaceException e) {
-				try { con.rollback(); } catch (SQLException ignore) { }
-				throw new JDtnException(e);
-			}
-		}
-		finally {
-			try { con.close(); } catch (SQLException e) {
-				_logger.warning(e.getMessage());
-			}
-		}
+		updateBundleState(bundle, BundleState.IN_CUSTODY);
 	}
-	
+
 	/**
 	 * Delete the given Bundle from the database
 	 * @param bundle Given Bundle
@@ -788,44 +608,29 @@ public class BundleDatabase extends AbstractStartableComponent {
 		}
 		java.sql.Connection con = getInterface().createConnection();
 		try {
-			// Select entry from DB corresponding to given bundle
-			String statementText =
-				"select " +
-				BundleDatabaseConstants.PATH_COL + "," + BundleDatabaseConstants.STORAGETYPE_COL +
-				" from " + BundleDatabaseConstants.TABLE_NAME + " where " +
-				BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-				BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-				BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-				BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-				";"
-				;
-			_logger.fine(statementText);
-			String pathnameStr;
-			int storageType;
 			try {
-				QueryResults qr = _dbInterface.executeQuery(con, statementText);
-
-				// Pull queried column values from ResultSet of query
-				if (!qr.next()) {
-					// No such Bundle.  Silently ignore this.
-					qr.close();
-					return;
+				// Delete entry from DB corresponding to given bundle, returning
+				// where it was stored
+				String pathnameStr;
+				int storageType;
+				PreparedStatement statement = con.prepareStatement(DELETE_BUNDLE);
+				try {
+					setBundleKey(statement, 1, bundle);
+					ResultSet rs = statement.executeQuery();
+					try {
+						if (!rs.next()) {
+							// No such Bundle.  Silently ignore this.
+							try { con.rollback(); } catch (SQLException ignore) { }
+							return;
+						}
+						pathnameStr = rs.getString(1);
+						storageType = rs.getInt(2);
+					} finally {
+						rs.close();
+					}
+				} finally {
+					statement.close();
 				}
-				pathnameStr = qr.getString(1);
-				storageType = qr.getInt(2);
-				qr.close();
-
-				// Delete entry from DB corresponding to given bundle
-				statementText =
-					"delete from " + BundleDatabaseConstants.TABLE_NAME + " where " +
-					BundleDatabaseConstants.SOURCE_EID_COL + "='" + bundle.getBundleId().sourceEndPointId.getEndPointIdString() + "' and " +
-					BundleDatabaseConstants.TIME_SECS_COL + "=" + bundle.getBundleId().timestamp.getTimeSecsSinceY2K() + " and " +
-					BundleDatabaseConstants.SEQUENCE_NO_COL + "=" + bundle.getBundleId().timestamp.getSequenceNumber() + " and " +
-					BundleDatabaseConstants.FRAG_OFFSET_COL + "=" + bundle.getPrimaryBundleBlock().getFragmentOffset() +
-					";"
-					;
-				_logger.fine(statementText);
-				_dbInterface.executeDelete(con, statementText);
 
 				// Delete Bundle storage file
 				MediaRepository.File file = new MediaRepository.File(BlobAndBundleDatabase.storageTypeOf(storageType), pathnameStr);
@@ -837,7 +642,7 @@ public class BundleDatabase extends AbstractStartableComponent {
 					_logger.warning(e.getMessage());
 				}
 				return;
-			} catch (DBInterfaceException e) {
+			} catch (SQLException e) {
 				try { con.rollback(); } catch (SQLException ignore) { }
 				throw new JDtnException(e);
 			}
@@ -848,7 +653,103 @@ public class BundleDatabase extends AbstractStartableComponent {
 			}
 		}
 	}
-	
+
+	/**
+	 * Record a Bundle state transition, along with its current retention
+	 * constraint, via group commit.
+	 */
+	private void updateBundleState(Bundle bundle, BundleState state)
+	throws JDtnException, InterruptedException {
+		checkWriter().execute(
+				UPDATE_STATE,
+				withBundleKey(bundle,
+						BundleState.toParseableString(state),
+						Integer.toString(bundle.getRetentionConstraint())));
+	}
+
+	/**
+	 * Group commit an update for a caller which cannot pass on an interrupt
+	 */
+	private void executeUninterruptibly(String statementText, Object... params)
+	throws JDtnException {
+		try {
+			checkWriter().execute(statementText, params);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JDtnException(e);
+		}
+	}
+
+	private BundleDatabaseWriter checkWriter() throws JDtnException {
+		if (!isStarted()) {
+			throw new JDtnException("Not started or has been stopped");
+		}
+		BundleDatabaseWriter writer = _writer;
+		if (_dbInterface == null || writer == null) {
+			throw new JDtnException("Database has not been connected");
+		}
+		return writer;
+	}
+
+	/**
+	 * Values for a keyed update: the given column values followed by the
+	 * Bundle's key, in the order of BUNDLE_KEY
+	 */
+	private static Object[] withBundleKey(Bundle bundle, Object... values) {
+		Object[] params = new Object[values.length + 4];
+		System.arraycopy(values, 0, params, 0, values.length);
+		params[values.length] = bundle.getBundleId().sourceEndPointId.getEndPointIdString();
+		params[values.length + 1] = bundle.getBundleId().timestamp.getTimeSecsSinceY2K();
+		params[values.length + 2] = bundle.getBundleId().timestamp.getSequenceNumber();
+		params[values.length + 3] = bundle.getPrimaryBundleBlock().getFragmentOffset();
+		return params;
+	}
+
+	/**
+	 * Bind the Bundle's key starting at parameter ix
+	 * @return index of the next parameter
+	 */
+	private static int setBundleKey(PreparedStatement statement, int ix, Bundle bundle)
+	throws SQLException {
+		statement.setString(ix++, bundle.getBundleId().sourceEndPointId.getEndPointIdString());
+		statement.setLong(ix++, bundle.getBundleId().timestamp.getTimeSecsSinceY2K());
+		statement.setLong(ix++, bundle.getBundleId().timestamp.getSequenceNumber());
+		statement.setLong(ix++, bundle.getPrimaryBundleBlock().getFragmentOffset());
+		return ix;
+	}
+
+	/**
+	 * Bind the non-key columns in the order of BUNDLE_COLUMNS starting at
+	 * parameter ix
+	 * @return index of the next parameter
+	 */
+	private static int setBundleColumns(
+			PreparedStatement statement,
+			int ix,
+			Bundle bundle,
+			MediaRepository.File path,
+			long length,
+			BundleSource source,
+			BundleState state,
+			EidScheme eidScheme)
+	throws SQLException {
+		statement.setString(ix++, path.getAbsolutePath());
+		statement.setInt(ix++, BlobAndBundleDatabase.intOf(path.getStorageType()));
+		statement.setLong(ix++, length);
+		statement.setString(ix++, BundleSource.toParseableString(source));
+		statement.setString(ix++, BundleState.toParseableString(state));
+		statement.setString(ix++, EidScheme.eidSchemeToString(eidScheme));
+		if (bundle.getLink() == null) {
+			statement.setNull(ix++, Types.VARCHAR);
+		} else {
+			statement.setString(ix++, bundle.getLink().getName());
+		}
+		statement.setString(ix++, Boolean.toString(bundle.isInboundBundle()));
+		statement.setString(ix++, Integer.toString(bundle.getRetentionConstraint()));
+		statement.setLong(ix++, path.getOid());
+		return ix;
+	}
+
 	/**
 	 * Restore all Bundles from BundleDatabase
 	 * @param callback Callback for each Bundle restored
@@ -922,7 +823,16 @@ public class BundleDatabase extends AbstractStartableComponent {
 					MediaRepository.File file = new MediaRepository.File(storageType, pathnameStr);
 					file.setOid(oid);
 					DecodeState decodeState = new DecodeState(file, 0L, fileLength);
-					Bundle bundle = new Bundle(decodeState, eidScheme);
+					Bundle bundle;
+					try {
+						bundle = new Bundle(decodeState, eidScheme);
+					} catch (JDtnException | RuntimeException e) {
+						// One corrupt Bundle must not keep the others from being restored
+						_logger.log(Level.WARNING, "Skipping Bundle that failed to decode: " + pathnameStr, e);
+						continue;
+					} finally {
+						decodeState.close();
+					}
 
 					Link link = LinksList.getInstance().findLinkByName(linkName);
 					bundle.setLink(link);
@@ -1022,6 +932,10 @@ public class BundleDatabase extends AbstractStartableComponent {
 		try {
 			StringBuilder sb = new StringBuilder(indent + "BundleDatabase\n");
 			sb.append(indent + "  StartClean=" + isStartClean() + "\n");
+			sb.append(indent + "  GroupCommitMSecs=" + getGroupCommitMSecs() + "\n");
+			if (_writer != null) {
+				sb.append(indent + "  GroupCommits=" + _writer.nCommits + " Updates=" + _writer.nUpdates + "\n");
+			}
 			sb.append(super.dump(indent + "  ", detailed));
 			// Select entry from DB all Bundles
 			String statementText =
@@ -1115,5 +1029,28 @@ public class BundleDatabase extends AbstractStartableComponent {
 		this._startClean = startClean;
 	}
 
+	/**
+	 * GroupCommitMSecs property: How long the writer waits for more Bundle
+	 * updates to commit together with the first one it picks up.
+	 * <ul>
+	 *   <li>0 => Commit whatever has queued up, no waiting
+	 *   <li>Default - 0
+	 * </ul>
+	 * Note: This property should be set before starting the JDTN system.
+	 * @return GroupCommitMSecs property
+	 */
+	public long getGroupCommitMSecs() {
+		return _groupCommitMSecs;
+	}
+
+	/**
+	 * GroupCommitMSecs property
+	 * @param groupCommitMSecs GroupCommitMSecs property
+	 * @see #getGroupCommitMSecs()
+	 */
+	public void setGroupCommitMSecs(long groupCommitMSecs) {
+		this._groupCommitMSecs = groupCommitMSecs;
+	}
+
 }
 
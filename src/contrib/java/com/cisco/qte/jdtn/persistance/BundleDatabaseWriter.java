@@ -0,0 +1,194 @@
+package com.cisco.qte.jdtn.persistance;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cisco.qte.jdtn.general.GeneralManagement;
+import com.cisco.qte.jdtn.general.JDtnException;
+
+/**
+ * Group commit for Bundle Database updates.  Callers queue a prepared update
+ * and block until it is committed; a single writer thread drains whatever has
+ * queued up (waiting up to the group commit window for more), runs it as JDBC
+ * batches in arrival order and commits the group in one transaction.  If the
+ * group fails each update is retried in a transaction of its own so that one
+ * bad update only fails its own caller.
+ */
+class BundleDatabaseWriter implements Runnable {
+	private static final Logger _logger =
+		Logger.getLogger(BundleDatabaseWriter.class.getCanonicalName());
+
+	/** Most updates committed in one transaction */
+	static final int MAX_GROUP = 256;
+
+	private static final class Update {
+		final String statementText;
+		final Object[] params;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile SQLException failure = null;
+
+		Update(String statementText, Object[] params) {
+			this.statementText = statementText;
+			this.params = params;
+		}
+	}
+
+	private final DBInterface _dbInterface;
+	private final long _windowMSecs;
+	private final LinkedBlockingQueue<Update> _queue = new LinkedBlockingQueue<>();
+	private volatile boolean _running = false;
+	private Thread _thread = null;
+
+	/** Number of transactions committed; compare with nUpdates for batching */
+	volatile long nCommits = 0;
+	/** Number of updates committed */
+	volatile long nUpdates = 0;
+
+	BundleDatabaseWriter(DBInterface dbInterface, long windowMSecs) {
+		_dbInterface = dbInterface;
+		_windowMSecs = windowMSecs;
+	}
+
+	void start() {
+		_running = true;
+		_thread = new Thread(this, "BundleDatabaseWriter");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	void stop() throws InterruptedException {
+		_running = false;
+		if (_thread != null) {
+			_thread.interrupt();
+			_thread.join();
+			_thread = null;
+		}
+		// Anyone still waiting gets an error, not a hang
+		Update update;
+		while ((update = _queue.poll()) != null) {
+			update.failure = new SQLException("BundleDatabase stopped");
+			update.done.countDown();
+		}
+	}
+
+	/**
+	 * Execute the given update and wait for it to be committed
+	 * @param statementText SQL with ? placeholders; use the same text for
+	 * the same kind of update so it batches and hits the statement cache
+	 * @param params Values for the placeholders, null values bind as varchar
+	 * @throws JDtnException if the update failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void execute(String statementText, Object... params)
+	throws JDtnException, InterruptedException {
+		if (!_running) {
+			throw new JDtnException("Not started or has been stopped");
+		}
+		Update update = new Update(statementText, params);
+		_queue.add(update);
+		while (!update.done.await(1, TimeUnit.SECONDS)) {
+			if (!_running && _queue.remove(update)) {
+				throw new JDtnException("Not started or has been stopped");
+			}
+		}
+		if (update.failure != null) {
+			throw new JDtnException(update.failure);
+		}
+	}
+
+	@Override
+	public void run() {
+		final ArrayList<Update> group = new ArrayList<>(MAX_GROUP);
+		while (_running) {
+			try {
+				group.add(_queue.take());
+				if (_windowMSecs > 0) {
+					long deadline = System.currentTimeMillis() + _windowMSecs;
+					long remaining;
+					while (group.size() < MAX_GROUP &&
+						   (remaining = deadline - System.currentTimeMillis()) > 0) {
+						Update update = _queue.poll(remaining, TimeUnit.MILLISECONDS);
+						if (update == null) break;
+						group.add(update);
+					}
+				}
+				_queue.drainTo(group, MAX_GROUP - group.size());
+			} catch (InterruptedException e) {
+				if (group.isEmpty()) continue;
+			}
+
+			try {
+				commitGroup(group);
+			} catch (SQLException e) {
+				if (GeneralManagement.isDebugLogging()) {
+					_logger.log(Level.FINE, "Group of " + group.size() + " failed, retrying singly", e);
+				}
+				for (Update update : group) {
+					try {
+						commitGroup(Collections.singletonList(update));
+					} catch (SQLException e2) {
+						update.failure = e2;
+					}
+				}
+			}
+			for (Update update : group) {
+				update.done.countDown();
+			}
+			group.clear();
+		}
+	}
+
+	private void commitGroup(List<Update> group) throws SQLException {
+		Connection con = _dbInterface.createConnection();
+		try {
+			PreparedStatement statement = null;
+			String statementText = null;
+			try {
+				// Consecutive updates of the same kind share a batch; a change
+				// of kind flushes the batch so arrival order is kept
+				for (Update update : group) {
+					if (!update.statementText.equals(statementText)) {
+						if (statement != null) {
+							statement.executeBatch();
+							statement.close();
+						}
+						statementText = update.statementText;
+						statement = con.prepareStatement(statementText);
+					}
+					for (int ix = 0; ix < update.params.length; ix++) {
+						if (update.params[ix] == null) {
+							statement.setNull(ix + 1, java.sql.Types.VARCHAR);
+						} else {
+							statement.setObject(ix + 1, update.params[ix]);
+						}
+					}
+					statement.addBatch();
+				}
+				if (statement != null) {
+					statement.executeBatch();
+				}
+			} finally {
+				if (statement != null) {
+					statement.close();
+				}
+			}
+			con.commit();
+			nCommits++;
+			nUpdates += group.size();
+		} catch (SQLException e) {
+			try { con.rollback(); } catch (SQLException ignore) { }
+			throw e;
+		} finally {
+			try { con.close(); } catch (SQLException ignore) { }
+		}
+	}
+}
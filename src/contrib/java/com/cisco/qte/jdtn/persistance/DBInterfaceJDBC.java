@@ -77,6 +77,10 @@ public class DBInterfaceJDBC implements DBInterface {
             basicDataSource.setLifo(false);
             basicDataSource.setRollbackOnReturn(true);
             basicDataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+            // cache prepared statements per pooled connection, connections are
+            // borrowed per operation so this is what keeps them prepared
+            basicDataSource.setPoolPreparedStatements(true);
+            basicDataSource.setMaxOpenPreparedStatements(64);
             config.accept(basicDataSource);
             basicDataSource.setInitialSize(concurrency);
             basicDataSource.setMinIdle(2);
@@ -230,6 +234,24 @@ public class DBInterfaceJDBC implements DBInterface {
                     _logger.warning(statementText);
                     statement.executeUpdate(statementText);
                     _connection.commit();
+                    // Large objects are deleted by oid, and the file table is
+                    // scanned by storage type and path prefix
+                    statementText =
+                            "CREATE INDEX IF NOT EXISTS " + BundleDatabaseConstants.TABLE_NAME + "_blob ON " +
+                                    BundleDatabaseConstants.TABLE_NAME + " (" +
+                                    BundleDatabaseConstants.DATA_BLOB_COL +
+                                    ");";
+                    _logger.warning(statementText);
+                    statement.executeUpdate(statementText);
+                    statementText =
+                            "CREATE INDEX IF NOT EXISTS " + BundleDatabaseConstants.FILE_TABLE_NAME + "_storagetype_path ON " +
+                                    BundleDatabaseConstants.FILE_TABLE_NAME + " (" +
+                                    BundleDatabaseConstants.STORAGETYPE_COL + ", " +
+                                    BundleDatabaseConstants.PATH_COL + " varchar_pattern_ops" +
+                                    ");";
+                    _logger.warning(statementText);
+                    statement.executeUpdate(statementText);
+                    _connection.commit();
                 } finally {
                     statement.close();
                 }
@@ -325,25 +325,7 @@ public class BlobAndBundleDatabase extends BundleDatabase {
 
     public long mediaFileLength(Connection con, MediaRepository.File file) {
         try {
-            if (file.getOid() == 0) {
-                Statement stmt = con.createStatement();
-                try {
-                    ResultSet rs = stmt.executeQuery(
-                            "SELECT " + BundleDatabaseConstants.DATA_BLOB_COL + " FROM " + BundleDatabaseConstants.FILE_TABLE_NAME +
-                                    " WHERE " + BundleDatabaseConstants.STORAGETYPE_COL + "=" + BlobAndBundleDatabase.intOf(file.getStorageType()) +
-                                    " AND " + BundleDatabaseConstants.PATH_COL + "='" + file.getAbsolutePath() + "'"
-                    );
-                    try {
-                        if (rs.next())
-                            file.setOid(rs.getLong(1));
-                    } finally {
-                        rs.close();
-                    }
-                } finally {
-                    stmt.close();
-                }
-            }
-            if (file.getOid() == 0) return -1; // file not found
+            if (!mediaResolveOid(con, file)) return -1; // file not found
             LargeObjectManager lom = con.unwrap(PGConnection.class).getLargeObjectAPI();
             LargeObject lo = lom.open(file.getOid());
             try {
@@ -359,6 +341,43 @@ public class BlobAndBundleDatabase extends BundleDatabase {
         }
     }
 
+    /**
+     * opens a media file for reading, the caller must close() the returned
+     * large object before the transaction on con ends
+     * @return null if the file does not exist
+     */
+    public LargeObject mediaOpenForRead(Connection con, MediaRepository.File file) throws SQLException {
+        if (!mediaResolveOid(con, file)) return null;
+        LargeObjectManager lom = con.unwrap(PGConnection.class).getLargeObjectAPI();
+        return lom.open(file.getOid(), LargeObjectManager.READ);
+    }
+
+    /**
+     * looks up the large object behind a file if not already known
+     * @return false if the file does not exist
+     */
+    private boolean mediaResolveOid(Connection con, MediaRepository.File file) throws SQLException {
+        if (file.getOid() == 0) {
+            Statement stmt = con.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT " + BundleDatabaseConstants.DATA_BLOB_COL + " FROM " + BundleDatabaseConstants.FILE_TABLE_NAME +
+                                " WHERE " + BundleDatabaseConstants.STORAGETYPE_COL + "=" + BlobAndBundleDatabase.intOf(file.getStorageType()) +
+                                " AND " + BundleDatabaseConstants.PATH_COL + "='" + file.getAbsolutePath() + "'"
+                );
+                try {
+                    if (rs.next())
+                        file.setOid(rs.getLong(1));
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+        return file.getOid() != 0;
+    }
+
     public boolean mediaFileDelete(Connection con, MediaRepository.File file) {
         try {
             Statement stmt = con.createStatement();
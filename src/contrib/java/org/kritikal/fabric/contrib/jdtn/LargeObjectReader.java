@@ -0,0 +1,118 @@
+package org.kritikal.fabric.contrib.jdtn;
+
+import com.cisco.qte.jdtn.apps.MediaRepository;
+import com.cisco.qte.jdtn.general.GeneralManagement;
+import org.postgresql.largeobject.LargeObject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Buffered, seekable reads of a media file's large object.
+ *
+ * Small reads are served from a read-ahead block, a read outside the block
+ * seeks and refills it; reads at least a block long bypass it.  The large
+ * object and the connection holding it open are acquired on the first read
+ * and held until close().
+ */
+public class LargeObjectReader {
+
+    private final MediaRepository.File file;
+    private final byte[] block;
+    private long blockPosition = 0;
+    private int blockLength = 0;
+
+    private Connection con = null;
+    private LargeObject lo = null;
+
+    public LargeObjectReader(MediaRepository.File file) {
+        this(file, GeneralManagement.getFileBufferSize());
+    }
+
+    public LargeObjectReader(MediaRepository.File file, int blockSize) {
+        this.file = file;
+        this.block = new byte[blockSize];
+    }
+
+    private void open() throws SQLException {
+        if (lo != null) return;
+        con = BlobAndBundleDatabase.getInstance().getInterface().createConnection();
+        lo = BlobAndBundleDatabase.getInstance().mediaOpenForRead(con, file);
+        if (lo == null) {
+            close();
+            throw new SQLException("File not found: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * A positioned read of the large object itself, bypassing the block
+     *
+     * @return number of bytes read, less than length only at the end of the file
+     */
+    protected int readAt(long position, byte[] dst, int offset, int length) throws SQLException {
+        open();
+        lo.seek64(position, LargeObject.SEEK_SET);
+        int total = 0;
+        while (total < length) {
+            int n = lo.read(dst, offset + total, length - total);
+            if (n <= 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private boolean isBuffered(long position) {
+        return position >= blockPosition && position < blockPosition + blockLength;
+    }
+
+    /**
+     * @return the unsigned byte at position, or -1 past the end of the file
+     */
+    public int read(long position) throws SQLException {
+        if (!isBuffered(position)) {
+            blockLength = readAt(position, block, 0, block.length);
+            blockPosition = position;
+            if (blockLength == 0) return -1;
+        }
+        return block[(int)(position - blockPosition)] & 0xff;
+    }
+
+    /**
+     * @return number of bytes read, less than length only at the end of the file
+     */
+    public int read(long position, byte[] dst, int offset, int length) throws SQLException {
+        int total = 0;
+        while (total < length) {
+            if (isBuffered(position)) {
+                int n = (int)Math.min(length - total, blockPosition + blockLength - position);
+                System.arraycopy(block, (int)(position - blockPosition), dst, offset + total, n);
+                position += n;
+                total += n;
+            } else if (length - total >= block.length) {
+                int n = readAt(position, dst, offset + total, length - total);
+                total += n;
+                break;
+            } else {
+                blockLength = readAt(position, block, 0, block.length);
+                blockPosition = position;
+                if (blockLength == 0) break;
+            }
+        }
+        return total;
+    }
+
+    public void close() {
+        blockLength = 0;
+        try {
+            if (lo != null) lo.close();
+        } catch (SQLException ignore) {
+        } finally {
+            lo = null;
+        }
+        if (con != null) {
+            try { con.commit(); } catch (SQLException ignore) { }
+            try { con.close(); } catch (SQLException ignore) { }
+            con = null;
+        }
+    }
+}
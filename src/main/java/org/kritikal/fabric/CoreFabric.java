@@ -10,11 +10,17 @@ import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.dropwizard.DropwizardMetricsOptions;
 import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
 import org.kritikal.fabric.core.exceptions.FabricError;
+import org.kritikal.fabric.net.mqtt.OfflineQueue;
+import org.kritikal.fabric.net.mqtt.PublishRateLimits;
+import org.kritikal.fabric.net.mqtt.SlowConsumerPolicy;
 import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishBatch;
+import org.kritikal.fabric.net.mqtt.entities.PublishBatchStreamSerializer;
 import org.kritikal.fabric.net.mqtt.entities.PublishMessageStreamSerializer;
 import io.corefabric.pi.CoreFabricConfigShims;
 import io.corefabric.pi.CoreFabricRoleRegistry;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -88,6 +94,29 @@ public class CoreFabric {
             public final int port;
         }
         public static boolean hazelcastJoinTcpip = false;
+        public static boolean mqttPooledDirect = true;
+        public static int mqttIngressCapacity = 65536;
+        public static int mqttReceiveMaximum = 1024;
+        public static int mqttInflightQueueLimit = 16384;
+        public static long mqttRetransmitMillis = 20000l;
+        public static int mqttOfflineMaxMessages = 10000;
+        public static long mqttOfflineMaxBytes = 16l*1024*1024;
+        public static OfflineQueue.Overflow mqttOfflineOverflow = OfflineQueue.Overflow.DROP_OLDEST;
+        public static String mqttSpoolDir = new File(System.getProperty("java.io.tmpdir"), "corefabric-mqtt-spool").getPath();
+        public static long mqttSpillSegmentBytes = 64l*1024*1024;
+        public static long mqttSpillMaxBytes = 1024l*1024*1024; // by every offline queue together
+        public static int mqttSpillOpenFiles = 256; // segment files held open by every offline queue together
+        public static long mqttClusterBatchMicros = 1000l;
+        public static int mqttClusterBatchBytes = 64*1024;
+        public static long mqttOutboundMaxBytes = 4l*1024*1024;
+        public static int mqttOutboundMaxMessages = 16384;
+        public static SlowConsumerPolicy.Policy mqttSlowConsumer = SlowConsumerPolicy.Policy.QUEUE;
+        // publishes a second, and the burst allowed above that; a rate of 0 is no limit
+        public static long mqttClientPublishRate = 0l;
+        public static long mqttClientPublishBurst = 1000l;
+        public static long mqttNodePublishRate = 0l;
+        public static long mqttNodePublishBurst = 100000l;
+        public static final ArrayList<PublishRateLimits.TopicLimit> mqttTopicPublishLimits = new ArrayList<>();
         public static final ArrayList<ClusterPeer> peers = new ArrayList<>();
         protected static void apply(JsonObject globalConfig) {
             JsonObject node = globalConfig.getJsonObject("node");
@@ -110,6 +139,37 @@ public class CoreFabric {
                     }
                 }
             }
+            JsonObject mqtt = globalConfig.getJsonObject("mqtt");
+            if (mqtt != null) {
+                mqttPooledDirect = mqtt.getBoolean("pooledDirect", mqttPooledDirect);
+                mqttIngressCapacity = mqtt.getInteger("ingressCapacity", mqttIngressCapacity);
+                mqttReceiveMaximum = mqtt.getInteger("receiveMaximum", mqttReceiveMaximum);
+                mqttInflightQueueLimit = mqtt.getInteger("inflightQueueLimit", mqttInflightQueueLimit);
+                mqttRetransmitMillis = mqtt.getLong("retransmitMillis", mqttRetransmitMillis);
+                mqttOfflineMaxMessages = mqtt.getInteger("offlineMaxMessages", mqttOfflineMaxMessages);
+                mqttOfflineMaxBytes = mqtt.getLong("offlineMaxBytes", mqttOfflineMaxBytes);
+                mqttOfflineOverflow = OfflineQueue.Overflow.parse(mqtt.getString("offlineOverflow", mqttOfflineOverflow.name()));
+                mqttSpoolDir = mqtt.getString("spoolDir", mqttSpoolDir);
+                mqttSpillSegmentBytes = mqtt.getLong("spillSegmentBytes", mqttSpillSegmentBytes);
+                mqttSpillMaxBytes = mqtt.getLong("spillMaxBytes", mqttSpillMaxBytes);
+                mqttSpillOpenFiles = mqtt.getInteger("spillOpenFiles", mqttSpillOpenFiles);
+                mqttClusterBatchMicros = mqtt.getLong("clusterBatchMicros", mqttClusterBatchMicros);
+                mqttClusterBatchBytes = mqtt.getInteger("clusterBatchBytes", mqttClusterBatchBytes);
+                mqttOutboundMaxBytes = mqtt.getLong("outboundMaxBytes", mqttOutboundMaxBytes);
+                mqttOutboundMaxMessages = mqtt.getInteger("outboundMaxMessages", mqttOutboundMaxMessages);
+                mqttSlowConsumer = SlowConsumerPolicy.Policy.parse(mqtt.getString("slowConsumer", mqttSlowConsumer.name()));
+                mqttClientPublishRate = mqtt.getLong("clientPublishRate", mqttClientPublishRate);
+                mqttClientPublishBurst = mqtt.getLong("clientPublishBurst", mqttClientPublishBurst);
+                mqttNodePublishRate = mqtt.getLong("nodePublishRate", mqttNodePublishRate);
+                mqttNodePublishBurst = mqtt.getLong("nodePublishBurst", mqttNodePublishBurst);
+                JsonArray ary = mqtt.getJsonArray("topicPublishLimits");
+                if (ary != null) {
+                    for (int i = 0, l = ary.size(); i < l; ++i) {
+                        JsonObject limit = ary.getJsonObject(i);
+                        mqttTopicPublishLimits.add(new PublishRateLimits.TopicLimit(limit.getString("prefix"), limit.getLong("rate"), limit.getLong("burst", limit.getLong("rate"))));
+                    }
+                }
+            }
         }
     }
     private static volatile Vertx gVertx = null;
@@ -128,6 +188,7 @@ public class CoreFabric {
         VertxOptions vertxOptions = new VertxOptions();
         com.hazelcast.config.Config hazelcastConfig = new com.hazelcast.config.Config();
         hazelcastConfig.getSerializationConfig().addSerializerConfig(new SerializerConfig().setTypeClass(PublishMessage.class).setClass(PublishMessageStreamSerializer.class));
+        hazelcastConfig.getSerializationConfig().addSerializerConfig(new SerializerConfig().setTypeClass(PublishBatch.class).setClass(PublishBatchStreamSerializer.class));
         final JoinConfig joinConfig = hazelcastConfig.getNetworkConfig().getJoin();
         final TcpIpConfig tcpIpConfig = joinConfig.getTcpIpConfig();
         if (ServerConfiguration.hazelcastJoinTcpip) {
@@ -9,13 +9,11 @@ import io.netty.buffer.Unpooled;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.MessageConsumer;
-import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import org.kritikal.fabric.CoreFabric;
 import org.kritikal.fabric.net.BufferContainer;
 import org.kritikal.fabric.net.mqtt.MqttSubscription;
-import org.kritikal.fabric.net.mqtt.MqttTopic;
 import org.kritikal.fabric.net.mqtt.codec.DecodePublish;
 import org.kritikal.fabric.net.mqtt.codec.EncodePublish;
 import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
@@ -89,7 +87,7 @@ public class MqttBridgeVerticle extends AbstractVerticle {
 
     public final String uuid = UUID.randomUUID().toString();
     public long sequence = 0L;
-    public MessageConsumer<JsonObject> mc = null;
+    public MessageConsumer<PublishMessage> mc = null;
 
     @Override
     public void start() throws Exception {
@@ -103,26 +101,20 @@ public class MqttBridgeVerticle extends AbstractVerticle {
         final EndPointId to = EndPointId.createEndPointId(toEndPointId);
 
         mc = vertx.eventBus().localConsumer("mqtt.bridge." + uuid, event -> {
-            final JsonObject mqttApiCall = event.body();
+            final PublishMessage received = event.body(); // shared with other subscribers, copied below
             if (not != null) {
-                MqttTopic topic = new MqttTopic(mqttApiCall.getString("topic"));
-                if (not.matches(topic)) {
+                if (not.matches(received.getTopic())) {
                     return;
                 }
             }
 
             try {
                 PublishMessage publishMessage = new PublishMessage();
-                publishMessage.setTopicName(mqttApiCall.getString("topic"));
-                if (mqttApiCall.containsKey("stringBody")) {
-                    publishMessage.setPayload(ByteBuffer.wrap(mqttApiCall.getString("stringBody").getBytes("UTF-8")));
-                } else {
-                    publishMessage.setPayload(ByteBuffer.wrap(mqttApiCall.containsKey("body") ? mqttApiCall.getBinary("body") : new byte[0]));
-                }
-                int qos = mqttApiCall.getInteger("qos");
-                publishMessage.setQos(qos == 2 ? AbstractMessage.QOSType.EXACTLY_ONCE : (qos == 1 ? AbstractMessage.QOSType.MOST_ONE : AbstractMessage.QOSType.LEAST_ONE));
-                publishMessage.setRetainFlag(mqttApiCall.containsKey("retain") && mqttApiCall.getBoolean("retain"));
-                publishMessage.expires = mqttApiCall.containsKey("ttl") ? new java.util.Date().getTime() + mqttApiCall.getInteger("ttl") : 0;
+                publishMessage.setTopicName(received.getTopicName(), received.getTopic());
+                publishMessage.setPayload(received.getPayload() != null ? received.getPayload().duplicate() : ByteBuffer.wrap(new byte[0]));
+                publishMessage.setQos(AbstractMessage.QOSType.EXACTLY_ONCE);
+                publishMessage.setRetainFlag(received.isRetainFlag());
+                publishMessage.expires = received.expires;
                 publishMessage.origin = CoreFabric.ServerConfiguration.instance;
 
                 vertx.executeBlocking(f -> {
@@ -157,7 +149,7 @@ public class MqttBridgeVerticle extends AbstractVerticle {
         else
             logger.info("Routing MQTT from [" + subscription + "] to " + toEndPointId + " (ignoring " + notSubscription + ")");
 
-        MqttBrokerVerticle.mqttBroker().apiSubscribe(subscription, "mqtt.bridge." + uuid);
+        MqttBrokerVerticle.mqttBroker().apiSubscribe(subscription, "mqtt.bridge." + uuid, true);
     }
 
     @Override
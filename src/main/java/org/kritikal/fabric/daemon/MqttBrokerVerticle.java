@@ -39,11 +39,11 @@ public class MqttBrokerVerticle extends AbstractVerticle /*implements Handler<Me
     HttpServer httpServerForSockJS = null;
 
     //MessageConsumer<Buffer> mcMqttEnqueue = null;
-    MessageConsumer<JsonObject> mcMqttPublish = null;
+    MessageConsumer<Object> mcMqttPublish = null;
     MessageConsumer<JsonObject> mcMqttSubscribe = null;
     MessageConsumer<JsonObject> mcMqttUnsubscribe = null;
     MessageConsumer<JsonObject> mcMqttPeek = null;
-    MessageConsumer<JsonObject> mcMqttBroadcast = null;
+    MessageConsumer<Object> mcMqttBroadcast = null;
 
     /*@Override
     public void handle(Message<Buffer> event) {
@@ -133,10 +133,15 @@ public class MqttBrokerVerticle extends AbstractVerticle /*implements Handler<Me
         // FIXME sockjs support
         //httpServerForSockJS.listen(11885);
 
-        mcMqttPublish = vertx.eventBus().localConsumer("mqtt.publish", new Handler<Message<JsonObject>>() {
+        // publish and broadcast take a PublishMessage, or json for compatibility
+        mcMqttPublish = vertx.eventBus().localConsumer("mqtt.publish", new Handler<Message<Object>>() {
             @Override
-            public void handle(Message<JsonObject> event) {
-                JsonObject mqttApiCall = event.body();
+            public void handle(Message<Object> event) {
+                if (event.body() instanceof PublishMessage) {
+                    mqttBroker.apiPublish((PublishMessage) event.body());
+                    return;
+                }
+                JsonObject mqttApiCall = (JsonObject) event.body();
                 if (mqttApiCall.containsKey("stringBody")) {
                     try {
                         mqttBroker.apiPublish(
@@ -165,7 +170,8 @@ public class MqttBrokerVerticle extends AbstractVerticle /*implements Handler<Me
                 JsonObject mqttApiCall = event.body();
                 mqttBroker.apiSubscribe(
                         mqttApiCall.getString("topic"),
-                        mqttApiCall.getString("bus-address")
+                        mqttApiCall.getString("bus-address"),
+                        mqttApiCall.getBoolean("binary", false)
                 );
             }
         });
@@ -191,10 +197,14 @@ public class MqttBrokerVerticle extends AbstractVerticle /*implements Handler<Me
             }
         });
 
-        mcMqttBroadcast = vertx.eventBus().consumer("mqtt.broadcast", new Handler<Message<JsonObject>>() { // like publish but with a subscription instead of a topic
+        mcMqttBroadcast = vertx.eventBus().consumer("mqtt.broadcast", new Handler<Message<Object>>() { // like publish but with a subscription instead of a topic
             @Override
-            public void handle(Message<JsonObject> event) {
-                JsonObject mqttApiCall = event.body();
+            public void handle(Message<Object> event) {
+                if (event.body() instanceof PublishMessage) {
+                    mqttBroker.messageForBroadcast((PublishMessage) event.body());
+                    return;
+                }
+                JsonObject mqttApiCall = (JsonObject) event.body();
                 if (mqttApiCall.containsKey("stringBody")) {
                     try {
                         mqttBroker.apiBroadcast(
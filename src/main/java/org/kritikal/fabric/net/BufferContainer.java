@@ -1,32 +1,40 @@
 package org.kritikal.fabric.net;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.vertx.core.buffer.Buffer;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by ben on 8/24/14.
+ *
+ * Incoming data is kept as the components of a netty CompositeByteBuf, the
+ * composite's reader index is the read cursor.  Nothing is copied on append,
+ * consumed components are dropped when the rollback mark moves past them.
  */
 public class BufferContainer {
 
     public class NeedMoreDataException extends Exception { }
 
-    private LinkedList<Buffer> linkedList;
-    private long readPosition = 0;
+    private static final int MAX_COMPONENTS = 1024;
+
+    private final CompositeByteBuf composite;
 
     private boolean rollbackMarkSet = false;
-    private long rollbackReadPosition = 0;
+    private int rollbackReadPosition = 0;
 
     public BufferContainer()
     {
-        linkedList = new LinkedList<>();
+        composite = Unpooled.compositeBuffer(MAX_COMPONENTS);
     }
 
     public void append(Buffer buffer)
     {
-        linkedList.add(buffer);
+        if (buffer == null || buffer.length() == 0) return;
+        // the composite releases its components, keep the Buffer's own reference intact
+        composite.addComponent(true, buffer.getByteBuf().retain());
     }
 
     public void setRollbackMark()
@@ -35,7 +43,7 @@ public class BufferContainer {
         if (rollbackMarkSet)
             throw new Exception();
 
-        rollbackReadPosition = readPosition;
+        rollbackReadPosition = composite.readerIndex();
         rollbackMarkSet = true;
     }
 
@@ -43,7 +51,7 @@ public class BufferContainer {
     {
         if (rollbackMarkSet)
         {
-            readPosition = rollbackReadPosition;
+            composite.readerIndex(rollbackReadPosition);
             rollbackMarkSet = false;
         }
     }
@@ -54,76 +62,31 @@ public class BufferContainer {
         if (!rollbackMarkSet)
             throw new Exception();
 
-        LinkedList<Buffer> toDispose = new LinkedList<>();
-        LinkedList<Buffer> toKeep = new LinkedList<>();
-
-        for (Buffer buf : linkedList)
-        {
-            long readableBytes = buf.length();
-            if (readPosition >= readableBytes)
-            {
-                readPosition -= readableBytes;
-            }
-            else
-            {
-                toKeep.add(buf);
-            }
-        }
-
-        rollbackReadPosition = readPosition;
-        linkedList = toKeep;
+        composite.discardReadComponents();
+        rollbackReadPosition = composite.readerIndex();
     }
 
     public boolean isEmpty()
     {
-        if (linkedList.isEmpty())
-            return true;
-
-        long r = readPosition;
-        for (Buffer buf : linkedList)
-        {
-            if (r < 0) break;
-            r -= buf.length();
-        }
-        return r == 0;
+        return !composite.isReadable();
     }
 
     public byte peekFirstByte()
             throws NeedMoreDataException
     {
-        if (linkedList.isEmpty())
+        if (!composite.isReadable())
             throw new NeedMoreDataException();
 
-        long r = readPosition;
-        for (Buffer buf : linkedList)
-        {
-            if (r < buf.length())
-                return buf.getByte((int)r);
-            else
-                r -= buf.length();
-        }
-
-        throw new NeedMoreDataException();
+        return composite.getByte(composite.readerIndex());
     }
 
     public byte readByte()
             throws NeedMoreDataException
     {
-        long r = readPosition;
-        for (Buffer buf : linkedList)
-        {
-            long readableBytes = buf.length();
-            if (r >= readableBytes)
-            {
-                r -= readableBytes;
-            }
-            else
-            {
-                readPosition++;
-                return buf.getByte((int)r++);
-            }
-        }
-        throw new NeedMoreDataException();
+        if (!composite.isReadable())
+            throw new NeedMoreDataException();
+
+        return composite.readByte();
     }
 
     public void assertBytes(long length)
@@ -132,14 +95,7 @@ public class BufferContainer {
         if (length < 0) throw new Exception();
         if (length == 0) return; // asserts OK
         // assert that there are enough bytes to be read
-        long r = readPosition;
-        r += length;
-        for (Buffer buf : linkedList)
-        {
-            long readableBytes = buf.length();
-            r -= readableBytes;
-        }
-        if (r > 0) throw new NeedMoreDataException();
+        if (composite.readableBytes() < length) throw new NeedMoreDataException();
     }
 
     public byte[] readBytes(long length)
@@ -149,37 +105,48 @@ public class BufferContainer {
         if (length>Integer.MAX_VALUE) throw new Exception("Buffer overflow");
         assertBytes(length);
 
-        long r = readPosition;
         byte[] ret = new byte[(int)length];
-        long i = 0, j = length;
-        for (Buffer buf : linkedList)
-        {
-            int readableBytes = buf.length();
-            if (r > readableBytes)
-            {
-                r -= readableBytes;
-                continue;
-            }
-
-            long k = r+j;
-            if (k > readableBytes) k = readableBytes;
-            for (; r<k; --j, ++readPosition)
-                ret[(int)i++] = buf.getByte((int)r++);
-
-            if (j > 0) {
-                r -= readableBytes;
-                continue;
-            }
-
-            break;
-        }
+        composite.readBytes(ret);
+        return ret;
+    }
+
+    /**
+     * read length bytes as a view onto the underlying buffers, no copy is made.
+     *
+     * it is the responsibility of the caller of this method to .release() the
+     * returned ByteBuf
+     * @param length number of bytes
+     * @return a retained slice of the data
+     */
+    public ByteBuf readSlice(long length)
+        throws NeedMoreDataException, Exception
+    {
+        if (length>Integer.MAX_VALUE) throw new Exception("Buffer overflow");
+        assertBytes(length);
+
+        return composite.readRetainedSlice((int)length);
+    }
+
+    /**
+     * decode length bytes of utf-8 in place
+     * @param length number of bytes
+     * @return the decoded string, null when length is zero
+     */
+    public String readUtf8(long length)
+        throws NeedMoreDataException, Exception
+    {
+        if (length == 0) return null;
+        if (length>Integer.MAX_VALUE) throw new Exception("Buffer overflow");
+        assertBytes(length);
+
+        final String ret = composite.toString(composite.readerIndex(), (int)length, StandardCharsets.UTF_8);
+        composite.skipBytes((int)length);
         return ret;
     }
 
     public long readRemainingLength()
         throws NeedMoreDataException
     {
-        // suboptimal implementation follows
         int multiplier = 1;
         long value = 0;
         byte digit = 0;
@@ -194,37 +161,23 @@ public class BufferContainer {
     public int readShort()
         throws NeedMoreDataException
     {
-        // suboptimal implementation follows
-        int value = readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        return value;
+        if (composite.readableBytes() < 2)
+            throw new NeedMoreDataException();
+
+        return composite.readUnsignedShort();
     }
 
     public long readLong()
             throws NeedMoreDataException
     {
-        // suboptimal implementation follows
-        long value = readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        value *= 0x100;
-        value |= readByte() & 0xff;
-        return value;
+        if (composite.readableBytes() < 8)
+            throw new NeedMoreDataException();
+
+        return composite.readLong();
     }
 
     public void skipBytes(long length)
     {
-        readPosition += length;
+        composite.skipBytes((int)length);
     }
 }
@@ -1,9 +1,13 @@
 package org.kritikal.fabric.net;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import io.vertx.core.Handler;
 import io.vertx.core.VoidHandler;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetSocket;
+import io.vertx.core.net.impl.ConnectionBase;
 
 /**
  * Created by ben on 04/02/15.
@@ -16,6 +20,8 @@ public class CNetSocket implements ISocket {
     }
 
     final NetSocket netSocket;
+    final Outbound outbound = new Outbound();
+    final ReadPause readPause = new ReadPause(this::pauseNetSocket, this::resumeNetSocket);
 
     @Override
     public void closeHandler(Handler<Void> handler) {
@@ -30,22 +36,95 @@ public class CNetSocket implements ISocket {
         catch (Throwable t) { }
     }
 
-    @Override
-    public void write(Buffer buffer) {
+    void pauseIfWriteQueueFull() {
         if (netSocket.writeQueueFull()) {
             netSocket.drainHandler(new VoidHandler() {
                 @Override
                 protected void handle() {
-                    netSocket.resume();
+                    readPause.resume(ReadPause.WRITE_QUEUE);
                 }
             });
-            netSocket.pause(); // pauses input, drain handler above will be called when ready
+            readPause.pause(ReadPause.WRITE_QUEUE); // pauses input, drain handler above will be called when ready
+        }
+    }
+
+    private void pauseNetSocket() {
+        netSocket.pause();
+    }
+
+    private void resumeNetSocket() {
+        netSocket.resume();
+    }
+
+    @Override
+    public void write(Buffer buffer) {
+        pauseIfWriteQueueFull();
+        if (netSocket instanceof ConnectionBase) {
+            writeToChannel(buffer.getByteBuf());
+        } else {
+            netSocket.write(buffer);
+        }
+    }
+
+    @Override
+    public void write(ByteBuf byteBuf) {
+        pauseIfWriteQueueFull();
+        if (netSocket instanceof ConnectionBase) {
+            // straight onto the channel, netty releases it once written
+            writeToChannel(byteBuf);
+        } else {
+            try {
+                netSocket.write(Buffer.buffer(Unpooled.copiedBuffer(byteBuf)));
+            }
+            finally {
+                byteBuf.release();
+            }
+        }
+    }
+
+    // counted out until netty has handed it to the network, or failed to
+    private void writeToChannel(ByteBuf byteBuf) {
+        final ConnectionBase connection = (ConnectionBase) netSocket;
+        final int length = byteBuf.readableBytes();
+        outbound.queued(length);
+        connection.reportBytesWritten(length);
+        final ChannelFuture future = connection.writeToChannel(byteBuf);
+        if (future != null) {
+            future.addListener(f -> outbound.written(length));
+        } else {
+            // closed, nothing was written
+            outbound.written(length);
+            byteBuf.release();
         }
-        netSocket.write(buffer);
     }
 
     @Override
     public void dataHandler(Handler<Buffer> handler) {
         netSocket.handler(handler);
     }
+
+    @Override
+    public void pause() {
+        readPause.pause(ReadPause.OWNER);
+    }
+
+    @Override
+    public void resume() {
+        readPause.resume(ReadPause.OWNER);
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return netSocket.writeQueueFull();
+    }
+
+    @Override
+    public long outboundBytes() {
+        return outbound.bytes();
+    }
+
+    @Override
+    public int outboundMessages() {
+        return outbound.messages();
+    }
 }
@@ -1,5 +1,7 @@
 package org.kritikal.fabric.net;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.vertx.core.Handler;
 import io.vertx.core.VoidHandler;
 import io.vertx.core.buffer.Buffer;
@@ -20,6 +22,9 @@ public class CServerWebSocket implements ISocket {
     }
 
     final ServerWebSocket webSocket;
+    // no completion is reported, so this counts what was written since the queue last had room
+    final Outbound outbound = new Outbound();
+    final ReadPause readPause = new ReadPause(this::pauseWebSocket, this::resumeWebSocket);
     public final String corefabric;
 
     @Override
@@ -41,16 +46,63 @@ public class CServerWebSocket implements ISocket {
             webSocket.drainHandler(new VoidHandler() {
                 @Override
                 protected void handle() {
-                    webSocket.resume();
+                    outbound.drained();
+                    readPause.resume(ReadPause.WRITE_QUEUE);
                 }
             });
-            webSocket.pause(); // pauses input, drain handler above will be called when ready
+            readPause.pause(ReadPause.WRITE_QUEUE); // pauses input, drain handler above will be called when ready
+        } else {
+            outbound.drained();
         }
+        outbound.queued(buffer.length());
         webSocket.write(buffer);
     }
 
+    @Override
+    public void write(ByteBuf byteBuf) {
+        try {
+            write(Buffer.buffer(Unpooled.copiedBuffer(byteBuf)));
+        }
+        finally {
+            byteBuf.release();
+        }
+    }
+
     @Override
     public void dataHandler(Handler<Buffer> handler) {
         webSocket.handler(handler);
     }
+
+    private void pauseWebSocket() {
+        webSocket.pause();
+    }
+
+    private void resumeWebSocket() {
+        webSocket.resume();
+    }
+
+    @Override
+    public void pause() {
+        readPause.pause(ReadPause.OWNER);
+    }
+
+    @Override
+    public void resume() {
+        readPause.resume(ReadPause.OWNER);
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return webSocket.writeQueueFull();
+    }
+
+    @Override
+    public long outboundBytes() {
+        return outbound.bytes();
+    }
+
+    @Override
+    public int outboundMessages() {
+        return outbound.messages();
+    }
 }
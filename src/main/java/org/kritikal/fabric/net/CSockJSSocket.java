@@ -1,5 +1,6 @@
 package org.kritikal.fabric.net;
 
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.Handler;
 import io.vertx.core.VoidHandler;
 import io.vertx.core.buffer.Buffer;
@@ -15,6 +16,9 @@ public class CSockJSSocket implements ISocket {
     public CSockJSSocket(final SockJSSocket sockJSSocket) { this.sockJSSocket = sockJSSocket; }
 
     final SockJSSocket sockJSSocket;
+    // no completion is reported, so this counts what was written since the queue last had room
+    final Outbound outbound = new Outbound();
+    final ReadPause readPause = new ReadPause(this::pauseSockJSSocket, this::resumeSockJSSocket);
     Handler<Void> closeHandler;
 
     @Override
@@ -38,16 +42,30 @@ public class CSockJSSocket implements ISocket {
             sockJSSocket.drainHandler(new VoidHandler() {
                 @Override
                 protected void handle() {
-                    sockJSSocket.resume();
+                    outbound.drained();
+                    readPause.resume(ReadPause.WRITE_QUEUE);
                 }
             });
-            sockJSSocket.pause(); // pauses input, drain handler above will be called when ready
+            readPause.pause(ReadPause.WRITE_QUEUE); // pauses input, drain handler above will be called when ready
+        } else {
+            outbound.drained();
         }
+        outbound.queued(buffer.length());
 
         byte[] base64 = Base64.getEncoder().encode(buffer.getBytes());
         sockJSSocket.write(Buffer.buffer(base64));
     }
 
+    @Override
+    public void write(ByteBuf byteBuf) {
+        try {
+            write(Buffer.buffer(byteBuf.duplicate()));
+        }
+        finally {
+            byteBuf.release();
+        }
+    }
+
     @Override
     public void dataHandler(Handler<Buffer> handler) {
         sockJSSocket.handler(new Handler<Buffer>() {
@@ -60,4 +78,36 @@ public class CSockJSSocket implements ISocket {
         });
     }
 
+    private void pauseSockJSSocket() {
+        sockJSSocket.pause();
+    }
+
+    private void resumeSockJSSocket() {
+        sockJSSocket.resume();
+    }
+
+    @Override
+    public void pause() {
+        readPause.pause(ReadPause.OWNER);
+    }
+
+    @Override
+    public void resume() {
+        readPause.resume(ReadPause.OWNER);
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return sockJSSocket.writeQueueFull();
+    }
+
+    @Override
+    public long outboundBytes() {
+        return outbound.bytes();
+    }
+
+    @Override
+    public int outboundMessages() {
+        return outbound.messages();
+    }
 }
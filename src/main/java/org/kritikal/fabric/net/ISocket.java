@@ -1,5 +1,6 @@
 package org.kritikal.fabric.net;
 
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
 
@@ -14,6 +15,36 @@ public interface ISocket {
 
     public void write(Buffer buffer);
 
+    /**
+     * write a netty buffer, ownership of one reference passes to the socket
+     * and the buffer is released once it has been written.
+     */
+    public void write(ByteBuf byteBuf);
+
     public void dataHandler(Handler<Buffer> handler);
 
+    /**
+     * stop reading input, used to push back on a producer the broker
+     * cannot keep up with.  A socket also stops reading while its write
+     * queue is full, and only reads again once neither holds it back.
+     */
+    public void pause();
+
+    public void resume();
+
+    /**
+     * true once more is queued for writing than the socket wants buffered
+     */
+    public boolean writeQueueFull();
+
+    /**
+     * bytes written and not yet handed to the network
+     */
+    public long outboundBytes();
+
+    /**
+     * messages written and not yet handed to the network
+     */
+    public int outboundMessages();
+
 }
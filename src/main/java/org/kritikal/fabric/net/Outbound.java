@@ -0,0 +1,38 @@
+package org.kritikal.fabric.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes and messages written to a socket and not yet handed to the network,
+ * counted up by the writer and down as the writes complete, or drained all
+ * at once by sockets that only learn when their queue has room again.
+ */
+public final class Outbound {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger messages = new AtomicInteger();
+
+    public void queued(int length) {
+        bytes.addAndGet(length);
+        messages.incrementAndGet();
+    }
+
+    public void written(int length) {
+        bytes.addAndGet(-length);
+        messages.decrementAndGet();
+    }
+
+    public void drained() {
+        bytes.set(0l);
+        messages.set(0);
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public int messages() {
+        return messages.get();
+    }
+}
@@ -0,0 +1,50 @@
+package org.kritikal.fabric.net;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Why a socket has stopped reading, one bit per reason: whoever reads it
+ * (ISocket.pause()), and a write queue waiting to drain.  Reasons may be
+ * added and withdrawn from any thread; the socket is paused or resumed on
+ * its event loop to match the reasons left by then, so it only reads again
+ * once every one has been withdrawn.
+ */
+public final class ReadPause {
+
+    public static final int OWNER = 1; // ISocket.pause(), e.g. the MQTT broker pushing back
+    public static final int WRITE_QUEUE = 2; // more queued for writing than the socket wants buffered
+
+    private final AtomicInteger reasons = new AtomicInteger(0);
+    private final Context context = Vertx.currentContext();
+    private final Runnable pause;
+    private final Runnable resume;
+
+    public ReadPause(Runnable pause, Runnable resume) {
+        this.pause = pause;
+        this.resume = resume;
+    }
+
+    public void pause(final int reason) {
+        if (reasons.getAndUpdate(r -> r | reason) == 0) apply();
+    }
+
+    public void resume(final int reason) {
+        // the last reason left, withdrawn
+        if (reasons.getAndUpdate(r -> r & ~reason) == reason) apply();
+    }
+
+    public boolean paused() {
+        return reasons.get() != 0;
+    }
+
+    private void apply() {
+        if (context == null || Vertx.currentContext() == context) {
+            if (reasons.get() == 0) resume.run(); else pause.run();
+        } else {
+            context.runOnContext(v -> apply());
+        }
+    }
+}
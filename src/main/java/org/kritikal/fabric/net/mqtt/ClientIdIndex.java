@@ -0,0 +1,44 @@
+package org.kritikal.fabric.net.mqtt;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The live connection for each client id.
+ *
+ * A CONNECT takes the client id over in one atomic step, handing back the
+ * connection it displaced so the caller can move its session on and close
+ * it; a disconnect only removes the connection if it still holds the id,
+ * so a connection that was taken over cannot remove its successor.  Both
+ * are O(1) however many clients are connected.
+ */
+public final class ClientIdIndex<T> {
+
+    private final ConcurrentHashMap<String, T> byClientID = new ConcurrentHashMap<>();
+
+    /**
+     * @return the connection that held clientID before, or null
+     */
+    public T takeover(String clientID, T connection) {
+        return byClientID.put(clientID, connection);
+    }
+
+    /**
+     * @return false if connection no longer holds clientID
+     */
+    public boolean remove(String clientID, T connection) {
+        return byClientID.remove(clientID, connection);
+    }
+
+    public T get(String clientID) {
+        return byClientID.get(clientID);
+    }
+
+    public int size() {
+        return byClientID.size();
+    }
+
+    public Collection<T> connections() {
+        return byClientID.values();
+    }
+}
@@ -0,0 +1,242 @@
+package org.kritikal.fabric.net.mqtt;
+
+import com.hazelcast.core.*;
+import org.kritikal.fabric.net.mqtt.entities.PublishBatch;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Routes cluster-wide publishes only to the members with a matching
+ * subscription, rather than broadcasting them to every member.
+ *
+ * Each member advertises the topic filters it has subscribers for as keys
+ * of the replicated map "mqtt.interest", one entry per distinct filter
+ * (reference counted locally), and removes them when the last subscriber
+ * goes.  Every member mirrors the other members' filters into a topic
+ * trie, so routing a publish is a local trie lookup, and sends it on the
+ * per-member topic "mqtt.enqueue.&lt;member&gt;" of each interested member.
+ *
+ * With batching on, publishes for the same member are coalesced into one
+ * PublishBatch frame, sent when it reaches batchBytes or batchMicros after
+ * its first message, whichever is sooner, and split again on receipt.
+ *
+ * The replicated map is eventually consistent: a publish racing a
+ * subscription made on another member may not reach it, as with any
+ * subscription made after the publish.
+ */
+public final class ClusterRouter {
+
+    private final static String INTEREST = "mqtt.interest";
+    private final static String ENQUEUE = "mqtt.enqueue.";
+    private final static char SEPARATOR = ' ';
+
+    private final HazelcastInstance hazelcast;
+    private final String member;
+    private final ReplicatedMap<String, String> interest;
+    private final ConcurrentHashMap<String, Integer> local = new ConcurrentHashMap<>();
+    private final MqttSubscriptionIndex<String> remote = new MqttSubscriptionIndex<>();
+    private final ConcurrentHashMap<String, Set<String>> remoteFilters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Outbound> outbound = new ConcurrentHashMap<>();
+    private final long batchMicros;
+    private final int batchBytes;
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * an unbatched router, each publish is its own frame
+     */
+    public ClusterRouter(HazelcastInstance hazelcast, Consumer<PublishMessage> deliver) {
+        this(hazelcast, 0l, 0, deliver);
+    }
+
+    /**
+     * @param batchMicros how long a batch may wait for more messages, 0 to send each publish at once
+     * @param batchBytes the approximate size at which a batch is sent without waiting
+     * @param deliver called with each publish routed here by another member
+     */
+    public ClusterRouter(HazelcastInstance hazelcast, long batchMicros, int batchBytes, Consumer<PublishMessage> deliver) {
+        this.hazelcast = hazelcast;
+        this.member = hazelcast.getCluster().getLocalMember().getUuid();
+        this.interest = hazelcast.getReplicatedMap(INTEREST);
+        this.batchMicros = batchMicros;
+        this.batchBytes = batchBytes;
+        if (batchMicros > 0l) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, "mqtt-cluster-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            this.flusher = executor;
+        } else {
+            this.flusher = null;
+        }
+        hazelcast.getTopic(ENQUEUE + member).addMessageListener(m -> {
+            final Object frame = m.getMessageObject();
+            if (frame instanceof PublishBatch) {
+                final PublishBatch publishBatch = (PublishBatch) frame;
+                received.addAndGet(publishBatch.messages.size());
+                for (PublishMessage publishMessage : publishBatch.messages) deliver.accept(publishMessage);
+            } else {
+                received.incrementAndGet();
+                deliver.accept((PublishMessage) frame);
+            }
+        });
+        interest.addEntryListener(new EntryAdapter<String, String>() {
+            @Override public void entryAdded(EntryEvent<String, String> event) { added(event.getKey()); }
+            @Override public void entryUpdated(EntryEvent<String, String> event) { added(event.getKey()); }
+            @Override public void entryRemoved(EntryEvent<String, String> event) { removed(event.getKey()); }
+            @Override public void entryEvicted(EntryEvent<String, String> event) { removed(event.getKey()); }
+        });
+        for (String key : interest.keySet()) added(key);
+        hazelcast.getCluster().addMembershipListener(new MembershipAdapter() {
+            @Override public void memberRemoved(MembershipEvent event) { forget(event.getMember().getUuid()); }
+        });
+    }
+
+    private static String key(String member, String filter) {
+        return member + SEPARATOR + filter;
+    }
+
+    private void added(String key) {
+        final int i = key.indexOf(SEPARATOR);
+        final String from = key.substring(0, i);
+        if (member.equals(from)) return;
+        final String filter = key.substring(i + 1);
+        remoteFilters.computeIfAbsent(from, k -> ConcurrentHashMap.newKeySet()).add(filter);
+        remote.subscribe(from, new MqttSubscription(filter, (byte) 0));
+    }
+
+    private void removed(String key) {
+        final int i = key.indexOf(SEPARATOR);
+        final String from = key.substring(0, i);
+        if (member.equals(from)) return;
+        final String filter = key.substring(i + 1);
+        final Set<String> filters = remoteFilters.get(from);
+        if (filters != null) filters.remove(filter);
+        remote.unsubscribe(from, filter);
+    }
+
+    // a member that left cannot remove its own interest
+    private void forget(String gone) {
+        final Set<String> filters = remoteFilters.remove(gone);
+        if (filters == null) return;
+        for (String filter : filters) {
+            remote.unsubscribe(gone, filter);
+            interest.remove(key(gone, filter));
+        }
+        final Outbound to = outbound.remove(gone);
+        if (to != null) to.discard();
+    }
+
+    // frames to one member, and the batch being filled for it
+    private final class Outbound {
+        final ITopic<Object> topic;
+        PublishBatch batch = null;
+        long bytes = 0;
+
+        Outbound(String to) {
+            this.topic = hazelcast.getTopic(ENQUEUE + to);
+        }
+
+        synchronized void add(PublishMessage publishMessage) {
+            if (batch == null) {
+                batch = new PublishBatch(16);
+                flusher.schedule(this::flush, batchMicros, TimeUnit.MICROSECONDS);
+            }
+            batch.messages.add(publishMessage);
+            bytes += OfflineQueue.sizeOf(publishMessage);
+            if (bytes >= batchBytes) flush();
+        }
+
+        synchronized void flush() {
+            if (batch == null) return;
+            // a lone message goes as itself
+            topic.publish(batch.messages.size() == 1 ? batch.messages.get(0) : batch);
+            frames.incrementAndGet();
+            batch = null;
+            bytes = 0;
+        }
+
+        synchronized void discard() {
+            batch = null;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * advertise a subscriber for topicFilter on this member
+     */
+    public void subscribe(MqttTopic topicFilter) {
+        // the interest changes under the count's lock, so a racing unsubscribe cannot undo it
+        local.compute(topicFilter.topic, (k, n) -> {
+            if (n != null) return n + 1;
+            interest.put(key(member, k), k);
+            return 1;
+        });
+    }
+
+    /**
+     * withdraw a subscriber for topicFilter on this member
+     */
+    public void unsubscribe(MqttTopic topicFilter) {
+        local.computeIfPresent(topicFilter.topic, (k, n) -> {
+            if (n > 1) return n - 1;
+            interest.remove(key(member, k));
+            return null;
+        });
+    }
+
+    /**
+     * @return the other members with a subscription matching topic
+     */
+    public Set<String> interested(MqttTopic topic) {
+        return remote.matches(topic).keySet();
+    }
+
+    /**
+     * send publishMessage to each other member with a matching subscription
+     * @return the number of members it was sent to
+     */
+    public int publish(PublishMessage publishMessage) {
+        final Map<String, Byte> members = remote.matches(publishMessage.getTopic());
+        for (String to : members.keySet()) {
+            final Outbound o = outbound.computeIfAbsent(to, Outbound::new);
+            if (flusher != null) {
+                o.add(publishMessage);
+            } else {
+                o.topic.publish(publishMessage);
+                frames.incrementAndGet();
+            }
+        }
+        sent.addAndGet(members.size());
+        return members.size();
+    }
+
+    /**
+     * send any batches now
+     */
+    public void flush() {
+        for (Outbound o : outbound.values()) o.flush();
+    }
+
+    /**
+     * @return the messages sent, one for each member each publish went to
+     */
+    public long sent() { return sent.get(); }
+    /**
+     * @return the Hazelcast publishes that carried them
+     */
+    public long frames() { return frames.get(); }
+    public long received() { return received.get(); }
+}
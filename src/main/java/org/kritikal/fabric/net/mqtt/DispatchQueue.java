@@ -0,0 +1,184 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.vertx.core.logging.LoggerFactory;
+import org.kritikal.fabric.CoreFabric;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Multi-producer, single-consumer handoff to a dedicated dispatch thread.
+ *
+ * offer() never blocks.  The dispatch thread handles items in arrival order;
+ * when it runs dry it spins, then yields, then parks until the next offer()
+ * unparks it, so an idle queue costs no CPU while a busy one never sleeps.
+ *
+ * A bounded queue refuses (and counts) offers once it holds capacity items;
+ * add() takes items that must not be lost even past capacity.  Producers
+ * that can slow down should check nearCapacity() after offering or adding,
+ * back off, then call notifyAtLowWater(); the low water handler then runs
+ * once the queue has drained to a quarter full, normally on the dispatch
+ * thread, or straight away if it already has.
+ */
+public final class DispatchQueue<T> {
+
+    /** Empty polls spent spinning, then yielding, before parking */
+    static final int SPINS = 256;
+    static final int YIELDS = 16;
+    /** Longest park, so the thread notices CoreFabric.exit */
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final Consumer<T> handler;
+    private final Thread thread;
+    private final int capacity;
+    private final int highWater;
+    private final int lowWater;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int maxDepth = 0;
+    private final AtomicBoolean notifyAtLowWater = new AtomicBoolean(false);
+    private volatile Runnable lowWaterHandler = null;
+    private volatile boolean parked = false;
+    private volatile boolean stopped = false;
+
+    public DispatchQueue(String name, int priority, Consumer<T> handler) {
+        this(name, priority, Integer.MAX_VALUE, handler);
+    }
+
+    public DispatchQueue(String name, int priority, int capacity, Consumer<T> handler) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity");
+        this.handler = handler;
+        this.thread = new Thread(this::run, name);
+        this.thread.setPriority(priority);
+        this.capacity = capacity;
+        this.highWater = capacity - capacity / 4;
+        this.lowWater = capacity / 4;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return false, and the item is dropped, if the queue is full
+     */
+    public boolean offer(T item) {
+        final int d = depth.incrementAndGet();
+        if (d > capacity) {
+            depth.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        append(item, d);
+        return true;
+    }
+
+    /**
+     * queue an item even if the queue is full, for one the producer has
+     * already acknowledged; it is up to the producer to back off.
+     */
+    public void add(T item) {
+        append(item, depth.incrementAndGet());
+    }
+
+    private void append(T item, int d) {
+        if (d > maxDepth) maxDepth = d; // racy, good enough for a statistic
+        queue.offer(item);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean nearCapacity() {
+        return depth.get() >= highWater;
+    }
+
+    public void lowWaterHandler(Runnable lowWaterHandler) {
+        this.lowWaterHandler = lowWaterHandler;
+    }
+
+    /**
+     * run the low water handler, once, when the queue next drains to a quarter full.
+     * call it after backing off so the handler sees whatever needs undoing.
+     */
+    public void notifyAtLowWater() {
+        notifyAtLowWater.set(true);
+        // the queue may have drained, and the dispatch thread parked, before we armed
+        checkLowWater();
+    }
+
+    private void checkLowWater() {
+        if (notifyAtLowWater.get() && depth.get() <= lowWater && notifyAtLowWater.compareAndSet(true, false)) {
+            final Runnable r = lowWaterHandler;
+            if (r != null) {
+                try {
+                    r.run();
+                }
+                catch (Throwable t) {
+                    LoggerFactory.getLogger(DispatchQueue.class).fatal(thread.getName(), t);
+                }
+            }
+        }
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    Thread thread() {
+        return thread;
+    }
+
+    private void run() {
+        int idle = 0;
+        while (!stopped && !CoreFabric.exit) {
+            final T item = queue.poll();
+            if (item != null) {
+                idle = 0;
+                depth.decrementAndGet();
+                try {
+                    handler.accept(item);
+                }
+                catch (Throwable t) {
+                    LoggerFactory.getLogger(DispatchQueue.class).fatal(thread.getName(), t);
+                }
+                checkLowWater();
+            } else if (idle < SPINS) {
+                ++idle;
+            } else if (idle < SPINS + YIELDS) {
+                ++idle;
+                Thread.yield();
+            } else {
+                // publish parked before the final check, offer() checks it after adding
+                parked = true;
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+    }
+}
@@ -12,12 +12,22 @@ import java.util.function.Consumer;
 public interface IMqttBroker {
     void apiPurge();
 
+    /**
+     * publish publishMessage, which is handed over and must not be reused
+     */
+    void apiPublish(PublishMessage publishMessage);
+
     void apiPublish(String topic, byte[] body, int qos, boolean retained);
 
     void apiPublish(String topic, byte[] body, int qos, boolean retained, long ttl);
 
     void apiSubscribe(String topic, String endPoint);
 
+    /**
+     * @param binary send endPoint each PublishMessage (see PublishMessageEventBusCodec) rather than json
+     */
+    void apiSubscribe(String topic, String endPoint, boolean binary);
+
     void apiSubscribe(String topic, Consumer<MqttBroker.MessageEncapsulation> onMessage);
 
     void apiUnsubscribe(String topic, String endPoint);
@@ -0,0 +1,276 @@
+package org.kritikal.fabric.net.mqtt;
+
+import com.cisco.qte.jdtn.general.WheelTimer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Timeout;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Outbound QoS 1 and 2 messages of one connection, awaiting acknowledgement.
+ *
+ * At most receiveMaximum messages are in flight, each in slot (id &amp; mask) of
+ * an array sized to the next power of two, so an ack is found, checked and
+ * cleared in constant time however many messages are unacknowledged.  A new
+ * id is the next one, skipping 0 and any whose slot is still taken, so ids
+ * stay unique across wrap-around; publishes beyond the window wait in a
+ * bounded queue for a slot.  Unacknowledged PUBLISH (with DUP set) and PUBREL
+ * are resent from the shared jDTN WheelTimer wheel, backing off up to 8x the interval.
+ */
+public final class InflightWindow {
+
+    static final int MAX_BACKOFF = 8;
+
+    static final int AWAIT_PUBACK = 1;
+    static final int AWAIT_PUBREC = 2;
+    static final int AWAIT_PUBCOMP = 3;
+
+    private final class Entry implements io.netty.util.TimerTask {
+        final int id;
+        final int qos;
+        int state;
+        EncodedPublish encodedPublish; // released once PUBACK or PUBREC arrives
+        Timeout timeout;
+        int backoff = 1;
+
+        Entry(int id, int qos, EncodedPublish encodedPublish) {
+            this.id = id;
+            this.qos = qos;
+            this.state = qos == 1 ? AWAIT_PUBACK : AWAIT_PUBREC;
+            this.encodedPublish = encodedPublish;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            retransmit(this, timeout);
+        }
+    }
+
+    private final static class Queued {
+        final EncodedPublish encodedPublish;
+        final int qos;
+        Queued(EncodedPublish encodedPublish, int qos) {
+            this.encodedPublish = encodedPublish;
+            this.qos = qos;
+        }
+    }
+
+    private final Consumer<ByteBuf> writer;
+    private final ByteBufAllocator allocator; // null: unpooled heap buffers
+    private final int receiveMaximum;
+    private final int queueLimit;
+    private final long retransmitMillis;
+    private final Entry[] slots;
+    private final int mask;
+    private final ArrayDeque<Queued> queued = new ArrayDeque<>();
+    private int nextId = 1;
+    private int inflight = 0;
+    private long retransmitted = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /**
+     * @param receiveMaximum most messages in flight, 1 to 65535
+     * @param queueLimit most messages waiting for the window, beyond which they are dropped
+     * @param retransmitMillis resend interval, 0 never resends
+     * @param writer takes ownership of each frame, normally by writing it to the socket
+     */
+    public InflightWindow(int receiveMaximum, int queueLimit, long retransmitMillis, ByteBufAllocator allocator, Consumer<ByteBuf> writer) {
+        if (receiveMaximum < 1 || receiveMaximum > 65535) throw new IllegalArgumentException("receiveMaximum");
+        this.receiveMaximum = receiveMaximum;
+        this.queueLimit = queueLimit;
+        this.retransmitMillis = retransmitMillis;
+        this.allocator = allocator;
+        this.writer = writer;
+        int size = Integer.highestOneBit(receiveMaximum);
+        if (size < receiveMaximum) size <<= 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * send at qos 1 or 2, or queue until the window has room; the window
+     * takes its own reference to encodedPublish
+     * @return false if the message was dropped, the queue being full
+     */
+    public boolean publish(EncodedPublish encodedPublish, int qos) {
+        final ByteBuf frame;
+        synchronized (this) {
+            if (closed) return false;
+            if (inflight >= receiveMaximum || !queued.isEmpty()) {
+                if (queued.size() >= queueLimit) {
+                    ++dropped;
+                    return false;
+                }
+                encodedPublish.retain();
+                queued.add(new Queued(encodedPublish, qos));
+                return true;
+            }
+            encodedPublish.retain();
+            frame = track(encodedPublish, qos);
+        }
+        writer.accept(frame);
+        return true;
+    }
+
+    /**
+     * @return the PUBLISH frame for a new entry; caller holds the lock and the window has room
+     */
+    private ByteBuf track(EncodedPublish encodedPublish, int qos) {
+        int id = nextId;
+        // the window has a free slot, so at most slots.length probes
+        while (id == 0 || slots[id & mask] != null) {
+            id = (id + 1) & 0xffff;
+        }
+        nextId = (id + 1) & 0xffff;
+        final Entry entry = new Entry(id, qos, encodedPublish);
+        slots[id & mask] = entry;
+        ++inflight;
+        schedule(entry);
+        return encodedPublish.frame(qos, id, false);
+    }
+
+    private void schedule(Entry entry) {
+        if (retransmitMillis > 0) {
+            entry.timeout = WheelTimer.newTimeout(entry, retransmitMillis * entry.backoff);
+        }
+    }
+
+    private static void cancel(Entry entry) {
+        if (entry.timeout != null) {
+            entry.timeout.cancel();
+            entry.timeout = null;
+        }
+    }
+
+    private void retransmit(Entry entry, Timeout timeout) {
+        final ByteBuf frame;
+        synchronized (this) {
+            if (closed || slots[entry.id & mask] != entry || entry.timeout != timeout) return;
+            if (entry.state == AWAIT_PUBCOMP) {
+                frame = pubrel(entry.id);
+            } else {
+                frame = entry.encodedPublish.frame(entry.qos, entry.id, true);
+            }
+            ++retransmitted;
+            entry.backoff = Math.min(MAX_BACKOFF, entry.backoff * 2);
+            schedule(entry);
+        }
+        writer.accept(frame);
+    }
+
+    private ByteBuf pubrel(int id) {
+        final ByteBuf buf = allocator != null ? allocator.directBuffer(4) : Unpooled.buffer(4);
+        buf.writeByte((AbstractMessage.PUBREL << 4) | (1 << 1)); // qos 1, as 3.1.1 requires
+        buf.writeByte(2);
+        buf.writeShort(id);
+        return buf;
+    }
+
+    private Entry lookup(int id, int state) {
+        final Entry entry = slots[id & mask];
+        return entry != null && entry.id == id && entry.state == state ? entry : null;
+    }
+
+    private void free(Entry entry) {
+        cancel(entry);
+        if (entry.encodedPublish != null) {
+            entry.encodedPublish.release();
+            entry.encodedPublish = null;
+        }
+        slots[entry.id & mask] = null;
+        --inflight;
+    }
+
+    /**
+     * send as many queued messages as now fit the window
+     */
+    private void drain() {
+        while (true) {
+            final ByteBuf frame;
+            synchronized (this) {
+                if (closed || inflight >= receiveMaximum || queued.isEmpty()) return;
+                final Queued q = queued.poll();
+                frame = track(q.encodedPublish, q.qos);
+            }
+            writer.accept(frame);
+        }
+    }
+
+    /**
+     * @return false if id is not awaiting a PUBACK
+     */
+    public boolean puback(int id) {
+        synchronized (this) {
+            final Entry entry = lookup(id, AWAIT_PUBACK);
+            if (entry == null) return false;
+            free(entry);
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * moves the message on to awaiting PUBCOMP and sends the PUBREL
+     * @return false if id is not awaiting a PUBREC
+     */
+    public boolean pubrec(int id) {
+        final ByteBuf frame;
+        synchronized (this) {
+            final Entry entry = lookup(id, AWAIT_PUBREC);
+            if (entry == null) {
+                // a duplicate PUBREC still gets its PUBREL
+                if (lookup(id, AWAIT_PUBCOMP) == null) return false;
+                frame = pubrel(id);
+            } else {
+                cancel(entry);
+                entry.encodedPublish.release();
+                entry.encodedPublish = null;
+                entry.state = AWAIT_PUBCOMP;
+                entry.backoff = 1;
+                schedule(entry);
+                frame = pubrel(id);
+            }
+        }
+        writer.accept(frame);
+        return true;
+    }
+
+    /**
+     * @return false if id is not awaiting a PUBCOMP
+     */
+    public boolean pubcomp(int id) {
+        synchronized (this) {
+            final Entry entry = lookup(id, AWAIT_PUBCOMP);
+            if (entry == null) return false;
+            free(entry);
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * drop everything, the connection has gone; later publishes are refused
+     */
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < slots.length; ++i) {
+            if (slots[i] != null) free(slots[i]);
+        }
+        Queued q;
+        while ((q = queued.poll()) != null) {
+            q.encodedPublish.release();
+        }
+    }
+
+    public synchronized int inflight() { return inflight; }
+    public synchronized int queued() { return queued.size(); }
+    public synchronized long retransmitted() { return retransmitted; }
+    public synchronized long dropped() { return dropped; }
+    public int receiveMaximum() { return receiveMaximum; }
+}
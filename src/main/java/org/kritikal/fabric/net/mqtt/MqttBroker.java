@@ -1,14 +1,24 @@
 package org.kritikal.fabric.net.mqtt;
 
+import com.cisco.qte.jdtn.general.WheelTimer;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.IMap;
-import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MapEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.vertx.core.logging.LoggerFactory;
 import org.kritikal.fabric.CoreFabric;
 import org.kritikal.fabric.core.exceptions.FabricError;
 import org.kritikal.fabric.daemon.MqttBrokerVerticle;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
 import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
 import org.kritikal.fabric.net.mqtt.entities.ConnectMessage;
 import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessageEventBusCodec;
 import org.kritikal.fabric.core.VERTXDEFINES;
 import org.kritikal.fabric.net.CNetSocket;
 import org.kritikal.fabric.net.CServerWebSocket;
@@ -21,8 +31,14 @@ import io.vertx.core.logging.Logger;
 import io.vertx.ext.web.handler.sockjs.SockJSSocket;
 import io.vertx.core.net.NetSocket;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,34 +51,65 @@ import java.util.function.Function;
  */
 public class MqttBroker implements IMqttServerCallback, IMqttBroker {
 
+    // how long a replay or retained stream backed up behind a slow client waits before trying again
+    static final long BACKED_UP_RETRY_MILLIS = 100l;
+
     final public Vertx vertx;
     final Logger logger;
 
     final IMap<String, PublishMessage> retainedCluster = CoreFabric.getHazelcastInstance().getMap("mqtt.retained");
-    final ConcurrentMap<String, PublishMessage> retainedLocal = new ConcurrentHashMap<>();
-    final ITopic<PublishMessage> hazelcastTopic = CoreFabric.getHazelcastInstance().getTopic("mqtt.enqueue");
+    final RetainedStore retainedLocal = new RetainedStore();
+    // local index of the keys of retainedCluster, kept current by its entry listener; Hazelcast expires
+    // the entries, and the messages stay on their owners until RetainedStream fetches them
+    final RetainedStore retainedClusterIndex = new RetainedStore(false);
+    final ClusterRouter clusterRouter;
+    final SlowConsumerPolicy slowConsumers = new SlowConsumerPolicy(CoreFabric.ServerConfiguration.mqttOutboundMaxBytes,
+            CoreFabric.ServerConfiguration.mqttOutboundMaxMessages, CoreFabric.ServerConfiguration.mqttSlowConsumer);
+    final PublishRateLimits publishLimits = new PublishRateLimits(
+            CoreFabric.ServerConfiguration.mqttClientPublishRate, CoreFabric.ServerConfiguration.mqttClientPublishBurst,
+            CoreFabric.ServerConfiguration.mqttNodePublishRate, CoreFabric.ServerConfiguration.mqttNodePublishBurst,
+            CoreFabric.ServerConfiguration.mqttTopicPublishLimits);
 
     public MqttBroker(Vertx vertx) {
         this.vertx = vertx;
         this.logger = LoggerFactory.getLogger(getClass());
-        hazelcastTopic.addMessageListener(m -> {
-            final PublishMessage publishMessage = m.getMessageObject();
+        vertx.eventBus().registerDefaultCodec(PublishMessage.class, new PublishMessageEventBusCodec());
+        this.clusterRouter = new ClusterRouter(CoreFabric.getHazelcastInstance(),
+                CoreFabric.ServerConfiguration.mqttClusterBatchMicros, CoreFabric.ServerConfiguration.mqttClusterBatchBytes, publishMessage -> {
             if (publishMessage.origin.equals(CoreFabric.ServerConfiguration.instance)) return;
             enqueue(null, publishMessage);
         });
+        retainedCluster.addEntryListener(new RetainedClusterListener(), false);
+        for (String topic : retainedCluster.keySet()) retainedClusterIndex.putKey(topic);
         vertx.setPeriodic(9997l, l -> {
             // Announce our life; across the cluster...
-            final String json = CoreFabric.globalConfig.encode();
+            final JsonObject announce = CoreFabric.globalConfig.copy();
+            announce.put("mqttIngress", new JsonObject()
+                    .put("depth", getIngressDepth())
+                    .put("maxDepth", getIngressMaxDepth())
+                    .put("capacity", getIngressCapacity())
+                    .put("dropped", getIngressDropped())
+                    .put("pausedProducers", getIngressPausedProducers()));
+            announce.put("mqttCluster", new JsonObject()
+                    .put("sent", clusterRouter.sent())
+                    .put("frames", clusterRouter.frames())
+                    .put("received", clusterRouter.received()));
+            announce.put("mqttSlowConsumers", new JsonObject()
+                    .put("policy", slowConsumers.policy().name())
+                    .put("dropped", slowConsumers.dropped())
+                    .put("queued", slowConsumers.queued())
+                    .put("disconnected", slowConsumers.disconnected()));
+            announce.put("mqttPublishLimits", new JsonObject()
+                    .put("dropped", publishLimits.dropped())
+                    .put("deferred", publishLimits.deferred()));
+            final String json = announce.encode();
             try { MqttBrokerVerticle.mqttBroker().apiPublish("$cf/"+CoreFabric.ServerConfiguration.hostname + "/|g", json.getBytes("UTF-8"), 2, false, 13997); } catch (UnsupportedEncodingException uee) { logger.fatal("", uee); }
         });
-        _messageArrivedThread.setPriority(Thread.MAX_PRIORITY);
-        _messageArrivedThread.start();
-        _messageForBroadcastThread.setPriority(Thread.MAX_PRIORITY);
-        _messageForBroadcastThread.start();
+        _messageArrivedQ.lowWaterHandler(this::resumeProducers);
+        _messageArrivedQ.start();
+        _messageForBroadcastQ.start();
         _retainedThread.setPriority(Thread.MIN_PRIORITY);
         _retainedThread.start();
-        _retainedClusterThread.setPriority(Thread.MIN_PRIORITY);
-        _retainedClusterThread.start();
     }
 
     final public static class ContentHelper {
@@ -137,6 +184,9 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
 
         public String clientID = null;
         public MyMqttState state = null;
+        TokenBucket publishBucket = null;
+        // publishes refused by the rate limits after being acknowledged, in order; only touched on the event loop
+        final ArrayDeque<PublishMessage> deferred = new ArrayDeque<>();
 
         @Override
         public void publish(String topic, byte[] payload, int qos, boolean retain) {
@@ -145,28 +195,75 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             }
             super.publish(topic, payload, qos, retain);
         }
+
+        @Override
+        public void publish(EncodedPublish encodedPublish, int qos) {
+            if (DEBUG && VERBOSE) {
+                logger.debug("Publishing (shared) to " + clientID);
+            }
+            super.publish(encodedPublish, qos);
+        }
     }
 
     final public static class MyMqttState
     {
         public MyMqttState(final String clientID) { this.clientID = clientID; }
         public final String clientID;
+        public volatile MyMqttServerProtocol protocol = null; // null whilst offline
         public ConcurrentLinkedQueue<MqttSubscription> subscriptions = new ConcurrentLinkedQueue<>();
-        private AtomicReference<ConcurrentLinkedQueue<PublishMessage>> queued = new AtomicReference<>(null);
-        public ConcurrentLinkedQueue<PublishMessage> queue() {
-            return queued.updateAndGet(q -> {
-                ConcurrentLinkedQueue<PublishMessage> r = q;
-                if (q != null) {
-                    q = null;
-                }
-                return r;
-            });
+        private OfflineQueue queued = null;
+        private boolean replaying = false; // new messages queue behind those being replayed
+        public synchronized void enqueue(PublishMessage publishMessage) {
+            if (queued == null) {
+                queued = new OfflineQueue(clientID,
+                        CoreFabric.ServerConfiguration.mqttOfflineMaxMessages,
+                        CoreFabric.ServerConfiguration.mqttOfflineMaxBytes,
+                        CoreFabric.ServerConfiguration.mqttOfflineOverflow,
+                        new File(CoreFabric.ServerConfiguration.mqttSpoolDir),
+                        CoreFabric.ServerConfiguration.mqttSpillSegmentBytes,
+                        CoreFabric.ServerConfiguration.mqttSpillMaxBytes);
+            }
+            queued.add(publishMessage);
         }
-        public void enqueue(PublishMessage publishMessage) {
-            queued.updateAndGet(q -> {
-                if (q == null) q = new ConcurrentLinkedQueue<PublishMessage>();
-                return q;
-            }).add(publishMessage);
+        /**
+         * @return true if queued behind a replay in progress, false to deliver it now
+         */
+        public synchronized boolean enqueueIfReplaying(PublishMessage publishMessage) {
+            if (!replaying) return false;
+            enqueue(publishMessage);
+            return true;
+        }
+        /**
+         * queue behind any already queued, for a connection that cannot keep up
+         *
+         * @return true if a replay needs starting to deliver it
+         */
+        public synchronized boolean divert(PublishMessage publishMessage) {
+            enqueue(publishMessage);
+            if (replaying) return false;
+            return replaying = true;
+        }
+        /**
+         * @return true if there are queued messages to replay
+         */
+        public synchronized boolean startReplay() {
+            return replaying = queued != null && !queued.isEmpty();
+        }
+        /**
+         * @return the next queued message, or null, ending the replay, when there are none
+         */
+        public synchronized PublishMessage nextQueued() {
+            final PublishMessage publishMessage = queued != null ? queued.poll() : null;
+            if (publishMessage == null) replaying = false;
+            return publishMessage;
+        }
+        public synchronized void discardQueued() {
+            if (queued != null) queued.clear();
+            queued = null;
+            replaying = false;
+        }
+        public synchronized long queuedCount() {
+            return queued != null ? queued.size() : 0l;
         }
         public boolean willRetain = false;
         public String willTopic = null;
@@ -176,9 +273,10 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
 
     final public static class InternalConnection
     {
-        public InternalConnection(String topic, String endPoint) {
+        public InternalConnection(String topic, String endPoint, boolean binary) {
             this.subscription = new MqttSubscription(topic, (byte)2);
             this.endPoint = endPoint;
+            this.binary = binary;
         }
         public InternalConnection(String topic, java.util.function.Consumer<MessageEncapsulation> onMessage) {
             this.subscription = new MqttSubscription(topic, (byte)2);
@@ -186,13 +284,16 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         }
         public final MqttSubscription subscription;
         public String endPoint = null;
+        public boolean binary = false; // endPoint is sent the PublishMessage, rather than json
         public java.util.function.Consumer<MessageEncapsulation> onMessage = null;
     }
 
-    public ConcurrentLinkedQueue<MyMqttServerProtocol> waitingForConnect = new ConcurrentLinkedQueue<>();
-    protected ConcurrentLinkedQueue<MyMqttServerProtocol> connected = new ConcurrentLinkedQueue<>();
+    public final Set<MyMqttServerProtocol> waitingForConnect = ConcurrentHashMap.newKeySet();
+    protected final ClientIdIndex<MyMqttServerProtocol> connected = new ClientIdIndex<>();
     protected ConcurrentHashMap<String, MyMqttState> disconnected = new ConcurrentHashMap<>();
     protected ConcurrentLinkedQueue<InternalConnection> internal = new ConcurrentLinkedQueue<>();
+    protected final MqttSubscriptionIndex<MyMqttState> sessionIndex = new MqttSubscriptionIndex<>();
+    protected final MqttSubscriptionIndex<InternalConnection> internalIndex = new MqttSubscriptionIndex<>();
 
 
     // IMqttServerCallback
@@ -217,21 +318,29 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             }
         }
 
-        connected.stream().mapToLong(p -> {
-            if (current.clientID.equals(p.clientID)) {
-                connected.remove(p);
-                p.forceDisconnect();
-                return 1l;
+        final MyMqttServerProtocol p = connected.takeover(current.clientID, current);
+        // a client cannot refill its bucket by reconnecting
+        current.publishBucket = p != null && p != current ? p.publishBucket : publishLimits.clientBucket();
+        if (p != null && p != current) {
+            final MyMqttState state = p.state;
+            if (state != null && state.protocol == p) {
+                // hand the session over, a persistent session picks it up in postConnAck
+                state.protocol = null;
+                disconnected.put(current.clientID, state);
             }
-            return 0l;
-        }).sum();
-
-        connected.add(current);
+            p.forceDisconnect();
+        }
 
         if (connectMessage.isCleanSession())
         {
             MyMqttState myMqttState = new MyMqttState(current.clientID);
-            disconnected.remove(current.clientID);
+            final MyMqttState previous = disconnected.remove(current.clientID);
+            if (previous != null) {
+                sessionIndex.unsubscribeAll(previous, previous.subscriptions);
+                for (MqttSubscription subscription : previous.subscriptions) clusterUnsubscribe(subscription);
+                previous.discardQueued();
+            }
+            myMqttState.protocol = current;
             current.state = myMqttState;
         }
     }
@@ -242,12 +351,13 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         MyMqttServerProtocol myMqttServerProtocol = (MyMqttServerProtocol) protocol;
 
         if (!connectMessage.isCleanSession()) {
-            myMqttServerProtocol.state = disconnected.getOrDefault(myMqttServerProtocol.clientID, null);
+            myMqttServerProtocol.state = disconnected.remove(myMqttServerProtocol.clientID);
             if (myMqttServerProtocol.state == null) {
                 MyMqttState myMqttState = new MyMqttState(myMqttServerProtocol.clientID);
                 myMqttServerProtocol.state = myMqttState;
             } else
                 publishQueuedAndRetained = true;
+            myMqttServerProtocol.state.protocol = myMqttServerProtocol;
         }
 
         if (connectMessage.isWillFlag()) {
@@ -258,36 +368,52 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         }
 
         if (publishQueuedAndRetained) {
-            // publish queued
-            {
-                ConcurrentLinkedQueue<PublishMessage> queued = myMqttServerProtocol.state.queue();
-                if (queued != null)
-                {
-                    queued.stream().mapToLong(publishMessage -> {
-                        final ContentHelper ch = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
-                        final QosHelper qh = new QosHelper();
-
-                        myMqttServerProtocol.state.subscriptions.stream().mapToLong(subscription -> {
-                            if (subscription.matches(publishMessage.getTopic())) {
-                                qh.qos(subscription.qos);
-                                return 1l;
-                            }
-                            return 0l;
-                        }).anyMatch(l -> qh.terminated());
-
-                        if (qh.isMatch()) {
-                            myMqttServerProtocol.publish(publishMessage.getTopicName(), ch.payload(), qh.getQos(), publishMessage.isRetainFlag());
-                        }
-
-                        return 1l;
-                    }).sum();
-                }
+            // publish queued, paced by the in-flight window, off the event loop as they may be on disk
+            if (myMqttServerProtocol.state.startReplay()) {
+                replayQueued(myMqttServerProtocol, myMqttServerProtocol.state);
             }
 
             publishRetained(myMqttServerProtocol, myMqttServerProtocol.state.subscriptions);
         }
     }
 
+    /**
+     * replay a batch of queued messages on a worker, then come back from the
+     * wheel for the next once the in-flight window has drained, until the
+     * queue is empty or the client goes away again
+     */
+    void replayQueued(final MyMqttServerProtocol myMqttServerProtocol, final MyMqttState state) {
+        vertx.executeBlocking(f -> {
+            int budget = myMqttServerProtocol.inflightOutbound.receiveMaximum();
+            while (state.protocol == myMqttServerProtocol && !myMqttServerProtocol.socketClosed && !myMqttServerProtocol.closing.get()) {
+                if (budget-- == 0 || myMqttServerProtocol.inflightOutbound.queued() > 0 || slowConsumers.over(myMqttServerProtocol)) {
+                    WheelTimer.newTimeout(t -> replayQueued(myMqttServerProtocol, state), BACKED_UP_RETRY_MILLIS);
+                    break;
+                }
+                final PublishMessage publishMessage = state.nextQueued();
+                if (publishMessage == null) break;
+
+                final ContentHelper ch = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
+                final QosHelper qh = new QosHelper();
+
+                state.subscriptions.stream().mapToLong(subscription -> {
+                    if (subscription.matches(publishMessage.getTopic())) {
+                        qh.qos(subscription.qos);
+                        return 1l;
+                    }
+                    return 0l;
+                }).anyMatch(l -> qh.terminated());
+
+                if (qh.isMatch()) {
+                    myMqttServerProtocol.publish(publishMessage.getTopicName(), ch.payload(), qh.getQos(), publishMessage.isRetainFlag());
+                }
+            }
+            f.complete();
+        }, false, r -> {
+            if (r.failed()) logger.error("Replaying " + state.clientID, r.cause());
+        });
+    }
+
     @Override
     public void apiPurge()
     {
@@ -297,6 +423,16 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         retainedLocal.clear();
     }
 
+    @Override
+    public void apiPublish(PublishMessage publishMessage)
+    {
+        if (DEBUG && VERBOSE) {
+            logger.debug("(API) publish " + publishMessage.getTopicName());
+        }
+
+        messageArrived(null, publishMessage);
+    }
+
     @Override
     public void apiPublish(String topic, byte[] body, int qos, boolean retained)
     {
@@ -344,6 +480,12 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
 
     @Override
     public void apiSubscribe(String topic, String endPoint)
+    {
+        apiSubscribe(topic, endPoint, false);
+    }
+
+    @Override
+    public void apiSubscribe(String topic, String endPoint, boolean binary)
     {
         if (DEBUG) {
             logger.debug("(API) subscribe " + topic + " --> " + endPoint);
@@ -352,7 +494,10 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         if (internal.stream().mapToLong(i -> {
             return (i.subscription.topic.equals(topic) && i.endPoint != null && i.endPoint.equals(endPoint)) ? 1l : 0l;
         }).sum() > 0) return;
-        internal.add(new InternalConnection(topic, endPoint));
+        final InternalConnection internalConnection = new InternalConnection(topic, endPoint, binary);
+        internal.add(internalConnection);
+        internalIndex.subscribe(internalConnection, internalConnection.subscription);
+        clusterSubscribe(internalConnection.subscription);
     }
 
     @Override
@@ -364,7 +509,10 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         if (internal.stream().mapToLong(i -> {
             return (i.subscription.topic.equals(topic) && i.endPoint != null && i.onMessage == onMessage) ? 1l : 0l;
         }).sum() > 0) return;
-        internal.add(new InternalConnection(topic, onMessage));
+        final InternalConnection internalConnection = new InternalConnection(topic, onMessage);
+        internal.add(internalConnection);
+        internalIndex.subscribe(internalConnection, internalConnection.subscription);
+        clusterSubscribe(internalConnection.subscription);
     }
 
     @Override
@@ -374,7 +522,14 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             logger.debug("(API) unsubscribe " + topic + " --> " + endPoint);
         }
 
-        internal.removeIf(i -> i.subscription.topic.equals(topic) && i.endPoint != null && i.endPoint.equals(endPoint));
+        internal.removeIf(i -> {
+            if (i.subscription.topic.equals(topic) && i.endPoint != null && i.endPoint.equals(endPoint)) {
+                internalIndex.unsubscribe(i, i.subscription);
+                clusterUnsubscribe(i.subscription);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
@@ -384,7 +539,14 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             logger.debug("(API) unsubscribe " + topic + " --> callback");
         }
 
-        internal.removeIf(i -> i.subscription.topic.equals(topic) && i.onMessage != null && i.onMessage == onMessage);
+        internal.removeIf(i -> {
+            if (i.subscription.topic.equals(topic) && i.onMessage != null && i.onMessage == onMessage) {
+                internalIndex.unsubscribe(i, i.subscription);
+                clusterUnsubscribe(i.subscription);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
@@ -396,7 +558,7 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
 
         JsonObject ret = null;
 
-        final MqttTopic topic1 = new MqttTopic(topic);
+        final MqttTopic topic1 = MqttTopic.of(topic);
         PublishMessage publishMessage = null;
 
         if (clusterWide(topic1)) {
@@ -436,60 +598,27 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         messageForBroadcast(message);
     }
 
+    @Override
     public void messageForBroadcast(PublishMessage publishMessage) {
         try {
-            _messageForBroadcastQ.transfer(publishMessage);
+            _messageForBroadcastQ.offer(publishMessage);
         }
         catch (Throwable t) {
             logger.error("", t);
         }
     }
 
+    // retainedLocal keeps its messages in expiry order, only those due are touched;
+    // retainedCluster entries carry a Hazelcast ttl and are evicted by their owners
     private final Thread _retainedThread = new Thread(() -> {
         while (!CoreFabric.exit) {
-            final long now = new java.util.Date().getTime();
-            retainedLocal.values().removeIf(publishMessage -> publishMessage.expires != 0l && publishMessage.expires < now);
-            if (SLOWER) { try { Thread.sleep(97l); } catch (InterruptedException ie) { } } else Thread.yield();
-        }
-    });
-
-    private final Thread _retainedClusterThread = new Thread(() -> {
-        while (!CoreFabric.exit) {
-            final long now = new java.util.Date().getTime();
-            ConcurrentLinkedQueue<String> toRemove = new ConcurrentLinkedQueue<>();
-            retainedCluster.entrySet().stream().mapToLong(entry -> {
-                final PublishMessage publishMessage = entry.getValue();
-                if (publishMessage.expires != 0l && publishMessage.expires < now) {
-                    toRemove.add(entry.getKey());
-                    return 1l;
-                }
-                return 0l;
-            }).sum();
-            toRemove.stream().mapToLong(k -> {
-                retainedCluster.remove(k);
-                return 1l;
-            }).sum();
-            try { Thread.sleep(9997l); } catch (InterruptedException ie) { }
+            retainedLocal.expire(new java.util.Date().getTime());
+            try { Thread.sleep(97l); } catch (InterruptedException ie) { }
         }
     });
 
-    private final LinkedTransferQueue<PublishMessage> _messageForBroadcastQ = new LinkedTransferQueue<PublishMessage>();
-    private final Thread _messageForBroadcastThread = new Thread(() -> {
-        while (!CoreFabric.exit) {
-            try {
-                final ConcurrentLinkedQueue<PublishMessage> list = new ConcurrentLinkedQueue<>();
-                _messageForBroadcastQ.drainTo(list);
-                list.stream().mapToLong(publishMessage -> {
-                    _messageForBroadcast(publishMessage);
-                    return 1l;
-                }).sum();
-                if (SLOWER) { try { Thread.sleep(97l); } catch (InterruptedException ie) { } } else Thread.yield();
-            }
-            catch (Throwable t) {
-                LoggerFactory.getLogger(MqttBroker.class).fatal("", t);
-            }
-        }
-    });
+    private final DispatchQueue<PublishMessage> _messageForBroadcastQ =
+            new DispatchQueue<>("mqtt-broadcast", Thread.MAX_PRIORITY, this::_messageForBroadcast);
 
     public final void _messageForBroadcast(PublishMessage publishMessage) {
         final ContentHelper contentHelper = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
@@ -513,7 +642,7 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             if (i.subscription.isWildcard()) return 0l;
             if (topicMatcher.matches(i.subscription)) {
                 if (i.endPoint != null) {
-                    vertx.eventBus().send(i.endPoint, contentHelper.json(), VERTXDEFINES.DELIVERY_OPTIONS);
+                    vertx.eventBus().send(i.endPoint, i.binary ? publishMessage : contentHelper.json(), VERTXDEFINES.DELIVERY_OPTIONS);
                 } else if (i.onMessage != null) {
                     try {
                         i.onMessage.accept(contentHelper.encapsulated());
@@ -529,11 +658,12 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             return 0l;
         }).sum();
 
-        connected.parallelStream().mapToLong(myMqttServerProtocol -> {
+        connected.connections().parallelStream().mapToLong(myMqttServerProtocol -> {
             return myMqttServerProtocol.state.subscriptions.stream().mapToLong(subscription -> {
                 if (subscription == null) return 0l;
                 if (subscription.isWildcard()) return 0l;
                 if (topicMatcher.matches(subscription)) {
+                    if (slowConsumers.admit(myMqttServerProtocol, 0) != SlowConsumerPolicy.Action.SEND) return 0l;
                     myMqttServerProtocol.publish(subscription.topic, contentHelper.payload(), (byte)0, publishMessage.isRetainFlag());
                     return 1l;
                 }
@@ -583,47 +713,150 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         return clusterWide(publishMessage.getTopic());
     }
 
-    public void publishRetained(MqttServerProtocol protocol, ConcurrentLinkedQueue<MqttSubscription> newSubscriptions)
-    {
-        MyMqttServerProtocol myMqttServerProtocol = (MyMqttServerProtocol) protocol;
-        retainedLocal.values().stream().mapToLong(publishMessage -> {
+    /**
+     * @return whether topicFilter could match a clusterWide topic
+     */
+    public static boolean clusterWideFilter(MqttTopic topicFilter) {
+        final String[] parts = topicFilter.parts;
+        if (parts.length == 0) return false;
+        final char chRoot = parts[0].length() > 0 ? parts[0].charAt(0) : 0;
+        final String leaf = parts[parts.length - 1];
+        final char chLeaf = leaf.length() > 0 ? leaf.charAt(0) : 0;
+        return chRoot == '|' || chRoot == '+' || chRoot == '#' || chLeaf == '|' || chLeaf == '+' || chLeaf == '#';
+    }
 
-            final ContentHelper ch = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
-            final QosHelper qh = new QosHelper();
+    void clusterSubscribe(MqttTopic topicFilter) {
+        if (clusterWideFilter(topicFilter)) clusterRouter.subscribe(topicFilter);
+    }
 
-            newSubscriptions.stream().mapToLong(subscription -> {
-                if (subscription.matches(publishMessage.getTopic())) {
-                    qh.qos(subscription.qos);
-                    return 1l;
-                }
-                return 0l;
-            }).anyMatch(l -> qh.terminated());
+    void clusterUnsubscribe(MqttTopic topicFilter) {
+        if (clusterWideFilter(topicFilter)) clusterRouter.unsubscribe(topicFilter);
+    }
 
-            if (qh.isMatch()) {
-                myMqttServerProtocol.publish(publishMessage.getTopicName(), ch.payload(), qh.getQos(), publishMessage.isRetainFlag());
-                return 1l;
+    final class RetainedClusterListener implements EntryAddedListener<String, PublishMessage>, EntryUpdatedListener<String, PublishMessage>,
+            EntryRemovedListener<String, PublishMessage>, EntryEvictedListener<String, PublishMessage>, MapClearedListener {
+        @Override public void entryAdded(EntryEvent<String, PublishMessage> event) { retainedClusterIndex.putKey(event.getKey()); }
+        @Override public void entryUpdated(EntryEvent<String, PublishMessage> event) { retainedClusterIndex.putKey(event.getKey()); }
+        @Override public void entryRemoved(EntryEvent<String, PublishMessage> event) { retainedClusterIndex.remove(event.getKey()); }
+        @Override public void entryEvicted(EntryEvent<String, PublishMessage> event) { retainedClusterIndex.remove(event.getKey()); }
+        @Override public void mapCleared(MapEvent event) { retainedClusterIndex.clear(); }
+    }
+
+    /**
+     * messages retained on any topic matching the new subscriptions, walked
+     * from the retained tries a chunk at a time on the connection's context;
+     * the next chunk waits on the wheel while the in-flight window or the
+     * socket is backed up.  The cluster trie holds only keys, each chunk of
+     * those is fetched with one getAll off the event loop.
+     */
+    final class RetainedStream {
+        final MyMqttServerProtocol protocol;
+        final MqttSubscription[] subscriptions;
+        final RetainedStore.Cursor[] cursors; // local and cluster for each subscription
+        int current = 0;
+
+        RetainedStream(MyMqttServerProtocol protocol, Collection<MqttSubscription> newSubscriptions) {
+            this.protocol = protocol;
+            this.subscriptions = newSubscriptions.toArray(new MqttSubscription[newSubscriptions.size()]);
+            this.cursors = new RetainedStore.Cursor[2 * subscriptions.length];
+            for (int i = 0; i < subscriptions.length; ++i) {
+                cursors[2 * i] = retainedLocal.matching(subscriptions[i]);
+                cursors[2 * i + 1] = retainedClusterIndex.matching(subscriptions[i]);
             }
-            return 0l;
-        }).sum();
-        retainedCluster.values().stream().mapToLong(publishMessage -> {
+        }
 
-            final ContentHelper ch = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
-            final QosHelper qh = new QosHelper();
+        boolean backedUp() {
+            return protocol.socket.writeQueueFull() || protocol.inflightOutbound.queued() > 0;
+        }
 
-            newSubscriptions.stream().mapToLong(subscription -> {
-                if (subscription.matches(publishMessage.getTopic())) {
-                    qh.qos(subscription.qos);
-                    return 1l;
+        void next() {
+            if (protocol.socketClosed) return;
+            if (protocol.context == null || Vertx.currentContext() == protocol.context) {
+                chunk();
+            } else {
+                protocol.context.runOnContext(v -> chunk());
+            }
+        }
+
+        void chunk() {
+            final long now = System.currentTimeMillis();
+            for (int budget = RETAINED_CHUNK; current < cursors.length; ) {
+                if (protocol.socketClosed) return;
+                if (backedUp()) {
+                    WheelTimer.newTimeout(t -> next(), BACKED_UP_RETRY_MILLIS);
+                    return;
                 }
-                return 0l;
-            }).anyMatch(l -> qh.terminated());
+                if (budget == 0) {
+                    if (protocol.context != null) {
+                        protocol.context.runOnContext(v -> next()); // let the event loop breathe
+                        return;
+                    }
+                    budget = RETAINED_CHUNK;
+                }
+                if (current % 2 == 1) {
+                    fetch();
+                    return;
+                }
+                final PublishMessage publishMessage = cursors[current].next();
+                if (publishMessage == null) { ++current; continue; }
+                if (send(current / 2, publishMessage, now)) --budget;
+            }
+        }
 
-            if (qh.isMatch()) {
-                myMqttServerProtocol.publish(publishMessage.getTopicName(), ch.payload(), qh.getQos(), publishMessage.isRetainFlag());
-                return 1l;
+        // the next chunk of keys from the cluster trie, their messages fetched on a worker
+        void fetch() {
+            final int s = current / 2;
+            final HashSet<String> keys = new HashSet<>();
+            while (keys.size() < RETAINED_CHUNK) {
+                final PublishMessage key = cursors[current].next();
+                if (key == null) { ++current; break; }
+                if (!earlier(s, key)) keys.add(key.getTopicName());
             }
-            return 0l;
-        }).sum();
+            if (keys.isEmpty()) {
+                next();
+                return;
+            }
+            vertx.<Map<String, PublishMessage>>executeBlocking(f -> f.complete(retainedCluster.getAll(keys)), false, r -> {
+                if (r.failed()) {
+                    logger.error("Fetching retained for " + protocol.clientID, r.cause());
+                } else {
+                    final long now = System.currentTimeMillis();
+                    for (PublishMessage publishMessage : r.result().values()) {
+                        if (protocol.socketClosed) return;
+                        send(s, publishMessage, now);
+                    }
+                }
+                next();
+            });
+        }
+
+        // sent once, at the highest qos of the matching subscriptions, by the first that matches
+        boolean earlier(final int s, final PublishMessage publishMessage) {
+            for (int i = 0; i < s; ++i) if (subscriptions[i].matches(publishMessage.getTopic())) return true;
+            return false;
+        }
+
+        /**
+         * @return false if it was not sent, being expired, or for an earlier subscription
+         */
+        boolean send(final int s, final PublishMessage publishMessage, final long now) {
+            if (publishMessage.expires != 0l && publishMessage.expires < now) return false;
+            if (earlier(s, publishMessage)) return false;
+            byte qos = subscriptions[s].qos;
+            for (int i = s + 1; i < subscriptions.length; ++i) {
+                if (subscriptions[i].qos > qos && subscriptions[i].matches(publishMessage.getTopic())) qos = subscriptions[i].qos;
+            }
+            final ContentHelper ch = new ContentHelper(v -> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
+            protocol.publish(publishMessage.getTopicName(), ch.payload(), qos, publishMessage.isRetainFlag());
+            return true;
+        }
+    }
+
+    final static int RETAINED_CHUNK = 256;
+
+    public void publishRetained(MqttServerProtocol protocol, ConcurrentLinkedQueue<MqttSubscription> newSubscriptions)
+    {
+        new RetainedStream((MyMqttServerProtocol) protocol, newSubscriptions).next();
     }
 
     public final static class PM {
@@ -634,25 +867,73 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         public final MqttServerProtocol p;
         public final PublishMessage m;
     }
-    private final LinkedTransferQueue<PM> _messageArrivedQ = new LinkedTransferQueue<>();
-    private final Thread _messageArrivedThread = new Thread(() -> {
-        while (!CoreFabric.exit) {
-            try {
-                final ConcurrentLinkedQueue<PM> list = new ConcurrentLinkedQueue<>();
-                _messageArrivedQ.drainTo(list);
-                list.stream().mapToLong(pm -> {
-                    _messageArrived(pm.p, pm.m);
-                    return 1l;
-                }).sum();
-                if (SLOWER) { try { Thread.sleep(97l); } catch (InterruptedException ie) { } } else Thread.yield();
+    private final DispatchQueue<PM> _messageArrivedQ =
+            new DispatchQueue<>("mqtt-arrived", Thread.MAX_PRIORITY, CoreFabric.ServerConfiguration.mqttIngressCapacity, pm -> _messageArrived(pm.p, pm.m));
+    // producers whose sockets we stopped reading because _messageArrivedQ was near capacity
+    private final Set<MqttServerProtocol> _pausedProducers = ConcurrentHashMap.newKeySet();
+
+    private void resumeProducers() {
+        for (final MqttServerProtocol protocol : _pausedProducers) {
+            _pausedProducers.remove(protocol);
+            protocol.resumeReading(MqttServerProtocol.PAUSED_INGRESS);
+        }
+    }
+
+    public int getIngressDepth() { return _messageArrivedQ.depth(); }
+    public int getIngressMaxDepth() { return _messageArrivedQ.maxDepth(); }
+    public int getIngressCapacity() { return _messageArrivedQ.capacity(); }
+    public long getIngressDropped() { return _messageArrivedQ.dropped(); }
+    public int getIngressPausedProducers() { return _pausedProducers.size(); }
+
+    public void messageArrived(MqttServerProtocol protocol, PublishMessage publishMessage) {
+        if (protocol != null && !protocol.socketClosed && !admit((MyMqttServerProtocol) protocol, publishMessage)) return;
+        admitted(protocol, publishMessage);
+    }
+
+    /**
+     * take tokens for a client's publish, on its event loop
+     *
+     * @return false if refused: qos 0 is dropped, qos 1 and 2 are held back,
+     * with the socket paused, until the limits admit them.  They were
+     * already acknowledged so are never dropped; reading stops at the first,
+     * so only the rest of what was already read can follow it.
+     */
+    boolean admit(final MyMqttServerProtocol protocol, final PublishMessage publishMessage) {
+        if (protocol.deferred.isEmpty()) {
+            final long wait = publishLimits.admit(protocol.publishBucket, publishMessage.getTopicName());
+            if (wait == 0l) return true;
+            if (publishMessage.getQos() == AbstractMessage.QOSType.MOST_ONE) {
+                publishLimits.countDropped();
+                return false;
             }
-            catch (Throwable t) {
-                LoggerFactory.getLogger(MqttBroker.class).fatal("", t);
+            WheelTimer.newTimeout(t -> admitDeferred(protocol), TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        // behind those already held back, whatever the qos, to keep them in order
+        protocol.deferred.add(publishMessage);
+        publishLimits.countDeferred();
+        protocol.pauseReading(MqttServerProtocol.PAUSED_RATE);
+        return false;
+    }
+
+    void admitDeferred(final MyMqttServerProtocol protocol) {
+        if (protocol.context != null && Vertx.currentContext() != protocol.context) {
+            protocol.context.runOnContext(v -> admitDeferred(protocol));
+            return;
+        }
+        PublishMessage publishMessage;
+        while ((publishMessage = protocol.deferred.peek()) != null) {
+            final long wait = publishLimits.admit(protocol.publishBucket, publishMessage.getTopicName());
+            if (wait != 0l) {
+                WheelTimer.newTimeout(t -> admitDeferred(protocol), TimeUnit.NANOSECONDS.toMillis(wait));
+                return;
             }
+            protocol.deferred.poll();
+            admitted(protocol, publishMessage);
         }
-    });
+        protocol.resumeReading(MqttServerProtocol.PAUSED_RATE);
+    }
 
-    public void messageArrived(MqttServerProtocol protocol, PublishMessage publishMessage) {
+    void admitted(MqttServerProtocol protocol, PublishMessage publishMessage) {
         if (clusterWide(publishMessage)) {
             publishMessage.origin = CoreFabric.ServerConfiguration.instance;
             /*
@@ -660,14 +941,31 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             EncodePublish.encode(publishMessage, buf, true);
             vertx.eventBus().publish("mqtt.enqueue", Buffer.buffer(buf)); // cluster-wide broadcast
             */
-            hazelcastTopic.publish(publishMessage);
+            clusterRouter.publish(publishMessage);
         }
         enqueue(protocol, publishMessage);
     }
 
+    /**
+     * hand a publish to the dispatch thread.  When the queue is full, qos 0
+     * is dropped; qos 1 and 2 have already been acknowledged, so they are
+     * queued past capacity while their producer is paused.
+     */
     public void enqueue(MqttServerProtocol protocol, PublishMessage publishMessage) {
         try {
-            _messageArrivedQ.transfer(new PM(protocol, publishMessage));
+            final PM pm = new PM(protocol, publishMessage);
+            if (publishMessage.getQos() != AbstractMessage.QOSType.MOST_ONE) {
+                _messageArrivedQ.add(pm);
+            } else if (!_messageArrivedQ.offer(pm)) {
+                if (DEBUG) {
+                    logger.debug("Ingress full, dropped " + publishMessage.getTopicName());
+                }
+            }
+            if (protocol != null && _messageArrivedQ.nearCapacity()) {
+                _pausedProducers.add(protocol);
+                protocol.pauseReading(MqttServerProtocol.PAUSED_INGRESS);
+                _messageArrivedQ.notifyAtLowWater();
+            }
         }
         catch (Throwable t) {
             logger.error("", t);
@@ -685,82 +983,84 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             if (clusterWide(publishMessage)) {
                 if (payload == null || payload.capacity() == 0) {
                     retainedCluster.remove(publishMessage.getTopicName());
-                } else
+                } else if (publishMessage.expires == 0l) {
                     retainedCluster.put(publishMessage.getTopicName(), publishMessage);
+                } else {
+                    final long ttl = publishMessage.expires - new java.util.Date().getTime();
+                    if (ttl > 0l)
+                        retainedCluster.put(publishMessage.getTopicName(), publishMessage, ttl, TimeUnit.MILLISECONDS);
+                    else
+                        retainedCluster.remove(publishMessage.getTopicName());
+                }
             } else {
                 if (payload == null || payload.capacity() == 0) {
                     retainedLocal.remove(publishMessage.getTopicName());
                 } else
-                    retainedLocal.put(publishMessage.getTopicName(), publishMessage);
+                    retainedLocal.put(publishMessage);
             }
         }
 
         final ContentHelper contentHelper = new ContentHelper(v-> publishMessage.getPayload(), v -> publishMessage.isRetainFlag(), v -> publishMessage.getTopicName());
 
         // message arrived, send out to (all) subscribers
-        internal.parallelStream().mapToLong(i -> {
-            if (i.subscription.matches(publishMessage.getTopic())) {
-                if (i.endPoint != null) {
-                    vertx.eventBus().send(i.endPoint, contentHelper.json(), VERTXDEFINES.DELIVERY_OPTIONS);
-                } else if (i.onMessage != null) {
-                    try {
-                        i.onMessage.accept(contentHelper.encapsulated());
-                    }
-                    catch (Throwable t) {
-                        logger.error(i.subscription.toString(), t);
-                    }
-                } else {
-                    throw new FabricError();
+        internalIndex.matches(publishMessage.getTopic()).keySet().parallelStream().mapToLong(i -> {
+            if (i.endPoint != null) {
+                vertx.eventBus().send(i.endPoint, i.binary ? publishMessage : contentHelper.json(), VERTXDEFINES.DELIVERY_OPTIONS);
+            } else if (i.onMessage != null) {
+                try {
+                    i.onMessage.accept(contentHelper.encapsulated());
                 }
-                return 1l;
+                catch (Throwable t) {
+                    logger.error(i.subscription.toString(), t);
+                }
+            } else {
+                throw new FabricError();
             }
-            return 0l;
+            return 1l;
         }).sum();
 
-        connected.parallelStream().mapToLong(myMqttServerProtocol -> {
-            if (protocol != null) {
-                if (protocol.noEcho && myMqttServerProtocol == protocol) return 0l; // used for bridges
-            }
-
-            if (myMqttServerProtocol == null) return 0l; // can't help you
-            if (myMqttServerProtocol.state == null) return 0l;
-            if (myMqttServerProtocol.state.subscriptions == null) return 0l;
+        final Map<MyMqttState, Byte> matched = sessionIndex.matches(publishMessage.getTopic());
+        if (matched.isEmpty()) return;
 
-            final QosHelper qh = new QosHelper();
+        // encoded once, shared by every connected subscriber
+        final EncodedPublish encodedPublish = new EncodedPublish(publishMessage.getTopicName(), contentHelper.payload(), publishMessage.isRetainFlag(),
+                CoreFabric.ServerConfiguration.mqttPooledDirect ? PooledByteBufAllocator.DEFAULT : null);
+        try {
+            matched.entrySet().parallelStream().mapToLong(entry -> {
+                final MyMqttState state = entry.getKey();
+                final MyMqttServerProtocol myMqttServerProtocol = state.protocol;
 
-            myMqttServerProtocol.state.subscriptions.stream().mapToLong(subscription -> {
-                if (subscription.matches(publishMessage.getTopic())) {
-                    qh.qos(subscription.qos);
+                if (myMqttServerProtocol != null) {
+                    if (protocol != null) {
+                        if (protocol.noEcho && myMqttServerProtocol == protocol) return 0l; // used for bridges
+                    }
+                    if (!state.enqueueIfReplaying(publishMessage)) {
+                        switch (slowConsumers.admit(myMqttServerProtocol, entry.getValue())) {
+                            case SEND:
+                                myMqttServerProtocol.publish(encodedPublish, entry.getValue());
+                                break;
+                            case QUEUE:
+                                // delivered in order once the socket has drained
+                                if (state.divert(publishMessage)) replayQueued(myMqttServerProtocol, state);
+                                break;
+                            case DROP:
+                                return 0l;
+                        }
+                    }
                     return 1l;
                 }
-                return 0l;
-            }).anyMatch(l -> qh.terminated());
-
-            if (qh.isMatch()) {
-                myMqttServerProtocol.publish(publishMessage.getTopicName(), contentHelper.payload(), qh.getQos(), publishMessage.isRetainFlag());
-                return 1l;
-            }
-            return 0l;
-        }).sum();
 
-        // queue non-retained messages qos 1 or 2 only?
-        if (!publishMessage.isRetainFlag() /* && publishMessage.getQos().ordinal() > 0 */) {
-            disconnected.values().parallelStream().mapToLong(state -> {
-                final QosHelper qh = new QosHelper();
-                state.subscriptions.stream().mapToLong(subscription -> {
-                    if (subscription.matches(publishMessage.getTopic())) {
-                        qh.qos(subscription.qos);
-                        return 1l;
-                    }
-                    return 0l;
-                }).anyMatch(l -> qh.terminated());
-                if (qh.isMatch()) {
+                // queue non-retained messages qos 1 or 2 only?
+                if (!publishMessage.isRetainFlag() /* && publishMessage.getQos().ordinal() > 0 */) {
                     state.enqueue(publishMessage);
                     return 1l;
                 }
                 return 0l;
             }).sum();
         }
+        finally {
+            encodedPublish.release();
+        }
     }
     public boolean authorize(String username, byte[] password)
     {
@@ -781,8 +1081,10 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
             protocol.logger.debug("Subscribe message " + subscription.topic + " from " + myMqttServerProtocol.clientID);
         }
 
-        myMqttServerProtocol.state.subscriptions.removeIf(s -> s.topic.equals(subscription.topic));
+        final boolean resubscribe = myMqttServerProtocol.state.subscriptions.removeIf(s -> s.topic.equals(subscription.topic));
         myMqttServerProtocol.state.subscriptions.add(subscription);
+        sessionIndex.subscribe(myMqttServerProtocol.state, subscription);
+        if (!resubscribe) clusterSubscribe(subscription);
 
         return subscription.qos;
     }
@@ -790,7 +1092,10 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
     public void unsubscribe(MqttServerProtocol protocol, String topic) {
         MyMqttServerProtocol myMqttServerProtocol = (MyMqttServerProtocol) protocol;
 
-        myMqttServerProtocol.state.subscriptions.removeIf(s -> s.topic.equals(topic));
+        if (myMqttServerProtocol.state.subscriptions.removeIf(s -> s.topic.equals(topic))) {
+            clusterUnsubscribe(MqttTopic.of(topic));
+        }
+        sessionIndex.unsubscribe(myMqttServerProtocol.state, topic);
     }
 
     public void disconnected(MqttServerProtocol protocol)
@@ -799,10 +1104,16 @@ public class MqttBroker implements IMqttServerCallback, IMqttBroker {
         if (DEBUG) {
             protocol.logger.debug("Disconnected " + myMqttServerProtocol.clientID);
         }
+        _pausedProducers.remove(protocol);
+        waitingForConnect.remove(myMqttServerProtocol);
 
         if (myMqttServerProtocol.clientID != null && !"".equals(myMqttServerProtocol.clientID)) {
-            disconnected.put(myMqttServerProtocol.clientID, myMqttServerProtocol.state);
-            connected.remove(myMqttServerProtocol);
+            final MyMqttState state = myMqttServerProtocol.state;
+            if (state != null && state.protocol == myMqttServerProtocol) {
+                state.protocol = null; // subscriptions stay indexed, messages are queued until reconnect
+                disconnected.put(myMqttServerProtocol.clientID, state);
+            }
+            connected.remove(myMqttServerProtocol.clientID, myMqttServerProtocol);
 
             if (!myMqttServerProtocol.cleanDisconnect && myMqttServerProtocol.state != null &&
                     myMqttServerProtocol.state.willTopic != null && myMqttServerProtocol.state.willMessage != null) {
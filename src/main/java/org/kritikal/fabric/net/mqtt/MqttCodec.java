@@ -1,6 +1,7 @@
 package org.kritikal.fabric.net.mqtt;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import org.kritikal.fabric.net.mqtt.codec.*;
 import org.kritikal.fabric.net.BufferContainer;
@@ -152,6 +153,141 @@ public class MqttCodec {
         return buffer;
     }
 
+    public static Buffer encode(AbstractMessage message)
+    {
+        switch (message.getMessageType())
+        {
+            case AbstractMessage.CONNECT:
+                return encode((ConnectMessage) message);
+
+            case AbstractMessage.CONNACK:
+                return encode((ConnAckMessage) message);
+
+            case AbstractMessage.PINGREQ:
+                return encode((PingReqMessage) message);
+
+            case AbstractMessage.PINGRESP:
+                return encode((PingRespMessage) message);
+
+            case AbstractMessage.SUBSCRIBE:
+                return encode((SubscribeMessage) message);
+
+            case AbstractMessage.SUBACK:
+                return encode((SubAckMessage) message);
+
+            case AbstractMessage.UNSUBSCRIBE:
+                return encode((UnsubscribeMessage) message);
+
+            case AbstractMessage.UNSUBACK:
+                return encode((UnsubAckMessage) message);
+
+            case AbstractMessage.PUBLISH:
+                return encode((PublishMessage) message);
+
+            case AbstractMessage.PUBREL:
+                return encode((PubRelMessage) message);
+
+            case AbstractMessage.PUBACK:
+                return encode((PubAckMessage) message);
+
+            case AbstractMessage.PUBREC:
+                return encode((PubRecMessage) message);
+
+            case AbstractMessage.PUBCOMP:
+                return encode((PubCompMessage) message);
+
+            case AbstractMessage.DISCONNECT:
+                return encode((DisconnectMessage) message);
+        }
+
+        throw new IllegalArgumentException("Message type " + message.getMessageType());
+    }
+
+    /**
+     * encode straight into a direct buffer from allocator, without the heap
+     * staging buffer and the copy into a vert.x Buffer.
+     *
+     * it is the responsibility of the caller of this method to .release() the
+     * returned ByteBuf, or to hand it to ISocket.write(ByteBuf)
+     * @param message message to encode
+     * @param allocator normally PooledByteBufAllocator.DEFAULT
+     * @return a new direct ByteBuf
+     */
+    public static ByteBuf encode(AbstractMessage message, ByteBufAllocator allocator)
+    {
+        final ByteBuf byteBuf = allocator.directBuffer(message.getMessageType() == AbstractMessage.PUBLISH
+                ? EncodePublish.sizeHint((PublishMessage) message)
+                : 32);
+        try {
+            switch (message.getMessageType())
+            {
+                case AbstractMessage.CONNECT:
+                    EncodeConnect.encode((ConnectMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.CONNACK:
+                    EncodeConnack.encode((ConnAckMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PINGREQ:
+                    EncodePingreq.encode((PingReqMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PINGRESP:
+                    EncodePingresp.encode((PingRespMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.SUBSCRIBE:
+                    EncodeSubscribe.encode((SubscribeMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.SUBACK:
+                    EncodeSuback.encode((SubAckMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.UNSUBSCRIBE:
+                    EncodeUnsubscribe.encode((UnsubscribeMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.UNSUBACK:
+                    EncodeUnsuback.encode((UnsubAckMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PUBLISH:
+                    EncodePublish.encode((PublishMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PUBREL:
+                    EncodePubrel.encode((PubRelMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PUBACK:
+                    EncodePuback.encode((PubAckMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PUBREC:
+                    EncodePubrec.encode((PubRecMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.PUBCOMP:
+                    EncodePubcomp.encode((PubCompMessage) message, byteBuf);
+                    break;
+
+                case AbstractMessage.DISCONNECT:
+                    EncodeDisconnect.encode((DisconnectMessage) message, byteBuf);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Message type " + message.getMessageType());
+            }
+            return byteBuf;
+        }
+        catch (RuntimeException ex) {
+            byteBuf.release();
+            throw ex;
+        }
+    }
+
     public static AbstractMessage decode(BufferContainer bufferContainer, byte messageType)
             throws BufferContainer.NeedMoreDataException, Exception
     {
@@ -1,16 +1,26 @@
 package org.kritikal.fabric.net.mqtt;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import com.cisco.qte.jdtn.general.WheelTimer;
+import io.netty.util.Timeout;
+import org.kritikal.fabric.CoreFabric;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
 import org.kritikal.fabric.net.mqtt.entities.*;
 import org.kritikal.fabric.net.BufferContainer;
 import org.kritikal.fabric.net.ISocket;
 import org.kritikal.fabric.net.KillConnectionError;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.logging.Logger;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ben on 8/25/14.
@@ -23,11 +33,22 @@ public class MqttServerProtocol implements Handler<Buffer> {
     final ISocket socket;
     final IMqttServerCallback callback;
     final Vertx vertx;
+    final Context context;
+    // why the broker paused reading, one bit per reason; it is one ReadPause.OWNER reason to the
+    // socket, which also waits for its write queue to drain, and reads again once none is left
+    static final int PAUSED_INGRESS = 1; // the broker's ingress queue is near capacity
+    static final int PAUSED_RATE = 2; // publishes are held back by the rate limits
+    final AtomicInteger readingPaused = new AtomicInteger(0);
     int keepaliveSeconds = 0;
     long keepaliveMillis = 0;
     public boolean cleanDisconnect = false;
-    long closeTimerID = 0;
+    // time of the last complete packet, checked from the shared jDTN wheel once per keepalive period
+    volatile long lastActivityMillis = System.currentTimeMillis();
+    volatile Timeout keepaliveTimeout = null;
+    volatile boolean socketClosed = false;
+    final AtomicBoolean closing = new AtomicBoolean(false);
     public boolean noEcho = false;
+    final boolean pooledDirect = CoreFabric.ServerConfiguration.mqttPooledDirect;
 
     public enum TopLevelState {
         EXPECT_CONNECT,
@@ -44,10 +65,9 @@ public class MqttServerProtocol implements Handler<Buffer> {
     TopLevelState topLevelState = TopLevelState.EXPECT_CONNECT;
     ProtocolVersion protocolVersion = ProtocolVersion.UNKNOWN;
 
-    ConcurrentLinkedQueue<PublishMessage> inflightInboundQoS2Messages = new ConcurrentLinkedQueue<>();
-    ConcurrentLinkedQueue<PublishMessage> inflightOutboundQoS1MessagesPuback = new ConcurrentLinkedQueue<>();
-    ConcurrentLinkedQueue<PublishMessage> inflightOutboundQoS2MessagesPubrec = new ConcurrentLinkedQueue<>();
-    ConcurrentLinkedQueue<PublishMessage> inflightOutboundQoS2MessagesPubcomp = new ConcurrentLinkedQueue<>();
+    // inbound QoS 2 awaiting PUBREL, by packet id; only touched on the event loop
+    final HashMap<Integer, PublishMessage> inflightInboundQoS2Messages = new HashMap<>();
+    final InflightWindow inflightOutbound;
 
     BufferContainer bufferContainer = new BufferContainer();
     public short outboundMID = 1;
@@ -55,18 +75,88 @@ public class MqttServerProtocol implements Handler<Buffer> {
     public MqttServerProtocol(final Logger logger, final Vertx vertx, final IMqttServerCallback callback, final ISocket socket) {
         this.logger = logger;
         this.vertx = vertx;
+        this.context = Vertx.currentContext();
         this.callback = callback;
         this.socket = socket;
         this.cleanDisconnect = false;
+        this.inflightOutbound = new InflightWindow(
+                CoreFabric.ServerConfiguration.mqttReceiveMaximum,
+                CoreFabric.ServerConfiguration.mqttInflightQueueLimit,
+                CoreFabric.ServerConfiguration.mqttRetransmitMillis,
+                pooledDirect ? PooledByteBufAllocator.DEFAULT : null,
+                this::write);
         this.socket.dataHandler(this);
         this.socket.closeHandler(new Handler<Void>() {
             @Override
             public void handle(Void event) {
+                socketClosed = true;
+                inflightOutbound.close();
+                final Timeout timeout = keepaliveTimeout;
+                if (timeout != null) timeout.cancel();
                 MqttServerProtocol.this.callback.disconnected(MqttServerProtocol.this);
             }
         });
     }
 
+    /**
+     * stop reading from the socket for reason, the broker calls this from
+     * the event loop
+     */
+    void pauseReading(final int reason) {
+        if (readingPaused.getAndUpdate(p -> p | reason) == 0) socket.pause();
+    }
+
+    /**
+     * withdraw reason for pausing, may be called from any thread; reading
+     * resumes when no other reason is left
+     */
+    void resumeReading(final int reason) {
+        final int before = readingPaused.getAndUpdate(p -> p & ~reason);
+        if ((before & reason) == 0 || (before & ~reason) != 0) return;
+        if (context == null) {
+            socket.resume();
+        } else {
+            // unless paused again meanwhile
+            context.runOnContext(v -> { if (readingPaused.get() == 0) socket.resume(); });
+        }
+    }
+
+    /**
+     * close the socket from any thread, on the event loop
+     *
+     * @return false if it was already closed or closing
+     */
+    boolean closeOnce() {
+        if (socketClosed || !closing.compareAndSet(false, true)) return false;
+        if (context == null) {
+            socket.close();
+        } else {
+            context.runOnContext(v -> socket.close());
+        }
+        return true;
+    }
+
+    /**
+     * runs on the wheel, closes the connection if no packet arrived within
+     * the keepalive period, else checks again when it next could expire
+     */
+    void checkKeepalive(Timeout timeout) {
+        if (socketClosed) return;
+        final long idleMillis = System.currentTimeMillis() - lastActivityMillis;
+        if (idleMillis < keepaliveMillis) {
+            keepaliveTimeout = WheelTimer.newTimeout(this::checkKeepalive, keepaliveMillis - idleMillis);
+            return;
+        }
+        if (DEBUG) {
+            logger.debug("Disconnecting due to time out");
+        }
+        if (context == null) {
+            socket.close();
+        } else {
+            context.runOnContext(v -> socket.close());
+        }
+    }
+
     /**
      * data handler for the connected netsocket
      *
@@ -142,22 +232,9 @@ public class MqttServerProtocol implements Handler<Buffer> {
                     logger.debug("Ignoring...", ex);
                 }
 
-                if (closeTimerID != 0) { vertx.cancelTimer(closeTimerID); closeTimerID = 0; }
-                if (!noEcho && keepaliveMillis > 0) {
-                    closeTimerID = vertx.setTimer(keepaliveMillis, new Handler<Long>() {
-                        @Override
-                        public void handle(Long event) {
-                            if (DEBUG) {
-                                logger.debug("Disconnecting due to time out");
-                            }
-                            vertx.executeBlocking(f -> {
-                                socket.close();
-                                f.complete();
-                            }, r -> {
-                                // nothing
-                            });
-                        }
-                    });
+                lastActivityMillis = System.currentTimeMillis();
+                if (keepaliveTimeout == null && !noEcho && keepaliveMillis > 0) {
+                    keepaliveTimeout = WheelTimer.newTimeout(this::checkKeepalive, keepaliveMillis);
                 }
             }
         } catch (KillConnectionError error) {
@@ -208,7 +285,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
                      connectMessage.getClientID().length() == 0)) {
                 ConnAckMessage message = new ConnAckMessage();
                 message.setReturnCode((byte) 2);
-                write(MqttCodec.encode(message));
+                write(message);
                 if (DEBUG) {
                     logger.debug("Disconnecting due to invalid protocol / clientID");
                 }
@@ -224,7 +301,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
                 callback.connected(this, connectMessage);
                 ConnAckMessage message = new ConnAckMessage();
                 message.setReturnCode((byte) 0); // all good, fire away
-                write(MqttCodec.encode(message));
+                write(message);
                 if (DEBUG) {
                     logger.debug("Sent ConAck");
                 }
@@ -233,7 +310,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
             } else {
                 ConnAckMessage message = new ConnAckMessage();
                 message.setReturnCode((byte) 4);
-                write(MqttCodec.encode(message));
+                write(message);
                 if (DEBUG) {
                     logger.debug("Sent ConAck disconnect");
                 }
@@ -252,7 +329,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
         if (DEBUG) { logger.debug("PingReq"); }
 
         PingRespMessage message = new PingRespMessage();
-        write(MqttCodec.encode(message));
+        write(message);
     }
 
     void handle(SubscribeMessage subscribeMessage) {
@@ -281,7 +358,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
                 }
                 subAckMessage.addType(qosType);
             }
-            write(MqttCodec.encode(subAckMessage));
+            write(subAckMessage);
 
             callback.publishRetained(this, newSubscriptions);
         }
@@ -297,7 +374,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
             unsubAckMessage.setMessageID(unsubscribeMessage.getMessageID());
             for (String topic : unsubscribeMessage.topicFilters())
                 callback.unsubscribe(this, topic);
-            write(MqttCodec.encode(unsubAckMessage));
+            write(unsubAckMessage);
         }
         // else ignore
     }
@@ -316,7 +393,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
                 case 1: {
                     final PubAckMessage pubAckMessage = new PubAckMessage();
                     pubAckMessage.setMessageID(publishMessage.getMessageID());
-                    write(MqttCodec.encode(pubAckMessage));
+                    write(pubAckMessage);
                     callback.messageArrived(this, publishMessage);
                     break;
                 }
@@ -324,8 +401,9 @@ public class MqttServerProtocol implements Handler<Buffer> {
                 case 2: {
                     final PubRecMessage pubRecMessage = new PubRecMessage();
                     pubRecMessage.setMessageID(publishMessage.getMessageID());
-                    write(MqttCodec.encode(pubRecMessage));
-                    inflightInboundQoS2Messages.add(publishMessage);
+                    write(pubRecMessage);
+                    // a resent PUBLISH replaces the first, it is only delivered once, on PUBREL
+                    inflightInboundQoS2Messages.put(publishMessage.getMessageID(), publishMessage);
                     break;
                 }
 
@@ -340,13 +418,8 @@ public class MqttServerProtocol implements Handler<Buffer> {
         if (DEBUG) { logger.debug("PubAck"); }
 
         if (topLevelState == TopLevelState.EXPECT_MESSAGE) {
-            final int messageID = pubAckMessage.getMessageID();
-            inflightOutboundQoS1MessagesPuback.forEach(message -> {
-                if (messageID == message.getMessageID()) {
-                    inflightOutboundQoS1MessagesPuback.remove(message);
-                    // TODO: bacllback.messageDelivered(message)
-                }
-            });
+            inflightOutbound.puback(pubAckMessage.getMessageID());
+            // TODO: callback.messageDelivered(message)
         }
     }
 
@@ -355,17 +428,7 @@ public class MqttServerProtocol implements Handler<Buffer> {
         if (DEBUG) { logger.debug("PubReq"); }
 
         if (topLevelState == TopLevelState.EXPECT_MESSAGE) {
-            final int messageID = pubRecMessage.getMessageID();
-            inflightOutboundQoS2MessagesPubrec.forEach(message -> {
-                if (messageID == message.getMessageID()) {
-                    inflightOutboundQoS2MessagesPubrec.remove(message);
-                    final PubRelMessage pubRelMessage = new PubRelMessage();
-                    pubRelMessage.setQos(AbstractMessage.QOSType.LEAST_ONE);
-                    pubRelMessage.setMessageID(messageID);
-                    write(MqttCodec.encode(pubRelMessage));
-                    inflightOutboundQoS2MessagesPubcomp.add(message);
-                }
-            });
+            inflightOutbound.pubrec(pubRecMessage.getMessageID()); // sends the PUBREL
         }
     }
 
@@ -375,16 +438,14 @@ public class MqttServerProtocol implements Handler<Buffer> {
 
         if (topLevelState == TopLevelState.EXPECT_MESSAGE) {
             final int messageID = pubRelMessage.getMessageID();
-            inflightInboundQoS2Messages.forEach(message -> {
-                if (message.getMessageID() == messageID)
-                {
-                    inflightInboundQoS2Messages.remove(message);
-                    final PubCompMessage pubCompMessage = new PubCompMessage();
-                    pubCompMessage.setMessageID(messageID);
-                    write(MqttCodec.encode(pubCompMessage));
-                    callback.messageArrived(this, message);
-                }
-            });
+            final PublishMessage message = inflightInboundQoS2Messages.remove(messageID);
+            // PUBCOMP even for an unknown id, our first PUBCOMP may have been lost
+            final PubCompMessage pubCompMessage = new PubCompMessage();
+            pubCompMessage.setMessageID(messageID);
+            write(pubCompMessage);
+            if (message != null) {
+                callback.messageArrived(this, message);
+            }
         }
     }
 
@@ -393,47 +454,34 @@ public class MqttServerProtocol implements Handler<Buffer> {
         if (DEBUG) { logger.debug("PubComp"); }
 
         if (topLevelState == TopLevelState.EXPECT_MESSAGE) {
-            final int messageID = pubCompMessage.getMessageID();
-            inflightOutboundQoS2MessagesPubcomp.forEach(message -> {
-                if (messageID == message.getMessageID()) {
-                    inflightOutboundQoS2MessagesPubcomp.remove(message);
-                }
-            });
+            inflightOutbound.pubcomp(pubCompMessage.getMessageID());
         }
     }
 
     public void publish(String topic, byte[] payload, int qos, boolean retain)
     {
-        PublishMessage publishMessage = new PublishMessage();
-        publishMessage.setTopicName(topic);
-        if (payload != null)
-            publishMessage.setPayload(ByteBuffer.wrap(payload));
-        publishMessage.setRetainFlag(retain);
-        if (qos == 1 || qos == 2)
-            publishMessage.setMessageID(new Integer(outboundMID++));
-        switch (qos)
-        {
-            case 0:
-                publishMessage.setQos(AbstractMessage.QOSType.MOST_ONE);
-                break;
-            case 1:
-                publishMessage.setQos(AbstractMessage.QOSType.LEAST_ONE);
-                break;
-            case 2:
-                publishMessage.setQos(AbstractMessage.QOSType.EXACTLY_ONCE);
-                break;
-            default:
-                // oops
+        final EncodedPublish encodedPublish = new EncodedPublish(topic, payload, retain, pooledDirect ? PooledByteBufAllocator.DEFAULT : null);
+        try {
+            publish(encodedPublish, qos);
         }
-        write(MqttCodec.encode(publishMessage));
-        switch (qos)
-        {
-            case 1:
-                inflightOutboundQoS1MessagesPuback.add(publishMessage);
-                break;
-            case 2:
-                inflightOutboundQoS2MessagesPubrec.add(publishMessage);
-                break;
+        finally {
+            encodedPublish.release();
+        }
+    }
+
+    /**
+     * publish a shared, pre-encoded message; only the packet id and qos
+     * bits are written for this connection.  qos 1 and 2 go through the
+     * in-flight window, which assigns the packet id.
+     */
+    public void publish(EncodedPublish encodedPublish, int qos)
+    {
+        if (qos != 1 && qos != 2) {
+            write(encodedPublish.frame(0, 0, false));
+            return;
+        }
+        if (!inflightOutbound.publish(encodedPublish, qos) && DEBUG) {
+            logger.debug("In-flight queue full, dropped " + qos + " publish");
         }
     }
 
@@ -443,6 +491,20 @@ public class MqttServerProtocol implements Handler<Buffer> {
         // TODO: track reads for ping disconnect
     }
 
+    void write(ByteBuf byteBuf)
+    {
+        socket.write(byteBuf);
+    }
+
+    void write(AbstractMessage message)
+    {
+        if (pooledDirect) {
+            socket.write(MqttCodec.encode(message, PooledByteBufAllocator.DEFAULT));
+        } else {
+            socket.write(MqttCodec.encode(message));
+        }
+    }
+
     public void forceDisconnect()
     {
         if (DEBUG)
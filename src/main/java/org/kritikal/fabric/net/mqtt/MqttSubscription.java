@@ -6,40 +6,47 @@ package org.kritikal.fabric.net.mqtt;
 public class MqttSubscription extends MqttTopic {
     public MqttSubscription(final String topic, final byte qos)
     {
-        super(topic);
+        super(MqttTopic.of(topic));
         this.qos = qos;
     }
     public final byte qos;
 
-    public boolean matches(final MqttTopic topic) {
-        return matches(0, 0, topic);
-    }
-
     public boolean isWildcard() {
         for (int i = 0; i < parts.length; ++i)
-            if ("+".equals(parts[i])||("#".equals(parts[i])))
+            if (parts[i] == PLUS || parts[i] == HASH)
                 return true;
         return false;
     }
 
-    private boolean matches(int i, int j, final MqttTopic mqttTopic) {
-        for (; i < parts.length && j < mqttTopic.parts.length; ++i, ++j)
-        {
-            if ("+".equals(parts[i])) {
-                continue;
-            }
-            else if ("#".equals(parts[i])) {
-                if (i == parts.length - 1)
-                    return true;
-                for (int x = i + 1; x < parts.length; ++x)
-                    for (int y = j; y < mqttTopic.parts.length; ++y) {
-                        if (matches(x, y, mqttTopic)) return true;
-                    }
-            }
-            else if (!parts[i].equals(mqttTopic.parts[j])) {
-                return false;
+    /**
+     * '+' matches exactly one level, a trailing '#' one or more, a '#'
+     * elsewhere zero or more.  Iterative, backtracking only to the last
+     * '#' seen, and levels are compared by identity before equality.
+     */
+    public boolean matches(final MqttTopic mqttTopic) {
+        final String[] filter = parts, topic = mqttTopic.parts;
+        int i = 0, j = 0, hashI = -1, hashJ = -1;
+        while (j < topic.length) {
+            if (i < filter.length) {
+                final String part = filter[i];
+                if (part == HASH) {
+                    if (i == filter.length - 1) return true;
+                    hashI = i++; // try zero levels first
+                    hashJ = j;
+                    continue;
+                }
+                if (part == PLUS || part == topic[j] || part.equals(topic[j])) {
+                    ++i;
+                    ++j;
+                    continue;
+                }
             }
+            if (hashI < 0) return false;
+            // let the last '#' take one more level
+            i = hashI + 1;
+            j = ++hashJ;
         }
-        return i == parts.length && j == mqttTopic.parts.length; // remember i or j just overflowed
+        while (i < filter.length - 1 && filter[i] == HASH) ++i;
+        return i == filter.length;
     }
 }
@@ -0,0 +1,107 @@
+package org.kritikal.fabric.net.mqtt;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic trie keyed by topic level, with '+' and '#' stored as ordinary
+ * levels of the trie.  Lookups are lock free and cost proportional to the
+ * depth of the topic (plus the wildcard branches that actually exist),
+ * not to the number of subscribers.
+ *
+ * Matching follows MqttSubscription.matches(): '+' consumes exactly one
+ * level, a trailing '#' consumes one or more levels and a '#' in the
+ * middle of a filter consumes zero or more.
+ */
+public class MqttSubscriptionIndex<T> {
+
+    private final static String PLUS = "+";
+    private final static String HASH = "#";
+
+    private final static class Node<T> {
+        final ConcurrentHashMap<String, Node<T>> children = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<T, Byte> subscribers = new ConcurrentHashMap<>();
+        boolean isEmpty() { return subscribers.isEmpty() && children.isEmpty(); }
+    }
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * add (or replace) the subscription of subscriber to a topic filter
+     * @param subscriber identity of the subscriber
+     * @param subscription topic filter and granted qos
+     */
+    public synchronized void subscribe(final T subscriber, final MqttSubscription subscription) {
+        Node<T> node = root;
+        for (String part : subscription.parts)
+            node = node.children.computeIfAbsent(part, k -> new Node<>());
+        node.subscribers.put(subscriber, subscription.qos);
+    }
+
+    /**
+     * remove the subscription of subscriber to a topic filter, pruning
+     * any branches left empty
+     */
+    public synchronized void unsubscribe(final T subscriber, final MqttTopic topicFilter) {
+        unsubscribe(root, topicFilter.parts, 0, subscriber);
+    }
+
+    public void unsubscribe(final T subscriber, final String topicFilter) {
+        unsubscribe(subscriber, MqttTopic.of(topicFilter));
+    }
+
+    public void unsubscribeAll(final T subscriber, final Iterable<? extends MqttTopic> topicFilters) {
+        for (MqttTopic topicFilter : topicFilters)
+            unsubscribe(subscriber, topicFilter);
+    }
+
+    private boolean unsubscribe(final Node<T> node, final String[] parts, final int i, final T subscriber) {
+        if (i == parts.length) {
+            node.subscribers.remove(subscriber);
+        } else {
+            final Node<T> child = node.children.get(parts[i]);
+            if (child != null && unsubscribe(child, parts, i + 1, subscriber))
+                node.children.remove(parts[i], child);
+        }
+        return node.isEmpty();
+    }
+
+    /**
+     * @param topic a concrete (non-wildcard) topic
+     * @return every subscriber with at least one matching filter, mapped to
+     * the highest qos among its matching filters
+     */
+    public Map<T, Byte> matches(final MqttTopic topic) {
+        final HashMap<T, Byte> matched = new HashMap<>();
+        match(root, topic.parts, 0, matched);
+        return matched;
+    }
+
+    private static <T> void match(final Node<T> node, final String[] parts, final int j, final HashMap<T, Byte> matched) {
+        if (j == parts.length) {
+            collect(node, matched);
+        } else {
+            descend(node, parts, j, matched);
+        }
+    }
+
+    private static <T> void descend(final Node<T> node, final String[] parts, final int j, final HashMap<T, Byte> matched) {
+        Node<T> child = node.children.get(parts[j]);
+        if (child != null) match(child, parts, j + 1, matched);
+        child = node.children.get(PLUS);
+        if (child != null) match(child, parts, j + 1, matched);
+        child = node.children.get(HASH);
+        if (child != null) {
+            collect(child, matched); // trailing '#', at least one level remains
+            if (!child.children.isEmpty()) {
+                for (int y = j; y < parts.length; ++y)
+                    descend(child, parts, y, matched);
+            }
+        }
+    }
+
+    private static <T> void collect(final Node<T> node, final HashMap<T, Byte> matched) {
+        node.subscribers.forEach((subscriber, qos) -> matched.merge(subscriber, qos, (a, b) -> a >= b ? a : b));
+    }
+}
@@ -1,25 +1,86 @@
 package org.kritikal.fabric.net.mqtt;
 
-import java.util.ArrayList;
-
 /**
  * Created by ben on 8/26/14.
+ *
+ * Levels are interned through a bounded table, so the same level in two
+ * topics is usually the same String and matching compares identities
+ * first; '+' and '#' are always PLUS and HASH.  of() answers hot topics
+ * from a bounded cache of parsed topics instead of parsing them again.
+ * Empty levels are dropped, "/a//b/" is the topic "a/b".
  */
 public class MqttTopic {
+
+    public final static String PLUS = "+";
+    public final static String HASH = "#";
+
+    private final static int LEVELS = 16384; // power of two
+    private final static String[] levels = new String[LEVELS];
+
+    private final static int CACHED = 8192; // power of two
+    private final static MqttTopic[] cache = new MqttTopic[CACHED];
+
+    /**
+     * @return topic parsed, from the cache if it was parsed recently
+     */
+    public static MqttTopic of(final String topic) {
+        final int i = topic.hashCode() & (CACHED - 1);
+        final MqttTopic cached = cache[i];
+        if (cached != null && cached.topic.equals(topic)) return cached;
+        final MqttTopic parsed = new MqttTopic(topic);
+        cache[i] = parsed;
+        return parsed;
+    }
+
+    // the interned String for topic.substring(start, end)
+    private static String level(final String topic, final int start, final int end) {
+        final int length = end - start;
+        if (length == 1) {
+            final char c = topic.charAt(start);
+            if (c == '+') return PLUS;
+            if (c == '#') return HASH;
+        }
+        int h = 0;
+        for (int k = start; k < end; ++k) h = 31 * h + topic.charAt(k);
+        final int i = (h ^ (h >>> 14)) & (LEVELS - 1);
+        final String interned = levels[i];
+        if (interned != null && interned.length() == length && interned.regionMatches(0, topic, start, length)) return interned;
+        final String level = topic.substring(start, end);
+        levels[i] = level;
+        return level;
+    }
+
     public MqttTopic(final String topic)
     {
-        String[] parts = topic.split("/");
-        ArrayList<String> p = new ArrayList<>();
-        for (String part : parts)
-        {
-            if (part == null || "".equals(part))
-                continue;
-            p.add(part);
+        final int n = topic.length();
+        int count = 0;
+        boolean normal = n > 0 && topic.charAt(0) != '/' && topic.charAt(n - 1) != '/';
+        for (int k = 0, start = 0; k <= n; ++k) {
+            if (k == n || topic.charAt(k) == '/') {
+                if (k > start) ++count;
+                else if (k > 0 && k < n) normal = false; // "//"
+                start = k + 1;
+            }
         }
-        this.parts = new String[p.size()];
-        p.toArray(this.parts);
-        this.topic = String.join("/", this.parts);
+        this.parts = new String[count];
+        for (int k = 0, start = 0, p = 0; k <= n; ++k) {
+            if (k == n || topic.charAt(k) == '/') {
+                if (k > start) this.parts[p++] = level(topic, start, k);
+                start = k + 1;
+            }
+        }
+        this.topic = normal ? topic : String.join("/", this.parts);
     }
+
+    /**
+     * share an already parsed topic
+     */
+    protected MqttTopic(final MqttTopic parsed)
+    {
+        this.topic = parsed.topic;
+        this.parts = parsed.parts;
+    }
+
     public final String topic;
-    protected final String[] parts;
+    protected final String[] parts; // never modified, shared between instances
 }
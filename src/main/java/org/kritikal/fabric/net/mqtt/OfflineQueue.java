@@ -0,0 +1,365 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.vertx.core.logging.LoggerFactory;
+import org.kritikal.fabric.CoreFabric;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Messages held for a persistent session while its client is away, bounded
+ * by count and bytes in memory.
+ *
+ * Beyond either limit the overflow policy either drops the oldest message,
+ * drops the new one, or spills: from then on messages are appended to local
+ * segment files, and read back in order once those in memory have been
+ * taken, until the spill is empty again.  The index of segments (file,
+ * write position, read position, unread count) is all that stays in memory,
+ * a segment is deleted as soon as it has been read, so millions of spilled
+ * messages cost a few bytes of heap.  Every queue's spill together uses at
+ * most spillMaxBytes of disk, and keeps at most mqttSpillOpenFiles segment
+ * files open: opening one more closes the least recently used, whichever
+ * queue it belongs to, to be reopened when next needed.
+ *
+ * Not thread safe, MyMqttState serialises access.
+ */
+public final class OfflineQueue {
+
+    public enum Overflow {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        SPILL;
+
+        public static Overflow parse(String s) {
+            return Overflow.valueOf(s.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // topic, payload, and the object overheads, roughly
+    static final int MESSAGE_OVERHEAD = 96;
+
+    static long sizeOf(PublishMessage publishMessage) {
+        final ByteBuffer payload = publishMessage.getPayload();
+        final String topic = publishMessage.getTopicName();
+        return MESSAGE_OVERHEAD + (payload != null ? payload.remaining() : 0) + (topic != null ? 2 * topic.length() : 0);
+    }
+
+    // disk used by every queue's spill, held to spillMaxBytes
+    private static final AtomicLong SPILL_BYTES = new AtomicLong();
+    // segments with an open channel, across every queue, least recently used first
+    private static final LinkedHashMap<Segment, Segment> OPEN = new LinkedHashMap<>(64, 0.75f, true);
+    // an operation whose channel another queue closed under it is tried again
+    private static final int ATTEMPTS = 3;
+
+    private final static class Segment {
+        final File file;
+        // only its own queue opens it, any queue may close it
+        final AtomicReference<FileChannel> channel = new AtomicReference<>();
+        long writePosition = 0;
+        long readPosition = 0;
+        long unread = 0;
+
+        Segment(File file) { this.file = file; }
+
+        FileChannel channel() throws IOException {
+            FileChannel fileChannel = channel.get();
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.set(fileChannel);
+            }
+            opened(this);
+            return fileChannel;
+        }
+
+        void closeChannel() {
+            final FileChannel fileChannel = channel.getAndSet(null);
+            if (fileChannel != null) {
+                try { fileChannel.close(); } catch (IOException ioe) { }
+            }
+        }
+
+        void close() {
+            synchronized (OPEN) {
+                OPEN.remove(this);
+            }
+            closeChannel();
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    // note segment was used, closing the least recently used beyond the limit
+    private static void opened(final Segment segment) {
+        ArrayList<Segment> evicted = null;
+        synchronized (OPEN) {
+            OPEN.put(segment, segment);
+            final int max = Math.max(1, CoreFabric.ServerConfiguration.mqttSpillOpenFiles);
+            for (Iterator<Segment> i = OPEN.keySet().iterator(); OPEN.size() > max; ) {
+                if (evicted == null) evicted = new ArrayList<>();
+                evicted.add(i.next());
+                i.remove();
+            }
+        }
+        if (evicted != null) for (Segment e : evicted) e.closeChannel();
+    }
+
+    /**
+     * @return disk used by every queue's spill
+     */
+    public static long totalSpillBytes() {
+        return SPILL_BYTES.get();
+    }
+
+    static int openSegments() {
+        synchronized (OPEN) {
+            return OPEN.size();
+        }
+    }
+
+    private final String name;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final Overflow overflow;
+    private final File spoolDir;
+    private final long segmentBytes;
+    private final long spillMaxBytes;
+
+    private final ArrayDeque<PublishMessage> memory = new ArrayDeque<>();
+    private long memoryBytes = 0;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // oldest first
+    private long spilled = 0;
+    private long spillBytes = 0; // written and not yet deleted
+    private long dropped = 0;
+
+    /**
+     * @param name for log messages
+     * @param spoolDir where SPILL writes its segments, created on first use
+     * @param segmentBytes size at which a new segment is started
+     * @param spillMaxBytes disk use by every queue's spill together beyond
+     * which spilling drops the new message
+     */
+    public OfflineQueue(String name, int maxMessages, long maxBytes, Overflow overflow, File spoolDir, long segmentBytes, long spillMaxBytes) {
+        this.name = name;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflow = overflow;
+        this.spoolDir = spoolDir;
+        this.segmentBytes = segmentBytes;
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    /**
+     * @return false if the message, or an older one, was dropped
+     */
+    public boolean add(PublishMessage publishMessage) {
+        final long size = sizeOf(publishMessage);
+        if (spilled == 0 && memory.size() < maxMessages && memoryBytes + size <= maxBytes) {
+            memory.add(publishMessage);
+            memoryBytes += size;
+            return true;
+        }
+        switch (overflow) {
+            case DROP_OLDEST:
+                memory.add(publishMessage);
+                memoryBytes += size;
+                while (memory.size() > 1 && (memory.size() > maxMessages || memoryBytes > maxBytes)) {
+                    memoryBytes -= sizeOf(memory.poll());
+                    ++dropped;
+                }
+                return false;
+            case SPILL:
+                if (spill(publishMessage)) return true;
+                // fall through
+            default:
+                ++dropped;
+                return false;
+        }
+    }
+
+    /**
+     * @return the oldest message, or null when empty
+     */
+    public PublishMessage poll() {
+        final PublishMessage publishMessage = memory.poll();
+        if (publishMessage != null) {
+            memoryBytes -= sizeOf(publishMessage);
+            return publishMessage;
+        }
+        return spilled > 0 ? unspill() : null;
+    }
+
+    public boolean isEmpty() {
+        return memory.isEmpty() && spilled == 0;
+    }
+
+    public long size() {
+        return memory.size() + spilled;
+    }
+
+    public long spilled() { return spilled; }
+    public long spillBytes() { return spillBytes; }
+    public long memoryBytes() { return memoryBytes; }
+    public long dropped() { return dropped; }
+
+    /**
+     * drop everything, deleting any segments
+     */
+    public void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (Segment segment : segments) segment.delete();
+        segments.clear();
+        spilled = 0;
+        release(spillBytes);
+    }
+
+    private boolean reserve(final long bytes) {
+        long total;
+        do {
+            total = SPILL_BYTES.get();
+            if (total + bytes > spillMaxBytes) return false;
+        } while (!SPILL_BYTES.compareAndSet(total, total + bytes));
+        spillBytes += bytes;
+        return true;
+    }
+
+    private void release(final long bytes) {
+        spillBytes -= bytes;
+        SPILL_BYTES.addAndGet(-bytes);
+    }
+
+    private boolean spill(PublishMessage publishMessage) {
+        final byte[] topic = publishMessage.getTopicName().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer payload = publishMessage.getPayload() != null ? publishMessage.getPayload().duplicate() : ByteBuffer.allocate(0);
+        // record: length of the rest, topic length, topic, qos, retain, expires, payload
+        final int length = 2 + topic.length + 1 + 1 + 8 + payload.remaining();
+        if (!reserve(4 + length)) return false;
+        final ByteBuffer header = ByteBuffer.allocate(4 + 2 + topic.length + 1 + 1 + 8);
+        header.putInt(length);
+        header.putShort((short) topic.length);
+        header.put(topic);
+        header.put(publishMessage.getQos().getValue());
+        header.put((byte) (publishMessage.isRetainFlag() ? 1 : 0));
+        header.putLong(publishMessage.expires);
+        header.flip();
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || tail.writePosition >= segmentBytes) {
+                if (tail != null && tail != segments.peekFirst()) tail.close();
+                if (!spoolDir.isDirectory() && !spoolDir.mkdirs() && !spoolDir.isDirectory()) {
+                    throw new IOException("cannot create " + spoolDir);
+                }
+                tail = new Segment(File.createTempFile("offline-", ".seg", spoolDir));
+                segments.add(tail);
+            }
+            for (int attempt = 1; ; ++attempt) {
+                try {
+                    long position = tail.writePosition;
+                    final FileChannel channel = tail.channel();
+                    header.rewind();
+                    final ByteBuffer rest = payload.duplicate();
+                    while (header.hasRemaining()) position += channel.write(header, position);
+                    while (rest.hasRemaining()) position += channel.write(rest, position);
+                    tail.writePosition = position;
+                    break;
+                }
+                catch (ClosedChannelException cce) {
+                    if (attempt == ATTEMPTS) throw cce;
+                }
+            }
+            ++tail.unread;
+            ++spilled;
+            return true;
+        }
+        catch (IOException ioe) {
+            LoggerFactory.getLogger(OfflineQueue.class).error(name + " spill", ioe);
+            release(4 + length);
+            return false;
+        }
+    }
+
+    private PublishMessage unspill() {
+        final Segment head = segments.peekFirst();
+        try {
+            ByteBuffer record;
+            for (int attempt = 1; ; ++attempt) {
+                try {
+                    final FileChannel channel = head.channel();
+                    final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+                    readFully(channel, lengthBuffer, head.readPosition);
+                    record = ByteBuffer.allocate(lengthBuffer.getInt(0));
+                    readFully(channel, record, head.readPosition + 4);
+                    break;
+                }
+                catch (ClosedChannelException cce) {
+                    if (attempt == ATTEMPTS) throw cce;
+                }
+            }
+            final int length = record.capacity();
+            record.flip();
+            final byte[] topic = new byte[record.getShort() & 0xffff];
+            record.get(topic);
+            final int qos = record.get();
+            final boolean retain = record.get() != 0;
+            final long expires = record.getLong();
+            final byte[] payload = new byte[record.remaining()];
+            record.get(payload);
+
+            head.readPosition += 4 + length;
+            --head.unread;
+            --spilled;
+            if (head.unread == 0 && head != segments.peekLast()) {
+                segments.poll();
+                release(head.writePosition);
+                head.delete();
+            } else if (spilled == 0) {
+                // last segment drained, start again rather than grow the file
+                segments.poll();
+                release(spillBytes);
+                head.delete();
+            }
+
+            final PublishMessage publishMessage = new PublishMessage();
+            publishMessage.setTopicName(new String(topic, StandardCharsets.UTF_8));
+            publishMessage.setQos(qos == 0 ? AbstractMessage.QOSType.MOST_ONE : (qos == 1 ? AbstractMessage.QOSType.LEAST_ONE : AbstractMessage.QOSType.EXACTLY_ONCE));
+            publishMessage.setRetainFlag(retain);
+            publishMessage.setPayload(ByteBuffer.wrap(payload));
+            publishMessage.expires = expires;
+            return publishMessage;
+        }
+        catch (IOException ioe) {
+            // the rest of the spill is unreadable
+            LoggerFactory.getLogger(OfflineQueue.class).error(name + " unspill", ioe);
+            dropped += spilled;
+            for (Segment segment : segments) segment.delete();
+            segments.clear();
+            spilled = 0;
+            release(spillBytes);
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("truncated segment");
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.kritikal.fabric.net.mqtt;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for publishes from clients: a token bucket per client
+ * id, one shared by all publishes to each configured topic prefix, and one
+ * for the node.  A publish must take a token from each that applies; one
+ * refused hands back those already taken.  A rate of 0 is no limit.
+ *
+ * What a refusal means is up to the broker: qos 0 is dropped, qos 1 and 2
+ * were already acknowledged so are held back until admitted, with the
+ * client's socket paused meanwhile.
+ */
+public final class PublishRateLimits {
+
+    public final static class TopicLimit {
+        public TopicLimit(String prefix, long rate, long burst) {
+            this.prefix = prefix;
+            this.rate = rate;
+            this.burst = burst;
+        }
+        public final String prefix;
+        public final long rate;
+        public final long burst;
+    }
+
+    private final long clientRate;
+    private final long clientBurst;
+    private final TokenBucket node;
+    private final String[] prefixes;
+    private final TokenBucket[] topics;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public PublishRateLimits(long clientRate, long clientBurst, long nodeRate, long nodeBurst, List<TopicLimit> topicLimits) {
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.node = nodeRate > 0 ? new TokenBucket(nodeRate, nodeBurst) : null;
+        int n = 0;
+        for (TopicLimit topicLimit : topicLimits) if (topicLimit.rate > 0) ++n;
+        this.prefixes = new String[n];
+        this.topics = new TokenBucket[n];
+        n = 0;
+        for (TopicLimit topicLimit : topicLimits) {
+            if (topicLimit.rate <= 0) continue;
+            prefixes[n] = topicLimit.prefix;
+            topics[n++] = new TokenBucket(topicLimit.rate, topicLimit.burst);
+        }
+    }
+
+    /**
+     * @return a bucket for a newly connected client, or null if clients are not limited
+     */
+    public TokenBucket clientBucket() {
+        return clientRate > 0 ? new TokenBucket(clientRate, clientBurst) : null;
+    }
+
+    /**
+     * @param client the client's bucket, or null
+     * @return 0 if admitted, else nanos until it might be
+     */
+    public long admit(final TokenBucket client, final String topic) {
+        if (client == null && node == null && prefixes.length == 0) return 0l;
+        final long now = System.nanoTime(); // read once for every bucket
+        long wait;
+        if (client != null && (wait = client.take(now)) != 0l) return wait;
+        int i = 0;
+        for (; i < prefixes.length; ++i) {
+            if (topic.startsWith(prefixes[i]) && (wait = topics[i].take(now)) != 0l) {
+                refund(client, topic, i);
+                return wait;
+            }
+        }
+        if (node != null && (wait = node.take(now)) != 0l) {
+            refund(client, topic, i);
+            return wait;
+        }
+        return 0l;
+    }
+
+    private void refund(final TokenBucket client, final String topic, final int taken) {
+        if (client != null) client.refund();
+        for (int i = 0; i < taken; ++i) if (topic.startsWith(prefixes[i])) topics[i].refund();
+    }
+
+    void countDropped() { dropped.incrementAndGet(); }
+    void countDeferred() { deferred.incrementAndGet(); }
+
+    public long dropped() { return dropped.get(); }
+    public long deferred() { return deferred.get(); }
+}
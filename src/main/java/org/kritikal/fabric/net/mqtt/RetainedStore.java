@@ -0,0 +1,269 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Retained messages in a trie keyed by topic level.
+ *
+ * A subscription is answered by a Cursor that walks only the branches its
+ * filter can match, one message per next(), so a new subscriber can be fed
+ * in chunks however many messages are retained.  Wildcards match as in
+ * MqttSubscriptionIndex: '+' is exactly one level, a trailing '#' one or
+ * more, a '#' elsewhere zero or more.
+ *
+ * Topics whose message has an expiry are also queued in expiry order, so
+ * expire(now) costs only the messages that are due, never a walk of the
+ * whole trie.  A topic is queued at most once: replacing its message moves
+ * it, removing the message takes it out.  A store mirroring a map that
+ * expires its own entries is made without expiry tracking and queues
+ * nothing.
+ *
+ * Reads are lock free and weakly consistent, a cursor may or may not see
+ * messages retained or removed while it walks; writes are serialised.
+ */
+public class RetainedStore {
+
+    private final static String PLUS = "+";
+    private final static String HASH = "#";
+
+    private final static class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        volatile PublishMessage message = null;
+        // the queue's key while queued for expiry, else expires is 0
+        long expires = 0l;
+        long sequence = 0l;
+        boolean isEmpty() { return message == null && children.isEmpty(); }
+    }
+
+    private final Node root = new Node();
+    private final AtomicInteger size = new AtomicInteger();
+    private final TreeSet<Node> expiring; // null when expiry is not tracked
+    private long sequence = 0l; // orders topics expiring in the same millisecond
+
+    public RetainedStore() {
+        this(true);
+    }
+
+    /**
+     * @param trackExpiry false if the messages are removed by whatever expires them elsewhere
+     */
+    public RetainedStore(final boolean trackExpiry) {
+        this.expiring = trackExpiry ? new TreeSet<>((a, b) -> a.expires != b.expires ? Long.compare(a.expires, b.expires) : Long.compare(a.sequence, b.sequence)) : null;
+    }
+
+    private void queue(final Node node, final PublishMessage publishMessage) {
+        if (expiring == null || publishMessage.expires == 0l) return;
+        node.expires = publishMessage.expires;
+        node.sequence = ++sequence;
+        expiring.add(node);
+    }
+
+    private void unqueue(final Node node) {
+        if (node.expires == 0l) return;
+        expiring.remove(node);
+        node.expires = 0l;
+    }
+
+    /**
+     * retain publishMessage, replacing any message retained on its topic
+     */
+    public synchronized void put(final PublishMessage publishMessage) {
+        Node node = root;
+        for (String part : publishMessage.getTopic().parts)
+            node = node.children.computeIfAbsent(part, k -> new Node());
+        if (node.message == null) size.incrementAndGet();
+        unqueue(node);
+        node.message = publishMessage;
+        queue(node, publishMessage);
+    }
+
+    /**
+     * index a topic alone, for a store of the keys of a map that holds the
+     * messages; cursors return a message carrying only the topic
+     */
+    public void putKey(final String topic) {
+        final PublishMessage key = new PublishMessage();
+        key.setTopicName(topic);
+        put(key);
+    }
+
+    /**
+     * @return the message that was retained on topic, or null
+     */
+    public synchronized PublishMessage remove(final String topic) {
+        final PublishMessage[] removed = new PublishMessage[1];
+        remove(root, MqttTopic.of(topic).parts, 0, null, removed);
+        return removed[0];
+    }
+
+    // removes the message on parts, or only expected if that is given
+    private boolean remove(final Node node, final String[] parts, final int i, final PublishMessage expected, final PublishMessage[] removed) {
+        if (i == parts.length) {
+            if (node.message != null && (expected == null || node.message == expected)) {
+                removed[0] = node.message;
+                size.decrementAndGet();
+                unqueue(node);
+                node.message = null;
+            }
+        } else {
+            final Node child = node.children.get(parts[i]);
+            if (child != null && remove(child, parts, i + 1, expected, removed))
+                node.children.remove(parts[i], child);
+        }
+        return node.isEmpty();
+    }
+
+    /**
+     * remove the messages that expired before now
+     * @return the number removed
+     */
+    public synchronized int expire(final long now) {
+        if (expiring == null) return 0;
+        final PublishMessage[] removed = new PublishMessage[1];
+        int n = 0;
+        Node node;
+        while (!expiring.isEmpty() && (node = expiring.first()).expires < now) {
+            final PublishMessage publishMessage = node.message;
+            remove(root, publishMessage.getTopic().parts, 0, publishMessage, removed);
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * @return the earliest expiry queued, or 0 when nothing is due to expire
+     */
+    public synchronized long nextExpiry() {
+        return expiring != null && !expiring.isEmpty() ? expiring.first().expires : 0l;
+    }
+
+    /**
+     * @return topics queued for expiry, at most one entry each
+     */
+    synchronized int expiringQueued() {
+        return expiring != null ? expiring.size() : 0;
+    }
+
+    public PublishMessage get(final String topic) {
+        Node node = root;
+        for (String part : MqttTopic.of(topic).parts) {
+            node = node.children.get(part);
+            if (node == null) return null;
+        }
+        return node.message;
+    }
+
+    /**
+     * remove every message matching predicate, pruning branches left empty
+     * @return the number removed
+     */
+    public synchronized int removeIf(final Predicate<PublishMessage> predicate) {
+        final int before = size.get();
+        removeIf(root, predicate);
+        return before - size.get();
+    }
+
+    private boolean removeIf(final Node node, final Predicate<PublishMessage> predicate) {
+        final PublishMessage message = node.message;
+        if (message != null && predicate.test(message)) {
+            unqueue(node);
+            node.message = null;
+            size.decrementAndGet();
+        }
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            if (removeIf(entry.getValue(), predicate))
+                node.children.remove(entry.getKey(), entry.getValue());
+        }
+        return node.isEmpty();
+    }
+
+    public synchronized void clear() {
+        root.children.clear();
+        root.message = null;
+        size.set(0);
+        if (expiring != null) expiring.clear();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param filter a topic filter, with or without wildcards
+     * @return a cursor over the messages retained on topics matching filter
+     */
+    public Cursor matching(final MqttTopic filter) {
+        return new Cursor(filter.parts);
+    }
+
+    public final class Cursor {
+        // a frame is a node and the index of the filter level to match
+        // against its children; SUBTREE takes the node and everything below
+        private final static int SUBTREE = -1;
+
+        private final String[] parts;
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<Integer> levels = new ArrayDeque<>();
+        // only a '#' before the last level can reach a node twice
+        private final HashSet<Node> emitted;
+        private final HashSet<Node> expanded;
+
+        Cursor(final String[] parts) {
+            this.parts = parts;
+            boolean innerHash = false;
+            for (int i = 0; i < parts.length - 1; ++i)
+                if (HASH.equals(parts[i])) innerHash = true;
+            this.emitted = innerHash ? new HashSet<>() : null;
+            this.expanded = innerHash ? new HashSet<>() : null;
+            push(root, 0);
+        }
+
+        private void push(final Node node, final int level) {
+            nodes.push(node);
+            levels.push(level);
+        }
+
+        /**
+         * @return the next matching message, or null when there are no more
+         */
+        public PublishMessage next() {
+            while (!nodes.isEmpty()) {
+                final Node node = nodes.pop();
+                final int level = levels.pop();
+                if (level == SUBTREE) {
+                    if (expanded != null && !expanded.add(node)) continue;
+                    for (Node child : node.children.values()) push(child, SUBTREE);
+                    final PublishMessage message = node.message;
+                    if (message != null && (emitted == null || emitted.add(node))) return message;
+                } else if (level == parts.length) {
+                    final PublishMessage message = node.message;
+                    if (message != null && (emitted == null || emitted.add(node))) return message;
+                } else {
+                    final String part = parts[level];
+                    if (PLUS.equals(part)) {
+                        for (Node child : node.children.values()) push(child, level + 1);
+                    } else if (HASH.equals(part)) {
+                        if (level == parts.length - 1) {
+                            for (Node child : node.children.values()) push(child, SUBTREE);
+                        } else {
+                            push(node, level + 1); // zero levels
+                            for (Node child : node.children.values()) push(child, level); // one more
+                        }
+                    } else {
+                        final Node child = node.children.get(part);
+                        if (child != null) push(child, level + 1);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.kritikal.fabric.net.ISocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection outbound limits, checked by the broker before it writes a
+ * publish to a subscriber, and what to do with a subscriber over them.
+ *
+ * A connection is over its limits once more than maxBytes, or maxMessages,
+ * written to its socket have not yet gone out on the network.  QUEUE then
+ * drops qos 0 and diverts qos 1 and 2 to the session's offline queue, to be
+ * replayed once the socket drains; DROP drops everything; DISCONNECT closes
+ * the connection, qos 1 and 2 are queued for the session as they would be
+ * for any client that went away.  Each firing is counted.
+ */
+public final class SlowConsumerPolicy {
+
+    public enum Policy {
+        QUEUE,
+        DROP,
+        DISCONNECT;
+
+        public static Policy parse(String s) {
+            return Policy.valueOf(s.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    public enum Action {
+        SEND,
+        QUEUE,
+        DROP,
+    }
+
+    private final long maxBytes;
+    private final int maxMessages;
+    private final Policy policy;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+
+    public SlowConsumerPolicy(long maxBytes, int maxMessages, Policy policy) {
+        this.maxBytes = maxBytes;
+        this.maxMessages = maxMessages;
+        this.policy = policy;
+    }
+
+    public boolean over(MqttServerProtocol protocol) {
+        final ISocket socket = protocol.socket;
+        return socket.outboundBytes() >= maxBytes || socket.outboundMessages() >= maxMessages;
+    }
+
+    /**
+     * @param qos the publish is to be sent at
+     * @return what to do with it
+     */
+    public Action admit(MqttServerProtocol protocol, int qos) {
+        if (!over(protocol)) return Action.SEND;
+        switch (policy) {
+            case DISCONNECT:
+                if (protocol.closeOnce()) disconnected.incrementAndGet();
+                // fall through, the session keeps what it would have kept offline
+            case QUEUE:
+                if (qos > 0) {
+                    queued.incrementAndGet();
+                    return Action.QUEUE;
+                }
+                // fall through
+            default:
+                dropped.incrementAndGet();
+                return Action.DROP;
+        }
+    }
+
+    public Policy policy() { return policy; }
+    public long dropped() { return dropped.get(); }
+    public long queued() { return queued.get(); }
+    public long disconnected() { return disconnected.get(); }
+}
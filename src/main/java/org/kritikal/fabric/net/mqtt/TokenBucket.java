@@ -0,0 +1,49 @@
+package org.kritikal.fabric.net.mqtt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket of rate tokens a second holding at most burst,
+ * kept as the single time at which it would next be full again (the
+ * generic cell rate algorithm): taking a token is one read of the clock
+ * and one compare-and-set, and a bucket that refuses changes nothing.
+ */
+public final class TokenBucket {
+
+    private final long interval; // nanos per token
+    private final long tolerance; // how far ahead of now the bucket may run
+    private final AtomicLong full; // nanoTime at which the bucket is full again
+
+    public TokenBucket(long rate, long burst) {
+        if (rate < 1) throw new IllegalArgumentException("rate");
+        if (burst < 1) throw new IllegalArgumentException("burst");
+        this.interval = Math.max(1l, TimeUnit.SECONDS.toNanos(1) / rate);
+        this.tolerance = interval * burst;
+        this.full = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return 0 if a token was taken, else nanos until one will be available
+     */
+    public long take() {
+        return take(System.nanoTime());
+    }
+
+    long take(final long now) {
+        for (;;) {
+            final long current = full.get();
+            final long next = (current - now > 0 ? current : now) + interval;
+            final long ahead = next - now;
+            if (ahead > tolerance) return ahead - tolerance;
+            if (full.compareAndSet(current, next)) return 0l;
+        }
+    }
+
+    /**
+     * return a token taken by a publish another bucket then refused
+     */
+    public void refund() {
+        full.addAndGet(-interval);
+    }
+}
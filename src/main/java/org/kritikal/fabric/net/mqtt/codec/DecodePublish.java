@@ -29,7 +29,7 @@ public class DecodePublish {
         Helper.applyByte1(message, byte1);
         int topicLength = bufferContainer.readShort();
         if (topicLength <= 0) throw new Exception("Topic length " + topicLength);
-        byte[] topicUtf8 = bufferContainer.readBytes(topicLength);
+        String topicName = bufferContainer.readUtf8(topicLength);
         long payloadLength = remainingLength - 2 - topicLength;
         if (message.getQos().getValue() == 1 ||
             message.getQos().getValue() == 2) {
@@ -37,8 +37,8 @@ public class DecodePublish {
             message.setMessageID(messageID);
             payloadLength -= 2;
         }
-        if (topicUtf8 != null)
-            message.setTopicName(new String(topicUtf8, "UTF-8"));
+        if (topicName != null)
+            message.setTopicName(topicName);
         ByteBuffer payloadBuffer = payloadLength > 0
                 ? ByteBuffer.wrap(bufferContainer.readBytes(payloadLength))
                 : null;
@@ -8,10 +8,11 @@ import org.kritikal.fabric.net.mqtt.entities.SubAckMessage;
  */
 public class DecodeSuback {
     public static SubAckMessage decode(BufferContainer bufferContainer)
-            throws BufferContainer.NeedMoreDataException
+            throws BufferContainer.NeedMoreDataException, Exception
     {
         byte byte1 = bufferContainer.readByte();
         long remainingLength = bufferContainer.readRemainingLength();
+        bufferContainer.assertBytes(remainingLength);
         // TODO read QoS levels if we actually care about that :-)
         bufferContainer.skipBytes(remainingLength);
         SubAckMessage message = new SubAckMessage();
@@ -1,11 +1,10 @@
 package org.kritikal.fabric.net.mqtt.codec;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by ben on 8/25/14.
@@ -16,42 +15,42 @@ public class EncodePublish {
     }
     public static void encode(PublishMessage message, ByteBuf buffer, boolean encodeExtraFields)
     {
-        ByteBuf block2 = null;
-        ByteBuf block3 = null;
-        try {
-            buffer.writeByte(Helper.block1(message));
-            block3 = Unpooled.buffer();
-            byte[] topicUtf8 = null;
-            try
-            {
-                topicUtf8 = message.getTopicName().getBytes("UTF-8");
-            }
-            catch (UnsupportedEncodingException ex)
-            {
-                // ignore
-            }
-            block3.writeShort(topicUtf8 != null ? topicUtf8.length : 0);
-            if (topicUtf8 != null) block3.writeBytes(topicUtf8);
-            if (message.getQos().getValue() == 1 ||
-                message.getQos().getValue() == 2) {
-                block3.writeShort(message.getMessageID());
-            }
-            ByteBuffer payload = message.getPayload();
-            if (payload != null) {
-                block3.writeBytes(payload.array());
-            }
-            block2 = Helper.encodeRemainingLength(block3.readableBytes());
-            buffer.writeBytes(block2).writeBytes(block3);
+        final byte[] topicUtf8 = message.getTopicName() != null
+                ? message.getTopicName().getBytes(StandardCharsets.UTF_8)
+                : null;
+        final boolean hasMessageID = message.getQos().getValue() == 1 ||
+                                     message.getQos().getValue() == 2;
+        final ByteBuffer payload = message.getPayload();
 
-            if (encodeExtraFields) {
-                buffer.writeLong(message.expires);
-                buffer.writeLong(message.origin.getMostSignificantBits());
-                buffer.writeLong(message.origin.getLeastSignificantBits());
-            }
+        long remainingLength = 2 + (topicUtf8 != null ? topicUtf8.length : 0);
+        if (hasMessageID) remainingLength += 2;
+        if (payload != null) remainingLength += payload.remaining();
+
+        buffer.writeByte(Helper.block1(message));
+        Helper.writeRemainingLength(buffer, remainingLength);
+        buffer.writeShort(topicUtf8 != null ? topicUtf8.length : 0);
+        if (topicUtf8 != null) buffer.writeBytes(topicUtf8);
+        if (hasMessageID) {
+            buffer.writeShort(message.getMessageID());
+        }
+        if (payload != null) {
+            buffer.writeBytes(payload.duplicate());
         }
-        finally {
-            if (block3 != null) block3.release();
-            if (block2 != null) block2.release();
+
+        if (encodeExtraFields) {
+            buffer.writeLong(message.expires);
+            buffer.writeLong(message.origin.getMostSignificantBits());
+            buffer.writeLong(message.origin.getLeastSignificantBits());
         }
     }
+
+    /**
+     * @return an upper bound on the encoded size, for sizing buffers
+     */
+    public static int sizeHint(PublishMessage message)
+    {
+        final String topicName = message.getTopicName();
+        final ByteBuffer payload = message.getPayload();
+        return 1 + 4 + 2 + (topicName != null ? topicName.length() * 3 : 0) + 2 + (payload != null ? payload.remaining() : 0);
+    }
 }
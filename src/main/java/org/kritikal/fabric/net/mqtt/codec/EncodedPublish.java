@@ -0,0 +1,122 @@
+package org.kritikal.fabric.net.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A PUBLISH encoded once and shared by every subscriber it is fanned out to.
+ *
+ * The length prefixed topic and the payload are encoded a single time, each
+ * frame() is a composite of views onto them with only the first byte (qos,
+ * dup and retain bits) and the packet id written per subscriber.  Every frame
+ * holds its own reference to the shared blocks, so they are freed when the
+ * last socket write completes and the owner has called release().
+ */
+public final class EncodedPublish extends AbstractReferenceCounted {
+
+    private final ByteBufAllocator allocator; // null: unpooled heap buffers
+    private final ByteBuf topicBlock;
+    private final ByteBuf payloadBlock;
+    private final boolean retain;
+    private final byte[] remainingLengthQos0;
+    private final byte[] remainingLengthQos12;
+
+    public EncodedPublish(final String topicName, final byte[] payload, final boolean retain) {
+        this(topicName, payload, retain, null);
+    }
+
+    /**
+     * @param allocator when not null the topic, payload and per frame headers
+     *                  are written to direct buffers from this allocator, the
+     *                  payload is then copied once instead of being wrapped
+     */
+    public EncodedPublish(final String topicName, final byte[] payload, final boolean retain, final ByteBufAllocator allocator) {
+        final byte[] topicUtf8 = topicName != null ? topicName.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        this.allocator = allocator;
+        this.topicBlock = allocate(2 + topicUtf8.length);
+        this.topicBlock.writeShort(topicUtf8.length);
+        this.topicBlock.writeBytes(topicUtf8);
+        if (payload == null || payload.length == 0) {
+            this.payloadBlock = Unpooled.EMPTY_BUFFER;
+        } else if (allocator == null) {
+            this.payloadBlock = Unpooled.wrappedBuffer(payload);
+        } else {
+            this.payloadBlock = allocate(payload.length).writeBytes(payload);
+        }
+        this.retain = retain;
+        final int remainingLength = topicBlock.readableBytes() + payloadBlock.readableBytes();
+        this.remainingLengthQos0 = encodeRemainingLength(remainingLength);
+        this.remainingLengthQos12 = encodeRemainingLength(remainingLength + 2);
+    }
+
+    private ByteBuf allocate(final int initialCapacity) {
+        return allocator != null ? allocator.directBuffer(initialCapacity) : Unpooled.buffer(initialCapacity);
+    }
+
+    private static byte[] encodeRemainingLength(final int len) {
+        final ByteBuf byteBuf = Helper.encodeRemainingLength(len);
+        try {
+            final byte[] ary = new byte[byteBuf.readableBytes()];
+            byteBuf.readBytes(ary);
+            return ary;
+        }
+        finally {
+            byteBuf.release();
+        }
+    }
+
+    public boolean isRetain() { return retain; }
+
+    /**
+     * the caller takes ownership of the returned frame, normally by handing
+     * it to a socket which releases it once written
+     * @param qos 0, 1 or 2
+     * @param messageID packet id, ignored at qos 0
+     * @param dup set the dup flag (retransmission)
+     * @return a new composite frame sharing the topic and payload
+     */
+    public ByteBuf frame(final int qos, final int messageID, final boolean dup) {
+        final byte[] remainingLength = qos == 0 ? remainingLengthQos0 : remainingLengthQos12;
+        int byte1 = AbstractMessage.PUBLISH << 4;
+        byte1 |= retain ? 0b1 : 0;
+        byte1 |= (qos & 0b11) << 1;
+        byte1 |= dup ? 0b1000 : 0;
+
+        final ByteBuf header = allocate(1 + remainingLength.length);
+        header.writeByte(byte1);
+        header.writeBytes(remainingLength);
+
+        final CompositeByteBuf frame = allocator != null ? allocator.compositeDirectBuffer(4) : Unpooled.compositeBuffer(4);
+        frame.addComponent(true, header);
+        frame.addComponent(true, topicBlock.retainedDuplicate());
+        if (qos != 0) {
+            final ByteBuf packetID = allocate(2);
+            packetID.writeShort(messageID);
+            frame.addComponent(true, packetID);
+        }
+        if (payloadBlock.isReadable()) {
+            frame.addComponent(true, payloadBlock.retainedDuplicate());
+        }
+        return frame;
+    }
+
+    @Override
+    protected void deallocate() {
+        topicBlock.release();
+        payloadBlock.release();
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        topicBlock.touch(hint);
+        payloadBlock.touch(hint);
+        return this;
+    }
+}
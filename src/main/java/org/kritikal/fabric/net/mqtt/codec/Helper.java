@@ -46,10 +46,21 @@ public class Helper {
      * @return a new ByteBuf
      */
     protected static ByteBuf encodeRemainingLength(long len)
+    {
+        ByteBuf output = Unpooled.buffer();
+        writeRemainingLength(output, len);
+        return output;
+    }
+
+    /**
+     * write a number (remaining length) as 1-4 bytes straight into output.
+     * @param output buffer to write to
+     * @param len length, out of bounds values are truncated
+     */
+    protected static void writeRemainingLength(ByteBuf output, long len)
     {
         if (len < 0) len = 0;
         //if (len > MAXLEN) len = MAXLEN; // protocol hack, we don't care of the length of this thing
-        ByteBuf output = Unpooled.buffer();
         do {
             byte digit = (byte) (len % 0x80);
             len = len / 0x80;
@@ -57,7 +68,6 @@ public class Helper {
                 digit |= 0x80;
             output.writeByte(digit);
         } while (len > 0);
-        return output;
     }
 
     /**
@@ -0,0 +1,15 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import java.util.ArrayList;
+
+/**
+ * Publishes for one cluster member, sent as a single Hazelcast frame.
+ */
+public class PublishBatch {
+
+    public final ArrayList<PublishMessage> messages;
+
+    public PublishBatch(int capacity) {
+        this.messages = new ArrayList<>(capacity);
+    }
+}
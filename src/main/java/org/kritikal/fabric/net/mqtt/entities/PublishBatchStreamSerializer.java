@@ -0,0 +1,40 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import java.io.IOException;
+
+/**
+ * A count, then each message as PublishMessageStreamSerializer writes it.
+ */
+public class PublishBatchStreamSerializer implements StreamSerializer<PublishBatch> {
+
+    private final PublishMessageStreamSerializer message = new PublishMessageStreamSerializer();
+
+    @Override
+    public int getTypeId() {
+        return 2; // unique
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, PublishBatch publishBatch) throws IOException {
+        out.writeInt(publishBatch.messages.size());
+        for (PublishMessage publishMessage : publishBatch.messages)
+            message.write(out, publishMessage);
+    }
+
+    @Override
+    public PublishBatch read(ObjectDataInput in) throws IOException {
+        final int n = in.readInt();
+        final PublishBatch publishBatch = new PublishBatch(n);
+        for (int i = 0; i < n; ++i)
+            publishBatch.messages.add(message.read(in));
+        return publishBatch;
+    }
+
+    @Override
+    public void destroy() {}
+
+}
@@ -22,7 +22,15 @@ public class PublishMessage extends AbstractMessage {
 
     public void setTopicName(String topicName) {
         this.topicName = topicName;
-        this.topic = new MqttTopic(topicName);
+        this.topic = MqttTopic.of(topicName);
+    }
+
+    /**
+     * @param topic topicName already parsed, shared rather than parsed again
+     */
+    public void setTopicName(String topicName, MqttTopic topic) {
+        this.topicName = topicName;
+        this.topic = topic;
     }
 
     // extensions
@@ -0,0 +1,93 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * The default event bus codec for PublishMessage, registered by MqttBroker.
+ *
+ * Locally the message itself is delivered, nothing is copied, so a sender
+ * hands the message over and a receiver must not modify it.  Across the
+ * cluster it is framed in binary: a flags byte (qos, retain), the topic and
+ * the payload each as an int length and bytes, expires, and origin.
+ */
+public class PublishMessageEventBusCodec implements MessageCodec<PublishMessage, PublishMessage> {
+
+    public final static String NAME = "mqtt.publish";
+
+    private final static int QOS = 0x03;
+    private final static int RETAIN = 0x04;
+
+    private final static TopicCache topics = new TopicCache(1024);
+    private final static ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
+    @Override
+    public void encodeToWire(Buffer buffer, PublishMessage publishMessage) {
+        final TopicCache.Entry topic = topics.forName(publishMessage.getTopicName(), publishMessage.getTopic());
+        buffer.appendByte((byte) ((publishMessage.getQos().getValue() & QOS) | (publishMessage.isRetainFlag() ? RETAIN : 0)));
+        buffer.appendInt(topic.bytes.length);
+        buffer.appendBytes(topic.bytes);
+        final ByteBuffer payload = publishMessage.getPayload();
+        if (payload == null) {
+            buffer.appendInt(0);
+        } else {
+            buffer.appendInt(payload.remaining());
+            if (payload.hasArray()) {
+                buffer.appendBytes(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            } else {
+                buffer.appendBuffer(Buffer.buffer(Unpooled.wrappedBuffer(payload.duplicate())));
+            }
+        }
+        buffer.appendLong(publishMessage.expires);
+        buffer.appendLong(publishMessage.origin.getMostSignificantBits());
+        buffer.appendLong(publishMessage.origin.getLeastSignificantBits());
+    }
+
+    @Override
+    public PublishMessage decodeFromWire(int pos, Buffer buffer) {
+        final PublishMessage publishMessage = new PublishMessage();
+        final int flags = buffer.getByte(pos++);
+        final int topicLength = buffer.getInt(pos);
+        pos += 4;
+        byte[] bytes = scratch.get();
+        if (bytes.length < topicLength) {
+            bytes = new byte[Integer.highestOneBit(topicLength) << 1];
+            scratch.set(bytes);
+        }
+        buffer.getBytes(pos, pos + topicLength, bytes);
+        pos += topicLength;
+        final TopicCache.Entry topic = topics.forBytes(bytes, topicLength);
+        publishMessage.setTopicName(topic.name, topic.topic);
+        final int payloadLength = buffer.getInt(pos);
+        pos += 4;
+        publishMessage.setPayload(ByteBuffer.wrap(buffer.getBytes(pos, pos + payloadLength)));
+        pos += payloadLength;
+        final int qos = flags & QOS;
+        publishMessage.setQos(qos == 0 ? AbstractMessage.QOSType.MOST_ONE : (qos == 1 ? AbstractMessage.QOSType.LEAST_ONE : (qos == 2 ? AbstractMessage.QOSType.EXACTLY_ONCE : AbstractMessage.QOSType.RESERVED)));
+        publishMessage.setRetainFlag((flags & RETAIN) != 0);
+        publishMessage.expires = buffer.getLong(pos);
+        final long msb = buffer.getLong(pos + 8);
+        final long lsb = buffer.getLong(pos + 16);
+        if (msb != 0l || lsb != 0l) publishMessage.origin = new UUID(msb, lsb);
+        return publishMessage;
+    }
+
+    @Override
+    public PublishMessage transform(PublishMessage publishMessage) {
+        return publishMessage;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -10,37 +10,118 @@ import java.util.UUID;
 
 /**
  * Created by ben on 11/29/16.
+ *
+ * A flags byte (qos, retain, and whether expires and origin follow), the
+ * topic as varint length prefixed UTF-8, the payload likewise, then expires
+ * as a varint and origin as two longs when set.  Hot topics and origins are
+ * cached, so a steady stream of messages costs the payload array and the
+ * message itself on reading, and nothing beyond the output buffer on
+ * writing; the payload is written from its buffer in place, whatever its
+ * position and limit.
  */
 public class PublishMessageStreamSerializer implements StreamSerializer<PublishMessage> {
 
+    private final static int QOS = 0x03;
+    private final static int RETAIN = 0x04;
+    private final static int EXPIRES = 0x08;
+    private final static int ORIGIN = 0x10;
+
+    private final static TopicCache topics = new TopicCache(4096);
+    private final static UUID[] origins = new UUID[64];
+    private final static ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
     @Override
     public int getTypeId() {
-        return 1; // unique
+        return 3; // unique, 1 was the writeUTF format
     }
 
     @Override
     public void write(ObjectDataOutput out, PublishMessage publishMessage) throws IOException {
-        out.writeUTF(publishMessage.getTopicName());
-        out.writeByteArray(publishMessage.getPayload().array());
-        out.writeByte(publishMessage.getQos().getValue());
-        out.writeLong(publishMessage.expires);
-        out.writeLong(publishMessage.origin.getMostSignificantBits());
-        out.writeLong(publishMessage.origin.getLeastSignificantBits());
+        final TopicCache.Entry topic = topics.forName(publishMessage.getTopicName(), publishMessage.getTopic());
+        final UUID origin = publishMessage.origin;
+        final boolean hasOrigin = origin != null && (origin.getMostSignificantBits() != 0l || origin.getLeastSignificantBits() != 0l);
+        out.writeByte((publishMessage.getQos().getValue() & QOS)
+                | (publishMessage.isRetainFlag() ? RETAIN : 0)
+                | (publishMessage.expires != 0l ? EXPIRES : 0)
+                | (hasOrigin ? ORIGIN : 0));
+        writeVarLong(out, topic.bytes.length);
+        out.write(topic.bytes);
+        final ByteBuffer payload = publishMessage.getPayload();
+        if (payload == null) {
+            writeVarLong(out, 0);
+        } else {
+            final int n = payload.remaining();
+            writeVarLong(out, n);
+            if (payload.hasArray()) {
+                out.write(payload.array(), payload.arrayOffset() + payload.position(), n);
+            } else {
+                final byte[] buffer = scratch.get();
+                final ByteBuffer from = payload.duplicate();
+                while (from.hasRemaining()) {
+                    final int chunk = Math.min(buffer.length, from.remaining());
+                    from.get(buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                }
+            }
+        }
+        if (publishMessage.expires != 0l) writeVarLong(out, publishMessage.expires);
+        if (hasOrigin) {
+            out.writeLong(origin.getMostSignificantBits());
+            out.writeLong(origin.getLeastSignificantBits());
+        }
     }
 
     @Override
     public PublishMessage read(ObjectDataInput in) throws IOException {
         PublishMessage publishMessage = new PublishMessage();
-        publishMessage.setTopicName(in.readUTF());
-        publishMessage.setPayload(ByteBuffer.wrap(in.readByteArray()));
-        byte qos = in.readByte();
-        AbstractMessage.QOSType qosType = qos == 0 ? AbstractMessage.QOSType.MOST_ONE : (qos <= 1 ? AbstractMessage.QOSType.LEAST_ONE : (qos == 2 ? AbstractMessage.QOSType.EXACTLY_ONCE : AbstractMessage.QOSType.RESERVED));
-        publishMessage.setQos(qosType);
-        publishMessage.expires = in.readLong();
-        publishMessage.origin = new UUID(in.readLong(), in.readLong());
+        final int flags = in.readByte();
+        final int length = (int) readVarLong(in);
+        byte[] buffer = scratch.get();
+        if (buffer.length < length) {
+            buffer = new byte[Integer.highestOneBit(length) << 1];
+            scratch.set(buffer);
+        }
+        in.readFully(buffer, 0, length);
+        final TopicCache.Entry topic = topics.forBytes(buffer, length);
+        publishMessage.setTopicName(topic.name, topic.topic);
+        final byte[] payload = new byte[(int) readVarLong(in)];
+        in.readFully(payload);
+        publishMessage.setPayload(ByteBuffer.wrap(payload));
+        final int qos = flags & QOS;
+        publishMessage.setQos(qos == 0 ? AbstractMessage.QOSType.MOST_ONE : (qos == 1 ? AbstractMessage.QOSType.LEAST_ONE : (qos == 2 ? AbstractMessage.QOSType.EXACTLY_ONCE : AbstractMessage.QOSType.RESERVED)));
+        publishMessage.setRetainFlag((flags & RETAIN) != 0);
+        if ((flags & EXPIRES) != 0) publishMessage.expires = readVarLong(in);
+        if ((flags & ORIGIN) != 0) publishMessage.origin = origin(in.readLong(), in.readLong());
         return publishMessage;
     }
 
+    private static UUID origin(long msb, long lsb) {
+        final int i = (int) (msb ^ lsb ^ (lsb >>> 32)) & (origins.length - 1);
+        final UUID cached = origins[i];
+        if (cached != null && cached.getMostSignificantBits() == msb && cached.getLeastSignificantBits() == lsb) return cached;
+        final UUID origin = new UUID(msb, lsb);
+        origins[i] = origin;
+        return origin;
+    }
+
+    static void writeVarLong(ObjectDataOutput out, long value) throws IOException {
+        while ((value & ~0x7fl) != 0l) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ObjectDataInput in) throws IOException {
+        long value = 0l;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
     @Override
     public void destroy() {}
 
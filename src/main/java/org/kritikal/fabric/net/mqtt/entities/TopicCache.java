@@ -0,0 +1,80 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import org.kritikal.fabric.net.mqtt.MqttTopic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Direct mapped caches of recently serialized topics, by name when writing
+ * and by UTF-8 bytes when reading, so a hot topic is encoded, decoded and
+ * parsed once rather than once per message.  A miss simply replaces the
+ * slot; entries are immutable, so the unsynchronised slots are safe.
+ */
+final class TopicCache {
+
+    static final class Entry {
+        final String name;
+        final byte[] bytes;
+        final int hash;
+        final MqttTopic topic;
+
+        Entry(String name, byte[] bytes, int hash, MqttTopic topic) {
+            this.name = name;
+            this.bytes = bytes;
+            this.hash = hash;
+            this.topic = topic;
+        }
+    }
+
+    private final Entry[] byName;
+    private final Entry[] byBytes;
+    private final int mask;
+
+    /**
+     * @param slots a power of two
+     */
+    TopicCache(int slots) {
+        this.byName = new Entry[slots];
+        this.byBytes = new Entry[slots];
+        this.mask = slots - 1;
+    }
+
+    static int hash(byte[] bytes, int length) {
+        int h = 1;
+        for (int i = 0; i < length; ++i) h = 31 * h + bytes[i];
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(byte[] a, byte[] b, int length) {
+        if (a.length != length) return false;
+        for (int i = 0; i < length; ++i) if (a[i] != b[i]) return false;
+        return true;
+    }
+
+    Entry forName(String name, MqttTopic topic) {
+        final int i = name.hashCode() & mask;
+        final Entry entry = byName[i];
+        if (entry != null && entry.name.equals(name)) return entry;
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final Entry added = new Entry(name, bytes, hash(bytes, bytes.length), topic != null ? topic : MqttTopic.of(name));
+        byName[i] = added;
+        byBytes[added.hash & mask] = added;
+        return added;
+    }
+
+    /**
+     * @param bytes scratch holding the topic in its first length bytes, copied on a miss
+     */
+    Entry forBytes(byte[] bytes, int length) {
+        final int hash = hash(bytes, length);
+        final Entry entry = byBytes[hash & mask];
+        if (entry != null && entry.hash == hash && equal(entry.bytes, bytes, length)) return entry;
+        final byte[] copy = Arrays.copyOf(bytes, length);
+        final String name = new String(copy, StandardCharsets.UTF_8);
+        final Entry added = new Entry(name, copy, hash, MqttTopic.of(name));
+        byBytes[hash & mask] = added;
+        byName[name.hashCode() & mask] = added;
+        return added;
+    }
+}
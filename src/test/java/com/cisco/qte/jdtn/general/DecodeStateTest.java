@@ -0,0 +1,48 @@
+package com.cisco.qte.jdtn.general;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.contrib.jdtn.LargeObjectReaderTest;
+
+import java.util.Arrays;
+
+public class DecodeStateTest {
+
+    @Test
+    public void decodesFromTheReaderAcrossBlocks() throws JDtnException {
+        final byte[] data = LargeObjectReaderTest.data(100);
+        final LargeObjectReaderTest.ArrayReader reader = new LargeObjectReaderTest.ArrayReader(data);
+        final DecodeState decodeState = new DecodeState(null, reader, 10L, data.length);
+        Assert.assertEquals(90, decodeState.remainingLength());
+        Assert.assertEquals(data[10] & 0xff, decodeState.getByte());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 11, 51), decodeState.getBytes(40));
+        Assert.assertEquals(51, decodeState.getLongOffset());
+        // positioned, so seeking back rereads
+        decodeState.setLongOffset(5);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 5, 25), decodeState.getBytes(20));
+        decodeState.incrementOffsetBy(70);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 95, 100), decodeState.getBytes(5));
+        Assert.assertTrue(decodeState.isAtEnd());
+        try {
+            decodeState.getByte();
+            Assert.fail();
+        }
+        catch (JDtnException e) { }
+    }
+
+    @Test
+    public void closeClosesTheReaderOnce() throws JDtnException {
+        final LargeObjectReaderTest.ArrayReader reader = new LargeObjectReaderTest.ArrayReader(LargeObjectReaderTest.data(100));
+        final DecodeState decodeState = new DecodeState(null, reader, 0L, 100L);
+        decodeState.getBytes(30);
+        decodeState.close();
+        Assert.assertEquals(1, reader.closes);
+        decodeState.close();
+        Assert.assertEquals(1, reader.closes);
+        try {
+            decodeState.getByte();
+            Assert.fail();
+        }
+        catch (JDtnException e) { }
+    }
+}
@@ -0,0 +1,103 @@
+package com.cisco.qte.jdtn.general;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EncodeStateTest {
+
+    static final int BUFFER = 16;
+
+    /**
+     * a file-backed EncodeState whose File is a byte array, recording the size of each append to it
+     */
+    static final class Recording extends EncodeState {
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final List<Integer> appends = new ArrayList<>();
+
+        Recording() {
+            super(null, null, BUFFER);
+        }
+
+        @Override
+        void appendToFile(byte[] bytes, int offset, int length) {
+            file.write(bytes, offset, length);
+            appends.add(length);
+        }
+    }
+
+    static byte[] bytes(int from, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) bytes[i] = (byte) (from + i);
+        return bytes;
+    }
+
+    @Test
+    public void smallWritesAreAppendedABufferAtATime() throws JDtnException {
+        final Recording encodeState = new Recording();
+        for (int i = 0; i < BUFFER; ++i) encodeState.put(i);
+        Assert.assertEquals(0, encodeState.appends.size());
+        Assert.assertEquals(BUFFER, encodeState.getLength());
+        encodeState.put((byte) BUFFER);
+        Assert.assertEquals(1, encodeState.appends.size());
+        Assert.assertEquals(BUFFER, (int) encodeState.appends.get(0));
+        Assert.assertEquals(BUFFER + 1, encodeState.getLength());
+        // a write that does not fit flushes first, then is buffered
+        encodeState.append(bytes(BUFFER + 1, 10), 0, 10);
+        encodeState.append(bytes(BUFFER + 11, 10), 0, 10);
+        Assert.assertEquals(2, encodeState.appends.size());
+        Assert.assertEquals(11, (int) encodeState.appends.get(1));
+        Assert.assertEquals(BUFFER + 21, encodeState.getLength());
+        encodeState.flush();
+        Assert.assertEquals(BUFFER + 21, encodeState.getLength());
+        Assert.assertEquals(BUFFER + 21, encodeState.file.size());
+        Assert.assertArrayEquals(bytes(0, BUFFER + 21), encodeState.file.toByteArray());
+        encodeState.flush(); // nothing pending, nothing appended
+        Assert.assertEquals(3, encodeState.appends.size());
+    }
+
+    @Test
+    public void largeWritesPassThroughInOrder() throws JDtnException {
+        final Recording encodeState = new Recording();
+        encodeState.append(bytes(0, 5), 0, 5);
+        // honours the offset, and goes behind the 5 bytes still buffered
+        final byte[] large = bytes(0, 3 * BUFFER + 10);
+        encodeState.append(large, 5, 3 * BUFFER);
+        Assert.assertEquals(2, encodeState.appends.size());
+        Assert.assertEquals(5, (int) encodeState.appends.get(0));
+        Assert.assertEquals(3 * BUFFER, (int) encodeState.appends.get(1));
+        encodeState.put(5 + 3 * BUFFER);
+        Assert.assertEquals(3 * BUFFER + 6, encodeState.getLength());
+        Assert.assertEquals(3 * BUFFER + 5, encodeState.file.size());
+        encodeState.close();
+        Assert.assertArrayEquals(bytes(0, 3 * BUFFER + 6), encodeState.file.toByteArray());
+    }
+
+    @Test
+    public void closeFlushesPendingBytes() throws JDtnException {
+        final Recording encodeState = new Recording();
+        encodeState.append(bytes(0, 7), 0, 7);
+        Assert.assertEquals(7, encodeState.getLength());
+        Assert.assertEquals(0, encodeState.file.size());
+        encodeState.close();
+        Assert.assertArrayEquals(bytes(0, 7), encodeState.file.toByteArray());
+        Assert.assertEquals(7, encodeState.getLength());
+        encodeState.close();
+        Assert.assertEquals(1, encodeState.appends.size());
+    }
+
+    @Test
+    public void appendingAnotherEncodeStateFlushesItFirst() throws JDtnException, InterruptedException {
+        final Recording encodeState = new Recording();
+        encodeState.put(0);
+        final EncodeState memory = new EncodeState();
+        memory.append(bytes(1, 20), 0, 20);
+        encodeState.append(memory);
+        encodeState.close();
+        Assert.assertArrayEquals(bytes(0, 21), encodeState.file.toByteArray());
+        Assert.assertEquals(21, encodeState.getLength());
+    }
+}
@@ -0,0 +1,132 @@
+package com.cisco.qte.jdtn.general;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WheelTimerTest {
+
+    static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void runsWhenDue() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        final CountDownLatch ran = new CountDownLatch(100);
+        final AtomicInteger late = new AtomicInteger();
+        final WheelTimer.Task notYet = timer.schedule(late::incrementAndGet, HOUR);
+        for (int i = 0; i < 100; ++i) timer.schedule(ran::countDown, 50 + i);
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+        // the ones due have run, the one an hour out waits
+        Assert.assertEquals(0, late.get());
+        Assert.assertEquals(1, timer.pending());
+        Assert.assertTrue(notYet.cancel());
+        Assert.assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        final AtomicInteger ran = new AtomicInteger();
+        final WheelTimer.Task cancelled = timer.schedule(ran::incrementAndGet, 50);
+        final CountDownLatch done = new CountDownLatch(1);
+        final WheelTimer.Task kept = timer.schedule(() -> { ran.incrementAndGet(); done.countDown(); }, 100);
+        Assert.assertEquals(2, timer.pending());
+        Assert.assertTrue(cancelled.cancel());
+        Assert.assertFalse(cancelled.cancel());
+        Assert.assertEquals(1, timer.pending());
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(1, ran.get());
+        Assert.assertFalse(kept.cancel()); // already ran
+        Assert.assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void cancelAllRefusesNewTasks() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        final WheelTimer other = new WheelTimer();
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 1000; ++i) timer.schedule(ran::incrementAndGet, 50);
+        final CountDownLatch otherRan = new CountDownLatch(1);
+        other.schedule(otherRan::countDown, 50);
+        timer.cancel();
+        Assert.assertEquals(0, timer.pending());
+        try {
+            timer.schedule(ran::incrementAndGet, 0);
+            Assert.fail();
+        }
+        catch (IllegalStateException e) { }
+        // only this handle's tasks: the wheel is shared
+        Assert.assertTrue(otherRan.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(0, ran.get());
+    }
+
+    @Test
+    public void refusedHandOffIsRetriedWithoutHoldingUpOtherTimers() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        // a receiver whose queue stays full for its first 10 attempts
+        final ArrayBlockingQueue<Integer> queue = new ArrayBlockingQueue<>(1);
+        queue.add(0);
+        final AtomicInteger attempts = new AtomicInteger();
+        timer.scheduleHandOff(() -> {
+            if (attempts.incrementAndGet() == 10) queue.clear();
+            return queue.offer(1);
+        }, 0);
+        // meanwhile another component's timer runs on time
+        final CountDownLatch other = new CountDownLatch(1);
+        timer.schedule(other::countDown, 20);
+        Assert.assertTrue(other.await(10, TimeUnit.SECONDS));
+        while (attempts.get() < 10) Thread.sleep(10);
+        Assert.assertEquals(Integer.valueOf(1), queue.poll(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, attempts.get());
+        Assert.assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void cancelStopsRetries() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        final AtomicInteger attempts = new AtomicInteger();
+        final WheelTimer.Task task = timer.scheduleHandOff(() -> attempts.incrementAndGet() < 0, 0);
+        final AtomicInteger allAttempts = new AtomicInteger();
+        timer.scheduleHandOff(() -> allAttempts.incrementAndGet() < 0, 0);
+        while (attempts.get() < 3 || allAttempts.get() < 3) Thread.sleep(10);
+        Assert.assertEquals(2, timer.pending()); // still pending while retried
+        Assert.assertTrue(task.cancel());
+        Assert.assertEquals(1, timer.pending());
+        timer.cancel();
+        Assert.assertEquals(0, timer.pending());
+        final int after = attempts.get(), allAfter = allAttempts.get();
+        Thread.sleep(20 * WheelTimer.TICK_MSECS);
+        // at most one already under way when cancelled
+        Assert.assertTrue(attempts.get() <= after + 1);
+        Assert.assertTrue(allAttempts.get() <= allAfter + 1);
+        Assert.assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void manyPendingDoNotHoldUpTasksDue() throws InterruptedException {
+        final WheelTimer timer = new WheelTimer();
+        final int N = 100000;
+        final AtomicInteger ran = new AtomicInteger();
+        final List<WheelTimer.Task> tasks = new ArrayList<>(N);
+        for (int i = 0; i < N; ++i) tasks.add(timer.schedule(ran::incrementAndGet, HOUR + i));
+        Assert.assertEquals(N, timer.pending());
+        for (int i = 0; i < N; i += 2) Assert.assertTrue(tasks.get(i).cancel());
+        Assert.assertEquals(N / 2, timer.pending());
+
+        final CountDownLatch due = new CountDownLatch(1);
+        timer.schedule(due::countDown, 50);
+        Assert.assertTrue(due.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(N / 2, timer.pending());
+        timer.cancel();
+        Assert.assertEquals(0, timer.pending());
+        Assert.assertEquals(0, ran.get());
+    }
+}
@@ -0,0 +1,151 @@
+package com.cisco.qte.jdtn.ltp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class IntervalSetTest {
+
+    static final int LENGTH = 4096;
+
+    /**
+     * check the set against the bitmap of the same adds, over all of it and a window of it
+     */
+    static void agree(IntervalSet set, BitSet bits, int lower, int upper) {
+        Assert.assertEquals(bits.cardinality(), set.getCoveredLength());
+        Assert.assertEquals(bits.length(), set.getEnd());
+        Assert.assertEquals(bits.isEmpty(), set.isEmpty());
+        Assert.assertEquals(!bits.isEmpty() && bits.nextClearBit(0) == bits.length(), set.isPrefix());
+
+        // disjoint, non-adjacent, in order, and exactly the runs of set bits
+        int runs = 0;
+        long previousEnd = -1;
+        for (IntervalSet.Interval interval : set) {
+            Assert.assertTrue(interval.start > previousEnd);
+            Assert.assertEquals(interval.start, bits.nextSetBit((int) Math.max(0, previousEnd)));
+            Assert.assertEquals(interval.end, bits.nextClearBit((int) interval.start));
+            previousEnd = interval.end;
+            ++runs;
+        }
+        Assert.assertEquals(runs, set.getIntervalCount());
+
+        // claims are the set bits of [lower, upper), relative to lower
+        final BitSet claimed = new BitSet();
+        long previous = -1;
+        for (ReceptionClaim claim : set.claims(lower, upper)) {
+            Assert.assertTrue(claim.getLength() > 0);
+            Assert.assertTrue(claim.getOffset() > previous);
+            previous = claim.getOffset() + claim.getLength();
+            claimed.set(lower + (int) claim.getOffset(), lower + (int) previous);
+        }
+        Assert.assertEquals(bits.get(lower, upper), claimed.get(lower, upper));
+        Assert.assertTrue(claimed.isEmpty() || claimed.nextSetBit(0) >= lower);
+        Assert.assertTrue(claimed.length() <= upper);
+
+        // gaps are the clear bits of [lower, upper)
+        final BitSet gap = new BitSet();
+        previous = lower - 1;
+        for (IntervalSet.Interval interval : set.gaps(lower, upper)) {
+            Assert.assertTrue(interval.start > previous);
+            Assert.assertTrue(interval.start >= lower && interval.end <= upper);
+            gap.set((int) interval.start, (int) interval.end);
+            previous = interval.end;
+        }
+        final BitSet expected = bits.get(0, upper);
+        expected.flip(lower, upper);
+        expected.clear(0, lower);
+        Assert.assertEquals(expected, gap);
+
+        for (int i = 0; i < 16; ++i) {
+            final int start = lower + (i * 37) % Math.max(1, upper - lower);
+            final int end = Math.min(upper, start + i * 13);
+            Assert.assertEquals(bits.get(start, end).cardinality() == end - start, set.covers(start, end));
+        }
+    }
+
+    static long add(IntervalSet set, BitSet bits, int start, int end) {
+        final int before = bits.cardinality();
+        if (end > start) bits.set(start, end);
+        final long added = set.add(start, end);
+        Assert.assertEquals(bits.cardinality() - before, added);
+        return added;
+    }
+
+    @Test
+    public void overlappingAdjacentAndOutOfOrder() {
+        final IntervalSet set = new IntervalSet();
+        final BitSet bits = new BitSet();
+        add(set, bits, 100, 200);
+        add(set, bits, 300, 400);
+        Assert.assertEquals(2, set.getIntervalCount());
+        add(set, bits, 200, 300); // abuts both: one interval
+        Assert.assertEquals(1, set.getIntervalCount());
+        Assert.assertEquals(0, add(set, bits, 150, 350)); // already covered
+        Assert.assertEquals(0, add(set, bits, 50, 50)); // empty
+        add(set, bits, 0, 100); // before, abutting
+        Assert.assertTrue(set.isPrefix());
+        add(set, bits, 600, 700);
+        add(set, bits, 500, 550);
+        add(set, bits, 450, 800); // swallows two
+        Assert.assertEquals(2, set.getIntervalCount());
+        agree(set, bits, 0, 1000);
+        agree(set, bits, 150, 520);
+        agree(set, bits, 420, 430); // inside a hole
+        agree(set, bits, 460, 470); // inside an interval
+        Assert.assertTrue(set.claims(10, 10).isEmpty());
+        Assert.assertTrue(set.gaps(10, 10).isEmpty());
+        set.clear();
+        bits.clear();
+        agree(set, bits, 0, 100);
+    }
+
+    @Test
+    public void clippedToTheBounds() {
+        final IntervalSet set = new IntervalSet();
+        set.add(0, 100);
+        set.add(200, 300);
+        set.add(400, 500);
+        final List<ReceptionClaim> claims = set.claims(50, 450);
+        Assert.assertEquals(3, claims.size());
+        Assert.assertEquals(0, claims.get(0).getOffset());
+        Assert.assertEquals(50, claims.get(0).getLength());
+        Assert.assertEquals(150, claims.get(1).getOffset());
+        Assert.assertEquals(100, claims.get(1).getLength());
+        Assert.assertEquals(350, claims.get(2).getOffset());
+        Assert.assertEquals(50, claims.get(2).getLength());
+        final List<IntervalSet.Interval> gaps = set.gaps(50, 450);
+        Assert.assertEquals(2, gaps.size());
+        Assert.assertEquals(100, gaps.get(0).start);
+        Assert.assertEquals(200, gaps.get(0).end);
+        Assert.assertEquals(300, gaps.get(1).start);
+        Assert.assertEquals(400, gaps.get(1).end);
+        // a window past the end is one gap
+        final List<IntervalSet.Interval> past = set.gaps(600, 700);
+        Assert.assertEquals(1, past.size());
+        Assert.assertEquals(600, past.get(0).start);
+        Assert.assertEquals(700, past.get(0).end);
+        Assert.assertTrue(set.claims(600, 700).isEmpty());
+    }
+
+    @Test
+    public void randomAddsAgreeWithBitmap() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; ++round) {
+            final IntervalSet set = new IntervalSet();
+            final BitSet bits = new BitSet();
+            final int adds = 1 + random.nextInt(64);
+            for (int i = 0; i < adds; ++i) {
+                final int start = random.nextInt(LENGTH);
+                final int end = start + random.nextInt(Math.min(256, LENGTH - start) + 1);
+                add(set, bits, start, end);
+            }
+            final int lower = random.nextInt(LENGTH);
+            final int upper = lower + random.nextInt(LENGTH - lower + 1);
+            agree(set, bits, lower, upper);
+            agree(set, bits, 0, LENGTH);
+        }
+    }
+}
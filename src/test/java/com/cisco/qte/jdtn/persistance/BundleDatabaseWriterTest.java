@@ -0,0 +1,194 @@
+package com.cisco.qte.jdtn.persistance;
+
+import com.cisco.qte.jdtn.general.JDtnException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BundleDatabaseWriterTest {
+
+    static final String UPDATE = "UPDATE Bundles SET state=? WHERE id=?";
+    static final String BAD = "bad";
+
+    /**
+     * A database whose commit costs a fixed time, as a log flush would, and
+     * whose batches fail if any update in them binds BAD.  Rows become
+     * visible only once committed.
+     */
+    static final class StubDatabase implements DBInterface {
+        final long commitMicros;
+        final Set<Object> committed = ConcurrentHashMap.newKeySet();
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong rollbacks = new AtomicLong();
+        final AtomicInteger largestGroup = new AtomicInteger();
+
+        StubDatabase(long commitMicros) {
+            this.commitMicros = commitMicros;
+        }
+
+        @Override
+        public Connection createConnection() {
+            final List<Object> pending = new ArrayList<>();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "prepareStatement":
+                        return statement(pending);
+                    case "commit":
+                        sleepMicros(commitMicros);
+                        largestGroup.accumulateAndGet(pending.size(), Math::max);
+                        committed.addAll(pending);
+                        pending.clear();
+                        commits.incrementAndGet();
+                        return null;
+                    case "rollback":
+                        pending.clear();
+                        rollbacks.incrementAndGet();
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        PreparedStatement statement(final List<Object> pending) {
+            final List<Object> batch = new ArrayList<>();
+            final Object[] row = new Object[2];
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setObject":
+                        row[(Integer) args[0] - 1] = args[1];
+                        return null;
+                    case "addBatch":
+                        batch.add(row[1]);
+                        if (BAD.equals(row[0])) batch.add(BAD);
+                        return null;
+                    case "executeBatch":
+                        if (batch.contains(BAD)) throw new SQLException("constraint violated");
+                        pending.addAll(batch);
+                        final int[] counts = new int[batch.size()];
+                        batch.clear();
+                        return counts;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        static void sleepMicros(long micros) {
+            final long end = System.nanoTime() + micros * 1000l;
+            while (System.nanoTime() < end) Thread.yield();
+        }
+
+        @Override public void openDB(boolean startClean) { }
+        @Override public void closeDB() { }
+        @Override public void executeInsert(Connection connection, String stmt) { }
+        @Override public void executeDelete(Connection connection, String stmt) { }
+        @Override public void executeUpdate(Connection connection, String stmt) { }
+        @Override public QueryResults executeQuery(Connection connection, String stmt) { return null; }
+        @Override public void clear(Connection connection) { }
+    }
+
+    /**
+     * threads each making n updates, none of which may fail
+     */
+    static void transitions(BundleDatabaseWriter writer, int threads, int n) throws InterruptedException {
+        final AtomicLong failed = new AtomicLong();
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final int base = t * n;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < n; ++i) writer.execute(UPDATE, "forwarded", base + i);
+                }
+                catch (JDtnException | InterruptedException e) {
+                    failed.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        Assert.assertEquals(0l, failed.get());
+    }
+
+    @Test
+    public void groupCommitCutsCommitsPerUpdate() throws InterruptedException {
+        final int THREADS = 32, N = 200;
+        final long COMMIT_MICROS = 500;
+        final double[] updatesPerCommit = new double[2];
+        final long[] windows = { 0l, 5l };
+        for (int w = 0; w < windows.length; ++w) {
+            final StubDatabase db = new StubDatabase(COMMIT_MICROS);
+            final BundleDatabaseWriter writer = new BundleDatabaseWriter(db, windows[w]);
+            writer.start();
+            try {
+                transitions(writer, THREADS, N);
+            }
+            finally {
+                writer.stop();
+            }
+            Assert.assertEquals(THREADS * N, writer.nUpdates);
+            Assert.assertEquals(THREADS * N, db.committed.size());
+            Assert.assertEquals(writer.nCommits, db.commits.get());
+            Assert.assertTrue(db.largestGroup.get() <= BundleDatabaseWriter.MAX_GROUP);
+            updatesPerCommit[w] = (double) writer.nUpdates / writer.nCommits;
+        }
+        // waiting callers pile up behind each commit, so even without a window a commit carries many
+        Assert.assertTrue(updatesPerCommit[0] > 1.0);
+        Assert.assertTrue(updatesPerCommit[1] > 1.0);
+    }
+
+    @Test
+    public void failedGroupIsRetriedSingly() throws InterruptedException {
+        final StubDatabase db = new StubDatabase(0);
+        final BundleDatabaseWriter writer = new BundleDatabaseWriter(db, 50);
+        writer.start();
+        final int THREADS = 16;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        final Thread[] workers = new Thread[THREADS];
+        try {
+            // all land in one window; one of them poisons the group
+            for (int t = 0; t < THREADS; ++t) {
+                final int id = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        writer.execute(UPDATE, id == 7 ? BAD : "forwarded", id);
+                    }
+                    catch (JDtnException | InterruptedException e) {
+                        failures.add(e);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+        }
+        finally {
+            writer.stop();
+        }
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof JDtnException);
+        Assert.assertTrue(db.rollbacks.get() >= 2); // the group, then the bad update alone
+        Assert.assertEquals(THREADS - 1, db.committed.size());
+        Assert.assertFalse(db.committed.contains(7));
+        Assert.assertFalse(db.committed.contains(BAD));
+        Assert.assertEquals(THREADS - 1, writer.nUpdates);
+    }
+
+    @Test(expected = JDtnException.class)
+    public void refusesOnceStopped() throws Exception {
+        final BundleDatabaseWriter writer = new BundleDatabaseWriter(new StubDatabase(0), 0);
+        writer.start();
+        writer.stop();
+        writer.execute(UPDATE, "forwarded", 1);
+    }
+}
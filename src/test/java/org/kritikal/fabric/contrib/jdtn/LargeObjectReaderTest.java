@@ -0,0 +1,101 @@
+package org.kritikal.fabric.contrib.jdtn;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class LargeObjectReaderTest {
+
+    static final int BLOCK = 16;
+
+    /**
+     * a reader whose large object is a byte array, counting reads of it and closes
+     */
+    public static final class ArrayReader extends LargeObjectReader {
+        final byte[] data;
+        public int reads = 0;
+        public int closes = 0;
+
+        public ArrayReader(byte[] data) {
+            super(null, BLOCK);
+            this.data = data;
+        }
+
+        @Override
+        protected int readAt(long position, byte[] dst, int offset, int length) {
+            ++reads;
+            final int n = (int) Math.max(0, Math.min(length, data.length - position));
+            System.arraycopy(data, (int) Math.min(position, data.length), dst, offset, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+            ++closes;
+            super.close();
+        }
+    }
+
+    public static byte[] data(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) data[i] = (byte) (i * 7 + 3);
+        return data;
+    }
+
+    @Test
+    public void singleBytesComeFromTheBlock() throws SQLException {
+        final byte[] data = data(5 * BLOCK + 3);
+        final ArrayReader reader = new ArrayReader(data);
+        for (int i = 0; i < data.length; ++i) Assert.assertEquals(data[i] & 0xff, reader.read(i));
+        Assert.assertEquals(6, reader.reads);
+        Assert.assertEquals(-1, reader.read(data.length));
+        // backwards, out of the block: seeks and refills
+        Assert.assertEquals(data[1] & 0xff, reader.read(1));
+        Assert.assertEquals(data[2] & 0xff, reader.read(2));
+        Assert.assertEquals(8, reader.reads);
+    }
+
+    @Test
+    public void readsAcrossBlockBoundaries() throws SQLException {
+        final byte[] data = data(10 * BLOCK);
+        final ArrayReader reader = new ArrayReader(data);
+        // every length and starting position up to a few blocks, each straddling the block in hand
+        for (int position = 0; position < 3 * BLOCK; ++position) {
+            for (int length = 1; length < 3 * BLOCK; ++length) {
+                reader.read(position + length / 2); // leave a block buffered somewhere inside
+                final byte[] dst = new byte[length + 2];
+                Assert.assertEquals(length, reader.read(position, dst, 1, length));
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + length), Arrays.copyOfRange(dst, 1, length + 1));
+            }
+        }
+        // short only at the end of the file
+        final byte[] dst = new byte[2 * BLOCK];
+        Assert.assertEquals(BLOCK, reader.read(9 * BLOCK, dst, 0, dst.length));
+        Assert.assertEquals(0, reader.read(10 * BLOCK, dst, 0, dst.length));
+    }
+
+    @Test
+    public void largeReadsBypassTheBlock() throws SQLException {
+        final byte[] data = data(10 * BLOCK);
+        final ArrayReader reader = new ArrayReader(data);
+        final byte[] dst = new byte[4 * BLOCK];
+        Assert.assertEquals(dst.length, reader.read(BLOCK, dst, 0, dst.length));
+        Assert.assertEquals(1, reader.reads);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, BLOCK, 5 * BLOCK), dst);
+    }
+
+    @Test
+    public void closeDropsTheBlock() throws SQLException {
+        final byte[] data = data(2 * BLOCK);
+        final ArrayReader reader = new ArrayReader(data);
+        reader.read(0);
+        reader.read(1);
+        Assert.assertEquals(1, reader.reads);
+        reader.close();
+        reader.close(); // again, or never opened, is harmless
+        Assert.assertEquals(data[1] & 0xff, reader.read(1));
+        Assert.assertEquals(2, reader.reads);
+    }
+}
@@ -0,0 +1,57 @@
+package org.kritikal.fabric.net;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferContainerTest {
+
+    @Test
+    public void readsAcrossAppendedBuffersAndRollsBack() throws Exception {
+        final BufferContainer bufferContainer = new BufferContainer();
+        bufferContainer.append(Buffer.buffer(new byte[] { 0x30, (byte) 0x85 }));
+        bufferContainer.append(Buffer.buffer(new byte[] { 0x01, 0x00 }));
+
+        bufferContainer.setRollbackMark();
+        Assert.assertEquals(0x30, bufferContainer.readByte());
+        Assert.assertEquals(133, bufferContainer.readRemainingLength());
+        try {
+            bufferContainer.readShort();
+            Assert.fail();
+        } catch (BufferContainer.NeedMoreDataException expected) {
+        }
+        bufferContainer.rollbackToMark();
+        Assert.assertEquals(0x30, bufferContainer.peekFirstByte());
+
+        bufferContainer.append(Buffer.buffer(new byte[] { 0x05, 'h', 'e', 'l', 'l', 'o' }));
+        bufferContainer.setRollbackMark();
+        bufferContainer.readByte();
+        bufferContainer.readRemainingLength();
+        Assert.assertEquals(5, bufferContainer.readShort());
+        Assert.assertEquals("hello", bufferContainer.readUtf8(5));
+        bufferContainer.moveRollbackMark();
+        bufferContainer.rollbackToMark();
+        Assert.assertTrue(bufferContainer.isEmpty());
+    }
+
+    @Test
+    public void sliceIsAViewOfTheInput() throws Exception {
+        final BufferContainer bufferContainer = new BufferContainer();
+        final Buffer first = Buffer.buffer(new byte[] { 1, 2, 3 });
+        bufferContainer.append(first);
+        bufferContainer.append(Buffer.buffer(new byte[] { 4, 5, 6 }));
+
+        bufferContainer.readByte();
+        final ByteBuf slice = bufferContainer.readSlice(4);
+        try {
+            Assert.assertEquals(4, slice.readableBytes());
+            Assert.assertEquals(2, slice.getByte(0));
+            Assert.assertEquals(5, slice.getByte(3));
+        } finally {
+            slice.release();
+        }
+        Assert.assertArrayEquals(new byte[] { 6 }, bufferContainer.readBytes(1));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, first.getBytes());
+    }
+}
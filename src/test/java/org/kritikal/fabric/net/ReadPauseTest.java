@@ -0,0 +1,42 @@
+package org.kritikal.fabric.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadPauseTest {
+
+    boolean paused = false;
+    int resumes = 0;
+
+    final ReadPause readPause = new ReadPause(() -> paused = true, () -> { paused = false; ++resumes; });
+
+    @Test
+    public void drainedWriteQueueLeavesOwnerPause() {
+        // the broker pushes back, then the write queue fills
+        readPause.pause(ReadPause.OWNER);
+        readPause.pause(ReadPause.WRITE_QUEUE);
+        Assert.assertTrue(paused);
+        readPause.resume(ReadPause.WRITE_QUEUE);
+        Assert.assertTrue(paused);
+        Assert.assertEquals(0, resumes);
+        readPause.resume(ReadPause.OWNER);
+        Assert.assertFalse(paused);
+        Assert.assertEquals(1, resumes);
+    }
+
+    @Test
+    public void ownerResumeLeavesWriteQueuePause() {
+        readPause.pause(ReadPause.WRITE_QUEUE);
+        readPause.pause(ReadPause.OWNER);
+        readPause.resume(ReadPause.OWNER);
+        Assert.assertTrue(paused);
+        // a drain handler called again, or a resume not paused for, changes nothing
+        readPause.resume(ReadPause.OWNER);
+        Assert.assertTrue(paused);
+        readPause.resume(ReadPause.WRITE_QUEUE);
+        Assert.assertFalse(paused);
+        readPause.resume(ReadPause.WRITE_QUEUE);
+        Assert.assertEquals(1, resumes);
+        Assert.assertFalse(readPause.paused());
+    }
+}
@@ -0,0 +1,75 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientIdIndexTest {
+
+    static final class Connection {
+        final String clientID;
+        volatile boolean closed = false;
+        Connection(String clientID) { this.clientID = clientID; }
+    }
+
+    static final int THREADS = 8;
+
+    // connect every client, then have every client reconnect while the
+    // connections it replaced disconnect, as after a load balancer failover
+    static void storm(ClientIdIndex<Connection> index, int clients) throws InterruptedException {
+        final Connection[] first = new Connection[clients];
+        for (int i = 0; i < clients; ++i) {
+            first[i] = new Connection("client" + i);
+            Assert.assertNull(index.takeover(first[i].clientID, first[i]));
+        }
+        final AtomicInteger tookOver = new AtomicInteger();
+        final AtomicInteger removedSuccessor = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; ++t) {
+            final int from = t;
+            pool.execute(() -> {
+                for (int i = from; i < clients; i += THREADS) {
+                    final Connection current = new Connection("client" + i);
+                    final Connection previous = index.takeover(current.clientID, current);
+                    if (previous != null) {
+                        previous.closed = true;
+                        tookOver.incrementAndGet();
+                        // the displaced connection's close handler runs afterwards
+                        if (index.remove(previous.clientID, previous)) removedSuccessor.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+        Assert.assertEquals(clients, tookOver.get());
+        Assert.assertEquals(0, removedSuccessor.get());
+        Assert.assertEquals(clients, index.size());
+        for (int i = 0; i < clients; ++i) {
+            Assert.assertTrue(first[i].closed);
+            Assert.assertNotSame(first[i], index.get(first[i].clientID));
+        }
+    }
+
+    @Test
+    public void reconnectStorm() throws InterruptedException {
+        storm(new ClientIdIndex<>(), 100000);
+    }
+
+    @Test
+    public void disconnectOnlyRemovesTheHolder() {
+        final ClientIdIndex<Connection> index = new ClientIdIndex<>();
+        final Connection a = new Connection("c"), b = new Connection("c");
+        Assert.assertNull(index.takeover("c", a));
+        Assert.assertSame(a, index.takeover("c", b));
+        Assert.assertFalse(index.remove("c", a));
+        Assert.assertSame(b, index.get("c"));
+        Assert.assertTrue(index.remove("c", b));
+        Assert.assertNull(index.get("c"));
+        Assert.assertEquals(0, index.size());
+    }
+}
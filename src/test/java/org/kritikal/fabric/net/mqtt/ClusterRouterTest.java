@@ -0,0 +1,180 @@
+package org.kritikal.fabric.net.mqtt;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishBatch;
+import org.kritikal.fabric.net.mqtt.entities.PublishBatchStreamSerializer;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessageStreamSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClusterRouterTest {
+
+    final List<HazelcastInstance> instances = new ArrayList<>();
+    final List<ClusterRouter> routers = new ArrayList<>();
+    final List<AtomicInteger> delivered = new ArrayList<>();
+
+    void cluster(int members) {
+        final String group = UUID.randomUUID().toString();
+        for (int i = 0; i < members; ++i) {
+            final Config config = new Config();
+            config.getGroupConfig().setName(group);
+            config.setProperty("hazelcast.logging.type", "none");
+            config.setProperty("hazelcast.wait.seconds.before.join", "0");
+            config.getSerializationConfig().addSerializerConfig(new SerializerConfig().setTypeClass(PublishMessage.class).setClass(PublishMessageStreamSerializer.class));
+            config.getSerializationConfig().addSerializerConfig(new SerializerConfig().setTypeClass(PublishBatch.class).setClass(PublishBatchStreamSerializer.class));
+            config.getNetworkConfig().setPort(5901).setPortAutoIncrement(true);
+            final JoinConfig join = config.getNetworkConfig().getJoin();
+            join.getMulticastConfig().setEnabled(false);
+            join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+            config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+            instances.add(Hazelcast.newHazelcastInstance(config));
+        }
+    }
+
+    void routers(long batchMicros, int batchBytes) {
+        routers.clear();
+        delivered.clear();
+        for (HazelcastInstance instance : instances) {
+            final AtomicInteger n = new AtomicInteger();
+            delivered.add(n);
+            routers.add(new ClusterRouter(instance, batchMicros, batchBytes, m -> n.incrementAndGet()));
+        }
+    }
+
+    @After
+    public void shutdown() {
+        for (HazelcastInstance instance : instances) instance.shutdown();
+    }
+
+    static PublishMessage publish(String topic) {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName(topic);
+        message.setQos(AbstractMessage.QOSType.MOST_ONE);
+        message.setRetainFlag(false);
+        message.setPayload(ByteBuffer.wrap(topic.getBytes()));
+        return message;
+    }
+
+    static void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.getAsBoolean(); ++i) Thread.sleep(50);
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void publishesReachOnlyInterestedMembers() throws InterruptedException {
+        final int MEMBERS = 4, N = 1000;
+        cluster(MEMBERS);
+        routers(0l, 0);
+        final ClusterRouter publisher = routers.get(0);
+        final MqttTopic topic = new MqttTopic("|a/x");
+        routers.get(1).subscribe(new MqttTopic("|a/#"));
+        routers.get(1).subscribe(new MqttTopic("|a/+")); // both match, still sent once
+        routers.get(2).subscribe(new MqttTopic("|b/#"));
+        await(() -> publisher.interested(topic).size() == 1 && publisher.interested(new MqttTopic("|b/y")).size() == 1);
+
+        for (int i = 0; i < N; ++i) Assert.assertEquals(1, publisher.publish(publish(topic.topic)));
+        await(() -> delivered.get(1).get() == N);
+        Assert.assertEquals(N, publisher.sent());
+        Assert.assertEquals(0, delivered.get(2).get());
+        Assert.assertEquals(0, delivered.get(3).get());
+
+        // no subscriber anywhere, nothing leaves the member
+        Assert.assertEquals(0, publisher.publish(publish("|c/z")));
+
+        // interest goes with the last subscriber, or with the member
+        routers.get(1).unsubscribe(new MqttTopic("|a/#"));
+        Thread.sleep(200);
+        Assert.assertEquals(1, publisher.interested(topic).size());
+        routers.get(1).unsubscribe(new MqttTopic("|a/+"));
+        await(() -> publisher.interested(topic).isEmpty());
+        instances.get(2).shutdown();
+        await(() -> publisher.interested(new MqttTopic("|b/y")).isEmpty());
+    }
+
+    void deliver(int n, byte[] payload) throws InterruptedException {
+        final ClusterRouter publisher = routers.get(0);
+        final MqttTopic topic = new MqttTopic("|t/x");
+        routers.get(1).subscribe(new MqttTopic("|t/#"));
+        await(() -> publisher.interested(topic).size() == 1);
+        for (int i = 0; i < n; ++i) {
+            final PublishMessage message = publish(topic.topic);
+            message.setPayload(ByteBuffer.wrap(payload));
+            publisher.publish(message);
+        }
+        publisher.flush();
+        for (int i = 0; i < 6000 && delivered.get(1).get() < n; ++i) Thread.sleep(5);
+        Assert.assertEquals(n, delivered.get(1).get());
+        Assert.assertEquals(n, routers.get(1).received());
+        routers.get(1).unsubscribe(new MqttTopic("|t/#"));
+        await(() -> publisher.interested(topic).isEmpty());
+    }
+
+    @Test
+    public void batchingCoalescesFramesPerMember() throws InterruptedException {
+        final int N = 10000;
+        final byte[] payload = new byte[64];
+        cluster(2);
+
+        routers(0l, 0);
+        deliver(N, payload);
+        Assert.assertEquals(N, routers.get(0).frames());
+
+        // earlier routers stay listening, but count into their own lists
+        routers(1000l, 64 * 1024);
+        deliver(N, payload);
+        Assert.assertTrue(routers.get(0).frames() < N / 10);
+    }
+
+    @Test
+    public void concurrentSubscribeAndUnsubscribeKeepInterest() throws InterruptedException {
+        final int THREADS = 8, N = 20000, FILTERS = 4;
+        cluster(1);
+        routers(0l, 0);
+        final ClusterRouter router = routers.get(0);
+        final String member = instances.get(0).getCluster().getLocalMember().getUuid();
+        final com.hazelcast.core.ReplicatedMap<String, String> interest = instances.get(0).getReplicatedMap("mqtt.interest");
+        final MqttTopic[] filters = new MqttTopic[FILTERS];
+        for (int f = 0; f < FILTERS; ++f) filters[f] = new MqttTopic("|race/" + f);
+
+        // every 1 to 0 races a 0 to 1, each thread ends holding one subscriber to every filter
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < N; ++i) {
+                    router.subscribe(filters[i % FILTERS]);
+                    router.unsubscribe(filters[i % FILTERS]);
+                }
+                for (MqttTopic filter : filters) router.subscribe(filter);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (MqttTopic filter : filters) Assert.assertTrue(filter.topic, interest.containsKey(member + " " + filter.topic));
+
+        for (int t = 0; t < THREADS; ++t) {
+            threads[t] = new Thread(() -> {
+                for (MqttTopic filter : filters) router.unsubscribe(filter);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (MqttTopic filter : filters) Assert.assertFalse(filter.topic, interest.containsKey(member + " " + filter.topic));
+        // one too many unsubscribes must not take back a later subscription
+        router.unsubscribe(filters[0]);
+        router.subscribe(filters[0]);
+        Assert.assertTrue(interest.containsKey(member + " " + filters[0].topic));
+    }
+}
@@ -0,0 +1,152 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class DispatchQueueTest {
+
+    static void awaitParked(DispatchQueue<?> q) throws InterruptedException {
+        while (q.thread().getState() != Thread.State.TIMED_WAITING) Thread.sleep(1);
+    }
+
+    @Test
+    public void handsOffInOrderAndWakesAfterParking() throws InterruptedException {
+        final int N = 2000;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(N);
+        final DispatchQueue<Integer> q = new DispatchQueue<>("test-dispatch", Thread.NORM_PRIORITY, i -> {
+            if (i != next.getAndIncrement()) outOfOrder.incrementAndGet();
+            done.countDown();
+        });
+        q.start();
+        try {
+            for (int i = 0; i < N; ++i) {
+                // every hundredth offer finds the dispatcher drained and parked
+                if (i % 100 == 0) {
+                    while (N - done.getCount() < i) Thread.sleep(1);
+                    awaitParked(q);
+                }
+                Assert.assertTrue(q.offer(i));
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            q.stop();
+        }
+        Assert.assertEquals(0, outOfOrder.get());
+        Assert.assertEquals(0, q.dropped());
+        Assert.assertEquals(0, q.depth());
+    }
+
+    @Test
+    public void idleDispatcherParks() throws InterruptedException {
+        final CountDownLatch handled = new CountDownLatch(2);
+        final DispatchQueue<Object> q = new DispatchQueue<>("test-idle", Thread.NORM_PRIORITY, o -> handled.countDown());
+        q.start();
+        try {
+            q.offer(new Object());
+            // spins, then yields, then parks rather than polling
+            awaitParked(q);
+            Assert.assertEquals(1, handled.getCount());
+            q.offer(new Object());
+            Assert.assertTrue(handled.await(10, TimeUnit.SECONDS));
+            awaitParked(q);
+        } finally {
+            q.stop();
+        }
+    }
+
+    @Test
+    public void boundedQueueDropsWhatItCannotHold() throws InterruptedException {
+        final int CAPACITY = 1024, N = 20000;
+        final AtomicLong handled = new AtomicLong();
+        final DispatchQueue<Integer> q = new DispatchQueue<>("test-storm", Thread.NORM_PRIORITY, CAPACITY, i -> {
+            handled.incrementAndGet();
+            LockSupport.parkNanos(1000); // a consumer slower than the producer
+        });
+        q.start();
+        long offered = 0;
+        try {
+            for (int i = 0; i < N; ++i) {
+                if (q.offer(i)) ++offered;
+                Assert.assertTrue(q.depth() <= CAPACITY);
+            }
+        } finally {
+            q.stop();
+        }
+        Assert.assertTrue(q.dropped() > 0);
+        Assert.assertEquals(N, offered + q.dropped());
+        Assert.assertTrue(q.maxDepth() <= CAPACITY);
+        // stopped, so what is left stays queued; nothing offered is lost
+        q.thread().join(10000);
+        Assert.assertEquals(offered, handled.get() + q.depth());
+    }
+
+    @Test
+    public void addQueuesPastCapacityWhereOfferRefuses() throws InterruptedException {
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(8);
+        final DispatchQueue<Integer> q = new DispatchQueue<>("test-dispatch", Thread.NORM_PRIORITY, 4, i -> {
+            handled.add(i);
+            done.countDown();
+        });
+        // not started, so nothing drains
+        for (int i = 0; i < 4; ++i) Assert.assertTrue(q.offer(i));
+        Assert.assertFalse(q.offer(-1));
+        for (int i = 4; i < 8; ++i) q.add(i);
+        Assert.assertEquals(8, q.depth());
+        Assert.assertFalse(q.offer(-2));
+        Assert.assertEquals(2, q.dropped());
+        q.start();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        q.stop();
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), handled);
+    }
+
+    @Test
+    public void producerPausedAtHighWaterResumesAtLowWater() throws InterruptedException {
+        final int CAPACITY = 256, N = 50000;
+        final CountDownLatch done = new CountDownLatch(N);
+        final AtomicBoolean paused = new AtomicBoolean(false);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final DispatchQueue<Integer> q = new DispatchQueue<>("test-backpressure", Thread.NORM_PRIORITY, CAPACITY, i -> {
+            if (i != next.getAndIncrement()) outOfOrder.incrementAndGet();
+            LockSupport.parkNanos(1000);
+            done.countDown();
+        });
+        q.lowWaterHandler(() -> paused.set(false));
+        q.start();
+        int pauses = 0;
+        try {
+            for (int i = 0; i < N; ++i) {
+                while (paused.get()) LockSupport.parkNanos(10000);
+                Assert.assertTrue(q.offer(i));
+                if (q.nearCapacity()) {
+                    // as MqttBroker.enqueue: back off, then ask to be told when to resume
+                    paused.set(true);
+                    ++pauses;
+                    q.notifyAtLowWater();
+                }
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            q.stop();
+        }
+        Assert.assertTrue(pauses > 0);
+        Assert.assertEquals(0, q.dropped());
+        Assert.assertEquals(0, outOfOrder.get());
+        Assert.assertTrue(q.maxDepth() <= CAPACITY);
+    }
+}
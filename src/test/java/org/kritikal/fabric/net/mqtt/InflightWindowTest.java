@@ -0,0 +1,127 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+public class InflightWindowTest {
+
+    final static byte[] PAYLOAD = new byte[] { 1, 2, 3 };
+
+    // first byte and packet id of each frame written, frames released
+    static final class Frames {
+        final List<Integer> byte1 = new ArrayList<>();
+        final List<Integer> ids = new ArrayList<>();
+
+        synchronized void write(ByteBuf frame) {
+            try {
+                final int b1 = frame.getUnsignedByte(0);
+                byte1.add(b1);
+                if ((b1 >> 4) == AbstractMessage.PUBREL) {
+                    ids.add(frame.getUnsignedShort(2));
+                } else {
+                    // "a/b" topic after a one byte remaining length
+                    ids.add(frame.getUnsignedShort(2 + 2 + 3));
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        synchronized int size() { return ids.size(); }
+    }
+
+    @Test
+    public void acksEveryIdWithThousandsUnacked() {
+        final int N = 60000;
+        final Frames frames = new Frames();
+        final InflightWindow window = new InflightWindow(65535, 0, 0, null, frames::write);
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b", PAYLOAD, false);
+        for (int i = 0; i < N; ++i) Assert.assertTrue(window.publish(encodedPublish, 1));
+        Assert.assertEquals(N, window.inflight());
+        Assert.assertEquals(N, new HashSet<>(frames.ids).size());
+        // ack newest first, the worst case for a list scanned from the front
+        for (int i = N - 1; i >= 0; --i) Assert.assertTrue(window.puback(frames.ids.get(i)));
+        Assert.assertEquals(0, window.inflight());
+        // each id is acked once only
+        Assert.assertFalse(window.puback(frames.ids.get(0)));
+        encodedPublish.release();
+        Assert.assertEquals(0, encodedPublish.refCnt());
+    }
+
+    @Test
+    public void idsStayUniqueAcrossWrapAround() {
+        final Frames frames = new Frames();
+        final InflightWindow window = new InflightWindow(16, 0, 0, null, frames::write);
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b", PAYLOAD, false);
+        // one message left unacked while the rest of the id space goes round twice
+        window.publish(encodedPublish, 1);
+        final int stuck = frames.ids.get(0);
+        for (int i = 0; i < 140000; ++i) {
+            window.publish(encodedPublish, 1);
+            final int id = frames.ids.get(frames.size() - 1);
+            Assert.assertNotEquals(0, id);
+            Assert.assertNotEquals(stuck, id);
+            Assert.assertTrue(window.puback(id));
+        }
+        Assert.assertEquals(1, window.inflight());
+        Assert.assertFalse(window.puback(0));
+        Assert.assertTrue(window.puback(stuck));
+        encodedPublish.release();
+    }
+
+    @Test
+    public void queuesBeyondReceiveMaximumAndDropsBeyondQueueLimit() {
+        final Frames frames = new Frames();
+        final InflightWindow window = new InflightWindow(4, 2, 0, null, frames::write);
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b", PAYLOAD, false);
+        for (int i = 0; i < 4; ++i) Assert.assertTrue(window.publish(encodedPublish, 2));
+        Assert.assertTrue(window.publish(encodedPublish, 1));
+        Assert.assertTrue(window.publish(encodedPublish, 1));
+        Assert.assertFalse(window.publish(encodedPublish, 1));
+        Assert.assertEquals(4, frames.size());
+        Assert.assertEquals(2, window.queued());
+        Assert.assertEquals(1, window.dropped());
+
+        // PUBREC frees nothing, the slot is held until PUBCOMP
+        final int first = frames.ids.get(0);
+        Assert.assertTrue(window.pubrec(first));
+        Assert.assertEquals(AbstractMessage.PUBREL, frames.byte1.get(4) >> 4);
+        Assert.assertEquals(4, window.inflight());
+        Assert.assertFalse(window.puback(first));
+        Assert.assertTrue(window.pubcomp(first));
+        Assert.assertEquals(4, window.inflight());
+        Assert.assertEquals(1, window.queued());
+        Assert.assertEquals(AbstractMessage.PUBLISH, frames.byte1.get(5) >> 4);
+
+        window.close();
+        Assert.assertFalse(window.publish(encodedPublish, 1));
+        encodedPublish.release();
+        Assert.assertEquals(0, encodedPublish.refCnt());
+    }
+
+    @Test
+    public void resendsWithDupUntilAcked() throws InterruptedException {
+        final Frames frames = new Frames();
+        final InflightWindow window = new InflightWindow(8, 0, 200, null, frames::write);
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b", PAYLOAD, false);
+        window.publish(encodedPublish, 1);
+        encodedPublish.release();
+        Thread.sleep(500); // resent at ~200ms, then backs off to ~600ms
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals(0, frames.byte1.get(0) & 0b1000);
+        Assert.assertEquals(0b1000, frames.byte1.get(1) & 0b1000);
+        Assert.assertEquals(frames.ids.get(0), frames.ids.get(1));
+        Assert.assertEquals(1, window.retransmitted());
+        Assert.assertTrue(window.puback(frames.ids.get(0)));
+        Assert.assertEquals(0, encodedPublish.refCnt());
+        Thread.sleep(700);
+        Assert.assertEquals(2, frames.size());
+    }
+}
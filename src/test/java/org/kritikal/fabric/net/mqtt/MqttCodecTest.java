@@ -0,0 +1,99 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
+import org.kritikal.fabric.net.mqtt.entities.*;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+public class MqttCodecTest {
+
+    ResourceLeakDetector.Level level;
+
+    @Before
+    public void saveLevel() {
+        level = ResourceLeakDetector.getLevel();
+    }
+
+    @After
+    public void restoreLevel() {
+        ResourceLeakDetector.setLevel(level);
+    }
+
+    static ConnAckMessage connack() {
+        final ConnAckMessage message = new ConnAckMessage();
+        message.setReturnCode((byte) 0);
+        return message;
+    }
+
+    static PublishMessage publish() {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName("sensors/building-1/floor-3/temperature");
+        message.setPayload(ByteBuffer.wrap(new byte[512]));
+        message.setQos(AbstractMessage.QOSType.LEAST_ONE);
+        message.setMessageID(1234);
+        return message;
+    }
+
+    static PubAckMessage puback() {
+        final PubAckMessage message = new PubAckMessage();
+        message.setMessageID(1234);
+        return message;
+    }
+
+    static SubAckMessage suback() {
+        final SubAckMessage message = new SubAckMessage();
+        message.setMessageID(1234);
+        message.addType(AbstractMessage.QOSType.LEAST_ONE);
+        message.addType(AbstractMessage.QOSType.EXACTLY_ONCE);
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    static final Supplier<AbstractMessage>[] MESSAGES = new Supplier[] {
+            MqttCodecTest::connack, MqttCodecTest::publish, MqttCodecTest::puback, MqttCodecTest::suback
+    };
+
+    static long activeDirectAllocations(PooledByteBufAllocator allocator) {
+        long active = 0;
+        for (PoolArenaMetric arena : allocator.directArenas())
+            active += arena.numActiveAllocations();
+        return active;
+    }
+
+    @Test
+    public void pooledDirectMatchesHeapEncodingAndDoesNotLeak() {
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        // no thread caches so that every release shows up in the arena metrics
+        final PooledByteBufAllocator allocator = new PooledByteBufAllocator(true, 1, 1, 8192, 11, 0, 0, 0);
+
+        for (Supplier<AbstractMessage> supplier : MESSAGES) {
+            final AbstractMessage message = supplier.get();
+            final ByteBuf byteBuf = MqttCodec.encode(message, allocator);
+            try {
+                Assert.assertTrue(byteBuf.isDirect());
+                Assert.assertArrayEquals(MqttCodec.encode(message).getBytes(), ByteBufUtil.getBytes(byteBuf));
+            } finally {
+                byteBuf.release();
+            }
+        }
+
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b", new byte[4096], false, allocator);
+        final ByteBuf frame1 = encodedPublish.frame(1, 1, false);
+        final ByteBuf frame2 = encodedPublish.frame(0, 0, false);
+        encodedPublish.release();
+        frame1.release();
+        frame2.release();
+
+        Assert.assertEquals(0, activeDirectAllocations(allocator));
+    }
+}
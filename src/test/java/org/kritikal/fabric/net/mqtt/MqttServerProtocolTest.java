@@ -0,0 +1,134 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Timeout;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.logging.LoggerFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.net.ISocket;
+import org.kritikal.fabric.net.mqtt.entities.ConnectMessage;
+import org.kritikal.fabric.net.mqtt.entities.PingReqMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class MqttServerProtocolTest {
+
+    static final class TestSocket implements ISocket {
+        volatile boolean closed = false;
+        volatile boolean paused = false;
+        Handler<Void> closeHandler;
+        @Override public void closeHandler(Handler<Void> handler) { closeHandler = handler; }
+        @Override public void close() {
+            if (closed) return;
+            closed = true;
+            closeHandler.handle(null);
+        }
+        @Override public void write(Buffer buffer) { }
+        @Override public void write(ByteBuf byteBuf) { byteBuf.release(); }
+        @Override public void dataHandler(Handler<Buffer> handler) { }
+        @Override public void pause() { paused = true; }
+        @Override public void resume() { paused = false; }
+        @Override public boolean writeQueueFull() { return false; }
+        @Override public long outboundBytes() { return 0l; }
+        @Override public int outboundMessages() { return 0; }
+    }
+
+    static final class TestCallback implements IMqttServerCallback {
+        @Override public void connected(MqttServerProtocol protocol, ConnectMessage connectMessage) { }
+        @Override public void postConnAck(MqttServerProtocol protocol, ConnectMessage connectMessage) { }
+        @Override public void messageArrived(MqttServerProtocol protocol, PublishMessage publishMessage) { }
+        @Override public boolean authorize(String username, byte[] password) { return true; }
+        @Override public byte subscribe(MqttServerProtocol protocol, MqttSubscription subscription) { return 0; }
+        @Override public void publishRetained(MqttServerProtocol protocol, ConcurrentLinkedQueue<MqttSubscription> newSubscriptions) { }
+        @Override public void unsubscribe(MqttServerProtocol protocol, String topic) { }
+        @Override public void disconnected(MqttServerProtocol protocol) { }
+    }
+
+    static Buffer connect(String clientID, int keepAliveSeconds) {
+        final ConnectMessage message = new ConnectMessage();
+        message.setProtocolName("MQTT");
+        message.setProtocolVersion((byte) 4);
+        message.setClientID(clientID);
+        message.setCleanSession(true);
+        message.setKeepAlive(keepAliveSeconds);
+        return MqttCodec.encode(message);
+    }
+
+    static MqttServerProtocol connected(TestSocket socket, String clientID, int keepAliveSeconds) {
+        final MqttServerProtocol protocol = new MqttServerProtocol(LoggerFactory.getLogger(MqttServerProtocolTest.class), null, new TestCallback(), socket);
+        protocol.handle(connect(clientID, keepAliveSeconds));
+        Assert.assertEquals(MqttServerProtocol.TopLevelState.EXPECT_MESSAGE, protocol.topLevelState);
+        return protocol;
+    }
+
+    @Test
+    public void keepaliveSchedulesOncePerConnectionNotPerPacket() {
+        final int CONNECTIONS = 1000, PACKETS = 100;
+        final Buffer ping = MqttCodec.encode(new PingReqMessage());
+        final List<TestSocket> sockets = new ArrayList<>();
+        final List<MqttServerProtocol> protocols = new ArrayList<>();
+        final List<Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; ++i) {
+            final TestSocket socket = new TestSocket();
+            sockets.add(socket);
+            final MqttServerProtocol protocol = connected(socket, "client" + i, 60);
+            protocols.add(protocol);
+            Assert.assertNotNull(protocol.keepaliveTimeout);
+            timeouts.add(protocol.keepaliveTimeout);
+        }
+        for (int p = 0; p < PACKETS; ++p) {
+            for (MqttServerProtocol protocol : protocols) protocol.handle(ping);
+        }
+        // still the timeout scheduled on connect: packets only note the time
+        for (int i = 0; i < CONNECTIONS; ++i) Assert.assertSame(timeouts.get(i), protocols.get(i).keepaliveTimeout);
+        for (TestSocket socket : sockets) socket.close();
+    }
+
+    @Test
+    public void idleConnectionClosedActiveConnectionKept() throws InterruptedException {
+        final TestSocket idle = new TestSocket();
+        final TestSocket active = new TestSocket();
+        connected(idle, "idle", 1); // 1.5s grace, as before
+        final MqttServerProtocol protocol = connected(active, "active", 1);
+        final Buffer ping = MqttCodec.encode(new PingReqMessage());
+        for (int i = 0; i < 8; ++i) {
+            Thread.sleep(300);
+            protocol.handle(ping);
+        }
+        Assert.assertTrue(idle.closed);
+        Assert.assertFalse(active.closed);
+        Thread.sleep(2000);
+        Assert.assertTrue(active.closed);
+    }
+
+    @Test
+    public void readingResumesOnlyOnceEveryReasonIsGone() {
+        final TestSocket socket = new TestSocket();
+        final MqttServerProtocol protocol = connected(socket, "paused", 60);
+        // publishes held back by the rate limits, then the ingress queue fills
+        protocol.pauseReading(MqttServerProtocol.PAUSED_RATE);
+        protocol.pauseReading(MqttServerProtocol.PAUSED_INGRESS);
+        Assert.assertTrue(socket.paused);
+        // the ingress queue drains: the held back publishes still keep it paused
+        protocol.resumeReading(MqttServerProtocol.PAUSED_INGRESS);
+        Assert.assertTrue(socket.paused);
+        protocol.resumeReading(MqttServerProtocol.PAUSED_INGRESS);
+        Assert.assertTrue(socket.paused);
+        protocol.resumeReading(MqttServerProtocol.PAUSED_RATE);
+        Assert.assertFalse(socket.paused);
+
+        // and the other way round
+        protocol.pauseReading(MqttServerProtocol.PAUSED_INGRESS);
+        protocol.pauseReading(MqttServerProtocol.PAUSED_RATE);
+        protocol.resumeReading(MqttServerProtocol.PAUSED_RATE);
+        Assert.assertTrue(socket.paused);
+        protocol.resumeReading(MqttServerProtocol.PAUSED_INGRESS);
+        Assert.assertFalse(socket.paused);
+        socket.close();
+    }
+}
@@ -0,0 +1,56 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class MqttSubscriptionIndexTest {
+
+    final static String[] FILTERS = {
+            "a", "a/b", "a/+", "a/#", "+/b", "#", "a/b/c", "a/+/c", "a/#/c", "+/+/+", "b/#", "|g/x/#"
+    };
+
+    final static String[] TOPICS = {
+            "a", "a/b", "a/c", "a/b/c", "a/x/y/c", "b", "b/b", "x/y/z", "|g/x/1", "a/b/c/d"
+    };
+
+    @Test
+    public void agreesWithSubscriptionMatches() {
+        final MqttSubscriptionIndex<String> index = new MqttSubscriptionIndex<>();
+        for (String filter : FILTERS) {
+            index.subscribe(filter, new MqttSubscription(filter, (byte) 1));
+        }
+        for (String topic : TOPICS) {
+            final MqttTopic mqttTopic = new MqttTopic(topic);
+            final Map<String, Byte> matched = index.matches(mqttTopic);
+            for (String filter : FILTERS) {
+                Assert.assertEquals(filter + " vs " + topic,
+                        new MqttSubscription(filter, (byte) 1).matches(mqttTopic),
+                        matched.containsKey(filter));
+            }
+        }
+    }
+
+    @Test
+    public void highestQosWinsAndUnsubscribePrunes() {
+        final MqttSubscriptionIndex<String> index = new MqttSubscriptionIndex<>();
+        index.subscribe("s1", new MqttSubscription("a/+", (byte) 0));
+        index.subscribe("s1", new MqttSubscription("a/#", (byte) 2));
+        index.subscribe("s2", new MqttSubscription("a/b", (byte) 1));
+
+        Map<String, Byte> matched = index.matches(new MqttTopic("a/b"));
+        Assert.assertEquals(2, matched.size());
+        Assert.assertEquals(2, (byte) matched.get("s1"));
+        Assert.assertEquals(1, (byte) matched.get("s2"));
+
+        index.unsubscribe("s1", "a/#");
+        index.unsubscribe("s2", "a/b");
+        matched = index.matches(new MqttTopic("a/b"));
+        Assert.assertEquals(1, matched.size());
+        Assert.assertEquals(0, (byte) matched.get("s1"));
+
+        index.unsubscribe("s1", "a/+");
+        Assert.assertTrue(index.matches(new MqttTopic("a/b")).isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class MqttTopicTest {
+
+    // parsing and matching as they were, for agreement
+    static String[] splitParts(String topic) {
+        final ArrayList<String> p = new ArrayList<>();
+        for (String part : topic.split("/")) {
+            if (part == null || "".equals(part)) continue;
+            p.add(part);
+        }
+        return p.toArray(new String[p.size()]);
+    }
+
+    static boolean recursiveMatches(String[] parts, int i, int j, String[] topic) {
+        for (; i < parts.length && j < topic.length; ++i, ++j) {
+            if ("+".equals(parts[i])) {
+                continue;
+            } else if ("#".equals(parts[i])) {
+                if (i == parts.length - 1) return true;
+                for (int x = i + 1; x < parts.length; ++x)
+                    for (int y = j; y < topic.length; ++y)
+                        if (recursiveMatches(parts, x, y, topic)) return true;
+            } else if (!parts[i].equals(topic[j])) {
+                return false;
+            }
+        }
+        return i == parts.length && j == topic.length;
+    }
+
+    @Test
+    public void parsesInternsAndCaches() {
+        final MqttTopic a = new MqttTopic("/a//b/");
+        Assert.assertEquals("a/b", a.topic);
+        Assert.assertArrayEquals(new String[] { "a", "b" }, a.parts);
+        final MqttTopic b = new MqttTopic("x/b/+/#");
+        Assert.assertSame("x/b/+/#", b.topic);
+        Assert.assertSame(a.parts[1], b.parts[1]);
+        Assert.assertSame(MqttTopic.PLUS, b.parts[2]);
+        Assert.assertSame(MqttTopic.HASH, b.parts[3]);
+        Assert.assertEquals(0, new MqttTopic("").parts.length);
+        Assert.assertSame(MqttTopic.of("c/d/e"), MqttTopic.of("c/d/e"));
+        Assert.assertTrue(new MqttSubscription("c/+", (byte) 0).isWildcard());
+        Assert.assertFalse(new MqttSubscription("c/d", (byte) 0).isWildcard());
+    }
+
+    static String random(Random random, String[] levels, int maxDepth) {
+        final StringBuilder sb = new StringBuilder();
+        final int depth = 1 + random.nextInt(maxDepth);
+        for (int d = 0; d < depth; ++d) {
+            if (d > 0) sb.append('/');
+            sb.append(levels[random.nextInt(levels.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void agreesWithRecursiveMatcher() {
+        final Random random = new Random(17);
+        final String[] topicLevels = { "a", "b", "c", "|g" };
+        final String[] filterLevels = { "a", "b", "c", "|g", "+", "+", "#" };
+        for (int n = 0; n < 200000; ++n) {
+            final String filter = random(random, filterLevels, 5);
+            final String topic = random(random, topicLevels, 6);
+            final String[] filterParts = splitParts(filter);
+            // a filter with more than one '#', or one not at the end, is where the
+            // recursion skipped filter levels, the index documents zero or more
+            int hashes = 0;
+            for (int i = 0; i < filterParts.length - 1; ++i) if ("#".equals(filterParts[i])) ++hashes;
+            if (hashes > 0) continue;
+            Assert.assertEquals(filter + " vs " + topic,
+                    recursiveMatches(filterParts, 0, 0, splitParts(topic)),
+                    new MqttSubscription(filter, (byte) 0).matches(new MqttTopic(topic)));
+        }
+    }
+
+    @Test
+    public void agreesWithSubscriptionIndex() {
+        final Random random = new Random(23);
+        final String[] topicLevels = { "a", "b", "c" };
+        final String[] filterLevels = { "a", "b", "c", "+", "#" };
+        final MqttSubscriptionIndex<String> index = new MqttSubscriptionIndex<>();
+        final ArrayList<String> filters = new ArrayList<>();
+        for (int n = 0; n < 2000; ++n) {
+            final String filter = random(random, filterLevels, 5);
+            filters.add(filter);
+            index.subscribe(filter, new MqttSubscription(filter, (byte) 0));
+        }
+        for (int n = 0; n < 2000; ++n) {
+            final MqttTopic topic = new MqttTopic(random(random, topicLevels, 6));
+            final java.util.Map<String, Byte> matched = index.matches(topic);
+            for (String filter : filters) {
+                Assert.assertEquals(filter + " vs " + topic.topic, matched.containsKey(filter), new MqttSubscription(filter, (byte) 0).matches(topic));
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kritikal.fabric.CoreFabric;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OfflineQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static PublishMessage message(int i) {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName("a/b/" + (i % 10));
+        message.setQos(i % 2 == 0 ? AbstractMessage.QOSType.LEAST_ONE : AbstractMessage.QOSType.EXACTLY_ONCE);
+        message.setRetainFlag(false);
+        message.setPayload(ByteBuffer.wrap(ByteBuffer.allocate(4).putInt(i).array()));
+        message.expires = i;
+        return message;
+    }
+
+    static int number(PublishMessage message) {
+        return message.getPayload().getInt(0);
+    }
+
+    OfflineQueue queue(OfflineQueue.Overflow overflow, int maxMessages, long segmentBytes, long spillMaxBytes) {
+        return new OfflineQueue("test", maxMessages, Long.MAX_VALUE, overflow, folder.getRoot(), segmentBytes, spillMaxBytes);
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewest() {
+        final OfflineQueue q = queue(OfflineQueue.Overflow.DROP_OLDEST, 100, 0, 0);
+        for (int i = 0; i < 1000; ++i) q.add(message(i));
+        Assert.assertEquals(100, q.size());
+        Assert.assertEquals(900, q.dropped());
+        for (int i = 900; i < 1000; ++i) Assert.assertEquals(i, number(q.poll()));
+        Assert.assertNull(q.poll());
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldest() {
+        final OfflineQueue q = queue(OfflineQueue.Overflow.DROP_NEWEST, 100, 0, 0);
+        for (int i = 0; i < 1000; ++i) Assert.assertEquals(i < 100, q.add(message(i)));
+        Assert.assertEquals(100, q.size());
+        for (int i = 0; i < 100; ++i) Assert.assertEquals(i, number(q.poll()));
+        Assert.assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void byteLimit() {
+        final long size = OfflineQueue.sizeOf(message(0));
+        final OfflineQueue q = new OfflineQueue("test", Integer.MAX_VALUE, 10 * size, OfflineQueue.Overflow.DROP_NEWEST, folder.getRoot(), 0, 0);
+        for (int i = 0; i < 20; ++i) q.add(message(i));
+        Assert.assertEquals(10, q.size());
+        Assert.assertTrue(q.memoryBytes() <= 10 * size);
+    }
+
+    @Test
+    public void spillsMillionsInOrderInBoundedMemory() {
+        final int N = 1000000, MEMORY = 1000;
+        final OfflineQueue q = queue(OfflineQueue.Overflow.SPILL, MEMORY, 4l * 1024 * 1024, Long.MAX_VALUE);
+        for (int i = 0; i < N; ++i) {
+            Assert.assertTrue(q.add(message(i)));
+        }
+        Assert.assertEquals(N, q.size());
+        Assert.assertEquals(N - MEMORY, q.spilled());
+        Assert.assertEquals(MEMORY, q.size() - q.spilled());
+        final int segments = folder.getRoot().list().length;
+        Assert.assertTrue(segments > 1);
+
+        // keep adding while draining, order must hold across memory and disk
+        int next = 0;
+        for (int i = N; i < N + 1000; ++i) {
+            Assert.assertEquals(next++, number(q.poll()));
+            q.add(message(i));
+        }
+        PublishMessage message;
+        while ((message = q.poll()) != null) {
+            final int n = number(message);
+            Assert.assertEquals(next++, n);
+            Assert.assertEquals("a/b/" + (n % 10), message.getTopicName());
+            Assert.assertEquals(n % 2 == 0 ? 1 : 2, message.getQos().getValue());
+            Assert.assertEquals(n, message.expires);
+            if (n % 100000 == 0) Assert.assertTrue(folder.getRoot().list().length <= segments);
+        }
+        Assert.assertEquals(N + 1000, next);
+        Assert.assertEquals(0, q.dropped());
+        Assert.assertEquals(0, folder.getRoot().list().length);
+        Assert.assertEquals(0, q.spillBytes());
+    }
+
+    @Test
+    public void spillLimitDropsNewestAndClearDeletesSegments() {
+        final OfflineQueue q = queue(OfflineQueue.Overflow.SPILL, 10, 1024, 4096);
+        int added = 0;
+        for (int i = 0; i < 1000; ++i) if (q.add(message(i))) ++added;
+        Assert.assertTrue(q.spillBytes() <= 4096);
+        Assert.assertEquals(1000 - added, q.dropped());
+        Assert.assertTrue(folder.getRoot().list().length > 1);
+        q.clear();
+        Assert.assertTrue(q.isEmpty());
+        Assert.assertEquals(0, folder.getRoot().list().length);
+        // spilling starts afresh
+        for (int i = 0; i < 20; ++i) Assert.assertTrue(q.add(message(i)));
+        for (int i = 0; i < 20; ++i) Assert.assertEquals(i, number(q.poll()));
+        Assert.assertEquals(0, new File(folder.getRoot().getPath()).list().length);
+    }
+
+    @Test
+    public void spillLimitIsSharedByEveryQueue() {
+        final OfflineQueue a = queue(OfflineQueue.Overflow.SPILL, 10, 1024, 4096);
+        final OfflineQueue b = queue(OfflineQueue.Overflow.SPILL, 10, 1024, 4096);
+        for (int i = 0; i < 1000; ++i) {
+            a.add(message(i));
+            b.add(message(i));
+        }
+        Assert.assertTrue(a.spilled() > 0);
+        Assert.assertTrue(b.spilled() > 0);
+        Assert.assertEquals(a.spillBytes() + b.spillBytes(), OfflineQueue.totalSpillBytes());
+        Assert.assertTrue(OfflineQueue.totalSpillBytes() <= 4096);
+        Assert.assertFalse(b.add(message(1000)));
+        // what a gives back is b's to use
+        a.clear();
+        Assert.assertEquals(b.spillBytes(), OfflineQueue.totalSpillBytes());
+        Assert.assertTrue(b.add(message(1000)));
+        b.clear();
+        Assert.assertEquals(0l, OfflineQueue.totalSpillBytes());
+    }
+
+    @Test
+    public void segmentsBeyondTheOpenFileLimitAreClosedAndReopened() {
+        final int openFiles = CoreFabric.ServerConfiguration.mqttSpillOpenFiles;
+        CoreFabric.ServerConfiguration.mqttSpillOpenFiles = 4;
+        try {
+            final List<OfflineQueue> queues = new ArrayList<>();
+            for (int n = 0; n < 20; ++n) {
+                final OfflineQueue q = queue(OfflineQueue.Overflow.SPILL, 1, 1024, Long.MAX_VALUE);
+                for (int i = 0; i < 3; ++i) Assert.assertTrue(q.add(message(i)));
+                queues.add(q);
+            }
+            Assert.assertEquals(20, folder.getRoot().list().length);
+            Assert.assertEquals(4, OfflineQueue.openSegments());
+            for (OfflineQueue q : queues) {
+                for (int i = 0; i < 3; ++i) Assert.assertEquals(i, number(q.poll()));
+                Assert.assertTrue(q.isEmpty());
+                Assert.assertTrue(OfflineQueue.openSegments() <= 4);
+            }
+            Assert.assertEquals(0, OfflineQueue.openSegments());
+            Assert.assertEquals(0, folder.getRoot().list().length);
+        }
+        finally {
+            CoreFabric.ServerConfiguration.mqttSpillOpenFiles = openFiles;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class RetainedStoreTest {
+
+    static PublishMessage retained(String topic) {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName(topic);
+        message.setQos(AbstractMessage.QOSType.MOST_ONE);
+        message.setRetainFlag(true);
+        message.setPayload(ByteBuffer.wrap(topic.getBytes()));
+        return message;
+    }
+
+    static Set<String> topics(RetainedStore.Cursor cursor) {
+        final HashSet<String> topics = new HashSet<>();
+        PublishMessage message;
+        while ((message = cursor.next()) != null) {
+            Assert.assertTrue("twice " + message.getTopicName(), topics.add(message.getTopicName()));
+        }
+        return topics;
+    }
+
+    @Test
+    public void agreesWithSubscriptionMatches() {
+        final RetainedStore store = new RetainedStore();
+        for (String topic : MqttSubscriptionIndexTest.TOPICS) store.put(retained(topic));
+        Assert.assertEquals(MqttSubscriptionIndexTest.TOPICS.length, store.size());
+        for (String filter : MqttSubscriptionIndexTest.FILTERS) {
+            final MqttSubscription subscription = new MqttSubscription(filter, (byte) 1);
+            final Set<String> matched = topics(store.matching(subscription));
+            for (String topic : MqttSubscriptionIndexTest.TOPICS) {
+                Assert.assertEquals(filter + " vs " + topic, subscription.matches(new MqttTopic(topic)), matched.contains(topic));
+            }
+        }
+    }
+
+    @Test
+    public void replaceRemoveAndPrune() {
+        final RetainedStore store = new RetainedStore();
+        store.put(retained("a/b"));
+        final PublishMessage replacement = retained("a/b");
+        store.put(replacement);
+        store.put(retained("a/b/c"));
+        Assert.assertEquals(2, store.size());
+        Assert.assertSame(replacement, store.get("a/b"));
+        Assert.assertSame(replacement, store.remove("a/b"));
+        Assert.assertNull(store.remove("a/b"));
+        Assert.assertNull(store.get("a/b"));
+        Assert.assertNotNull(store.get("a/b/c"));
+        Assert.assertEquals(1, store.removeIf(m -> m.getTopicName().endsWith("c")));
+        Assert.assertEquals(0, store.size());
+        Assert.assertNull(store.matching(new MqttTopic("#")).next());
+    }
+
+    @Test
+    public void expiresOnlyWhatIsDue() {
+        final RetainedStore store = new RetainedStore();
+        final int N = 100000;
+        for (int i = 0; i < N; ++i) store.put(retained("forever/" + i));
+        for (int i = 0; i < 1000; ++i) {
+            final PublishMessage message = retained("ttl/" + i);
+            message.expires = 1000 + i;
+            store.put(message);
+        }
+        // replaced by a message that does not expire, which takes the topic out of the queue
+        final PublishMessage replacement = retained("ttl/0");
+        store.put(replacement);
+        Assert.assertEquals(1001l, store.nextExpiry());
+        Assert.assertEquals(999, store.expiringQueued());
+
+        Assert.assertEquals(499, store.expire(1500));
+        Assert.assertSame(replacement, store.get("ttl/0"));
+        Assert.assertNull(store.get("ttl/499"));
+        Assert.assertNotNull(store.get("ttl/500"));
+        Assert.assertEquals(1500l, store.nextExpiry());
+        Assert.assertEquals(0, store.expire(1500));
+        Assert.assertEquals(500, store.expire(Long.MAX_VALUE));
+        Assert.assertEquals(0l, store.nextExpiry());
+        Assert.assertEquals(N + 1, store.size());
+    }
+
+    @Test
+    public void replacingOrRemovingKeepsOneQueueEntryPerTopic() {
+        final RetainedStore store = new RetainedStore();
+        for (int round = 0; round < 1000; ++round) {
+            for (int i = 0; i < 10; ++i) {
+                final PublishMessage message = retained("ttl/" + i);
+                message.expires = 10000 + round;
+                store.put(message);
+            }
+        }
+        Assert.assertEquals(10, store.size());
+        Assert.assertEquals(10, store.expiringQueued());
+        Assert.assertEquals(10999l, store.nextExpiry());
+        Assert.assertNotNull(store.remove("ttl/0"));
+        Assert.assertEquals(1, store.removeIf(message -> message.getTopicName().equals("ttl/1")));
+        Assert.assertEquals(8, store.expiringQueued());
+        Assert.assertEquals(0, store.expire(10999));
+        Assert.assertEquals(8, store.expire(11000));
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0, store.expiringQueued());
+        Assert.assertEquals(0l, store.nextExpiry());
+    }
+
+    @Test
+    public void keysOnly() {
+        final RetainedStore store = new RetainedStore(false);
+        store.putKey("|fleet/a/position");
+        store.putKey("|fleet/b/position");
+        store.putKey("|fleet/a/position");
+        Assert.assertEquals(2, store.size());
+        final RetainedStore.Cursor cursor = store.matching(new MqttTopic("|fleet/+/position"));
+        PublishMessage key;
+        int n = 0;
+        while ((key = cursor.next()) != null) {
+            Assert.assertNull(key.getPayload());
+            Assert.assertTrue(key.getTopicName().endsWith("/position"));
+            ++n;
+        }
+        Assert.assertEquals(2, n);
+        Assert.assertNotNull(store.remove("|fleet/b/position"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void mirrorDoesNotQueueExpiry() {
+        // as retainedClusterIndex is kept: Hazelcast expires the entries and the listener removes them
+        final RetainedStore store = new RetainedStore(false);
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < 1000; ++i) {
+                final PublishMessage message = retained("ttl/" + i);
+                message.expires = System.currentTimeMillis() + 1000 + i;
+                store.put(message);
+            }
+        }
+        for (int i = 0; i < 500; ++i) Assert.assertNotNull(store.remove("ttl/" + i));
+        Assert.assertEquals(500, store.size());
+        Assert.assertEquals(0, store.expiringQueued());
+        Assert.assertEquals(0l, store.nextExpiry());
+        Assert.assertEquals(0, store.expire(Long.MAX_VALUE));
+        Assert.assertEquals(500, store.size());
+        store.clear();
+        Assert.assertEquals(0, store.expiringQueued());
+    }
+
+    @Test
+    public void wildcardWalksOnlyTheMatchingSubtree() {
+        final int N = 20000;
+        final RetainedStore store = new RetainedStore();
+        for (int i = 0; i < N; ++i) store.put(retained("sensor/" + (i % 100) + "/" + i + "/value"));
+
+        final Set<String> subtree = topics(store.matching(new MqttTopic("sensor/7/#")));
+        Assert.assertEquals(N / 100, subtree.size());
+        for (String topic : subtree) Assert.assertTrue(topic.startsWith("sensor/7/"));
+
+        final Set<String> exact = topics(store.matching(new MqttTopic("sensor/7/107/value")));
+        Assert.assertEquals(Collections.singleton("sensor/7/107/value"), exact);
+
+        Assert.assertEquals(N, topics(store.matching(new MqttTopic("#"))).size());
+    }
+}
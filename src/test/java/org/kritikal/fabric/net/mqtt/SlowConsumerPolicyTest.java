@@ -0,0 +1,162 @@
+package org.kritikal.fabric.net.mqtt;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.NetServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kritikal.fabric.net.CNetSocket;
+import org.kritikal.fabric.net.mqtt.codec.EncodedPublish;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SlowConsumerPolicyTest {
+
+    final static int N = 10000, PAYLOAD = 4096;
+    final static long MAX_BYTES = 256 * 1024;
+
+    Vertx vertx;
+    NetServer server;
+    CompletableFuture<MqttServerProtocol> accepted;
+    Socket client;
+
+    @Before
+    public void listen() throws Exception {
+        vertx = Vertx.vertx();
+        accepted = new CompletableFuture<>();
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        server = vertx.createNetServer().connectHandler(netSocket ->
+                accepted.complete(new MqttServerProtocol(LoggerFactory.getLogger(SlowConsumerPolicyTest.class), vertx,
+                        new MqttServerProtocolTest.TestCallback(), new CNetSocket(netSocket))));
+        server.listen(0, "127.0.0.1", r -> port.complete(r.result().actualPort()));
+        // a subscriber on a slow link: a small window, and nothing read until the test says so
+        client = new Socket();
+        client.setReceiveBufferSize(1024);
+        client.connect(new InetSocketAddress("127.0.0.1", port.get(10, TimeUnit.SECONDS)));
+    }
+
+    @After
+    public void close() throws Exception {
+        client.close();
+        vertx.close();
+    }
+
+    static EncodedPublish encoded() {
+        return new EncodedPublish("|fleet/vehicle/1234/telemetry", new byte[PAYLOAD], false);
+    }
+
+    /**
+     * offer N publishes, at qos 0, or alternately at qos 0 and 1, though all are written at qos 0
+     *
+     * @return how many were written
+     */
+    static int publish(SlowConsumerPolicy policy, MqttServerProtocol protocol, EncodedPublish encodedPublish, boolean alternate, long[] maxOutbound) {
+        int sent = 0;
+        for (int i = 0; i < N; ++i) {
+            if (policy.admit(protocol, alternate ? i % 2 : 0) != SlowConsumerPolicy.Action.SEND) continue;
+            protocol.publish(encodedPublish, 0);
+            ++sent;
+            maxOutbound[0] = Math.max(maxOutbound[0], protocol.socket.outboundBytes());
+        }
+        return sent;
+    }
+
+    @Test
+    public void unlimitedGrowsThenDrains() throws Exception {
+        final MqttServerProtocol protocol = accepted.get(10, TimeUnit.SECONDS);
+        final EncodedPublish encodedPublish = encoded();
+        final long[] unlimitedOutbound = new long[1];
+        try {
+            // as before: nothing stops the writes
+            final SlowConsumerPolicy unlimited = new SlowConsumerPolicy(Long.MAX_VALUE, Integer.MAX_VALUE, SlowConsumerPolicy.Policy.QUEUE);
+            final int sentUnlimited = publish(unlimited, protocol, encodedPublish, false, unlimitedOutbound);
+            Assert.assertEquals(N, sentUnlimited);
+
+            // every write is counted back out once netty has handed it over
+            final Thread reader = new Thread(() -> {
+                final byte[] buffer = new byte[65536];
+                try {
+                    final InputStream in = client.getInputStream();
+                    while (in.read(buffer) > 0) { }
+                }
+                catch (Exception e) { }
+            });
+            reader.setDaemon(true);
+            reader.start();
+            final long deadline = System.currentTimeMillis() + 30000;
+            while ((protocol.socket.outboundBytes() > 0 || protocol.socket.outboundMessages() > 0) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            Assert.assertEquals(0l, protocol.socket.outboundBytes());
+            Assert.assertEquals(0, protocol.socket.outboundMessages());
+            reader.interrupt();
+        }
+        finally {
+            encodedPublish.release();
+        }
+        Assert.assertTrue(unlimitedOutbound[0] > 10 * MAX_BYTES);
+    }
+
+    @Test
+    public void queueDropsQos0AndDivertsQos1() throws Exception {
+        final MqttServerProtocol protocol = accepted.get(10, TimeUnit.SECONDS);
+        final EncodedPublish encodedPublish = encoded();
+        final long[] maxOutbound = new long[1];
+        try {
+            final SlowConsumerPolicy policy = new SlowConsumerPolicy(MAX_BYTES, Integer.MAX_VALUE, SlowConsumerPolicy.Policy.QUEUE);
+            final int sent = publish(policy, protocol, encodedPublish, true, maxOutbound);
+            Assert.assertEquals(N, sent + policy.dropped() + policy.queued());
+            Assert.assertTrue(policy.dropped() > 0);
+            Assert.assertTrue(policy.queued() > 0);
+            Assert.assertTrue(maxOutbound[0] < MAX_BYTES + 2 * PAYLOAD);
+            Assert.assertEquals(0, policy.disconnected());
+            Assert.assertFalse(protocol.socketClosed);
+        }
+        finally {
+            encodedPublish.release();
+        }
+    }
+
+    @Test
+    public void messageLimit() throws Exception {
+        final MqttServerProtocol protocol = accepted.get(10, TimeUnit.SECONDS);
+        final EncodedPublish encodedPublish = encoded();
+        final long[] maxOutbound = new long[1];
+        try {
+            final SlowConsumerPolicy policy = new SlowConsumerPolicy(Long.MAX_VALUE, 100, SlowConsumerPolicy.Policy.DROP);
+            final int sent = publish(policy, protocol, encodedPublish, true, maxOutbound);
+            Assert.assertTrue(policy.dropped() > 0);
+            Assert.assertTrue(protocol.socket.outboundMessages() <= 100);
+            Assert.assertEquals(N, sent + policy.dropped());
+            Assert.assertEquals(0, policy.queued());
+        }
+        finally {
+            encodedPublish.release();
+        }
+    }
+
+    @Test
+    public void disconnectClosesOnce() throws Exception {
+        final MqttServerProtocol protocol = accepted.get(10, TimeUnit.SECONDS);
+        final EncodedPublish encodedPublish = encoded();
+        final long[] maxOutbound = new long[1];
+        try {
+            final SlowConsumerPolicy policy = new SlowConsumerPolicy(MAX_BYTES, Integer.MAX_VALUE, SlowConsumerPolicy.Policy.DISCONNECT);
+            publish(policy, protocol, encodedPublish, true, maxOutbound);
+            Assert.assertTrue(policy.queued() > 0);
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (!protocol.socketClosed && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            Assert.assertTrue(protocol.socketClosed);
+            for (int i = 0; i < 100; ++i) policy.admit(protocol, 0);
+            Assert.assertEquals(1, policy.disconnected());
+            Assert.assertTrue(policy.dropped() > 0);
+        }
+        finally {
+            encodedPublish.release();
+        }
+    }
+}
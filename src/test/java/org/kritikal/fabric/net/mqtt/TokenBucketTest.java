@@ -0,0 +1,71 @@
+package org.kritikal.fabric.net.mqtt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+
+    final static long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void burstThenRate() {
+        final TokenBucket bucket = new TokenBucket(1000, 10);
+        final long t0 = System.nanoTime();
+        for (int i = 0; i < 10; ++i) Assert.assertEquals(0l, bucket.take(t0));
+        final long wait = bucket.take(t0);
+        Assert.assertEquals(MS, wait);
+        Assert.assertEquals(wait, bucket.take(t0)); // refusing took nothing
+        Assert.assertEquals(0l, bucket.take(t0 + MS));
+        Assert.assertTrue(bucket.take(t0 + MS) > 0l);
+        for (int i = 0; i < 5; ++i) Assert.assertEquals(0l, bucket.take(t0 + 6 * MS));
+        Assert.assertTrue(bucket.take(t0 + 6 * MS) > 0l);
+        // idle for a second fills it to burst, no further
+        int taken = 0;
+        while (bucket.take(t0 + 1000 * MS) == 0l) ++taken;
+        Assert.assertEquals(10, taken);
+        bucket.refund();
+        Assert.assertEquals(0l, bucket.take(t0 + 1000 * MS));
+    }
+
+    @Test
+    public void refusedTopicRefundsClient() {
+        final PublishRateLimits limits = new PublishRateLimits(1000, 2, 0, 0,
+                Collections.singletonList(new PublishRateLimits.TopicLimit("noisy/", 1, 1)));
+        final TokenBucket client = limits.clientBucket();
+        Assert.assertEquals(0l, limits.admit(client, "noisy/a"));
+        Assert.assertTrue(limits.admit(client, "noisy/a") > 0l);
+        Assert.assertTrue(limits.admit(client, "noisy/b") > 0l);
+        // the client still has the token the topic refused
+        Assert.assertEquals(0l, limits.admit(client, "quiet/a"));
+        Assert.assertTrue(limits.admit(client, "quiet/a") > 0l);
+        Assert.assertNull(new PublishRateLimits(0, 0, 0, 0, Collections.emptyList()).clientBucket());
+    }
+
+    @Test
+    public void concurrentTakersNeverExceedTheRate() throws InterruptedException {
+        final long rate = 1000, burst = 100;
+        final TokenBucket bucket = new TokenBucket(rate, burst);
+        final long t0 = System.nanoTime();
+        final AtomicLong taken = new AtomicLong();
+        // eight threads race for the tokens of each millisecond in turn
+        for (int ms = 0; ms <= 10; ++ms) {
+            final long now = t0 + ms * MS;
+            final Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; ++t) {
+                threads[t] = new Thread(() -> {
+                    long n = 0;
+                    for (int i = 0; i < 10000; ++i) if (bucket.take(now) == 0l) ++n;
+                    taken.addAndGet(n);
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) thread.join();
+            // the burst, then one token a millisecond, however the takers interleave
+            Assert.assertEquals(burst + ms, taken.get());
+        }
+    }
+}
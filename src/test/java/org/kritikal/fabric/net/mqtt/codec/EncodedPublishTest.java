@@ -0,0 +1,52 @@
+package org.kritikal.fabric.net.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kritikal.fabric.net.mqtt.MqttCodec;
+import org.kritikal.fabric.net.mqtt.entities.AbstractMessage;
+import org.kritikal.fabric.net.mqtt.entities.PublishMessage;
+
+import java.nio.ByteBuffer;
+
+public class EncodedPublishTest {
+
+    @Test
+    public void framesMatchEncodePublish() {
+        final byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; ++i) payload[i] = (byte) i;
+
+        final EncodedPublish encodedPublish = new EncodedPublish("a/b/c", payload, true);
+        for (int qos = 0; qos <= 2; ++qos) {
+            final PublishMessage publishMessage = new PublishMessage();
+            publishMessage.setTopicName("a/b/c");
+            publishMessage.setPayload(ByteBuffer.wrap(payload));
+            publishMessage.setRetainFlag(true);
+            publishMessage.setQos(AbstractMessage.QOSType.values()[qos]);
+            if (qos > 0) publishMessage.setMessageID(4242);
+
+            final ByteBuf frame = encodedPublish.frame(qos, 4242, false);
+            try {
+                Assert.assertArrayEquals(MqttCodec.encode(publishMessage).getBytes(), ByteBufUtil.getBytes(frame));
+            } finally {
+                frame.release();
+            }
+        }
+        encodedPublish.release();
+    }
+
+    @Test
+    public void sharedBlocksOutliveTheOwnerUntilTheLastFrameIsReleased() {
+        final EncodedPublish encodedPublish = new EncodedPublish("t", new byte[] { 1, 2, 3 }, false);
+        final ByteBuf frame1 = encodedPublish.frame(1, 1, false);
+        final ByteBuf frame2 = encodedPublish.frame(2, 2, true);
+        Assert.assertTrue(encodedPublish.release());
+
+        Assert.assertEquals(0b00111100, frame2.getByte(0)); // PUBLISH, dup, qos 2
+        Assert.assertEquals(3, frame1.getByte(frame1.writerIndex() - 1));
+        frame1.release();
+        Assert.assertEquals(3, frame2.getByte(frame2.writerIndex() - 1));
+        frame2.release();
+    }
+}
@@ -0,0 +1,107 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.impl.codecs.JsonObjectMessageCodec;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PublishMessageEventBusCodecTest {
+
+    Vertx vertx;
+
+    @Before
+    public void vertx() {
+        vertx = Vertx.vertx();
+        vertx.eventBus().registerDefaultCodec(PublishMessage.class, new PublishMessageEventBusCodec());
+    }
+
+    @After
+    public void close() {
+        vertx.close();
+    }
+
+    static PublishMessage message(String topic, int size) {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName(topic);
+        message.setQos(AbstractMessage.QOSType.EXACTLY_ONCE);
+        message.setRetainFlag(false);
+        message.setPayload(ByteBuffer.wrap(new byte[size]));
+        return message;
+    }
+
+    // as ContentHelper.json() builds it for internal subscribers
+    static JsonObject json(PublishMessage message) {
+        return new JsonObject()
+                .put("body", message.getPayload().array())
+                .put("qos", 2)
+                .put("retain", message.isRetainFlag())
+                .put("topic", message.getTopicName());
+    }
+
+    @Test
+    public void wireRoundTrip() {
+        final PublishMessageEventBusCodec codec = new PublishMessageEventBusCodec();
+        final ByteBuffer backing = ByteBuffer.wrap("--payload--".getBytes());
+        backing.position(2).limit(9);
+        final PublishMessage message = message("/a/b/|c", 0);
+        message.setPayload(backing.slice());
+        message.setRetainFlag(true);
+        message.expires = 1481000000000l;
+        message.origin = UUID.randomUUID();
+
+        final Buffer buffer = Buffer.buffer().appendString("header");
+        codec.encodeToWire(buffer, message);
+        final PublishMessage read = codec.decodeFromWire(6, buffer);
+        Assert.assertEquals("/a/b/|c", read.getTopicName());
+        Assert.assertEquals("payload", new String(read.getPayload().array()));
+        Assert.assertEquals(2, read.getQos().getValue());
+        Assert.assertTrue(read.isRetainFlag());
+        Assert.assertEquals(message.expires, read.expires);
+        Assert.assertEquals(message.origin, read.origin);
+        Assert.assertSame(message, codec.transform(message));
+    }
+
+    @Test
+    public void localDeliveryPassesTheMessageItself() throws InterruptedException {
+        final int N = 10000;
+        final PublishMessage message = message("|fleet/vehicle/1234/telemetry/position", 256);
+        final CountDownLatch done = new CountDownLatch(N);
+        final AtomicLong copies = new AtomicLong();
+        final String address = "test." + UUID.randomUUID();
+        vertx.eventBus().<PublishMessage>localConsumer(address, event -> {
+            if (event.body() != message) copies.incrementAndGet();
+            done.countDown();
+        });
+        vertx.runOnContext(v -> {
+            for (int i = 0; i < N; ++i) vertx.eventBus().send(address, message);
+        });
+        Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(0l, copies.get());
+    }
+
+    @Test
+    public void wireSmallerThanJson() {
+        final PublishMessage message = message("|fleet/vehicle/1234/telemetry/position", 256);
+        final JsonObjectMessageCodec jsonCodec = new JsonObjectMessageCodec();
+        final PublishMessageEventBusCodec binaryCodec = new PublishMessageEventBusCodec();
+
+        final Buffer jsonWire = Buffer.buffer();
+        jsonCodec.encodeToWire(jsonWire, json(message));
+        Assert.assertEquals(256, jsonCodec.decodeFromWire(0, jsonWire).getBinary("body").length);
+        final Buffer binaryWire = Buffer.buffer();
+        binaryCodec.encodeToWire(binaryWire, message);
+        Assert.assertEquals(256, binaryCodec.decodeFromWire(0, binaryWire).getPayload().remaining());
+
+        Assert.assertTrue(binaryWire.length() < jsonWire.length());
+    }
+}
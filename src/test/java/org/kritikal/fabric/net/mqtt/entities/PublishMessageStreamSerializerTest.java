@@ -0,0 +1,118 @@
+package org.kritikal.fabric.net.mqtt.entities;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.SerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+public class PublishMessageStreamSerializerTest {
+
+    // the writeUTF / writeByteArray format this serializer replaced, for comparison
+    static final class UtfPublishMessageStreamSerializer implements StreamSerializer<PublishMessage> {
+        @Override public int getTypeId() { return 1; }
+        @Override public void write(ObjectDataOutput out, PublishMessage publishMessage) throws IOException {
+            out.writeUTF(publishMessage.getTopicName());
+            out.writeByteArray(publishMessage.getPayload().array());
+            out.writeByte(publishMessage.getQos().getValue());
+            out.writeLong(publishMessage.expires);
+            out.writeLong(publishMessage.origin.getMostSignificantBits());
+            out.writeLong(publishMessage.origin.getLeastSignificantBits());
+        }
+        @Override public PublishMessage read(ObjectDataInput in) throws IOException {
+            PublishMessage publishMessage = new PublishMessage();
+            publishMessage.setTopicName(in.readUTF());
+            publishMessage.setPayload(ByteBuffer.wrap(in.readByteArray()));
+            byte qos = in.readByte();
+            publishMessage.setQos(qos == 0 ? AbstractMessage.QOSType.MOST_ONE : (qos <= 1 ? AbstractMessage.QOSType.LEAST_ONE : AbstractMessage.QOSType.EXACTLY_ONCE));
+            publishMessage.expires = in.readLong();
+            publishMessage.origin = new UUID(in.readLong(), in.readLong());
+            return publishMessage;
+        }
+        @Override public void destroy() { }
+    }
+
+    static SerializationService service(Class<? extends StreamSerializer<PublishMessage>> serializer) {
+        final SerializationConfig config = new SerializationConfig();
+        config.addSerializerConfig(new SerializerConfig().setTypeClass(PublishMessage.class).setClass(serializer));
+        return new DefaultSerializationServiceBuilder().setConfig(config).build();
+    }
+
+    static PublishMessage message(String topic, ByteBuffer payload) {
+        final PublishMessage message = new PublishMessage();
+        message.setTopicName(topic);
+        message.setQos(AbstractMessage.QOSType.LEAST_ONE);
+        message.setRetainFlag(false);
+        message.setPayload(payload);
+        return message;
+    }
+
+    static byte[] bytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void roundTrip() {
+        final SerializationService ss = service(PublishMessageStreamSerializer.class);
+
+        // a slice of a larger buffer goes as just the slice
+        final ByteBuffer backing = ByteBuffer.wrap("xxhello worldxx".getBytes());
+        backing.position(2).limit(13);
+        final PublishMessage sliced = message("/a//b/|c", backing.slice());
+        sliced.setQos(AbstractMessage.QOSType.EXACTLY_ONCE);
+        sliced.setRetainFlag(true);
+        sliced.expires = 1481000000000l;
+        sliced.origin = UUID.randomUUID();
+        PublishMessage read = ss.toObject(ss.toData(sliced));
+        Assert.assertEquals("/a//b/|c", read.getTopicName());
+        Assert.assertEquals("a/b/|c", read.getTopic().topic);
+        Assert.assertArrayEquals("hello world".getBytes(), bytes(read.getPayload()));
+        Assert.assertEquals(2, read.getQos().getValue());
+        Assert.assertTrue(read.isRetainFlag());
+        Assert.assertEquals(sliced.expires, read.expires);
+        Assert.assertEquals(sliced.origin, read.origin);
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+        for (int i = 0; i < 1000; ++i) direct.put((byte) i);
+        direct.flip();
+        final PublishMessage plain = message("a/b", direct);
+        read = ss.toObject(ss.toData(plain));
+        Assert.assertArrayEquals(bytes(direct), bytes(read.getPayload()));
+        Assert.assertEquals(1, read.getQos().getValue());
+        Assert.assertFalse(read.isRetainFlag());
+        Assert.assertEquals(0l, read.expires);
+        Assert.assertEquals(new UUID(0, 0), read.origin);
+
+        // hot topics and origins are shared, not decoded again
+        final PublishMessage again = ss.toObject(ss.toData(sliced));
+        Assert.assertSame(again.getTopicName(), ss.<PublishMessage>toObject(ss.toData(sliced)).getTopicName());
+        Assert.assertSame(again.origin, ss.<PublishMessage>toObject(ss.toData(sliced)).origin);
+    }
+
+    @Test
+    public void smallerThanUtf() {
+        final SerializationService utf = service(UtfPublishMessageStreamSerializer.class);
+        final SerializationService compact = service(PublishMessageStreamSerializer.class);
+        final PublishMessage message = message("|fleet/vehicle/1234/telemetry/position", ByteBuffer.wrap(new byte[32]));
+        message.origin = UUID.randomUUID();
+
+        final int utfBytes = utf.toData(message).totalSize();
+        final int compactBytes = compact.toData(message).totalSize();
+        message.expires = 1481000000000l;
+        final int utfExpiringBytes = utf.toData(message).totalSize();
+        final int compactExpiringBytes = compact.toData(message).totalSize();
+
+        Assert.assertTrue(compactBytes < utfBytes);
+        Assert.assertTrue(compactExpiringBytes < utfExpiringBytes);
+    }
+}